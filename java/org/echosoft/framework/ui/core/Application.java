@@ -14,6 +14,7 @@ import org.echosoft.framework.ui.core.spi.CleanStrategies;
 import org.echosoft.framework.ui.core.spi.ContextFactory;
 import org.echosoft.framework.ui.core.spi.GZIPStateSerializer;
 import org.echosoft.framework.ui.core.spi.StateSerializer;
+import org.echosoft.framework.ui.core.spi.Utf8JsonWriter;
 import org.echosoft.framework.ui.core.spi.generic.ServletUIContextFactory;
 import org.echosoft.framework.ui.core.theme.ThemeManager;
 
@@ -48,6 +49,25 @@ public class Application {
      */
     public static String RESOURCES_SERVLET_CONTEXT = "/resource";
 
+    /**
+     * Если <code>true</code> то ссылки на ресурсы темы формируются в пространстве <code>/min</code> сервлета ресурсов, т.е. клиентам
+     * отдаются javascript файлы и таблицы стилей из которых удалены комментарии и незначащие пробелы.
+     * Исходные версии ресурсов по-прежнему доступны по обычным ссылкам (например для отладки).
+     */
+    public static boolean MINIFY_THEME_RESOURCES = false;
+
+    /**
+     * Значение по умолчанию признака {@link Page#isEarlyFlush()} для всех страниц приложения.
+     */
+    public static boolean EARLY_FLUSH_PAGES = false;
+
+    /**
+     * Если <code>true</code> то ссылки на ресурсы темы включают в себя хэш от содержимого ресурса
+     * (см. {@link org.echosoft.framework.ui.core.spi.Constants#FINGERPRINT_PREFIX}). Такие ссылки изменяются при каждом изменении
+     * содержимого ресурса, поэтому ресурсы по ним кэшируются клиентами неограниченно долго и не требуют повторных проверок актуальности.
+     */
+    public static boolean FINGERPRINT_THEME_RESOURCES = true;
+
     /**
      * Путь к сервлету отвечающему за отправку клиенту данных в формате AJAX.
      */
@@ -66,6 +86,8 @@ public class Application {
     private static final HashMap<String, CleanStrategy> strategies;
     private static StateSerializer stateSerializer;
     private static ContextFactory contextFactory;
+    private static PageCache pageCache;
+    private static ComponentCache componentCache;
 
     static {
         DEFAULT_LOCALE = new Locale("ru", "");
@@ -97,7 +119,10 @@ public class Application {
         registerCleanStrategy(CleanStrategies.PKG);
         registerCleanStrategy(CleanStrategies.RANK);
         setStateSerializer( new GZIPStateSerializer() );
+        jsonContext.setWriterFactory( new Utf8JsonWriter.Factory(jsonContext.getWriterFactory()) );
         setContextFactory( new ServletUIContextFactory() );
+        setPageCache( new PageCache(16*1024*1024, 0) );
+        setComponentCache( new ComponentCache(8*1024*1024) );
     }
 
     /**
@@ -133,6 +158,38 @@ public class Application {
         stateSerializer = serializer;
     }
 
+    /**
+     * Возвращает кэш результатов рендеринга статичных страниц (см. {@link Page#isStatic()}).
+     * @return  кэш статичных страниц или <code>null</code> если кэширование страниц отключено.
+     */
+    public static PageCache getPageCache() {
+        return pageCache;
+    }
+
+    /**
+     * Определяет кэш результатов рендеринга статичных страниц. По умолчанию используется кэш объемом 16Мб без ограничения времени жизни страниц.
+     * @param cache  кэш статичных страниц или <code>null</code> для отключения кэширования страниц.
+     */
+    public static void setPageCache(final PageCache cache) {
+        pageCache = cache;
+    }
+
+    /**
+     * Возвращает кэш JSON моделей замороженных компонент.
+     * @return  кэш замороженных компонент или <code>null</code> если кэширование компонент отключено.
+     */
+    public static ComponentCache getComponentCache() {
+        return componentCache;
+    }
+
+    /**
+     * Определяет кэш JSON моделей замороженных компонент. По умолчанию используется кэш объемом 8Мб.
+     * @param cache  кэш замороженных компонент или <code>null</code> для отключения кэширования компонент.
+     */
+    public static void setComponentCache(final ComponentCache cache) {
+        componentCache = cache;
+    }
+
     /**
      * Определяет алгоритм конструирования экземпляров {@link UIContext}.
      * @param contextFactory  класс, реализующий стратегию конструирования экземпляров {@link UIContext}
@@ -0,0 +1,230 @@
+package org.echosoft.framework.ui.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.echosoft.common.io.FastStringWriter;
+import org.echosoft.common.json.JsonContext;
+import org.echosoft.common.json.JsonWriter;
+import org.echosoft.framework.ui.core.theme.Theme;
+
+/**
+ * Кэш сериализованных в JSON фрагментов "замороженных" компонент, т.е. компонент, чья модель (включая модели всех вложенных компонент)
+ * определяется лишь классом и идентификатором компонента, страницей (пакетом и идентификатором текущего состояния, см. {@link ViewStateDescriptor}),
+ * темой, локалью и объявленной версией компонента.
+ * <p>Вместе с JSON фрагментом запоминаются ресурсы, подключенные к странице при рендеринге компонента. При последующих обращениях
+ * фрагмент выводится в поток без повторной сериализации компонента, а запомненные ресурсы заново подключаются к странице.
+ * Ресурсы, которые были подключены к странице еще до рендеринга компонента, при этом не запоминаются, поэтому заморожены могут быть
+ * лишь компоненты страниц с неизменной структурой.</p>
+ * <p>Если в процессе рендеринга замороженного компонента выясняется что модель какого-либо из вложенных компонент зависит от
+ * текущего запроса (см. {@link #markVolatile()}), то полученный фрагмент в кэш не помещается.</p>
+ * Общий объем хранимых в кэше фрагментов ограничен бюджетом, задаваемым в байтах. При его превышении из кэша вытесняются наиболее
+ * давно запрошенные фрагменты (LRU).
+ *
+ * @author Anton Sharapov
+ */
+public final class ComponentCache {
+
+    private static final ThreadLocal<Recording> recordings = new ThreadLocal<Recording>();
+
+    private final long capacity;
+    private final LinkedHashMap<String,Fragment> entries;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+    private long size;
+
+    /**
+     * @param capacity  максимальный суммарный объем (в байтах) хранимых в кэше фрагментов.
+     */
+    public ComponentCache(final long capacity) {
+        if (capacity<0)
+            throw new IllegalArgumentException("Invalid component cache capacity");
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<String,Fragment>(256, 0.75f, true);
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+        this.evictions = new AtomicLong(0);
+    }
+
+    /**
+     * Сообщает что модель рендерящегося в настоящий момент в текущем потоке компонента зависит от текущего запроса
+     * (например от сохраненных состояний страницы). Результаты рендеринга всех замороженных компонент, в которые вложен
+     * данный компонент, не будут помещены в кэш.
+     */
+    public static void markVolatile() {
+        final Recording recording = recordings.get();
+        if (recording!=null)
+            recording.volatileContent = true;
+    }
+
+    /**
+     * Возвращает JSON модель замороженного компонента. Если модель отсутствует в кэше, то компонент рендерится и результат помещается в кэш.
+     * @param component  замороженный компонент.
+     * @param version  объявленная версия компонента. Изменение версии приводит к повторному рендерингу компонента.
+     * @param jctx  контекст, используемый для сериализации компонента в JSON.
+     * @return  JSON модель компонента.
+     * @throws Exception  в случае каких-либо проблем при рендеринге компонента.
+     */
+    public String render(final UIComponent component, final String version, final JsonContext jctx) throws Exception {
+        final ComponentContext ctx = component.getContext();
+        final Resources resources = ctx.getResources();
+        final String key = makeKey(component, version);
+        Fragment fragment = get(key);
+        if (fragment!=null) {
+            hits.incrementAndGet();
+            resources.attachAll(fragment.resources);
+            return fragment.json;
+        }
+        misses.incrementAndGet();
+        final Recording parent = recordings.get();
+        final Recording recording = new Recording();
+        recordings.set(recording);
+        try {
+            final Resources.SavePoint sp = resources.makeSavePoint();
+            final FastStringWriter buf = new FastStringWriter(1024);
+            final JsonWriter jw = jctx.makeJsonWriter(buf);
+            component.invoke(jw);
+            fragment = new Fragment(buf.toString(), resources.getChanges(sp));
+        } finally {
+            recordings.set(parent);
+        }
+        if (recording.volatileContent) {
+            if (parent!=null)
+                parent.volatileContent = true;
+        } else
+            put(key, fragment);
+        return fragment.json;
+    }
+
+    /**
+     * Удаляет из кэша все фрагменты. Накопленная статистика при этом сохраняется.
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Удаляет из кэша все фрагменты компонент указанного класса.
+     * @param componentClass  класс компонента.
+     */
+    public synchronized void invalidate(final Class<? extends UIComponent> componentClass) {
+        final String prefix = componentClass.getName() + '|';
+        for (Iterator<Map.Entry<String,Fragment>> it=entries.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<String,Fragment> entry = it.next();
+            if (entry.getKey().startsWith(prefix)) {
+                it.remove();
+                size -= entry.getValue().weight;
+            }
+        }
+    }
+
+    /**
+     * @return  максимальный суммарный объем (в байтах) хранимых в кэше фрагментов.
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return  суммарный объем (в байтах) хранимых в настоящий момент в кэше фрагментов.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return  количество фрагментов, хранимых в настоящий момент в кэше.
+     */
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return  количество обращений к кэшу, обслуженных без рендеринга компонента.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return  количество обращений к фрагментам, отсутствовавшим в кэше.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return  количество фрагментов, вытесненных из кэша в связи с нехваткой места.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "[ComponentCache{count:"+getCount()+", size:"+getSize()+", capacity:"+capacity+", hits:"+getHits()+", misses:"+getMisses()+", evictions:"+getEvictions()+"}]";
+    }
+
+
+    private static String makeKey(final UIComponent component, final String version) {
+        final ComponentContext ctx = component.getContext();
+        final ViewStateDescriptor view = ctx.getViewDescriptor();
+        final Theme theme = ctx.getTheme();
+        final StringBuilder buf = new StringBuilder(128);
+        buf.append(component.getClass().getName()).append('|');
+        if (view!=null)
+            buf.append(view.getPackage()).append('#').append(view.getView());
+        buf.append('|').append(ctx.getClientId())
+           .append('|').append(theme!=null ? theme.getName() : null).append('|').append(ctx.getLocale())
+           .append('|').append(version);
+        return buf.toString();
+    }
+
+    private synchronized Fragment get(final String key) {
+        return entries.get(key);
+    }
+
+    private synchronized void put(final String key, final Fragment fragment) {
+        if (fragment.weight>capacity)
+            return;
+        final Fragment prev = entries.put(key, fragment);
+        size += fragment.weight;
+        if (prev!=null)
+            size -= prev.weight;
+        for (Iterator<Fragment> it=entries.values().iterator(); size>capacity && it.hasNext(); ) {
+            final Fragment victim = it.next();
+            if (victim==fragment)
+                continue;
+            it.remove();
+            size -= victim.weight;
+            evictions.incrementAndGet();
+        }
+    }
+
+
+    /**
+     * Закэшированная модель компонента.
+     */
+    private static final class Fragment {
+        private final String json;
+        private final Resources resources;
+        private final long weight;
+
+        private Fragment(final String json, final Resources resources) {
+            this.json = json;
+            this.resources = resources;
+            this.weight = 2L*json.length() + 64*(resources.size()+1);
+        }
+    }
+
+    /**
+     * Сведения о рендеринге замороженного компонента в текущем потоке.
+     */
+    private static final class Recording {
+        private boolean volatileContent;
+    }
+}
@@ -85,6 +85,14 @@ public final class ComponentContext implements RequestContext {
         return clientId;
     }
 
+    /**
+     * Возвращает дескриптор текущего состояния, т.е. состояния страницы, в рамках которой в настоящий момент обрабатывается компонент.
+     * @return  дескриптор текущего состояния или <code>null</code> если текущее состояние не определено.
+     */
+    ViewStateDescriptor getViewDescriptor() {
+        return root.getStates().getCurrentDescriptor();
+    }
+
 
 
     @Override
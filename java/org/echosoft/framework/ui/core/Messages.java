@@ -1,5 +1,6 @@
 package org.echosoft.framework.ui.core;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -11,14 +12,18 @@ import org.echosoft.common.model.Predicate;
  * Представляет собой коллекцию сообщений, адресованных произвольных web компонентам системы.
  * Любой класс в системе может как адресовать новое сообщение для произвольного web комонента на странице так и просмотреть все
  * ранее зарегистрированные (в рамках обработки данного пользовательского запроса) сообщения для произвольного web компонента на странице.
+ * <p>Помимо упорядоченного по важности набора сообщений коллекция ведет журнал сообщений в порядке их регистрации, который используется
+ * механизмом точек сохранения: откат к точке сохранения удаляет именно те сообщения, что были зарегистрированы после ее создания.</p>
  * @author Anton Sharapov
  */
 public class Messages {
 
     private final SortedSet<Message> messages;
+    private final ArrayList<Message> journal;
 
     public Messages() {
         this.messages = new TreeSet<Message>();
+        this.journal = new ArrayList<Message>();
     }
 
     /**
@@ -28,7 +33,8 @@ public class Messages {
     public void addMessage(final Message msg) {
         if (msg==null)
             throw new IllegalArgumentException("Message must be specified");
-        messages.add( msg );
+        if (messages.add(msg))
+            journal.add(msg);
     }
 
     /**
@@ -160,18 +166,17 @@ public class Messages {
     /**
      * Откатывает все изменения, сделанные после создания указанной в аргументе точки сохранения.
      * Точка сохранения должна быть ранее получена при вызове метода {@link #makeSavePoint()} этого же экземпляра класса <code>Messages</code>.
+     * Точки сохранения могут быть вложены друг в друга; после отката к внешней точке сохранения вложенные в нее точки сохранения
+     * использоваться не должны.
      * @param savePoint  точка сохранения.
      */
     public void rollback(final SavePoint savePoint) {
         if (savePoint==null || savePoint.getOwner()!=this)
             throw new IllegalArgumentException("no correct savepoint instance specified");
-        if (savePoint.annuled)
+        if (savePoint.annuled || savePoint.size>journal.size())
             throw new IllegalStateException("given savepoint already annuled");
-        int cnt = 0;
-        for (Iterator<Message> it=messages.iterator(); it.hasNext(); ) {
-            it.next();
-            if (cnt++ >= savePoint.size)
-                it.remove();
+        for (int i=journal.size()-1; i>=savePoint.size; i--) {
+            messages.remove( journal.remove(i) );
         }
         savePoint.annuled = true;
     }
@@ -186,7 +191,7 @@ public class Messages {
         private boolean annuled;
 
         private SavePoint() {
-            this.size = messages.size();
+            this.size = journal.size();
             this.annuled = false;
         }
         private Messages getOwner() {
@@ -1,13 +1,18 @@
 package org.echosoft.framework.ui.core;
 
 import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.echosoft.common.io.FastStringWriter;
 import org.echosoft.common.json.JsonContext;
 import org.echosoft.common.json.JsonWriter;
 import org.echosoft.common.utils.StringUtil;
 import org.echosoft.framework.ui.core.spi.CleanStrategies;
+import org.echosoft.framework.ui.core.spi.StreamingStateSerializer;
+import org.echosoft.framework.ui.core.spi.Utf8Writer;
 import org.echosoft.framework.ui.core.theme.Theme;
+import org.echosoft.framework.ui.core.theme.ThemeBundle;
 
 /**
  * Базовая реализация корневого компонента на странице, основной задачей которого является корректное начало и окончание обработки пользовательских запросов.
@@ -16,6 +21,27 @@ import org.echosoft.framework.ui.core.theme.Theme;
  */
 public abstract class Page implements UIComponent {
 
+    // неизменяемые фрагменты страницы, заранее закодированные в UTF-8 ...
+    private static final Utf8Writer.Constant HEAD_START = new Utf8Writer.Constant(
+            "<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 4.01//EN\" \"http://www.w3.org/TR/html4/strict.dtd\">\n" +
+            "<html>\n" +
+            "<head>\n" +
+            "  <title>");
+    private static final Utf8Writer.Constant HEAD_META = new Utf8Writer.Constant(
+            "</title>\n" +
+            "  <meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\">\n" +
+            "  <meta http-equiv=\"Content-Script-Type\" content=\"text/javascript\">\n" +
+            "  <meta http-equiv=\"Content-Style-Type\" content=\"text/css\">\n");
+    private static final Utf8Writer.Constant HEAD_END = new Utf8Writer.Constant("</head>\n");
+    private static final Utf8Writer.Constant BODY_START = new Utf8Writer.Constant("<body>\n");
+    private static final Utf8Writer.Constant STYLE_START = new Utf8Writer.Constant("<style type=\"text/css\">\n");
+    private static final Utf8Writer.Constant STYLE_END_HTML_START = new Utf8Writer.Constant("</style>\n<div style=\"display:none\">\n");
+    private static final Utf8Writer.Constant HTML_END = new Utf8Writer.Constant("</div>\n");
+    private static final Utf8Writer.Constant SCRIPT_START = new Utf8Writer.Constant("<script type=\"text/javascript\">\n");
+    private static final Utf8Writer.Constant FUNCTION_START = new Utf8Writer.Constant("(function() {\n");
+    private static final Utf8Writer.Constant CALLBACK_END = new Utf8Writer.Constant("});\n</script>\n</body>\n</html>\n");
+    private static final Utf8Writer.Constant FUNCTION_END = new Utf8Writer.Constant("})();\n</script>\n</body>\n</html>\n");
+
     private final UIContext uctx;
     private String title;
     private String icon;
@@ -24,6 +50,8 @@ public abstract class Page implements UIComponent {
     private CleanStrategy cleanStrategy;
     private JsonContext jctx;
     private boolean staticPage;
+    private boolean earlyFlush;
+    private String[] cacheVaryParams;
 
     private transient ComponentContext ctx;
 
@@ -32,6 +60,8 @@ public abstract class Page implements UIComponent {
         this.jctx = Application.jsonContext;
         this.cleanStrategy = CleanStrategies.RANK;
         this.staticPage = false;
+        this.earlyFlush = Application.EARLY_FLUSH_PAGES;
+        this.cacheVaryParams = StringUtil.EMPTY_STRING_ARRAY;
     }
 
     /**
@@ -176,24 +206,62 @@ public abstract class Page implements UIComponent {
     }
 
     /**
-     * Возвращает <code>true</code> в случае когда структура страницы является статичной и мы можем единожды сконструированный экземпляр
-     * {@link Page} использовать при обработке всех последущих пользовательских запросов к данной веб странице.<br/>
-     * По умолчанию возвращает <code>false</code>.
-     * @return  признак того возможно ли кэширование данного экземпляра {@link Page} и последующее его использование при обрбаботке последующих запросов к этой же веб странице.
+     * Возвращает <code>true</code> в случае когда структура и содержимое страницы являются статичными, т.е. определяются только адресом запроса,
+     * используемой темой, локалью и значениями параметров запроса, перечисленных в {@link #getCacheVaryParams()}.<br/>
+     * Результаты рендеринга таких страниц помещаются в кэш (см. {@link Application#getPageCache()}) и используются при обработке всех
+     * последующих запросов к данной веб странице. При каждом обращении к странице заново формируются лишь состояния посещенных страниц.
+     * @return  признак того возможно ли кэширование результатов рендеринга данной страницы.
      * По умолчанию кэширование запрещено и метод возвращает <code>false</code>.
      */
     public boolean isStatic() {
         return staticPage;
     }
     /**
-     * Определяет можно ли использовать единожды созданный данный экземпляр {@link Page} при обработке последующих запросов к этому веб ресурсу или
-     * следует каждый раз пересоздавать соответствующий экземпляр {@link Page} (данынй режим установлен по умолчанию).
+     * Определяет можно ли использовать единожды полученные результаты рендеринга данной страницы при обработке последующих запросов к этому веб ресурсу или
+     * следует каждый раз рендерить страницу заново (данный режим установлен по умолчанию).
      * @param staticPage  новое значение признака.
      */
     public void setStatic(boolean staticPage) {
         this.staticPage = staticPage;
     }
 
+    /**
+     * Возвращает перечень параметров запроса, от значений которых зависит содержимое статичной страницы (см. {@link #isStatic()}).
+     * Для каждого набора значений этих параметров в кэше хранится отдельная версия страницы. Значения прочих параметров запроса
+     * при кэшировании страницы не учитываются.
+     * @return  перечень параметров запроса. Метод никогда не возвращает <code>null</code>.
+     */
+    public String[] getCacheVaryParams() {
+        return cacheVaryParams;
+    }
+    /**
+     * Определяет перечень параметров запроса, от значений которых зависит содержимое статичной страницы.
+     * @param params  перечень параметров запроса.
+     */
+    public void setCacheVaryParams(final String... params) {
+        this.cacheVaryParams = params!=null ? params : StringUtil.EMPTY_STRING_ARRAY;
+    }
+
+    /**
+     * Возвращает <code>true</code> если страница рендерится в два этапа: заголовок страницы (&lt;head&gt;) со ссылками на известные заранее
+     * ресурсы (глобальные ресурсы темы и ресурсы, подключаемые в методе {@link #attachResources(Resources)}) отправляется клиенту еще до
+     * рендеринга компонент страницы, что позволяет браузеру загружать эти ресурсы параллельно с работой сервера. Ресурсы, подключенные
+     * компонентами в процессе рендеринга, подключаются в конце тела страницы, перед кодом ее инициализации.<br/>
+     * Следует учитывать что в этом режиме ошибки рендеринга компонент возникают уже после начала отправки ответа клиенту.
+     * По умолчанию используется значение {@link Application#EARLY_FLUSH_PAGES}.
+     * @return  <code>true</code> если заголовок страницы отправляется клиенту до рендеринга компонент страницы.
+     */
+    public boolean isEarlyFlush() {
+        return earlyFlush;
+    }
+    /**
+     * Определяет должен ли заголовок страницы отправляться клиенту до рендеринга компонент страницы.
+     * @param earlyFlush  новое значение признака.
+     */
+    public void setEarlyFlush(final boolean earlyFlush) {
+        this.earlyFlush = earlyFlush;
+    }
+
     /**
      * Рендерит данную страницу в качестве ответа на текущий пользовательский запрос, ассоциированный с текущим потоком.
      * Результат рендеринга помещается в поток возвращающий данные пользователю по мере их готовности.
@@ -201,7 +269,12 @@ public abstract class Page implements UIComponent {
      */
     public void invokePage() throws Exception {
         final Writer out = getUIContext().getResponseWriter();
-        invokePage( out);
+        final PageCache cache = Application.getPageCache();
+        if (staticPage && cache!=null) {
+            cache.invokePage(this, out);
+        } else {
+            invokePage( out);
+        }
         out.flush();
     }
 
@@ -215,85 +288,202 @@ public abstract class Page implements UIComponent {
         final UIContext uctx = getUIContext();
         final Resources resources = uctx.getResources();
         final Theme theme = uctx.getTheme();
-        for (String url : theme.getGlobalStylesheets()) {
-            resources.attachStyleSheet(uctx.encodeThemeURL(url,false));
+        if (theme.getGlobalStylesheetsBundle()!=null) {
+            resources.attachStyleSheet(encodeBundleURL(uctx, theme.getGlobalStylesheetsBundle()));
+        } else {
+            for (String url : theme.getGlobalStylesheets()) {
+                resources.attachStyleSheet(uctx.encodeThemeURL(url,false));
+            }
         }
-        for (String url : theme.getGlobalJS1Files()) {
-            resources.attachScript(uctx.encodeThemeURL(url,false));
+        if (theme.getGlobalJS1Bundle()!=null) {
+            resources.attachScript(encodeBundleURL(uctx, theme.getGlobalJS1Bundle()));
+        } else {
+            for (String url : theme.getGlobalJS1Files()) {
+                resources.attachScript(uctx.encodeThemeURL(url,false));
+            }
         }
+        attachResources(resources);
+        final HashSet<String> flushed;
+        if (earlyFlush) {
+            // отправляем клиенту заголовок страницы со ссылками на все известные на данный момент ресурсы ...
+            flushed = new HashSet<String>();
+            writeHead(out, resources, flushed);
+            out.flush();
+        } else
+            flushed = null;
         uctx.switchState(getViewId(), getViewRank());
-        final FastStringWriter jwout = new FastStringWriter(2048);  // промежуточный буфер используемый для сериализации JSON выражений всех компонент на данной странице.
+        // промежуточный буфер используемый для сериализации JSON выражений всех компонент на данной странице.
+        // если страница выводится в поток байт, то JSON выражения кодируются в UTF-8 сразу при сериализации ...
+        final Writer jwout = out instanceof Utf8Writer ? new Utf8Writer(2048) : new FastStringWriter(2048);
         final JsonWriter jw = getJsonContext().makeJsonWriter(jwout);
         invoke(jw);
         uctx.getStates().clean( getCleanStrategy() );
-        for (String url : theme.getGlobalJS2Files()) {
-            resources.attachScript(uctx.encodeThemeURL(url,false));
+        if (theme.getGlobalJS2Bundle()!=null) {
+            resources.attachScript(encodeBundleURL(uctx, theme.getGlobalJS2Bundle()));
+        } else {
+            for (String url : theme.getGlobalJS2Files()) {
+                resources.attachScript(uctx.encodeThemeURL(url,false));
+            }
         }
 
-        out.write("<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 4.01//EN\" \"http://www.w3.org/TR/html4/strict.dtd\">\n");
-        out.write("<html>\n");
-        out.write("<head>\n");
-        out.write("  <title>");
-        StringUtil.encodeHTMLText(out, getTitle());
-        out.write("</title>\n");
-        out.write("  <meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\">\n");
-        out.write("  <meta http-equiv=\"Content-Script-Type\" content=\"text/javascript\">\n");
-        out.write("  <meta http-equiv=\"Content-Style-Type\" content=\"text/css\">\n");
-        if (getIcon()!=null) {
-            out.write("  <link type=\"image/x-icon\" href=\"");
-            out.write( uctx.encodeURL(getIcon()) );
-            out.write("\" rel=\"shortcut icon\">\n");
-        }
-        for (Resources.StyleSheet resource : resources.getExternalStyleSheets()) {
-            out.write("  <link type=\"");
-            out.write(resource.getContentType());
-            out.write("\" href=\"");
-            out.write(resource.getUrl());
-            out.write("\" rel=\"");
-            out.write(resource.getRel());
-            if (resource.getMedia()!=null) {
-                out.write("\" media=\"");
-                out.write(resource.getMedia());
-            }
-            if (resource.getTitle()!=null) {
-                out.write("\" title=\"");
-                out.write(resource.getTitle());
+        if (flushed==null)
+            writeHead(out, resources, null);
+        Utf8Writer.write(out, BODY_START);
+        if (flushed!=null) {
+            // таблицы стилей, подключенные компонентами уже после отправки заголовка страницы ...
+            for (Resources.StyleSheet resource : resources.getExternalStyleSheets()) {
+                if (!flushed.contains(resource.getUrl()))
+                    writeStyleSheet(out, resource);
             }
-            out.write("\"/>\n");
         }
-        for (Resources.Script resource : resources.getExternalScripts()) {
-            out.write("  <script type=\"");
-            out.write(resource.getContentType());
-            out.write("\" src=\"");
-            out.write(resource.getUrl());
-            if (resource.isDefered())
-                out.write("\" defer=\"defer");
-            out.write("\"></script>\n");
-        }
-        out.write("</head>\n");
-        out.write("<body>\n");
-        out.write("<style type=\"text/css\">\n");
+        Utf8Writer.write(out, STYLE_START);
         resources.writeOutStyles(out);
-        out.write("</style>\n");
-        out.write("<div style=\"display:none\">\n");
+        Utf8Writer.write(out, STYLE_END_HTML_START);
         resources.writeOutHTML(out);
-        out.write("</div>\n");
-        out.write("<script type=\"text/javascript\">\n");
+        Utf8Writer.write(out, HTML_END);
+        if (flushed!=null) {
+            // скрипты, подключенные компонентами уже после отправки заголовка страницы, должны быть загружены до кода инициализации страницы ...
+            for (Resources.Script resource : resources.getExternalScripts()) {
+                if (!flushed.contains(resource.getUrl()))
+                    writeScript(out, resource);
+            }
+        }
+        Utf8Writer.write(out, SCRIPT_START);
         final String fn = StringUtil.trim(getInitCallbackFunction());
         if (fn!=null) {
             out.write(fn);
         }
-        out.write("(function() {\n");
+        Utf8Writer.write(out, FUNCTION_START);
         init(uctx, out);
         resources.writeOutScripts(out);
-        jwout.writeOut(out);
-        out.write(fn!=null ? "});\n" : "})();\n");
-        out.write("</script>\n");
-        out.write("</body>\n");
-        out.write("</html>\n");
+        if (jwout instanceof Utf8Writer) {
+            ((Utf8Writer)jwout).writeOut(out);
+        } else
+            ((FastStringWriter)jwout).writeOut(out);
+        Utf8Writer.write(out, fn!=null ? CALLBACK_END : FUNCTION_END);
         out.flush();
     }
 
+    /**
+     * Подключает к странице ресурсы (скрипты и таблицы стилей), которые известны еще до рендеринга компонент страницы.
+     * Вызывается после подключения глобальных ресурсов темы. В режиме {@link #isEarlyFlush()} ссылки на эти ресурсы отправляются клиенту
+     * в заголовке страницы еще до рендеринга ее компонент. Страницы, использующие компоненты с заранее известными ресурсами
+     * (например формы), могут переопределить этот метод и подключить в нем скрипты, объявленные классами этих компонент
+     * (см. {@link #attachThemeScripts(Resources, String[][])}). По умолчанию метод ничего не делает.
+     * @param resources  менеджер ресурсов страницы.
+     * @throws Exception  в случае каких-либо проблем.
+     */
+    protected void attachResources(final Resources resources) throws Exception {
+    }
+
+    /**
+     * Подключает к странице скрипты темы, статически объявленные классами компонент (как правило в константах <code>SCRIPTS</code>
+     * этих классов). Пример использования:
+     * <pre>
+     *  protected void attachResources(final Resources resources) throws Exception {
+     *      attachThemeScripts(resources, FormPanel.SCRIPTS, ComboBox.SCRIPTS);
+     *  }
+     * </pre>
+     * @param resources  менеджер ресурсов страницы.
+     * @param scripts  перечни путей к скриптам относительно корня текущей темы.
+     */
+    protected void attachThemeScripts(final Resources resources, final String[]... scripts) {
+        for (String[] urls : scripts) {
+            for (String url : urls) {
+                resources.attachScript(uctx.encodeThemeURL(url,false));
+            }
+        }
+    }
+
+    /**
+     * Выводит в поток закодированные состояния посещенных страниц (см. {@link Application#getStateSerializer()}).
+     * Страницы должны выводить состояния только с помощью этого метода, поскольку при кэшировании статичных страниц
+     * (см. {@link #isStatic()}) место их вывода запоминается и при последующих обращениях к странице состояния выводятся заново.
+     * @param uctx  контекст текущего запроса.
+     * @param out  выходной поток.
+     * @throws Exception  в случае каких-либо проблем.
+     */
+    protected void writeViewState(final UIContext uctx, final Writer out) throws Exception {
+        if (out instanceof PageCache.Recorder) {
+            ((PageCache.Recorder)out).markViewState();
+            return;
+        }
+        StreamingStateSerializer.writeState(Application.getStateSerializer(), uctx, out);   // ключ пишется в поток уже экранированным
+    }
+
+    /**
+     * Выводит в поток состояния посещенных страниц при отправке клиенту закэшированной страницы.
+     */
+    void writeCachedViewState(final Writer out) throws Exception {
+        final UIContext uctx = getUIContext();
+        uctx.switchState(getViewId(), getViewRank());
+        uctx.getStates().clean( getCleanStrategy() );
+        writeViewState(uctx, out);
+    }
+
+    /**
+     * Выводит в поток заголовок страницы со ссылками на все подключенные на данный момент внешние ресурсы.
+     * @param out  выходной поток.
+     * @param resources  менеджер ресурсов страницы.
+     * @param flushed  множество, в которое должны быть добавлены ссылки на выведенные ресурсы, или <code>null</code>.
+     */
+    private void writeHead(final Writer out, final Resources resources, final Set<String> flushed) throws Exception {
+        Utf8Writer.write(out, HEAD_START);
+        StringUtil.encodeHTMLText(out, getTitle());
+        Utf8Writer.write(out, HEAD_META);
+        if (getIcon()!=null) {
+            out.write("  <link type=\"image/x-icon\" href=\"");
+            out.write( uctx.encodeURL(getIcon()) );
+            out.write("\" rel=\"shortcut icon\">\n");
+        }
+        for (Resources.StyleSheet resource : resources.getExternalStyleSheets()) {
+            writeStyleSheet(out, resource);
+            if (flushed!=null)
+                flushed.add(resource.getUrl());
+        }
+        for (Resources.Script resource : resources.getExternalScripts()) {
+            writeScript(out, resource);
+            if (flushed!=null)
+                flushed.add(resource.getUrl());
+        }
+        Utf8Writer.write(out, HEAD_END);
+    }
+
+    private static void writeStyleSheet(final Writer out, final Resources.StyleSheet resource) throws Exception {
+        out.write("  <link type=\"");
+        out.write(resource.getContentType());
+        out.write("\" href=\"");
+        out.write(resource.getUrl());
+        out.write("\" rel=\"");
+        out.write(resource.getRel());
+        if (resource.getMedia()!=null) {
+            out.write("\" media=\"");
+            out.write(resource.getMedia());
+        }
+        if (resource.getTitle()!=null) {
+            out.write("\" title=\"");
+            out.write(resource.getTitle());
+        }
+        out.write("\"/>\n");
+    }
+
+    private static void writeScript(final Writer out, final Resources.Script resource) throws Exception {
+        out.write("  <script type=\"");
+        out.write(resource.getContentType());
+        out.write("\" src=\"");
+        out.write(resource.getUrl());
+        if (resource.isDefered())
+            out.write("\" defer=\"defer");
+        out.write("\"></script>\n");
+    }
+
+    /**
+     * Возвращает ссылку на сборку глобальных ресурсов темы, обслуживаемую сервлетом ресурсов.
+     */
+    private static String encodeBundleURL(final UIContext uctx, final ThemeBundle bundle) {
+        return uctx.encodeURL(Application.RESOURCES_SERVLET_CONTEXT + (Application.MINIFY_THEME_RESOURCES ? "/min/bundle" : "/bundle") + bundle.getPath());
+    }
+
     /**
      * Метод отвечает за генерацию javascript кода, отвечающего за инициализацию фреймворка на стороне клиента.
      * @param uctx  контекст обработки текущего запроса.
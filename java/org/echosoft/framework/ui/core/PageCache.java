@@ -0,0 +1,312 @@
+package org.echosoft.framework.ui.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.echosoft.common.io.FastStringWriter;
+import org.echosoft.framework.ui.core.spi.Utf8Writer;
+import org.echosoft.framework.ui.core.theme.Theme;
+
+/**
+ * Кэш результатов рендеринга статичных страниц (см. {@link Page#isStatic()}).
+ * <p>Ключ страницы в кэше включает класс страницы, адрес запроса, название темы, локаль и значения параметров запроса,
+ * перечисленных в {@link Page#getCacheVaryParams()}. В кэше хранится сформированный страницей HTML без состояний посещенных страниц:
+ * место, где страница выводит закодированные состояния (см. {@link Page#writeViewState(UIContext, Writer)}), запоминается, и при каждом
+ * обращении к странице в это место выводятся состояния, относящиеся к текущему запросу.</p>
+ * Особенности реализации:
+ * <ol>
+ *  <li> Общий объем хранимых в кэше страниц ограничен бюджетом, задаваемым в байтах. При его превышении из кэша вытесняются
+ *       наиболее давно запрошенные страницы (LRU). Дополнительно может быть задано максимальное время жизни страницы в кэше.
+ *  <li> Если одна и та же отсутствующая в кэше страница одновременно запрашивается несколькими потоками, то рендеринг страницы выполняет
+ *       только один из них, остальные дожидаются его результата. Если рендеринг завершился ошибкой, то каждый из ожидавших потоков
+ *       рендерит страницу самостоятельно (без помещения в кэш).
+ *  <li> Страницы могут быть удалены из кэша явно: по ключу, по классу страницы или все сразу.
+ * </ol>
+ *
+ * @author Anton Sharapov
+ */
+public final class PageCache {
+
+    private final long capacity;
+    private final long ttl;
+    private final LinkedHashMap<String,Entry> entries;
+    private final ConcurrentHashMap<String,FutureTask<Entry>> pending;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+    private long size;
+
+    /**
+     * @param capacity  максимальный суммарный объем (в байтах) хранимых в кэше страниц.
+     * @param ttl  максимальное время жизни (в миллисекундах) страницы в кэше или <code>0</code> если время жизни не ограничено.
+     */
+    public PageCache(final long capacity, final long ttl) {
+        if (capacity<0 || ttl<0)
+            throw new IllegalArgumentException("Invalid page cache settings");
+        this.capacity = capacity;
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<String,Entry>(64, 0.75f, true);
+        this.pending = new ConcurrentHashMap<String,FutureTask<Entry>>();
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+        this.evictions = new AtomicLong(0);
+    }
+
+    /**
+     * Отправляет клиенту содержимое страницы из кэша. Если страница в кэше отсутствует, то она рендерится и помещается в кэш.
+     * @param page  статичная страница.
+     * @param out  выходной поток.
+     * @throws Exception  в случае каких-либо проблем при рендеринге страницы.
+     */
+    public void invokePage(final Page page, final Writer out) throws Exception {
+        final String key = makeKey(page);
+        Entry entry = get(key);
+        if (entry!=null) {
+            hits.incrementAndGet();
+            entry.writeOut(page, out);
+            return;
+        }
+        misses.incrementAndGet();
+        final FutureTask<Entry> task = new FutureTask<Entry>(new Callable<Entry>() {
+            public Entry call() throws Exception {
+                final Recorder recorder = new Recorder();
+                page.invokePage(recorder);
+                return recorder.toEntry(page.getClass().getName());
+            }
+        });
+        final FutureTask<Entry> running = pending.putIfAbsent(key, task);
+        if (running==null) {
+            try {
+                task.run();
+                entry = task.get();
+                put(key, entry);
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception)cause : e;
+            } finally {
+                pending.remove(key, task);
+            }
+        } else {
+            try {
+                entry = running.get();
+            } catch (ExecutionException e) {
+                page.invokePage(out);
+                return;
+            }
+        }
+        entry.writeOut(page, out);
+    }
+
+    /**
+     * Удаляет страницу из кэша.
+     * @param key  ключ страницы в кэше (см. {@link #makeKey(Page)}).
+     */
+    public synchronized void invalidate(final String key) {
+        final Entry entry = entries.remove(key);
+        if (entry!=null)
+            size -= entry.weight;
+    }
+
+    /**
+     * Удаляет из кэша все страницы указанного класса.
+     * @param pageClass  класс страницы.
+     */
+    public synchronized void invalidate(final Class<? extends Page> pageClass) {
+        final String name = pageClass.getName();
+        for (Iterator<Entry> it=entries.values().iterator(); it.hasNext(); ) {
+            final Entry entry = it.next();
+            if (entry.pageClass.equals(name)) {
+                it.remove();
+                size -= entry.weight;
+            }
+        }
+    }
+
+    /**
+     * Удаляет из кэша все страницы. Накопленная статистика при этом сохраняется.
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Формирует ключ страницы в кэше.
+     * @param page  статичная страница.
+     * @return  ключ страницы в кэше.
+     */
+    public String makeKey(final Page page) {
+        final UIContext uctx = page.getUIContext();
+        final Theme theme = uctx.getTheme();
+        final StringBuilder buf = new StringBuilder(128);
+        buf.append(page.getClass().getName()).append('|').append(uctx.getRequestUrl())
+           .append('|').append(theme!=null ? theme.getName() : null).append('|').append(uctx.getLocale());
+        for (String name : page.getCacheVaryParams()) {
+            buf.append('|').append(name);
+            final String[] values = uctx.getParameterValues(name);
+            if (values!=null) {
+                for (String value : values) {
+                    buf.append('=').append(value);
+                }
+            }
+        }
+        return buf.toString();
+    }
+
+    /**
+     * @return  максимальный суммарный объем (в байтах) хранимых в кэше страниц.
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return  суммарный объем (в байтах) хранимых в настоящий момент в кэше страниц.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return  количество страниц, хранимых в настоящий момент в кэше.
+     */
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return  количество обращений к кэшу, обслуженных без рендеринга страницы.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return  количество обращений к страницам, отсутствовавшим в кэше.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return  количество страниц, вытесненных из кэша в связи с нехваткой места.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "[PageCache{count:"+getCount()+", size:"+getSize()+", capacity:"+capacity+", hits:"+getHits()+", misses:"+getMisses()+", evictions:"+getEvictions()+"}]";
+    }
+
+
+    private synchronized Entry get(final String key) {
+        final Entry entry = entries.get(key);
+        if (entry!=null && ttl>0 && System.currentTimeMillis()-entry.created>ttl) {
+            entries.remove(key);
+            size -= entry.weight;
+            return null;
+        }
+        return entry;
+    }
+
+    private synchronized void put(final String key, final Entry entry) {
+        if (entry.weight>capacity)
+            return;
+        final Entry prev = entries.put(key, entry);
+        size += entry.weight;
+        if (prev!=null)
+            size -= prev.weight;
+        for (Iterator<Entry> it=entries.values().iterator(); size>capacity && it.hasNext(); ) {
+            final Entry victim = it.next();
+            if (victim==entry)
+                continue;
+            it.remove();
+            size -= victim.weight;
+            evictions.incrementAndGet();
+        }
+    }
+
+
+    /**
+     * Закэшированная страница.
+     */
+    private static final class Entry {
+        private final String pageClass;
+        private final Utf8Writer.Constant head;
+        private final Utf8Writer.Constant tail;
+        private final long weight;
+        private final long created;
+
+        private Entry(final String pageClass, final String head, final String tail) {
+            this.pageClass = pageClass;
+            this.head = new Utf8Writer.Constant(head);
+            this.tail = tail!=null ? new Utf8Writer.Constant(tail) : null;
+            this.weight = 2L*(head.length() + (tail!=null ? tail.length() : 0)) + this.head.getSize() + (tail!=null ? this.tail.getSize() : 0) + 64;
+            this.created = System.currentTimeMillis();
+        }
+
+        private void writeOut(final Page page, final Writer out) throws Exception {
+            Utf8Writer.write(out, head);
+            if (tail!=null) {
+                page.writeCachedViewState(out);
+                Utf8Writer.write(out, tail);
+            }
+        }
+    }
+
+    /**
+     * Поток, в который рендерится помещаемая в кэш страница. Запоминает позицию, в которой страница выводит состояния посещенных страниц.
+     */
+    static final class Recorder extends Writer {
+        private final FastStringWriter buf = new FastStringWriter(8192);
+        private int mark = -1;
+
+        /**
+         * Запоминает текущую позицию в потоке как место, в которое должны выводиться состояния посещенных страниц.
+         */
+        void markViewState() {
+            if (mark>=0)
+                throw new IllegalStateException("View state already written");
+            mark = buf.length();
+        }
+
+        private Entry toEntry(final String pageClass) {
+            final String content = buf.toString();
+            return mark<0
+                    ? new Entry(pageClass, content, null)
+                    : new Entry(pageClass, content.substring(0, mark), content.substring(mark));
+        }
+
+        @Override
+        public void write(final int c) {
+            buf.write(c);
+        }
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+            buf.write(cbuf, off, len);
+        }
+        @Override
+        public void write(final String str) {
+            buf.write(str);
+        }
+        @Override
+        public void write(final String str, final int off, final int len) {
+            buf.write(str, off, len);
+        }
+        @Override
+        public void flush() {
+        }
+        @Override
+        public void close() throws IOException {
+        }
+    }
+}
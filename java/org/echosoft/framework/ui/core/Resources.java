@@ -5,9 +5,10 @@ import java.io.Serializable;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 
 import org.echosoft.common.utils.StringUtil;
 
@@ -25,6 +26,9 @@ import org.echosoft.common.utils.StringUtil;
  *  <li>Поддержка механизма т.н. точек сохранений (savepoint) которая давала бы возможность оперативно отменить последние изменения.
  * Насущность данного требования хорошо иллюстрирует задача организации в виджетах обработки исключений и в случае возникновения оных отображать соответствующий контент, для которого требуется совершенно другой набор подключаемых ресурсов.
  * </ol>
+ * Ресурсы каждого вида хранятся в отдельных списках, которые только пополняются в конец (за исключением отката изменений), а для
+ * предотвращения повторного подключения используются отдельные индексы. Благодаря этому точка сохранения представляет собой лишь
+ * запомненные размеры списков, а откат к ней требует времени, пропорционального количеству отменяемых изменений.
  * @author Anton Sharapov
  */
 public class Resources {
@@ -32,30 +36,34 @@ public class Resources {
     private static final String DEFAULT_SCRIPT_CONTENT_TYPE = "text/javascript";
     private static final String DEFAULT_STYLESHEET_CONTENT_TYPE = "text/css";
 
-    private final LinkedHashMap<String, Resource> resources;
-    private final LinkedHashSet<CharSequence> embeddedScripts;
-    private final LinkedHashSet<CharSequence> embeddedStyles;
-    private final LinkedHashSet<CharSequence> embeddedHTML;
+    private final HashMap<String, Resource> resources;
+    private final ArrayList<Script> scripts;
+    private final ArrayList<StyleSheet> styleSheets;
+    private final Embedded embeddedScripts;
+    private final Embedded embeddedStyles;
+    private final Embedded embeddedHTML;
+    private final List<Script> scriptsView;
+    private final List<StyleSheet> styleSheetsView;
 
     public Resources() {
-        this.resources = new LinkedHashMap<String, Resource>();
-        this.embeddedScripts = new LinkedHashSet<CharSequence>();
-        this.embeddedStyles = new LinkedHashSet<CharSequence>();
-        this.embeddedHTML = new LinkedHashSet<CharSequence>();
+        this.resources = new HashMap<String, Resource>();
+        this.scripts = new ArrayList<Script>();
+        this.styleSheets = new ArrayList<StyleSheet>();
+        this.embeddedScripts = new Embedded();
+        this.embeddedStyles = new Embedded();
+        this.embeddedHTML = new Embedded();
+        this.scriptsView = Collections.unmodifiableList(scripts);
+        this.styleSheetsView = Collections.unmodifiableList(styleSheets);
     }
 
     /**
      * Возвращает коллекцию всех подключаемых скриптов что были зарегистрированных для данной web страницы.
      * Элементы коллекции расположены в том порядке в котором они регистрировались в менеджере ресурсов. 
+     * Возвращаемая коллекция не может быть модифицирована и отражает все последующие изменения в менеджере ресурсов.
      * @return коллекция записей о каждом подключаемом к странице скрипте.
      */
     public Collection<Script> getExternalScripts() {
-        final Collection<Script> result = new ArrayList<Script>();
-        for (Resource resource : resources.values()) {
-            if (Script.class.equals(resource.getClass()))
-                result.add( (Script)resource );
-        }
-        return result;
+        return scriptsView;
     }
 
     /**
@@ -66,7 +74,7 @@ public class Resources {
      */
     public void attachScript(final String url) {
         if (!resources.containsKey(url))
-            resources.put(url, new Script(url,null));
+            attach(new Script(url,null));
     }
 
     /**
@@ -79,22 +87,18 @@ public class Resources {
         if (!resources.containsKey(url)) {
             final Script script = new Script(url,contentType);
             script.setDefered(defered);
-            resources.put(url, script);
+            attach(script);
         }
     }
 
     /**
      * Возвращает коллекцию всех подключаемых таблиц стилей что были зарегистрированных для данной web страницы.
      * Элементы коллекции расположены в том порядке в котором они регистрировались в менеджере ресурсов.
+     * Возвращаемая коллекция не может быть модифицирована и отражает все последующие изменения в менеджере ресурсов.
      * @return коллекция записей о каждой подключаемом к странице таблице стилей.
      */
     public Collection<StyleSheet> getExternalStyleSheets() {
-        final Collection<StyleSheet> result = new ArrayList<StyleSheet>();
-        for (Resource resource : resources.values()) {
-            if (StyleSheet.class.equals(resource.getClass()))
-                result.add( (StyleSheet)resource );
-        }
-        return result;
+        return styleSheetsView;
     }
 
     /**
@@ -104,7 +108,7 @@ public class Resources {
      */
     public void attachStyleSheet(final String url) {
         if (!resources.containsKey(url))
-            resources.put(url, new StyleSheet(url,null));
+            attach(new StyleSheet(url,null));
     }
 
     /**
@@ -117,7 +121,7 @@ public class Resources {
         if (!resources.containsKey(url)) {
             final StyleSheet styleSheet = new StyleSheet(url,contentType);
             styleSheet.setMedia(media);
-            resources.put(url, styleSheet);
+            attach(styleSheet);
         }
     }
 
@@ -130,7 +134,7 @@ public class Resources {
      * @throws IOException  возникает в случае ошибок вывода данных в поток.
      */
     public void writeOutScripts(final Writer out) throws IOException {
-        for (CharSequence content : embeddedScripts) {
+        for (CharSequence content : embeddedScripts.items) {
             out.write(content.toString());
             out.write('\n');
         }
@@ -142,7 +146,7 @@ public class Resources {
      * @throws IOException  возникает в случае ошибок вывода данных в поток.
      */
     public void writeOutStyles(final Writer out) throws IOException {
-        for (CharSequence content : embeddedStyles) {
+        for (CharSequence content : embeddedStyles.items) {
             out.write(content.toString());
             out.append('\n');
         }
@@ -154,7 +158,7 @@ public class Resources {
      * @throws IOException  возникает в случае ошибок вывода данных в поток.
      */
     public void writeOutHTML(final Writer out) throws IOException {
-        for (CharSequence content : embeddedHTML) {
+        for (CharSequence content : embeddedHTML.items) {
             out.write(content.toString());
             out.write('\n');
         }
@@ -166,7 +170,7 @@ public class Resources {
      */
     public void embedScript(final CharSequence content) {
         if (content!=null && content.length()>0)
-            embeddedScripts.add( content );
+            embeddedScripts.add(content);
     }
 
     /**
@@ -175,7 +179,7 @@ public class Resources {
      */
     public void embedStyle(final CharSequence content) {
         if (content!=null && content.length()>0)
-            embeddedStyles.add( content );
+            embeddedStyles.add(content);
     }
 
     /**
@@ -184,7 +188,7 @@ public class Resources {
      */
     public void embedHTML(final CharSequence content) {
         if (content!=null && content.length()>0)
-            embeddedHTML.add( content );
+            embeddedHTML.add(content);
     }
 
     /**
@@ -192,7 +196,7 @@ public class Resources {
      * @return  общее количество ресурсов всех типов находящихся под управлением данного менеджера ресурсов.
      */
     public int size() {
-        return resources.size() + embeddedScripts.size() + embeddedStyles.size() + embeddedHTML.size();
+        return resources.size() + embeddedScripts.items.size() + embeddedStyles.items.size() + embeddedHTML.items.size();
     }
 
     /**
@@ -218,57 +222,114 @@ public class Resources {
     /**
      * Откатывает все изменения, сделанные после создания указанной в аргументе точки сохранения.
      * Точка сохранения должна быть ранее получена при вызове метода makeSavePoint() этого же экземпляра класса Resources.
+     * Точки сохранения могут быть вложены друг в друга; после отката к внешней точке сохранения вложенные в нее точки сохранения
+     * использоваться не должны.
      * @param savePoint  точка сохранения.
      */
     public void rollback(final SavePoint savePoint) {
         if (savePoint==null || savePoint.getOwner()!=this)
             throw new IllegalArgumentException("no correct savepoint instance specified");
-        if (savePoint.annuled)
+        if (savePoint.annuled || !savePoint.isValid())
             throw new IllegalStateException("given savepoint already annuled");
-        int cnt = 0;
-        for (Iterator<?> it=resources.entrySet().iterator(); it.hasNext(); ) {
-            it.next();
-            if (cnt++ >= savePoint.resources)
-                it.remove();
-        }
-        cnt = 0;
-        for (Iterator<?> it=embeddedScripts.iterator(); it.hasNext(); ) {
-            it.next();
-            if (cnt++ >= savePoint.embeddedScripts)
-                it.remove();
-        }
-        cnt = 0;
-        for (Iterator<?> it=embeddedStyles.iterator(); it.hasNext(); ) {
-            it.next();
-            if (cnt++ >= savePoint.embeddedStyles)
-                it.remove();
-        }
-        cnt = 0;
-        for (Iterator<?> it=embeddedHTML.iterator(); it.hasNext(); ) {
-            it.next();
-            if (cnt++ >= savePoint.embeddedHTML)
-                it.remove();
-        }
+        truncate(scripts, savePoint.scripts);
+        truncate(styleSheets, savePoint.styleSheets);
+        embeddedScripts.truncate(savePoint.embeddedScripts);
+        embeddedStyles.truncate(savePoint.embeddedStyles);
+        embeddedHTML.truncate(savePoint.embeddedHTML);
         savePoint.annuled = true;
     }
 
+    /**
+     * Возвращает ресурсы, подключенные к странице после создания указанной в аргументе точки сохранения.
+     * @param savePoint  точка сохранения.
+     * @return  новый менеджер ресурсов, содержащий только ресурсы, подключенные после создания точки сохранения.
+     */
+    Resources getChanges(final SavePoint savePoint) {
+        if (savePoint==null || savePoint.getOwner()!=this)
+            throw new IllegalArgumentException("no correct savepoint instance specified");
+        if (savePoint.annuled || !savePoint.isValid())
+            throw new IllegalStateException("given savepoint already annuled");
+        final Resources result = new Resources();
+        for (Script script : scripts.subList(savePoint.scripts, scripts.size())) {
+            result.attach(script);
+        }
+        for (StyleSheet styleSheet : styleSheets.subList(savePoint.styleSheets, styleSheets.size())) {
+            result.attach(styleSheet);
+        }
+        for (CharSequence content : embeddedScripts.items.subList(savePoint.embeddedScripts, embeddedScripts.items.size())) {
+            result.embeddedScripts.add(content);
+        }
+        for (CharSequence content : embeddedStyles.items.subList(savePoint.embeddedStyles, embeddedStyles.items.size())) {
+            result.embeddedStyles.add(content);
+        }
+        for (CharSequence content : embeddedHTML.items.subList(savePoint.embeddedHTML, embeddedHTML.items.size())) {
+            result.embeddedHTML.add(content);
+        }
+        return result;
+    }
+
+    /**
+     * Подключает к странице все ресурсы из указанного менеджера ресурсов в том порядке в котором они были в нем зарегистрированы.
+     * @param other  менеджер ресурсов.
+     */
+    void attachAll(final Resources other) {
+        for (Script script : other.scripts) {
+            if (!resources.containsKey(script.getUrl()))
+                attach(script);
+        }
+        for (StyleSheet styleSheet : other.styleSheets) {
+            if (!resources.containsKey(styleSheet.getUrl()))
+                attach(styleSheet);
+        }
+        for (CharSequence content : other.embeddedScripts.items) {
+            embeddedScripts.add(content);
+        }
+        for (CharSequence content : other.embeddedStyles.items) {
+            embeddedStyles.add(content);
+        }
+        for (CharSequence content : other.embeddedHTML.items) {
+            embeddedHTML.add(content);
+        }
+    }
+
+    private void attach(final Script script) {
+        resources.put(script.getUrl(), script);
+        scripts.add(script);
+    }
+
+    private void attach(final StyleSheet styleSheet) {
+        resources.put(styleSheet.getUrl(), styleSheet);
+        styleSheets.add(styleSheet);
+    }
+
+    /**
+     * Удаляет из конца списка все ресурсы, подключенные после создания точки сохранения, вместе с соответствующими записями в индексе.
+     */
+    private void truncate(final ArrayList<? extends Resource> list, final int size) {
+        for (int i=list.size()-1; i>=size; i--) {
+            resources.remove(list.remove(i).getUrl());
+        }
+    }
+
 
     /**
      * Описывает состояние менеджера ресурсов на определенный момент времени.
      * Дает возможность откатить текущее состояние менеджера ресурсов до состояния в котором находился менеджер в момент создания данной точки сохранения.
      */
     public final class SavePoint {
-        private final int resources;
+        private final int scripts;
+        private final int styleSheets;
         private final int embeddedScripts;
         private final int embeddedStyles;
         private final int embeddedHTML;
         private boolean annuled;
 
         private SavePoint() {
-            this.resources = Resources.this.resources.size();
-            this.embeddedScripts = Resources.this.embeddedScripts.size();
-            this.embeddedStyles = Resources.this.embeddedStyles.size();
-            this.embeddedHTML = Resources.this.embeddedHTML.size();
+            this.scripts = Resources.this.scripts.size();
+            this.styleSheets = Resources.this.styleSheets.size();
+            this.embeddedScripts = Resources.this.embeddedScripts.items.size();
+            this.embeddedStyles = Resources.this.embeddedStyles.items.size();
+            this.embeddedHTML = Resources.this.embeddedHTML.items.size();
             this.annuled = false;
         }
         public Resources getOwner() {
@@ -280,6 +341,32 @@ public class Resources {
         public void rollback() {
             Resources.this.rollback(this);
         }
+        private boolean isValid() {
+            return  scripts <= Resources.this.scripts.size() &&
+                    styleSheets <= Resources.this.styleSheets.size() &&
+                    embeddedScripts <= Resources.this.embeddedScripts.items.size() &&
+                    embeddedStyles <= Resources.this.embeddedStyles.items.size() &&
+                    embeddedHTML <= Resources.this.embeddedHTML.items.size();
+        }
+    }
+
+
+    /**
+     * Внедряемые в страницу фрагменты одного вида в порядке их регистрации вместе с индексом для предотвращения повторного внедрения.
+     */
+    private static final class Embedded {
+        private final ArrayList<CharSequence> items = new ArrayList<CharSequence>();
+        private final HashSet<CharSequence> index = new HashSet<CharSequence>();
+
+        private void add(final CharSequence content) {
+            if (index.add(content))
+                items.add(content);
+        }
+        private void truncate(final int size) {
+            for (int i=items.size()-1; i>=size; i--) {
+                index.remove(items.remove(i));
+            }
+        }
     }
 
 
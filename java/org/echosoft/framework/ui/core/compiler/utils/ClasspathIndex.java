@@ -0,0 +1,496 @@
+package org.echosoft.framework.ui.core.compiler.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.echosoft.common.utils.ObjectUtil;
+import org.echosoft.framework.ui.core.Application;
+
+/**
+ * Индекс содержимого каталогов <code>META-INF</code> всех .jar файлов и каталогов, доступных загрузчику классов.
+ * Строится за один проход по каждому .jar файлу (.jar файлы обрабатываются параллельно) и содержит манифесты и перечни ресурсов
+ * из каталога <code>META-INF</code>. Используется как менеджером тем (поиск манифестов с описанием тем), так и при поиске
+ * библиотек тегов (файлы <code>META-INF/*.taglib.xml</code>).
+ * <p>Построенный для загрузчика классов индекс запоминается и повторно используется всеми его потребителями (см. {@link #getInstance(ClassLoader)}).</p>
+ * <p>Информация о каждом .jar файле запоминается с ключом из пути к файлу, его размера и времени последней модификации и
+ * может сохраняться в файле на диске, тогда при последующих запусках приложения неизменившиеся .jar файлы повторно не просматриваются.
+ * Сохранение индекса на диске включается системным свойством <code>webui.classpath.cache</code>, задающим путь к этому файлу.
+ * Поскольку содержимому файла индекса доверяют при поиске тем и библиотек тегов, он должен располагаться в каталоге, доступном
+ * на запись только данному приложению (например в каталоге <code>javax.servlet.context.tempdir</code>), но не в общем временном каталоге.
+ * По умолчанию индекс на диске не сохраняется. Содержимое каталогов (например <code>WEB-INF/classes</code>) просматривается при каждом
+ * построении индекса.</p>
+ * <p>Ресурсы, расположенные не в локальной файловой системе (например используемые рядом серверов приложений протоколы
+ * <code>vfszip</code> или <code>code-source</code>), не индексируются. Манифесты из них загружаются обычным образом, а сам индекс
+ * в этом случае считается неполным (см. {@link #isComplete()}).</p>
+ *
+ * @author Anton Sharapov
+ */
+public final class ClasspathIndex {
+
+    /**
+     * Каталог, содержимое которого включается в индекс.
+     */
+    public static final String META_INF = "META-INF/";
+
+    private static final String MANIFEST = META_INF + "MANIFEST.MF";
+    private static final String JAR_PROTOCOL = "jar";
+    private static final String FILE_PROTOCOL = "file";
+    private static final String JAR_SEPARATOR = "!/";
+
+    private static final String CACHE_PROPERTY = "webui.classpath.cache";
+    private static final String CACHE_DISABLED = "none";
+    private static final int CACHE_MAGIC = 0x57434958;  // "WCIX"
+    private static final int CACHE_VERSION = 1;
+
+    private static final ConcurrentHashMap<String,JarRecord> RECORDS = new ConcurrentHashMap<String,JarRecord>(); // ключ - путь к .jar файлу.
+    private static final Map<ClassLoader,ClasspathIndex> INSTANCES = new WeakHashMap<ClassLoader,ClasspathIndex>();
+    private static boolean cacheLoaded;
+
+    private final List<Root> roots;
+    private final boolean complete;
+
+    private ClasspathIndex(final List<Root> roots) {
+        boolean complete = true;
+        for (Root root : roots) {
+            if (root.entries==null)
+                complete = false;
+        }
+        this.roots = Collections.unmodifiableList(roots);
+        this.complete = complete;
+    }
+
+    /**
+     * Возвращает индекс для указанного загрузчика классов. Индекс строится при первом обращении и в дальнейшем используется повторно
+     * вплоть до вызова метода {@link #clear()}.
+     * @param cl  загрузчик классов.
+     * @return  индекс содержимого каталогов <code>META-INF</code> всех доступных загрузчику .jar файлов и каталогов.
+     * @throws IOException  в случае каких-либо проблем.
+     */
+    public static ClasspathIndex getInstance(final ClassLoader cl) throws IOException {
+        synchronized (INSTANCES) {
+            ClasspathIndex index = INSTANCES.get(cl);
+            if (index==null) {
+                index = build(cl);
+                INSTANCES.put(cl, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Забывает все построенные ранее индексы и сведения о просмотренных .jar файлах. Вызывается при остановке приложения.
+     */
+    public static void clear() {
+        synchronized (INSTANCES) {
+            INSTANCES.clear();
+        }
+        RECORDS.clear();
+    }
+
+    /**
+     * Строит индекс для текущего загрузчика классов.
+     * @return  индекс содержимого каталогов <code>META-INF</code> всех доступных загрузчику .jar файлов и каталогов.
+     * @throws IOException  в случае каких-либо проблем.
+     */
+    public static ClasspathIndex build() throws IOException {
+        return build(Thread.currentThread().getContextClassLoader());
+    }
+
+    /**
+     * Строит индекс для указанного загрузчика классов.
+     * @param cl  загрузчик классов.
+     * @return  индекс содержимого каталогов <code>META-INF</code> всех доступных загрузчику .jar файлов и каталогов.
+     * @throws IOException  в случае каких-либо проблем.
+     */
+    public static ClasspathIndex build(final ClassLoader cl) throws IOException {
+        final long started = System.currentTimeMillis();
+        loadCache();
+        final List<Callable<Root>> tasks = new ArrayList<Callable<Root>>();
+        for (URL url : findRoots(cl)) {
+            tasks.add( makeTask(url) );
+        }
+        final List<Root> roots = new ArrayList<Root>(tasks.size());
+        final int threads = Math.min(tasks.size(), Runtime.getRuntime().availableProcessors());
+        if (threads>1) {
+            final ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                for (Future<Root> future : executor.invokeAll(tasks)) {
+                    roots.add( await(future) );
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Classpath scanning was interrupted");
+            } finally {
+                executor.shutdown();
+            }
+        } else {
+            for (Callable<Root> task : tasks) {
+                try {
+                    roots.add( task.call() );
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException(e.getMessage(), e);
+                }
+            }
+        }
+        saveCache();
+        final ClasspathIndex index = new ClasspathIndex(roots);
+        if (Application.log.isDebugEnabled())
+            Application.log.debug("Classpath indexed in "+(System.currentTimeMillis()-started)+" ms: "+index);
+        return index;
+    }
+
+    /**
+     * @return <code>true</code> если проиндексированы все доступные загрузчику классов .jar файлы и каталоги и метод {@link #search(String, String)}
+     *          возвращает полный перечень ресурсов.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Возвращает манифесты всех .jar файлов и каталогов в порядке, определяемом загрузчиком классов.
+     * @return  упорядоченная карта, ключом в которой является ссылка на ресурс <code>META-INF/MANIFEST.MF</code>, а значением - содержимое манифеста.
+     * @throws IOException  в случае если содержимое какого-либо манифеста не может быть разобрано.
+     */
+    public Map<URL,Manifest> getManifests() throws IOException {
+        final Map<URL,Manifest> result = new LinkedHashMap<URL,Manifest>();
+        for (Root root : roots) {
+            if (root.manifest!=null)
+                result.put(root.getURL(MANIFEST), new Manifest(new ByteArrayInputStream(root.manifest)));
+        }
+        return result;
+    }
+
+    /**
+     * Возвращает ссылки на проиндексированные ресурсы, пути к которым начинаются и заканчиваются определенными строковыми значениями.
+     * @param prefix  строка, с которой начинается путь до ресурса. Должна начинаться с {@link #META_INF}.
+     * @param suffix  строка, которой заканчивается путь до ресурса.
+     * @return  множество ссылок на ресурсы, удовлетворяющих указанным в аргументах метода ограничениям.
+     * @throws IOException  в случае некорректной ссылки на ресурс.
+     */
+    public Set<URL> search(final String prefix, final String suffix) throws IOException {
+        if (!prefix.startsWith(META_INF))
+            throw new IllegalArgumentException("Only resources from "+META_INF+" are indexed");
+        final Set<URL> result = new LinkedHashSet<URL>();
+        for (Root root : roots) {
+            if (root.entries==null)
+                continue;
+            for (String name : root.entries) {
+                if (name.startsWith(prefix) && name.endsWith(suffix))
+                    result.add( root.getURL(name) );
+            }
+        }
+        return result;
+    }
+
+    public String toString() {
+        return "[ClasspathIndex{roots:"+roots.size()+", complete:"+complete+"}]";
+    }
+
+
+    /**
+     * Возвращает упорядоченный перечень ссылок на каталоги <code>META-INF</code> (или манифесты в них) всех .jar файлов и каталогов,
+     * доступных загрузчику классов. Каждый .jar файл или каталог представлен в перечне не более одного раза.
+     */
+    private static Set<URL> findRoots(final ClassLoader cl) throws IOException {
+        final Map<String,URL> result = new LinkedHashMap<String,URL>();
+        for (String name : new String[]{MANIFEST, META_INF}) {
+            for (Enumeration<URL> e = cl.getResources(name); e.hasMoreElements(); ) {
+                final URL url = e.nextElement();
+                final String spec = url.toExternalForm();
+                final int p = spec.lastIndexOf(name);
+                final String key = p>0 ? spec.substring(0,p) : spec;
+                if (!result.containsKey(key))
+                    result.put(key, url);
+            }
+        }
+        return new LinkedHashSet<URL>(result.values());
+    }
+
+    private static Callable<Root> makeTask(final URL url) {
+        return new Callable<Root>() {
+            public Root call() throws IOException {
+                final String spec = url.toExternalForm();
+                final String base = spec.substring(0, spec.lastIndexOf(META_INF));
+                try {
+                    if (JAR_PROTOCOL.equals(url.getProtocol())) {
+                        final String file = url.getFile();
+                        final int s = file.indexOf(JAR_SEPARATOR);
+                        final URL jarUrl = s>0 ? new URL(file.substring(0,s)) : null;
+                        if (jarUrl!=null && FILE_PROTOCOL.equals(jarUrl.getProtocol()) && base.endsWith(JAR_SEPARATOR) && base.indexOf(JAR_SEPARATOR)==base.length()-JAR_SEPARATOR.length()) {
+                            final JarRecord record = getJarRecord(toFile(jarUrl));
+                            return new Root(url, base, record.manifest, record.entries);
+                        }
+                    } else
+                    if (FILE_PROTOCOL.equals(url.getProtocol())) {
+                        final File dir = toFile(new URL(base));
+                        if (dir.isDirectory()) {
+                            final List<String> entries = new ArrayList<String>();
+                            scanDirectory(new File(dir, META_INF), META_INF, entries);
+                            final File mf = new File(dir, MANIFEST);
+                            final byte[] manifest = mf.isFile() ? readFile(mf) : null;
+                            return new Root(url, base, manifest, entries.toArray(new String[entries.size()]));
+                        }
+                    }
+                } catch (IOException e) {
+                    Application.log.warn("Unable to index classpath entry "+base+": "+e.getMessage(), e);
+                }
+                // ресурс не индексируется, загружаем только манифест ...
+                byte[] manifest = null;
+                if (spec.endsWith(MANIFEST)) {
+                    final InputStream in = url.openStream();
+                    try {
+                        manifest = ObjectUtil.streamToBytes(in);
+                    } finally {
+                        in.close();
+                    }
+                }
+                return new Root(url, base, manifest, null);
+            }
+        };
+    }
+
+    private static JarRecord getJarRecord(final File file) throws IOException {
+        final String key = file.getAbsolutePath();
+        final long size = file.length();
+        final long lastModified = file.lastModified();
+        JarRecord record = RECORDS.get(key);
+        if (record!=null && record.size==size && record.lastModified==lastModified)
+            return record;
+        final JarFile jar = new JarFile(file, false);
+        try {
+            byte[] manifest = null;
+            final List<String> entries = new ArrayList<String>();
+            for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); ) {
+                final JarEntry entry = e.nextElement();
+                final String name = entry.getName();
+                if (entry.isDirectory() || !name.startsWith(META_INF))
+                    continue;
+                entries.add(name);
+                if (MANIFEST.equals(name)) {
+                    final InputStream in = jar.getInputStream(entry);
+                    try {
+                        manifest = ObjectUtil.streamToBytes(in);
+                    } finally {
+                        in.close();
+                    }
+                }
+            }
+            record = new JarRecord(size, lastModified, manifest, entries.toArray(new String[entries.size()]));
+            record.modified = true;
+        } finally {
+            jar.close();
+        }
+        RECORDS.put(key, record);
+        return record;
+    }
+
+    private static void scanDirectory(final File dir, final String path, final List<String> entries) {
+        final File[] files = dir.listFiles();
+        if (files==null)
+            return;
+        for (File file : files) {
+            if (file.isDirectory()) {
+                scanDirectory(file, path + file.getName() + '/', entries);
+            } else
+                entries.add(path + file.getName());
+        }
+    }
+
+    private static File getCacheFile() {
+        final String path = System.getProperty(CACHE_PROPERTY);
+        if (path==null || path.length()==0 || CACHE_DISABLED.equals(path))
+            return null;
+        return new File(path).getAbsoluteFile();
+    }
+
+    /**
+     * Однократно загружает сохраненную на диске информацию о ранее просмотренных .jar файлах.
+     */
+    private static synchronized void loadCache() {
+        if (cacheLoaded)
+            return;
+        cacheLoaded = true;
+        final File file = getCacheFile();
+        if (file==null || !file.isFile())
+            return;
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt()!=CACHE_MAGIC || in.readInt()!=CACHE_VERSION)
+                    return;
+                for (int i=in.readInt(); i>0; i--) {
+                    final String path = in.readUTF();
+                    final long size = in.readLong();
+                    final long lastModified = in.readLong();
+                    byte[] manifest = null;
+                    final int length = in.readInt();
+                    if (length>=0) {
+                        manifest = new byte[length];
+                        in.readFully(manifest);
+                    }
+                    final String[] entries = new String[in.readInt()];
+                    for (int j=0; j<entries.length; j++)
+                        entries[j] = in.readUTF();
+                    RECORDS.putIfAbsent(path, new JarRecord(size, lastModified, manifest, entries));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Application.log.warn("Unable to load classpath index from "+file+": "+e.getMessage());
+        }
+    }
+
+    /**
+     * Сохраняет на диске информацию о просмотренных .jar файлах если она изменилась. Записи об удаленных или изменившихся
+     * с момента просмотра .jar файлах не сохраняются.
+     */
+    private static synchronized void saveCache() {
+        final File file = getCacheFile();
+        if (file==null)
+            return;
+        boolean modified = false;
+        final Map<String,JarRecord> records = new LinkedHashMap<String,JarRecord>();
+        for (Map.Entry<String,JarRecord> entry : RECORDS.entrySet()) {
+            final JarRecord record = entry.getValue();
+            final File jar = new File(entry.getKey());
+            if (record.size==jar.length() && record.lastModified==jar.lastModified()) {
+                records.put(entry.getKey(), record);
+            } else
+                modified = true;
+            modified |= record.modified;
+        }
+        if (!modified)
+            return;
+        File tmp = null;
+        try {
+            tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(CACHE_MAGIC);
+                out.writeInt(CACHE_VERSION);
+                out.writeInt(records.size());
+                for (Map.Entry<String,JarRecord> entry : records.entrySet()) {
+                    final JarRecord record = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(record.size);
+                    out.writeLong(record.lastModified);
+                    if (record.manifest!=null) {
+                        out.writeInt(record.manifest.length);
+                        out.write(record.manifest);
+                    } else
+                        out.writeInt(-1);
+                    out.writeInt(record.entries.length);
+                    for (String name : record.entries)
+                        out.writeUTF(name);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+                throw new IOException("Can't rename "+tmp+" to "+file);
+            for (JarRecord record : records.values())
+                record.modified = false;
+        } catch (IOException e) {
+            if (tmp!=null)
+                tmp.delete();
+            Application.log.warn("Unable to save classpath index to "+file+": "+e.getMessage());
+        }
+    }
+
+    private static Root await(final Future<Root> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new IOException(cause.getMessage());
+        }
+    }
+
+    private static File toFile(final URL url) throws IOException {
+        return new File(URLDecoder.decode(url.getPath(), "UTF-8"));
+    }
+
+    private static byte[] readFile(final File file) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        try {
+            return ObjectUtil.streamToBytes(in);
+        } finally {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Сведения об одном .jar файле или каталоге в индексе.
+     */
+    private static final class Root {
+        private final URL source;           // ссылка, полученная от загрузчика классов.
+        private final String base;          // ссылка на корневой каталог .jar файла или каталога.
+        private final byte[] manifest;
+        private final String[] entries;     // null если ресурс не индексировался.
+        private Root(final URL source, final String base, final byte[] manifest, final String[] entries) {
+            this.source = source;
+            this.base = base;
+            this.manifest = manifest;
+            this.entries = entries;
+        }
+        private URL getURL(final String name) throws IOException {
+            return new URL(source, base + name);
+        }
+    }
+
+    /**
+     * Сведения о содержимом .jar файла, сохраняемые между запусками приложения.
+     */
+    private static final class JarRecord {
+        private final long size;
+        private final long lastModified;
+        private final byte[] manifest;
+        private final String[] entries;
+        private volatile boolean modified;
+        private JarRecord(final long size, final long lastModified, final byte[] manifest, final String[] entries) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.manifest = manifest;
+            this.entries = entries;
+        }
+    }
+}
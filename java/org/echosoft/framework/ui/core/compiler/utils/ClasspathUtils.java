@@ -106,7 +106,8 @@ public final class ClasspathUtils {
 
     /**
      * Возвращает ссылки на ресурсы, доступные указанному загрузчику, URL которых начинается и заканчивается
-     * определенными строковыми значениями.
+     * определенными строковыми значениями. Ресурсы из каталога <code>META-INF</code> ищутся с помощью индекса {@link ClasspathIndex},
+     * полный просмотр всех .jar файлов выполняется только если индекс неполон.
      * @param cl  загрузчик классов, используемый для поиска ресурсов.
      * @param prefix  строка, с которой начинается путь до ресурса (в jar файле).
      * @param suffix  строка, которой заканчивается путь до ресурса.
@@ -114,6 +115,11 @@ public final class ClasspathUtils {
      * @throws IOException  в случае каких-либо проблем.
      */
 	public static Set<URL> search(final ClassLoader cl, final String prefix, final String suffix) throws IOException {
+        if (prefix.startsWith(ClasspathIndex.META_INF)) {
+            final ClasspathIndex index = ClasspathIndex.getInstance(cl);
+            if (index.isComplete())
+                return index.search(prefix, suffix);
+        }
 		final Set<URL> result = new LinkedHashSet<URL>();
         for (Enumeration<URL> e = cl.getResources(prefix); e.hasMoreElements(); ) {
             final URL url = e.nextElement();
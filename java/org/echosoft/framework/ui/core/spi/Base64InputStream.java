@@ -0,0 +1,120 @@
+package org.echosoft.framework.ui.core.spi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Поток, декодирующий данные в формате Base64 непосредственно из символов указанной строки, без построения промежуточного
+ * массива с результатом декодирования всей строки. Пробельные символы в исходной строке игнорируются.
+ *
+ * @author Anton Sharapov
+ */
+final class Base64InputStream extends InputStream {
+
+    private static final int[] CODES = new int[128];
+    static {
+        Arrays.fill(CODES, -1);
+        for (int i=0; i<Base64OutputStream.ALPHABET.length; i++) {
+            CODES[Base64OutputStream.ALPHABET[i]] = i;
+        }
+    }
+
+    private final CharSequence src;
+    private final int length;
+    private int pos;
+    private int bits;
+    private int count;      // количество еще не прочитанных байт в bits.
+    private boolean eof;
+
+    Base64InputStream(final CharSequence src) {
+        this.src = src;
+        this.length = src.length();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (count==0 && !fill())
+            return -1;
+        return (bits >>> (8 * --count)) & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len==0)
+            return 0;
+        int n = 0;
+        while (n<len) {
+            if (count==0) {
+                // быстрый путь: декодируем полные группы из четырех символов прямо в выходной массив ...
+                while (len-n>=3 && pos+4<=length) {
+                    final int v = decode(src.charAt(pos), src.charAt(pos+1), src.charAt(pos+2), src.charAt(pos+3));
+                    if (v<0)
+                        break;
+                    b[off+n++] = (byte)(v >>> 16);
+                    b[off+n++] = (byte)(v >>> 8);
+                    b[off+n++] = (byte)v;
+                    pos += 4;
+                }
+                if (n==len || !fill())
+                    break;
+            }
+            b[off+n++] = (byte)(bits >>> (8 * --count));
+        }
+        return n==0 ? -1 : n;
+    }
+
+    @Override
+    public int available() {
+        return count + (length - pos) / 4 * 3;
+    }
+
+    /**
+     * Декодирует очередную группу символов с учетом пробелов и завершающих символов '='.
+     * @return <code>true</code> если была декодирована очередная группа и <code>false</code> если достигнут конец данных.
+     */
+    private boolean fill() throws IOException {
+        if (eof)
+            return false;
+        int v = 0;
+        int chars = 0;
+        int padding = 0;
+        while (chars<4) {
+            if (pos>=length) {
+                if (chars==0) {
+                    eof = true;
+                    return false;
+                }
+                throw new IOException("Truncated base64 data");
+            }
+            final char c = src.charAt(pos++);
+            if (Character.isWhitespace(c))
+                continue;
+            if (c=='=' && chars>=2) {
+                padding++;
+                v <<= 6;
+                chars++;
+                continue;
+            }
+            final int code = c<128 && padding==0 ? CODES[c] : -1;
+            if (code<0)
+                throw new IOException("Illegal base64 character at position "+(pos-1));
+            v = (v << 6) | code;
+            chars++;
+        }
+        if (padding>0)
+            eof = true;
+        count = 3 - padding;
+        bits = v >>> (8 * padding);
+        return count>0;
+    }
+
+    private static int decode(final char c1, final char c2, final char c3, final char c4) {
+        if ((c1|c2|c3|c4)>=128)
+            return -1;
+        final int a = CODES[c1], b = CODES[c2], c = CODES[c3], d = CODES[c4];
+        if ((a|b|c|d)<0)
+            return -1;
+        return (a << 18) | (b << 12) | (c << 6) | d;
+    }
+}
@@ -0,0 +1,102 @@
+package org.echosoft.framework.ui.core.spi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Поток, кодирующий записываемые в него байты в формате Base64 (RFC 4648, с выравниванием символами '=' и без переводов строк)
+ * и передающий полученные символы непосредственно в указанный символьный поток, без построения промежуточных массивов и строк.
+ * Результат кодирования полностью совместим с {@link org.echosoft.common.utils.Base64Util#encode(byte[])}.
+ * <p>Метод {@link #close()} дописывает в выходной поток последнюю неполную группу символов но не закрывает сам выходной поток.</p>
+ *
+ * @author Anton Sharapov
+ */
+final class Base64OutputStream extends OutputStream {
+
+    static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private final Writer out;
+    private final char[] buf;
+    private int pos;
+    private int bits;
+    private int count;
+    private boolean closed;
+
+    Base64OutputStream(final Writer out) {
+        this.out = out;
+        this.buf = new char[1024];
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        bits = (bits << 8) | (b & 0xFF);
+        if (++count==3) {
+            encode();
+        }
+    }
+
+    @Override
+    public void write(final byte[] b, int off, final int len) throws IOException {
+        final int end = off + len;
+        while (count!=0 && off<end) {
+            write(b[off++]);
+        }
+        while (end-off>=3) {
+            if (pos+4>buf.length)
+                flushBuffer();
+            final int v = ((b[off]&0xFF)<<16) | ((b[off+1]&0xFF)<<8) | (b[off+2]&0xFF);
+            buf[pos++] = ALPHABET[(v >>> 18) & 0x3F];
+            buf[pos++] = ALPHABET[(v >>> 12) & 0x3F];
+            buf[pos++] = ALPHABET[(v >>> 6) & 0x3F];
+            buf[pos++] = ALPHABET[v & 0x3F];
+            off += 3;
+        }
+        while (off<end) {
+            write(b[off++]);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        if (count==1) {
+            bits <<= 16;
+            encode();
+            buf[pos-2] = '=';
+            buf[pos-1] = '=';
+        } else
+        if (count==2) {
+            bits <<= 8;
+            encode();
+            buf[pos-1] = '=';
+        }
+        flushBuffer();
+    }
+
+    private void encode() throws IOException {
+        if (pos+4>buf.length)
+            flushBuffer();
+        buf[pos++] = ALPHABET[(bits >>> 18) & 0x3F];
+        buf[pos++] = ALPHABET[(bits >>> 12) & 0x3F];
+        buf[pos++] = ALPHABET[(bits >>> 6) & 0x3F];
+        buf[pos++] = ALPHABET[bits & 0x3F];
+        bits = 0;
+        count = 0;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (pos>0) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+}
@@ -0,0 +1,669 @@
+package org.echosoft.framework.ui.core.spi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.echosoft.common.utils.Base64Util;
+import org.echosoft.framework.ui.core.StateHolder;
+import org.echosoft.framework.ui.core.UIContext;
+import org.echosoft.framework.ui.core.ViewStateDescriptor;
+
+/**
+ * Кодирует состояния посещенных страниц в компактном двоичном формате, рассчитанном на те типы значений, которые обычно сохраняют
+ * в состояниях компоненты форм: строки, массивы строк, числа, логические значения и даты.
+ * <ul>
+ *  <li> каждое значение предваряется однобайтовым признаком типа, длины и целые числа записываются в формате переменной длины (varint);
+ *  <li> строки записываются однократно, повторные вхождения строки заменяются ссылкой на ее номер в словаре. Ключи в состоянии каждой страницы
+ *       упорядочиваются и для каждой новой строки записывается только ее отличие от предыдущей новой строки, поэтому общие префиксы
+ *       идентификаторов компонент (<code>form1.field1.value</code>, <code>form1.field2.value</code>, ...) хранятся однократно;
+ *  <li> списки (<code>ArrayList</code>) и ассоциативные массивы (<code>HashMap</code>) записываются поэлементно, глубина их вложенности
+ *       ограничена {@value #MAX_DEPTH} уровнями;
+ *  <li> значения прочих типов сериализуются стандартными средствами java.
+ * </ul>
+ * Если объем закодированных данных превышает {@value #COMPRESSION_THRESHOLD} байт, то они дополнительно сжимаются алгоритмом deflate.
+ * Результат кодируется в base64.
+ *
+ * @author Anton Sharapov
+ */
+public class BinaryStateSerializer extends StreamingStateSerializer {
+
+    /**
+     * Объем данных (в байтах) начиная с которого закодированные состояния сжимаются.
+     */
+    public static final int COMPRESSION_THRESHOLD = 256;
+
+    private static final int MAX_DECODED_SIZE = 16*1024*1024;  // ограничение на объем распакованных данных.
+    private static final int MAX_DEPTH = 32;                    // ограничение на глубину вложенности списков и ассоциативных массивов.
+    private static final int FORMAT = 1;
+    private static final int FORMAT_DELTA = 2;
+    private static final int FLAG_COMPRESSED = 0x80;
+
+    private static final int T_NULL = 0;
+    private static final int T_STRING = 1;
+    private static final int T_STRING_ARRAY = 2;
+    private static final int T_TRUE = 3;
+    private static final int T_FALSE = 4;
+    private static final int T_INTEGER = 5;
+    private static final int T_LONG = 6;
+    private static final int T_SHORT = 7;
+    private static final int T_BYTE = 8;
+    private static final int T_DOUBLE = 9;
+    private static final int T_FLOAT = 10;
+    private static final int T_CHAR = 11;
+    private static final int T_DATE = 12;
+    private static final int T_DECIMAL = 13;
+    private static final int T_LIST = 14;
+    private static final int T_MAP = 15;
+    private static final int T_SERIALIZED = 16;
+
+    /**
+     * {@inheritDoc}
+     */
+    public String encodeState(final UIContext uctx) throws Exception {
+        return Base64Util.encode(encode(uctx.getStates()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void encodeState(final UIContext uctx, final Writer out) throws Exception {
+        final Base64OutputStream bout = new Base64OutputStream(out);
+        bout.write(encode(uctx.getStates()));
+        bout.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void decodeState(final UIContext uctx, final String encodedState) throws Exception {
+        if (encodedState==null || encodedState.length()==0)
+            return;
+        decode(Base64Util.decode(encodedState), uctx.getStates());
+    }
+
+    /**
+     * Кодирует состояния страниц в двоичном формате.
+     * @param states  состояния посещенных страниц.
+     * @return  закодированные состояния.
+     * @throws IOException  в случае если какое-либо из значений не может быть сериализовано.
+     */
+    public static byte[] encode(final StateHolder states) throws IOException {
+        final Encoder out = new Encoder();
+        out.write(FORMAT);
+        final ViewStateDescriptor[] descs = states.getViewStates().toArray(new ViewStateDescriptor[states.getViewStates().size()]);
+        Arrays.sort(descs);
+        out.writeVarint(descs.length);
+        for (ViewStateDescriptor desc : descs) {
+            writeDescriptor(out, desc);
+            final Map<String,Object> state = states.getViewState(desc);
+            final String[] keys = state.keySet().toArray(new String[state.size()]);
+            Arrays.sort(keys);
+            out.writeVarint(keys.length);
+            for (String key : keys) {
+                out.writeString(key);
+                writeValue(out, state.get(key), 0);
+            }
+        }
+        final ViewStateDescriptor current = states.getCurrentDescriptor();
+        final int index = current!=null ? Arrays.binarySearch(descs, current) : -1;
+        if (current==null) {
+            out.writeVarint(0);
+        } else
+        if (index>=0 && descs[index].equals(current)) {
+            out.writeVarint(index+2);
+        } else {
+            out.writeVarint(1);
+            writeDescriptor(out, current);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Восстанавливает закодированные методом {@link #encode(StateHolder)} состояния страниц.
+     * @param data  закодированные состояния.
+     * @param states  менеджер состояний, в который должны быть помещены восстановленные состояния.
+     * @throws IOException  в случае некорректных входных данных.
+     * @throws ClassNotFoundException  в случае если какое-либо из сериализованных значений не может быть восстановлено.
+     */
+    public static void decode(final byte[] data, final StateHolder states) throws IOException, ClassNotFoundException {
+        final Decoder in = open(data, FORMAT);
+        final int count = in.readLength();
+        final ViewStateDescriptor[] descs = new ViewStateDescriptor[count];
+        for (int i=0; i<count; i++) {
+            descs[i] = readDescriptor(in);
+            final Map<String,Object> state = states.ensureStateExists(descs[i]);
+            for (int j=in.readVarint(); j>0; j--) {
+                final String key = in.readString();
+                state.put(key, readValue(in, 0));
+            }
+        }
+        final int current = in.readVarint();
+        if (current==1) {
+            states.setCurrentDescriptor( readDescriptor(in) );
+        } else
+        if (current>1) {
+            if (current-2>=count)
+                throw new StreamCorruptedException("Illegal current view state index: "+current);
+            states.setCurrentDescriptor( descs[current-2] );
+        }
+    }
+
+    /**
+     * Кодирует отличия состояний страниц от указанных базовых состояний: удаленные страницы, а для каждой из прочих страниц -
+     * удаленные, добавленные и измененные значения.
+     * @param base  базовые состояния страниц.
+     * @param states  текущие состояния страниц.
+     * @return  закодированные отличия текущих состояний от базовых.
+     * @throws IOException  в случае если какое-либо из значений не может быть сериализовано.
+     */
+    public static byte[] encodeDelta(final StateHolder base, final StateHolder states) throws IOException {
+        final Encoder out = new Encoder();
+        out.write(FORMAT_DELTA);
+        final ArrayList<ViewStateDescriptor> removed = new ArrayList<ViewStateDescriptor>();
+        for (ViewStateDescriptor desc : base.getViewStates()) {
+            if (states.getViewState(desc)==null)
+                removed.add(desc);
+        }
+        final ViewStateDescriptor[] rdescs = removed.toArray(new ViewStateDescriptor[removed.size()]);
+        Arrays.sort(rdescs);
+        out.writeVarint(rdescs.length);
+        for (ViewStateDescriptor desc : rdescs) {
+            writeDescriptor(out, desc);
+        }
+        final ArrayList<ViewStateDescriptor> changed = new ArrayList<ViewStateDescriptor>();
+        for (ViewStateDescriptor desc : states.getViewStates()) {
+            final Map<String,Object> prev = base.getViewState(desc);
+            if (prev==null || !prev.keySet().equals(states.getViewState(desc).keySet()) || !equalValues(prev, states.getViewState(desc)))
+                changed.add(desc);
+        }
+        final ViewStateDescriptor[] cdescs = changed.toArray(new ViewStateDescriptor[changed.size()]);
+        Arrays.sort(cdescs);
+        out.writeVarint(cdescs.length);
+        for (ViewStateDescriptor desc : cdescs) {
+            writeDescriptor(out, desc);
+            final Map<String,Object> state = states.getViewState(desc);
+            Map<String,Object> prev = base.getViewState(desc);
+            if (prev==null)
+                prev = Collections.emptyMap();
+            final ArrayList<String> rkeys = new ArrayList<String>();
+            for (String key : prev.keySet()) {
+                if (!state.containsKey(key))
+                    rkeys.add(key);
+            }
+            Collections.sort(rkeys);
+            out.writeVarint(rkeys.size());
+            for (String key : rkeys) {
+                out.writeString(key);
+            }
+            final ArrayList<String> ckeys = new ArrayList<String>();
+            for (Map.Entry<String,Object> entry : state.entrySet()) {
+                if (!prev.containsKey(entry.getKey()) || !equalValues(prev.get(entry.getKey()), entry.getValue()))
+                    ckeys.add(entry.getKey());
+            }
+            Collections.sort(ckeys);
+            out.writeVarint(ckeys.size());
+            for (String key : ckeys) {
+                out.writeString(key);
+                writeValue(out, state.get(key), 0);
+            }
+        }
+        final ViewStateDescriptor current = states.getCurrentDescriptor();
+        if (current==null) {
+            out.writeVarint(0);
+        } else {
+            out.writeVarint(1);
+            writeDescriptor(out, current);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Применяет закодированные методом {@link #encodeDelta(StateHolder, StateHolder)} отличия к базовым состояниям страниц.
+     * @param data  закодированные отличия.
+     * @param states  менеджер состояний, содержащий базовые состояния страниц. В результате вызова будет содержать текущие состояния страниц.
+     * @throws IOException  в случае некорректных входных данных.
+     * @throws ClassNotFoundException  в случае если какое-либо из сериализованных значений не может быть восстановлено.
+     */
+    public static void decodeDelta(final byte[] data, final StateHolder states) throws IOException, ClassNotFoundException {
+        final Decoder in = open(data, FORMAT_DELTA);
+        for (int i=in.readVarint(); i>0; i--) {
+            states.getViewStates().remove( readDescriptor(in) );
+        }
+        for (int i=in.readVarint(); i>0; i--) {
+            final Map<String,Object> state = states.ensureStateExists(readDescriptor(in));
+            for (int j=in.readVarint(); j>0; j--) {
+                state.remove( in.readString() );
+            }
+            for (int j=in.readVarint(); j>0; j--) {
+                final String key = in.readString();
+                state.put(key, readValue(in, 0));
+            }
+        }
+        states.setCurrentDescriptor( in.readVarint()!=0 ? readDescriptor(in) : null );
+    }
+
+
+    private static Decoder open(final byte[] data, final int format) throws IOException {
+        final Decoder in = new Decoder(data);
+        final int header = in.read();
+        if ((header & ~FLAG_COMPRESSED)!=format)
+            throw new StreamCorruptedException("Unsupported view state format: "+header);
+        if ((header & FLAG_COMPRESSED)!=0)
+            in.inflate();
+        return in;
+    }
+
+    private static boolean equalValues(final Map<String,Object> m1, final Map<String,Object> m2) {
+        for (Map.Entry<String,Object> entry : m1.entrySet()) {
+            if (!equalValues(entry.getValue(), m2.get(entry.getKey())))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean equalValues(final Object v1, final Object v2) {
+        return v1==v2 || (v1!=null && v2!=null && Arrays.deepEquals(new Object[]{v1}, new Object[]{v2}));
+    }
+
+    private static void writeDescriptor(final Encoder out, final ViewStateDescriptor desc) {
+        out.writeString(desc.getPackage());
+        out.writeString(desc.getView());
+        out.writeVarlong(zigzag(desc.getRank()));
+    }
+
+    private static ViewStateDescriptor readDescriptor(final Decoder in) throws IOException {
+        final String pkg = in.readString();
+        final String view = in.readString();
+        return new ViewStateDescriptor(pkg, view, (int)unzigzag(in.readVarlong()));
+    }
+
+    private static void writeValue(final Encoder out, final Object value, final int depth) throws IOException {
+        if (depth>MAX_DEPTH)
+            throw new NotSerializableException("Values nested deeper than "+MAX_DEPTH+" levels are not supported");
+        if (value==null) {
+            out.write(T_NULL);
+            return;
+        }
+        final Class<?> cl = value.getClass();
+        if (cl==String.class) {
+            out.write(T_STRING);
+            out.writeString((String)value);
+        } else
+        if (cl==String[].class) {
+            final String[] array = (String[])value;
+            out.write(T_STRING_ARRAY);
+            out.writeVarint(array.length);
+            for (String item : array) {
+                if (item==null) {
+                    out.writeVarint(0);
+                } else {
+                    out.writeVarint(1);
+                    out.writeString(item);
+                }
+            }
+        } else
+        if (cl==Boolean.class) {
+            out.write((Boolean)value ? T_TRUE : T_FALSE);
+        } else
+        if (cl==Integer.class) {
+            out.write(T_INTEGER);
+            out.writeVarlong(zigzag((Integer)value));
+        } else
+        if (cl==Long.class) {
+            out.write(T_LONG);
+            out.writeVarlong(zigzag((Long)value));
+        } else
+        if (cl==Short.class) {
+            out.write(T_SHORT);
+            out.writeVarlong(zigzag((Short)value));
+        } else
+        if (cl==Byte.class) {
+            out.write(T_BYTE);
+            out.write((Byte)value);
+        } else
+        if (cl==Double.class) {
+            out.write(T_DOUBLE);
+            out.writeFixed(Double.doubleToLongBits((Double)value), 8);
+        } else
+        if (cl==Float.class) {
+            out.write(T_FLOAT);
+            out.writeFixed(Float.floatToIntBits((Float)value), 4);
+        } else
+        if (cl==Character.class) {
+            out.write(T_CHAR);
+            out.writeVarint((Character)value);
+        } else
+        if (cl==Date.class) {
+            out.write(T_DATE);
+            out.writeVarlong(zigzag(((Date)value).getTime()));
+        } else
+        if (cl==BigDecimal.class) {
+            out.write(T_DECIMAL);
+            out.writeString(value.toString());
+        } else
+        if (cl==ArrayList.class) {
+            final List<?> list = (List<?>)value;
+            out.write(T_LIST);
+            out.writeVarint(list.size());
+            for (Object item : list) {
+                writeValue(out, item, depth+1);
+            }
+        } else
+        if (cl==HashMap.class) {
+            final Map<?,?> map = (Map<?,?>)value;
+            out.write(T_MAP);
+            out.writeVarint(map.size());
+            for (Map.Entry<?,?> entry : map.entrySet()) {
+                writeValue(out, entry.getKey(), depth+1);
+                writeValue(out, entry.getValue(), depth+1);
+            }
+        } else {
+            final ByteArrayOutputStream buf = new ByteArrayOutputStream(256);
+            final ObjectOutputStream oos = new ObjectOutputStream(buf);
+            try {
+                oos.writeObject(value);
+            } finally {
+                oos.close();
+            }
+            out.write(T_SERIALIZED);
+            out.writeVarint(buf.size());
+            out.write(buf.toByteArray());
+        }
+    }
+
+    private static Object readValue(final Decoder in, final int depth) throws IOException, ClassNotFoundException {
+        if (depth>MAX_DEPTH)
+            throw new StreamCorruptedException("View state values are nested too deeply");
+        final int type = in.read();
+        switch (type) {
+            case T_NULL :
+                return null;
+            case T_STRING :
+                return in.readString();
+            case T_STRING_ARRAY : {
+                final int size = in.readLength();
+                final ArrayList<String> result = new ArrayList<String>();
+                for (int i=0; i<size; i++) {
+                    result.add( in.readVarint()!=0 ? in.readString() : null );
+                }
+                return result.toArray(new String[size]);
+            }
+            case T_TRUE :
+                return Boolean.TRUE;
+            case T_FALSE :
+                return Boolean.FALSE;
+            case T_INTEGER :
+                return (int)unzigzag(in.readVarlong());
+            case T_LONG :
+                return unzigzag(in.readVarlong());
+            case T_SHORT :
+                return (short)unzigzag(in.readVarlong());
+            case T_BYTE :
+                return (byte)in.read();
+            case T_DOUBLE :
+                return Double.longBitsToDouble(in.readFixed(8));
+            case T_FLOAT :
+                return Float.intBitsToFloat((int)in.readFixed(4));
+            case T_CHAR :
+                return (char)in.readVarint();
+            case T_DATE :
+                return new Date(unzigzag(in.readVarlong()));
+            case T_DECIMAL :
+                return new BigDecimal(in.readString());
+            case T_LIST : {
+                final int size = in.readLength();
+                final ArrayList<Object> result = new ArrayList<Object>();
+                for (int i=0; i<size; i++) {
+                    result.add( readValue(in, depth+1) );
+                }
+                return result;
+            }
+            case T_MAP : {
+                final int size = in.readLength();
+                final HashMap<Object,Object> result = new HashMap<Object,Object>();
+                for (int i=0; i<size; i++) {
+                    final Object key = readValue(in, depth+1);
+                    result.put(key, readValue(in, depth+1));
+                }
+                return result;
+            }
+            case T_SERIALIZED : {
+                final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(in.readBytes(in.readLength())));
+                try {
+                    return ois.readObject();
+                } finally {
+                    ois.close();
+                }
+            }
+            default :
+                throw new StreamCorruptedException("Unknown value type: "+type);
+        }
+    }
+
+    private static long zigzag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+
+    /**
+     * Буфер, в который записываются закодированные состояния.
+     */
+    private static final class Encoder {
+        private final HashMap<String,Integer> dictionary = new HashMap<String,Integer>();
+        private String last = "";
+        private byte[] buf = new byte[512];
+        private int count;
+
+        private void ensureCapacity(final int size) {
+            if (count+size>buf.length)
+                buf = Arrays.copyOf(buf, Math.max(buf.length*2, count+size));
+        }
+        private void write(final int b) {
+            ensureCapacity(1);
+            buf[count++] = (byte)b;
+        }
+        private void write(final byte[] data) {
+            ensureCapacity(data.length);
+            System.arraycopy(data, 0, buf, count, data.length);
+            count += data.length;
+        }
+        private void writeVarint(final int value) {
+            writeVarlong(value & 0xFFFFFFFFL);
+        }
+        private void writeVarlong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL)!=0) {
+                buf[count++] = (byte)((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[count++] = (byte)value;
+        }
+        private void writeFixed(final long value, final int bytes) {
+            ensureCapacity(bytes);
+            for (int i=bytes-1; i>=0; i--) {
+                buf[count++] = (byte)(value >>> (i*8));
+            }
+        }
+        /**
+         * Записывает либо ссылку на уже записанную ранее строку (нечетное число - номер строки в словаре), либо длину общего префикса
+         * с предыдущей новой строкой (четное число) и оставшуюся часть строки в кодировке UTF-8.
+         */
+        private void writeString(final String str) {
+            final Integer index = dictionary.get(str);
+            if (index!=null) {
+                writeVarint((index << 1) | 1);
+                return;
+            }
+            final int max = Math.min(str.length(), last.length());
+            int prefix = 0;
+            while (prefix<max && str.charAt(prefix)==last.charAt(prefix))
+                prefix++;
+            if (prefix>0 && Character.isHighSurrogate(str.charAt(prefix-1)))
+                prefix--;
+            writeVarint(prefix << 1);
+            final byte[] suffix = toUTF8(str, prefix);
+            writeVarint(suffix.length);
+            write(suffix);
+            dictionary.put(str, dictionary.size());
+            last = str;
+        }
+        private byte[] toByteArray() throws IOException {
+            if (count<=COMPRESSION_THRESHOLD)
+                return Arrays.copyOf(buf, count);
+            final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+            try {
+                deflater.setInput(buf, 1, count-1);
+                deflater.finish();
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(count/2 + 16);
+                out.write(buf[0] | FLAG_COMPRESSED);
+                final byte[] chunk = new byte[Math.min(count, 8192)];
+                while (!deflater.finished()) {
+                    final int n = deflater.deflate(chunk);
+                    out.write(chunk, 0, n);
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+        private static byte[] toUTF8(final String str, final int start) {
+            try {
+                return str.substring(start).getBytes("UTF-8");
+            } catch (IOException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Читает закодированные состояния.
+     */
+    private static final class Decoder {
+        private final ArrayList<String> dictionary = new ArrayList<String>();
+        private String last = "";
+        private byte[] buf;
+        private int pos;
+        private int limit;
+
+        private Decoder(final byte[] buf) {
+            this.buf = buf;
+            this.limit = buf.length;
+        }
+        /**
+         * Распаковывает сжатую часть данных (все данные после заголовка).
+         */
+        private void inflate() throws IOException {
+            final Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(buf, pos, limit-pos);
+                byte[] result = new byte[Math.max((limit-pos)*4, 256)];
+                int size = 0;
+                while (!inflater.finished()) {
+                    if (size==result.length) {
+                        if (size>=MAX_DECODED_SIZE)
+                            throw new StreamCorruptedException("View state is too large");
+                        result = Arrays.copyOf(result, result.length*2);
+                    }
+                    final int n = inflater.inflate(result, size, result.length-size);
+                    if (n==0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        throw new EOFException("Unexpected end of compressed view state");
+                    size += n;
+                }
+                buf = result;
+                pos = 0;
+                limit = size;
+            } catch (DataFormatException e) {
+                throw new StreamCorruptedException("Illegal compressed view state: "+e.getMessage());
+            } finally {
+                inflater.end();
+            }
+        }
+        private int read() throws IOException {
+            if (pos>=limit)
+                throw new EOFException();
+            return buf[pos++] & 0xFF;
+        }
+        private byte[] readBytes(final int length) throws IOException {
+            if (limit-pos<length)
+                throw new EOFException();
+            final byte[] result = Arrays.copyOfRange(buf, pos, pos+length);
+            pos += length;
+            return result;
+        }
+        private int readVarint() throws IOException {
+            final long value = readVarlong();
+            if ((value & ~0xFFFFFFFFL)!=0)
+                throw new StreamCorruptedException("Illegal varint: "+value);
+            return (int)value;
+        }
+        /**
+         * Читает длину строки или количество элементов коллекции. Поскольку каждый элемент занимает в потоке хотя бы один байт,
+         * длина не может превышать количество еще не прочитанных байт.
+         */
+        private int readLength() throws IOException {
+            final int value = readVarint();
+            if (value<0 || value>limit-pos)
+                throw new StreamCorruptedException("Illegal length: "+value);
+            return value;
+        }
+        private long readVarlong() throws IOException {
+            long result = 0;
+            for (int shift=0; shift<64; shift+=7) {
+                final int b = read();
+                result |= (long)(b & 0x7F) << shift;
+                if ((b & 0x80)==0)
+                    return result;
+            }
+            throw new StreamCorruptedException("Illegal varint");
+        }
+        private long readFixed(final int bytes) throws IOException {
+            long result = 0;
+            for (int i=0; i<bytes; i++) {
+                result = (result << 8) | read();
+            }
+            return result;
+        }
+        private String readString() throws IOException {
+            final int header = readVarint();
+            if ((header & 1)!=0) {
+                final int index = header >>> 1;
+                if (index>=dictionary.size())
+                    throw new StreamCorruptedException("Illegal string reference: "+index);
+                return dictionary.get(index);
+            }
+            final int prefix = header >>> 1;
+            if (prefix>last.length())
+                throw new StreamCorruptedException("Illegal string prefix: "+prefix);
+            final int length = readLength();
+            if (limit-pos<length)
+                throw new EOFException();
+            final String result = last.substring(0, prefix) + new String(buf, pos, length, "UTF-8");
+            pos += length;
+            dictionary.add(result);
+            last = result;
+            return result;
+        }
+    }
+}
@@ -21,4 +21,21 @@ public class Constants {
      * Параметр запроса, содержащий либо ключ к хранимым состояниям форм либо сами эти состояния (зависит от реализации).
      */
     public static final String VIEWSTATE_PARAMNAME = "__VIEWSTATE";
+
+    /**
+     * Префикс сегмента пути в ссылках на ресурсы, содержащего хэш от содержимого ресурса (например <code>/resource/theme/h-3fa9c1d2e4b5/pkgs/pkg-tabs.js</code>).
+     * Ресурсы, запрошенные по таким ссылкам, кэшируются клиентами неограниченно долго.
+     */
+    public static final String FINGERPRINT_PREFIX = "/h-";
+
+    /**
+     * Префикс сегмента пути в ссылках на ресурсы темы, указывающего тему и локаль к которым относится ресурс
+     * (например <code>/resource/theme/t-extjs-debug~ru/pkgs/pkg-tabs.js</code>). Позволяет получать ресурсы темы без обращения к сессии пользователя.
+     */
+    public static final String THEME_PREFIX = "/t-";
+
+    /**
+     * Разделитель имени темы и локали в сегменте пути, начинающемся с {@link #THEME_PREFIX}.
+     */
+    public static final char THEME_LOCALE_SEPARATOR = '~';
 }
@@ -0,0 +1,274 @@
+package org.echosoft.framework.ui.core.spi;
+
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.echosoft.common.utils.Base64Util;
+import org.echosoft.framework.ui.core.Application;
+import org.echosoft.framework.ui.core.Scope;
+import org.echosoft.framework.ui.core.StateHolder;
+import org.echosoft.framework.ui.core.UIContext;
+
+/**
+ * Кодирует состояния посещенных страниц в виде отличий от некоторой базовой версии этих состояний, хранящейся на сервере.
+ * <p>Полная версия состояний, отправленная клиенту, запоминается в ограниченном по размеру хранилище под идентификатором,
+ * вычисляемым как хэш от ее содержимого (поэтому одинаковые версии, например начальные состояния многостраничных форм, хранятся однократно).
+ * Базовые версии привязываются к сессии пользователя (при необходимости сессия создается), доступны только в рамках этой сессии
+ * и удаляются из хранилища при ее завершении. Базовыми версиями могут быть только состояния, отправленные клиенту сервером:
+ * полученная от клиента полная версия состояний используется в качестве базовой лишь если она уже есть в хранилище данной сессии.
+ * При последующих запросах, восстановленных из этой версии, клиенту отправляется лишь идентификатор базовой версии и перечень
+ * измененных и удаленных значений. Размер ключа при этом определяется объемом изменений а не общим объемом состояний, что особенно
+ * заметно при использовании стратегий {@link CleanStrategies#NONE} и {@link CleanStrategies#PKG}.</p>
+ * <p>Полная версия состояний отправляется клиенту (и становится новой базовой версией) в следующих случаях:
+ * <ul>
+ *  <li> состояния не были восстановлены из базовой версии (первое обращение к приложению);
+ *  <li> базовая версия была вытеснена из хранилища;
+ *  <li> объем отличий превышает заданную долю объема полной версии состояний.
+ * </ul>
+ * Если клиент присылает отличия от версии, которая уже была вытеснена из хранилища (или относится к другой сессии), то состояния
+ * не могут быть восстановлены и обработка запроса продолжается без них.
+ * Поэтому размер хранилища должен быть достаточным для хранения базовых версий всех активных пользователей.</p>
+ * Формат ключа: символ <code>F</code> и закодированная в base64 полная версия состояний
+ * (см. {@link BinaryStateSerializer#encode(StateHolder)}) либо символ <code>D</code>, идентификатор базовой версии
+ * и закодированные в base64 отличия (см. {@link BinaryStateSerializer#encodeDelta(StateHolder, StateHolder)}).
+ *
+ * @author Anton Sharapov
+ */
+public class DeltaStateSerializer extends StreamingStateSerializer {
+
+    /**
+     * Имя атрибута запроса, в котором хранится идентификатор базовой версии восстановленных в данном запросе состояний.
+     */
+    public static final String BASE_ATTR = "topsbi.framework.ui.states.base";
+
+    /**
+     * Имя атрибута сессии, связывающего сессию с хранящимися в хранилище базовыми версиями ее состояний.
+     */
+    public static final String SESSION_ATTR = "topsbi.framework.ui.states.delta";
+
+    private static final char FULL = 'F';
+    private static final char DELTA = 'D';
+    private static final int ID_LENGTH = 20;        // 15 байт хэша в base64.
+    private static final int OWNER_LENGTH = 12;     // длина идентификатора сессии в байтах.
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final int maxStates;
+    private final long maxSize;
+    private final float maxDeltaRatio;
+    private final SecureRandom random;
+    private final LinkedHashMap<String,byte[]> entries;         // ключ - идентификатор сессии и идентификатор версии, в порядке обращения к версиям.
+    private final HashMap<String,HashSet<String>> owners;       // ключи базовых версий каждой из сессий.
+    private long size;
+
+    public DeltaStateSerializer() {
+        this(10000, 32*1024*1024, 0.5f);
+    }
+
+    /**
+     * @param maxStates  максимальное количество базовых версий состояний в хранилище.
+     * @param maxSize  максимальный суммарный объем (в байтах) базовых версий состояний в хранилище.
+     * @param maxDeltaRatio  максимальное отношение объема отличий к объему полной версии состояний. При его превышении клиенту
+     *  отправляется полная версия состояний.
+     */
+    public DeltaStateSerializer(final int maxStates, final long maxSize, final float maxDeltaRatio) {
+        if (maxStates<=0 || maxSize<=0 || maxDeltaRatio<0)
+            throw new IllegalArgumentException("Invalid store limits");
+        this.maxStates = maxStates;
+        this.maxSize = maxSize;
+        this.maxDeltaRatio = maxDeltaRatio;
+        this.random = new SecureRandom();
+        this.entries = new LinkedHashMap<String,byte[]>(256, 0.75f, true);
+        this.owners = new HashMap<String,HashSet<String>>();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void encodeState(final UIContext uctx, final Writer out) throws Exception {
+        final StateHolder states = uctx.getStates();
+        final byte[] full = BinaryStateSerializer.encode(states);
+        final String owner = ensureOwner(uctx);
+        final String baseId = uctx.getAttribute(BASE_ATTR, Scope.REQUEST);
+        final byte[] base = baseId!=null ? get(owner, baseId) : null;
+        if (base!=null) {
+            final StateHolder baseStates = new StateHolder();
+            BinaryStateSerializer.decode(base, baseStates);
+            final byte[] delta = BinaryStateSerializer.encodeDelta(baseStates, states);
+            if (delta.length <= full.length * maxDeltaRatio) {
+                out.write(DELTA);
+                out.write(baseId);
+                write(out, delta);
+                return;
+            }
+        }
+        put(owner, makeId(full), full);
+        out.write(FULL);
+        write(out, full);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void decodeState(final UIContext uctx, final String encodedState) throws Exception {
+        if (encodedState==null || encodedState.length()==0)
+            return;
+        final char mode = encodedState.charAt(0);
+        final Owner owner = uctx.getAttribute(SESSION_ATTR, Scope.SESSION);
+        if (mode==FULL) {
+            final byte[] full = Base64Util.decode(encodedState.substring(1));
+            BinaryStateSerializer.decode(full, uctx.getStates());
+            // в хранилище помещаются только отправленные сервером версии, присланная клиентом версия становится базовой лишь если она там уже есть ...
+            final String id = makeId(full);
+            if (owner!=null && get(owner.id, id)!=null)
+                uctx.setAttribute(BASE_ATTR, id, Scope.REQUEST);
+        } else
+        if (mode==DELTA && encodedState.length()>ID_LENGTH) {
+            final String id = encodedState.substring(1, ID_LENGTH+1);
+            final byte[] base = owner!=null ? get(owner.id, id) : null;
+            if (base==null) {
+                Application.log.warn("View state delta can't be applied: base view state '"+id+"' not found in the store"+(owner==null ? " (unknown session)" : ""));
+                return;
+            }
+            final StateHolder states = uctx.getStates();
+            BinaryStateSerializer.decode(base, states);
+            BinaryStateSerializer.decodeDelta(Base64Util.decode(encodedState.substring(ID_LENGTH+1)), states);
+            uctx.setAttribute(BASE_ATTR, id, Scope.REQUEST);
+        } else
+            throw new IOException("Unsupported view state format");
+    }
+
+    /**
+     * Удаляет из хранилища все базовые версии состояний, относящиеся к указанной сессии.
+     * Вызывается автоматически при завершении сессии пользователя.
+     * @param owner  идентификатор сессии в хранилище.
+     */
+    public synchronized void removeStates(final String owner) {
+        final HashSet<String> keys = owners.remove(owner);
+        if (keys==null)
+            return;
+        for (String key : keys) {
+            final byte[] data = entries.remove(key);
+            if (data!=null)
+                size -= data.length;
+        }
+    }
+
+    /**
+     * @return  количество базовых версий состояний в хранилище.
+     */
+    public synchronized int getStatesCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return  суммарный объем (в байтах) базовых версий состояний в хранилище.
+     */
+    public synchronized long getStatesSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "[DeltaStateSerializer{states:"+getStatesCount()+", size:"+getStatesSize()+"}]";
+    }
+
+
+    private String ensureOwner(final UIContext uctx) {
+        Owner owner = uctx.getAttribute(SESSION_ATTR, Scope.SESSION);
+        if (owner==null || owner.store!=this) {
+            owner = new Owner(makeOwnerId(), this);
+            uctx.setAttribute(SESSION_ATTR, owner, Scope.SESSION);
+        }
+        return owner.id;
+    }
+
+    private synchronized byte[] get(final String owner, final String id) {
+        return entries.get(owner+id);
+    }
+
+    private synchronized void put(final String owner, final String id, final byte[] data) {
+        final String key = owner+id;
+        if (entries.get(key)!=null)
+            return;
+        entries.put(key, data);
+        size += data.length;
+        HashSet<String> keys = owners.get(owner);
+        if (keys==null) {
+            keys = new HashSet<String>();
+            owners.put(owner, keys);
+        }
+        keys.add(key);
+        for (Iterator<Map.Entry<String,byte[]>> it=entries.entrySet().iterator(); it.hasNext() && (entries.size()>maxStates || size>maxSize); ) {
+            final Map.Entry<String,byte[]> e = it.next();
+            if (e.getValue()==data)
+                break;
+            it.remove();
+            size -= e.getValue().length;
+            final String o = e.getKey().substring(0, OWNER_LENGTH*2);
+            final HashSet<String> k = owners.get(o);
+            if (k!=null && k.remove(e.getKey()) && k.isEmpty())
+                owners.remove(o);
+        }
+    }
+
+    private String makeOwnerId() {
+        final byte[] buf = new byte[OWNER_LENGTH];
+        random.nextBytes(buf);
+        final char[] result = new char[buf.length*2];
+        for (int i=0; i<buf.length; i++) {
+            result[i*2] = HEX[(buf[i]>>4) & 0x0F];
+            result[i*2+1] = HEX[buf[i] & 0x0F];
+        }
+        return new String(result);
+    }
+
+    private static void write(final Writer out, final byte[] data) throws IOException {
+        final Base64OutputStream bout = new Base64OutputStream(out);
+        bout.write(data);
+        bout.close();
+    }
+
+    private static String makeId(final byte[] data) {
+        try {
+            final byte[] hash = MessageDigest.getInstance("SHA-1").digest(data);
+            return Base64Util.encode(Arrays.copyOf(hash, ID_LENGTH*3/4));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * Помещается в сессию пользователя и связывает ее с хранящимися в хранилище базовыми версиями состояний.
+     * При завершении сессии удаляет все ее базовые версии из хранилища.
+     */
+    static final class Owner implements HttpSessionBindingListener, Serializable {
+        final String id;
+        private final transient DeltaStateSerializer store;
+        private Owner(final String id, final DeltaStateSerializer store) {
+            this.id = id;
+            this.store = store;
+        }
+        public void valueBound(final HttpSessionBindingEvent event) {
+        }
+        public void valueUnbound(final HttpSessionBindingEvent event) {
+            if (store!=null)
+                store.removeStates(id);
+        }
+        public String toString() {
+            return "[DeltaStateSerializer.Owner{id:"+id+"}]";
+        }
+    }
+}
@@ -1,45 +1,103 @@
 package org.echosoft.framework.ui.core.spi;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.Writer;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
 
-import org.echosoft.common.utils.Base64Util;
 import org.echosoft.framework.ui.core.StateHolder;
 import org.echosoft.framework.ui.core.UIContext;
 import org.echosoft.framework.ui.core.ViewStateDescriptor;
 
 /**
+ * Сериализует состояния страниц стандартными средствами java, сжимает результат в формате GZIP и кодирует его в Base64.
+ * <p>Данные проходят через потоки без построения промежуточных массивов и строк: при вызове {@link #encodeState(UIContext, Writer)}
+ * символы Base64 пишутся непосредственно в выходной поток страницы, при восстановлении состояний данные декодируются непосредственно
+ * из символов параметра запроса. Экземпляры {@link Deflater} и {@link Inflater} (и связанные с ними структуры zlib, размещаемые вне кучи java)
+ * не создаются заново на каждый запрос а повторно используются: освободившиеся экземпляры помещаются в пулы ограниченного размера,
+ * экземпляры сверх этого размера сразу освобождают свои ресурсы.</p>
+ * <p>Уровень сжатия задается в конструкторе: меньшие значения снижают нагрузку на процессор ценой увеличения объема страниц.</p>
+ *
  * @author Anton Sharapov
  */
-public class GZIPStateSerializer implements StateSerializer {
+public class GZIPStateSerializer extends StreamingStateSerializer {
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final byte[] HEADER = {(byte)GZIP_MAGIC, (byte)(GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final int BUFFER_SIZE = 4096;
+
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+    private static final ArrayBlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<Inflater>(POOL_SIZE);
+
+    private final int level;
+    private final ArrayBlockingQueue<Deflater> deflaters;
+
+    public GZIPStateSerializer() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level  уровень сжатия данных, от {@link Deflater#BEST_SPEED} до {@link Deflater#BEST_COMPRESSION}
+     *  или {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    public GZIPStateSerializer(final int level) {
+        if ((level<Deflater.BEST_SPEED || level>Deflater.BEST_COMPRESSION) && level!=Deflater.DEFAULT_COMPRESSION)
+            throw new IllegalArgumentException("Invalid compression level: "+level);
+        this.level = level;
+        this.deflaters = new ArrayBlockingQueue<Deflater>(POOL_SIZE);
+    }
+
+    /**
+     * @return  уровень сжатия данных.
+     */
+    public int getLevel() {
+        return level;
+    }
 
     /**
      * {@inheritDoc}
      */
-    public String encodeState(final UIContext uctx) throws Exception {
+    public void encodeState(final UIContext uctx, final Writer out) throws Exception {
         final StateHolder states = uctx.getStates();
-        final ByteArrayOutputStream bout = new ByteArrayOutputStream(1024);
-        final GZIPOutputStream zout = new GZIPOutputStream(bout);
-        final ObjectOutputStream out = new ObjectOutputStream(zout);
+        Deflater deflater = deflaters.poll();
+        if (deflater==null)
+            deflater = new Deflater(level, true);
         try {
-            out.writeInt(states.getViewStates().size());
-            for (ViewStateDescriptor desc : states.getViewStates()) {
-                final Map<String,Object> state = states.getViewState(desc);
-                out.writeObject(desc);
-                out.writeObject(state);
+            final Base64OutputStream bout = new Base64OutputStream(out);
+            final ObjectOutputStream oos = new ObjectOutputStream(new GZIPDeflaterStream(bout, deflater));
+            try {
+                oos.writeInt(states.getViewStates().size());
+                for (ViewStateDescriptor desc : states.getViewStates()) {
+                    final Map<String,Object> state = states.getViewState(desc);
+                    oos.writeObject(desc);
+                    oos.writeObject(state);
+                }
+                oos.writeObject(states.getCurrentDescriptor());
+            } finally {
+                oos.close();
             }
-            out.writeObject(states.getCurrentDescriptor());
         } finally {
-            out.close();
-            zout.close();
+            deflater.reset();
+            if (!deflaters.offer(deflater))
+                deflater.end();
         }
-        return Base64Util.encode(bout.toByteArray());
     }
 
     /**
@@ -50,21 +108,155 @@ public class GZIPStateSerializer implements StateSerializer {
         if (encodedState==null || encodedState.length()==0)
             return;
         final StateHolder states = uctx.getStates();
-        final byte[] decodedData = Base64Util.decode(encodedState);
-        final ByteArrayInputStream bis = new ByteArrayInputStream(decodedData);
-        final GZIPInputStream zis = new GZIPInputStream(bis);
-        final ObjectInputStream ois = new ObjectInputStream(zis);
+        Inflater inflater = inflaters.poll();
+        if (inflater==null)
+            inflater = new Inflater(true);
         try {
-            final int cnt = ois.readInt();
-            for (int i=0; i<cnt; i++) {
-                final ViewStateDescriptor desc = (ViewStateDescriptor)ois.readObject();
-                final Map<String,Object> state = states.ensureStateExists(desc);
-                state.putAll( (Map<String,Object>)ois.readObject() );
+            final GZIPInflaterStream zis = new GZIPInflaterStream(new Base64InputStream(encodedState), inflater);
+            final ObjectInputStream ois = new ObjectInputStream(zis);
+            try {
+                final int cnt = ois.readInt();
+                for (int i=0; i<cnt; i++) {
+                    final ViewStateDescriptor desc = (ViewStateDescriptor)ois.readObject();
+                    final Map<String,Object> state = states.ensureStateExists(desc);
+                    state.putAll( (Map<String,Object>)ois.readObject() );
+                }
+                states.setCurrentDescriptor( (ViewStateDescriptor)ois.readObject() );
+                zis.finish();
+            } finally {
+                ois.close();
             }
-            states.setCurrentDescriptor( (ViewStateDescriptor)ois.readObject() );
         } finally {
-            ois.close();
-            zis.close();
+            inflater.reset();
+            if (!inflaters.offer(inflater))
+                inflater.end();
+        }
+    }
+
+
+    /**
+     * Поток, сжимающий данные в формате GZIP с использованием переданного извне экземпляра {@link Deflater}
+     * (стандартный {@link java.util.zip.GZIPOutputStream} всегда создает собственный экземпляр).
+     * Метод {@link #close()} не освобождает ресурсы используемого экземпляра {@link Deflater}.
+     */
+    private static final class GZIPDeflaterStream extends DeflaterOutputStream {
+        private final CRC32 crc;
+
+        private GZIPDeflaterStream(final OutputStream out, final Deflater deflater) throws IOException {
+            super(out, deflater, BUFFER_SIZE);
+            this.crc = new CRC32();
+            out.write(HEADER);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            super.write(b, off, len);
+            crc.update(b, off, len);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (def.finished())
+                return;
+            super.finish();
+            writeInt((int)crc.getValue());
+            writeInt(def.getTotalIn());
+        }
+
+        private void writeInt(final int v) throws IOException {
+            out.write(v & 0xFF);
+            out.write((v >>> 8) & 0xFF);
+            out.write((v >>> 16) & 0xFF);
+            out.write((v >>> 24) & 0xFF);
+        }
+    }
+
+    /**
+     * Поток, распаковывающий данные в формате GZIP с использованием переданного извне экземпляра {@link Inflater}.
+     * Контрольная сумма и размер распакованных данных проверяются в методе {@link #finish()} по достижении конца сжатых данных.
+     * Метод {@link #close()} не освобождает ресурсы используемого экземпляра {@link Inflater}.
+     */
+    private static final class GZIPInflaterStream extends InflaterInputStream {
+        private final CRC32 crc;
+        private boolean eos;
+
+        private GZIPInflaterStream(final InputStream in, final Inflater inflater) throws IOException {
+            super(in, inflater, BUFFER_SIZE);
+            this.crc = new CRC32();
+            readHeader();
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (eos)
+                return -1;
+            final int n = super.read(b, off, len);
+            if (n>0) {
+                crc.update(b, off, n);
+            } else
+            if (n<0) {
+                eos = true;
+                readTrailer();
+            }
+            return n;
+        }
+
+        /**
+         * Дочитывает сжатые данные до конца и проверяет контрольную сумму.
+         */
+        public void finish() throws IOException {
+            final byte[] tmp = new byte[64];
+            while (read(tmp, 0, tmp.length)>=0);
+        }
+
+        private void readHeader() throws IOException {
+            if (readUByte(in) != (GZIP_MAGIC & 0xFF) || readUByte(in) != (GZIP_MAGIC >> 8))
+                throw new ZipException("Not in GZIP format");
+            if (readUByte(in) != Deflater.DEFLATED)
+                throw new ZipException("Unsupported compression method");
+            final int flags = readUByte(in);
+            for (int i=0; i<6; i++) {
+                readUByte(in);
+            }
+            if ((flags & FEXTRA) != 0) {
+                final int size = readUByte(in) | (readUByte(in) << 8);
+                for (int i=0; i<size; i++) {
+                    readUByte(in);
+                }
+            }
+            if ((flags & FNAME) != 0) {
+                while (readUByte(in) != 0);
+            }
+            if ((flags & FCOMMENT) != 0) {
+                while (readUByte(in) != 0);
+            }
+            if ((flags & FHCRC) != 0) {
+                readUByte(in);
+                readUByte(in);
+            }
+        }
+
+        private void readTrailer() throws IOException {
+            // часть трейлера может находиться в уже прочитанном, но не использованном распаковщиком фрагменте буфера ...
+            final int remaining = inf.getRemaining();
+            final InputStream src = remaining>0
+                    ? new SequenceInputStream(new ByteArrayInputStream(buf, len-remaining, remaining), in)
+                    : in;
+            final long checksum = readUInt(src);
+            final long size = readUInt(src);
+            if (checksum != crc.getValue() || size != (inf.getBytesWritten() & 0xFFFFFFFFL))
+                throw new ZipException("Corrupt GZIP trailer");
+        }
+
+        private static long readUInt(final InputStream in) throws IOException {
+            return (readUByte(in) | (readUByte(in) << 8) | (readUByte(in) << 16) | ((long)readUByte(in) << 24));
+        }
+
+        private static int readUByte(final InputStream in) throws IOException {
+            final int b = in.read();
+            if (b<0)
+                throw new EOFException("Unexpected end of GZIP data");
+            return b;
         }
     }
 }
@@ -0,0 +1,154 @@
+package org.echosoft.framework.ui.core.spi;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.echosoft.framework.ui.core.Application;
+import org.echosoft.framework.ui.core.CleanStrategy;
+import org.echosoft.framework.ui.core.StateHolder;
+import org.echosoft.framework.ui.core.UIContext;
+
+/**
+ * Сериализатор состояний, передающий сведения о каждой операции другого сериализатора в {@link StateMetrics}.
+ * Кроме того, может ограничивать максимальный размер ключа, отправляемого клиенту: если ключ превышает заданный размер, то
+ * в журнал выводится предупреждение, из менеджера состояний удаляются состояния страниц в соответствии с указанной стратегией
+ * {@link CleanStrategy} и состояния кодируются заново. Пример использования:
+ * <pre>
+ *  final StateStatistics stats = new StateStatistics();
+ *  stats.register(null);
+ *  Application.setStateSerializer(new MeteredStateSerializer(new GZIPStateSerializer(), stats, 64*1024, CleanStrategies.CURRENT));
+ * </pre>
+ *
+ * @author Anton Sharapov
+ */
+public class MeteredStateSerializer extends StreamingStateSerializer {
+
+    private final StateSerializer serializer;
+    private final StateMetrics metrics;
+    private final int maxSize;
+    private final CleanStrategy strategy;
+
+    public MeteredStateSerializer(final StateSerializer serializer, final StateMetrics metrics) {
+        this(serializer, metrics, 0, null);
+    }
+
+    /**
+     * @param serializer  сериализатор, выполняющий кодирование и восстановление состояний.
+     * @param metrics  получатель сведений о выполненных операциях.
+     * @param maxSize  максимальный размер ключа (в символах) или <code>0</code> если размер ключа не ограничен.
+     * @param strategy  стратегия удаления состояний страниц при превышении максимального размера ключа.
+     */
+    public MeteredStateSerializer(final StateSerializer serializer, final StateMetrics metrics, final int maxSize, final CleanStrategy strategy) {
+        if (serializer==null || metrics==null)
+            throw new NullPointerException("Serializer and metrics must be specified");
+        if (maxSize<0 || (maxSize>0 && strategy==null))
+            throw new IllegalArgumentException("Invalid state size budget");
+        this.serializer = serializer;
+        this.metrics = metrics;
+        this.maxSize = maxSize;
+        this.strategy = strategy;
+    }
+
+    /**
+     * @return  сериализатор, выполняющий кодирование и восстановление состояний.
+     */
+    public StateSerializer getSerializer() {
+        return serializer;
+    }
+
+    /**
+     * @return  получатель сведений о выполненных операциях.
+     */
+    public StateMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String encodeState(final UIContext uctx) throws Exception {
+        final long started = System.nanoTime();
+        String result = serializer.encodeState(uctx);
+        if (maxSize>0 && result.length()>maxSize)
+            result = trim(uctx, result);
+        metrics.stateEncoded(uctx.getStates(), result.length(), System.nanoTime()-started);
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void encodeState(final UIContext uctx, final Writer out) throws Exception {
+        if (maxSize>0) {
+            // размер ключа становится известен лишь после кодирования, поэтому при ограничении размера ключ строится в памяти ...
+            writeEscaped(encodeState(uctx), out);
+            return;
+        }
+        final long started = System.nanoTime();
+        final CountingWriter cout = new CountingWriter(out);
+        StreamingStateSerializer.writeState(serializer, uctx, cout);
+        metrics.stateEncoded(uctx.getStates(), cout.count, System.nanoTime()-started);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void decodeState(final UIContext uctx, final String encodedState) throws Exception {
+        if (encodedState==null || encodedState.length()==0)
+            return;
+        final long started = System.nanoTime();
+        serializer.decodeState(uctx, encodedState);
+        metrics.stateDecoded(uctx.getStates(), encodedState.length(), System.nanoTime()-started);
+    }
+
+    @Override
+    public String toString() {
+        return "[MeteredStateSerializer{serializer:"+serializer+", metrics:"+metrics+", maxSize:"+maxSize+"}]";
+    }
+
+
+    private String trim(final UIContext uctx, final String encoded) throws Exception {
+        final StateHolder states = uctx.getStates();
+        Application.log.warn("View state size "+encoded.length()+" exceeds the budget of "+maxSize+" chars, trimming it with strategy "+strategy.getId()+": "+states);
+        states.clean(strategy);
+        final String result = serializer.encodeState(uctx);
+        if (result.length()>maxSize)
+            Application.log.warn("View state size "+result.length()+" still exceeds the budget of "+maxSize+" chars: "+states);
+        return result;
+    }
+
+    /**
+     * Подсчитывает количество записанных в поток символов.
+     */
+    private static final class CountingWriter extends Writer {
+        private final Writer out;
+        private int count;
+
+        private CountingWriter(final Writer out) {
+            this.out = out;
+        }
+        @Override
+        public void write(final int c) throws IOException {
+            out.write(c);
+            count++;
+        }
+        @Override
+        public void write(final char[] buf, final int off, final int len) throws IOException {
+            out.write(buf, off, len);
+            count += len;
+        }
+        @Override
+        public void write(final String str, final int off, final int len) throws IOException {
+            out.write(str, off, len);
+            count += len;
+        }
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package org.echosoft.framework.ui.core.spi;
+
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.echosoft.framework.ui.core.Application;
+import org.echosoft.framework.ui.core.Scope;
+import org.echosoft.framework.ui.core.UIContext;
+
+/**
+ * Хранит состояния посещенных страниц на сервере, клиенту передается только короткий непрозрачный идентификатор сохраненных состояний.
+ * Сами состояния кодируются в строку с помощью другой реализации интерфейса {@link StateSerializer} (по умолчанию - {@link GZIPStateSerializer}).
+ * <p>Сохраненные состояния привязываются к сессии пользователя (при необходимости сессия создается) и доступны только в рамках этой сессии.
+ * Хранилище ограничено:
+ * <ul>
+ *  <li> общим количеством и общим объемом хранимых в памяти состояний. При превышении этих ограничений из памяти удаляются те состояния,
+ *       к которым дольше всего не было обращений. Если указан каталог для выгрузки состояний, то удаляемые из памяти состояния сохраняются
+ *       в этом каталоге и при необходимости загружаются из него обратно;
+ *  <li> временем жизни состояний. Состояния, к которым не было обращений в течение этого времени, удаляются;
+ *  <li> количеством состояний в одной сессии. При превышении этого ограничения удаляются самые старые состояния данной сессии.
+ *       При завершении сессии все ее состояния удаляются.
+ * </ul>
+ * Если состояние с переданным клиентом идентификатором отсутствует в хранилище, то обработка запроса продолжается без восстановленных
+ * состояний страниц.</p>
+ * <p>Для использования данного алгоритма приложение должно зарегистрировать его вызовом
+ * <code>Application.setStateSerializer(new ServerStateSerializer(...))</code>.</p>
+ *
+ * @author Anton Sharapov
+ */
+public class ServerStateSerializer implements StateSerializer {
+
+    /**
+     * Имя атрибута сессии, в котором хранится информация о сохраненных в рамках этой сессии состояниях.
+     */
+    public static final String SESSION_ATTR = "topsbi.framework.ui.states";
+
+    private static final int ID_LENGTH = 12;                // длина идентификатора состояния в байтах.
+    private static final int SWEEP_INTERVAL = 1000;         // количество сохранений состояний между проверками каталога выгрузки.
+    private static final String SPILL_FILE_SUFFIX = ".state";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final StateSerializer serializer;
+    private final int maxStates;
+    private final long maxSize;
+    private final long ttl;
+    private final int maxSessionStates;
+    private final File spillDir;
+    private final SecureRandom random;
+    private final LinkedHashMap<String,StateEntry> entries;         // в порядке обращения к состояниям.
+    private final HashMap<String,LinkedList<String>> owners;        // идентификаторы состояний каждой из сессий в порядке их создания.
+    private long size;
+    private int puts;
+
+    /**
+     * Создает хранилище с параметрами по умолчанию: не более 10000 состояний общим объемом не более 64 Мб, хранящихся не более 30 минут
+     * после последнего обращения к ним, не более 32 состояний на сессию, без выгрузки состояний на диск.
+     */
+    public ServerStateSerializer() {
+        this(new GZIPStateSerializer(), 10000, 64L*1024*1024, 30L*60*1000, 32, null);
+    }
+
+    /**
+     * Создает хранилище состояний.
+     * @param serializer  алгоритм кодирования состояний в строку.
+     * @param maxStates  максимальное количество хранимых в памяти состояний.
+     * @param maxSize  максимальный суммарный объем (в байтах) хранимых в памяти закодированных состояний.
+     * @param ttl  время (в миллисекундах) в течение которого хранятся состояния, к которым не было обращений.
+     * @param maxSessionStates  максимальное количество состояний, хранимых для одной сессии.
+     * @param spillDir  каталог, в который выгружаются вытесненные из памяти состояния, или <code>null</code> если состояния не должны выгружаться.
+     */
+    public ServerStateSerializer(final StateSerializer serializer, final int maxStates, final long maxSize, final long ttl, final int maxSessionStates, final File spillDir) {
+        if (serializer==null)
+            throw new IllegalArgumentException("State serializer must be specified");
+        if (maxStates<1 || maxSize<1 || ttl<1 || maxSessionStates<1)
+            throw new IllegalArgumentException("Store limits must be positive");
+        if (spillDir!=null && !spillDir.isDirectory() && !spillDir.mkdirs())
+            throw new IllegalArgumentException("Invalid spill directory: "+spillDir);
+        this.serializer = serializer;
+        this.maxStates = maxStates;
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.maxSessionStates = maxSessionStates;
+        this.spillDir = spillDir;
+        this.random = new SecureRandom();
+        this.entries = new LinkedHashMap<String,StateEntry>(256, 0.75f, true);
+        this.owners = new HashMap<String,LinkedList<String>>();
+    }
+
+    /**
+     * {@inheritDoc}
+     * Возвращает идентификатор, под которым закодированные состояния сохранены в хранилище.
+     */
+    public String encodeState(final UIContext uctx) throws Exception {
+        final String data = serializer.encodeState(uctx);
+        final String owner = ensureOwner(uctx);
+        final String id = makeId();
+        final List<StateEntry> spilled = new ArrayList<StateEntry>();
+        final List<String> removed = new ArrayList<String>();
+        final boolean sweep;
+        synchronized (this) {
+            final long now = System.currentTimeMillis();
+            final StateEntry entry = new StateEntry(id, owner, data, now);
+            entries.put(id, entry);
+            size += entry.size();
+            LinkedList<String> ids = owners.get(owner);
+            if (ids==null) {
+                ids = new LinkedList<String>();
+                owners.put(owner, ids);
+            }
+            ids.addLast(id);
+            while (ids.size()>maxSessionStates) {
+                removed.add( ids.removeFirst() );
+            }
+            for (String rid : removed) {
+                detach(entries.remove(rid));
+            }
+            // удаляем устаревшие и вытесняем из памяти давно не использовавшиеся состояния ...
+            for (Iterator<StateEntry> it=entries.values().iterator(); it.hasNext(); ) {
+                final StateEntry e = it.next();
+                final boolean expired = now - e.accessed > ttl;
+                if (!expired && entries.size()<=maxStates && size<=maxSize)
+                    break;
+                it.remove();
+                detach(e);
+                if (expired) {
+                    forget(e.owner, e.id);
+                } else
+                if (spillDir!=null) {
+                    spilled.add(e);
+                } else
+                    forget(e.owner, e.id);
+            }
+            sweep = spillDir!=null && ++puts % SWEEP_INTERVAL == 0;
+        }
+        if (spillDir!=null) {
+            for (String rid : removed) {
+                getSpillFile(rid).delete();
+            }
+            for (StateEntry e : spilled) {
+                spill(e);
+            }
+            if (sweep)
+                sweepSpillDir();
+        }
+        return id;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Восстанавливает состояния, сохраненные в хранилище под указанным идентификатором.
+     */
+    public void decodeState(final UIContext uctx, final String encodedState) throws Exception {
+        if (encodedState==null || encodedState.length()==0)
+            return;
+        final Owner owner = uctx.getAttribute(SESSION_ATTR, Scope.SESSION);
+        if (owner==null || !isValidId(encodedState)) {
+            Application.log.debug("View state '"+encodedState+"' can't be restored: unknown session");
+            return;
+        }
+        StateEntry entry;
+        synchronized (this) {
+            entry = entries.get(encodedState);
+            if (entry!=null)
+                entry.accessed = System.currentTimeMillis();
+        }
+        if (entry==null && spillDir!=null)
+            entry = unspill(encodedState);
+        if (entry==null || !entry.owner.equals(owner.id)) {
+            Application.log.debug("View state '"+encodedState+"' not found in the store");
+            return;
+        }
+        serializer.decodeState(uctx, entry.data);
+    }
+
+    /**
+     * Удаляет из хранилища все состояния, относящиеся к указанной сессии.
+     * Вызывается автоматически при завершении сессии пользователя.
+     * @param owner  идентификатор сессии в хранилище.
+     */
+    public void removeStates(final String owner) {
+        final List<String> ids;
+        synchronized (this) {
+            ids = owners.remove(owner);
+            if (ids==null)
+                return;
+            for (String id : ids) {
+                detach(entries.remove(id));
+            }
+        }
+        if (spillDir!=null) {
+            for (String id : ids) {
+                getSpillFile(id).delete();
+            }
+        }
+    }
+
+    /**
+     * @return  количество хранимых в памяти состояний.
+     */
+    public synchronized int getStatesCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return  суммарный объем (в байтах) хранимых в памяти состояний.
+     */
+    public synchronized long getStatesSize() {
+        return size;
+    }
+
+    public String toString() {
+        return "[ServerStateSerializer{states:"+getStatesCount()+", size:"+getStatesSize()+", serializer:"+serializer+", spill:"+spillDir+"}]";
+    }
+
+
+    private String ensureOwner(final UIContext uctx) {
+        Owner owner = uctx.getAttribute(SESSION_ATTR, Scope.SESSION);
+        if (owner==null || owner.store!=this) {
+            owner = new Owner(makeId(), this);
+            uctx.setAttribute(SESSION_ATTR, owner, Scope.SESSION);
+        }
+        return owner.id;
+    }
+
+    private String makeId() {
+        final byte[] buf = new byte[ID_LENGTH];
+        random.nextBytes(buf);
+        final char[] result = new char[buf.length*2];
+        for (int i=0; i<buf.length; i++) {
+            result[i*2] = HEX[(buf[i]>>4) & 0x0F];
+            result[i*2+1] = HEX[buf[i] & 0x0F];
+        }
+        return new String(result);
+    }
+
+    private static boolean isValidId(final String id) {
+        if (id.length()!=ID_LENGTH*2)
+            return false;
+        for (int i=id.length()-1; i>=0; i--) {
+            final char c = id.charAt(i);
+            if ((c<'0' || c>'9') && (c<'a' || c>'f'))
+                return false;
+        }
+        return true;
+    }
+
+    private void detach(final StateEntry entry) {
+        if (entry!=null)
+            size -= entry.size();
+    }
+
+    private void forget(final String owner, final String id) {
+        final LinkedList<String> ids = owners.get(owner);
+        if (ids!=null && ids.remove(id) && ids.isEmpty())
+            owners.remove(owner);
+    }
+
+    private File getSpillFile(final String id) {
+        return new File(spillDir, id + SPILL_FILE_SUFFIX);
+    }
+
+    private void spill(final StateEntry entry) {
+        final File file = getSpillFile(entry.id);
+        try {
+            final DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+            try {
+                out.writeUTF(entry.owner);
+                final byte[] data = entry.data.getBytes("UTF-8");
+                out.writeInt(data.length);
+                out.write(data);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            file.delete();
+            synchronized (this) {
+                forget(entry.owner, entry.id);
+            }
+            Application.log.warn("Unable to spill view state to "+file+": "+e.getMessage());
+        }
+    }
+
+    private StateEntry unspill(final String id) {
+        final File file = getSpillFile(id);
+        if (!file.isFile())
+            return null;
+        if (System.currentTimeMillis() - file.lastModified() > ttl) {
+            file.delete();
+            return null;
+        }
+        try {
+            final String owner;
+            final String data;
+            final DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                owner = in.readUTF();
+                final byte[] buf = new byte[in.readInt()];
+                in.readFully(buf);
+                data = new String(buf, "UTF-8");
+            } finally {
+                in.close();
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return new StateEntry(id, owner, data, System.currentTimeMillis());
+        } catch (IOException e) {
+            Application.log.warn("Unable to load view state from "+file+": "+e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Удаляет из каталога выгрузки устаревшие состояния.
+     */
+    private void sweepSpillDir() {
+        final File[] files = spillDir.listFiles();
+        if (files==null)
+            return;
+        final long expired = System.currentTimeMillis() - ttl;
+        for (File file : files) {
+            if (file.getName().endsWith(SPILL_FILE_SUFFIX) && file.lastModified()<expired)
+                file.delete();
+        }
+    }
+
+
+    private static final class StateEntry {
+        private final String id;
+        private final String owner;
+        private final String data;
+        private long accessed;
+        private StateEntry(final String id, final String owner, final String data, final long accessed) {
+            this.id = id;
+            this.owner = owner;
+            this.data = data;
+            this.accessed = accessed;
+        }
+        private long size() {
+            return data.length()*2L + 128;
+        }
+    }
+
+    /**
+     * Помещается в сессию пользователя и связывает ее с сохраненными в хранилище состояниями.
+     * При завершении сессии удаляет все ее состояния из хранилища.
+     */
+    static final class Owner implements HttpSessionBindingListener, Serializable {
+        final String id;
+        private final transient ServerStateSerializer store;
+        private Owner(final String id, final ServerStateSerializer store) {
+            this.id = id;
+            this.store = store;
+        }
+        public void valueBound(final HttpSessionBindingEvent event) {
+        }
+        public void valueUnbound(final HttpSessionBindingEvent event) {
+            if (store!=null)
+                store.removeStates(id);
+        }
+        public String toString() {
+            return "[ServerStateSerializer.Owner{id:"+id+"}]";
+        }
+    }
+}
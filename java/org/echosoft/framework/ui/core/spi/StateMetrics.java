@@ -0,0 +1,30 @@
+package org.echosoft.framework.ui.core.spi;
+
+import org.echosoft.framework.ui.core.StateHolder;
+
+/**
+ * Получает сведения о каждой операции кодирования и восстановления состояний посещенных страниц, выполняемой
+ * сериализатором {@link MeteredStateSerializer}. Используется для сбора статистики о размерах состояний страниц и
+ * затратах на их обработку (см. {@link StateStatistics}).
+ * <p>Реализации данного интерфейса должны быть потокобезопасными и не должны модифицировать переданные им состояния.</p>
+ *
+ * @author Anton Sharapov
+ */
+public interface StateMetrics {
+
+    /**
+     * Вызывается после кодирования состояний страниц.
+     * @param states  закодированные состояния страниц.
+     * @param size  размер ключа (в символах), отправляемого клиенту.
+     * @param nanos  время (в наносекундах), затраченное на кодирование.
+     */
+    public void stateEncoded(StateHolder states, int size, long nanos);
+
+    /**
+     * Вызывается после восстановления состояний страниц.
+     * @param states  восстановленные состояния страниц.
+     * @param size  размер полученного от клиента ключа (в символах).
+     * @param nanos  время (в наносекундах), затраченное на восстановление.
+     */
+    public void stateDecoded(StateHolder states, int size, long nanos);
+}
@@ -0,0 +1,375 @@
+package org.echosoft.framework.ui.core.spi;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.echosoft.framework.ui.core.StateHolder;
+import org.echosoft.framework.ui.core.ViewStateDescriptor;
+
+/**
+ * Стандартная реализация {@link StateMetrics}. Накапливает статистику о состояниях страниц отдельно по каждой странице
+ * (пакету и идентификатору текущей на момент кодирования страницы). Поскольку восстановленные состояния приходят от клиента,
+ * время их восстановления учитывается лишь для страниц, уже встречавшихся при кодировании состояний, а количество учитываемых страниц
+ * ограничено {@value #MAX_VIEWS} (статистика по прочим страницам объединяется под ключом <code>*</code>):
+ * <ul>
+ *  <li> гистограммы размера ключа, количества значений во всех состояниях, времени кодирования и времени восстановления состояний;
+ *  <li> ключи с наибольшими значениями. Поскольку оценка размеров всех значений требует заметных затрат, она выполняется
+ *       лишь для каждого n-го закодированного набора состояний.
+ * </ul>
+ * Гистограммы имеют логарифмическую шкалу (границы интервалов - степени двойки), поэтому значения процентилей в отчетах являются оценками сверху.
+ * Статистика доступна через JMX (см. {@link #register(String)}) и сервлет {@link org.echosoft.framework.ui.core.web.StateStatisticsServlet}.
+ *
+ * @author Anton Sharapov
+ */
+public class StateStatistics implements StateMetrics, StateStatisticsMBean {
+
+    /**
+     * Имя, под которым статистика регистрируется в JMX по умолчанию.
+     */
+    public static final String DEFAULT_OBJECT_NAME = "org.echosoft.framework.ui:type=StateStatistics";
+
+    /**
+     * Максимальное количество страниц, статистика по которым ведется раздельно.
+     */
+    public static final int MAX_VIEWS = 1000;
+
+    private static final String OTHER_VIEWS = "*";
+
+    private final int topKeys;
+    private final int sampleRate;
+    private final ConcurrentHashMap<String,ViewStatistics> views;
+    private final HashMap<String,Long> largestKeys;
+    private final AtomicLong encoded;
+    private final AtomicLong decoded;
+    private ObjectName objectName;
+
+    public StateStatistics() {
+        this(20, 16);
+    }
+
+    /**
+     * @param topKeys  количество запоминаемых ключей с наибольшими значениями.
+     * @param sampleRate  размеры значений оцениваются для каждого <code>sampleRate</code>-го закодированного набора состояний.
+     */
+    public StateStatistics(final int topKeys, final int sampleRate) {
+        if (topKeys<0 || sampleRate<=0)
+            throw new IllegalArgumentException("Invalid statistics settings");
+        this.topKeys = topKeys;
+        this.sampleRate = sampleRate;
+        this.views = new ConcurrentHashMap<String,ViewStatistics>();
+        this.largestKeys = new HashMap<String,Long>();
+        this.encoded = new AtomicLong();
+        this.decoded = new AtomicLong();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void stateEncoded(final StateHolder states, final int size, final long nanos) {
+        final ViewStatistics stat = getViewStatistics(states.getCurrentDescriptor());
+        stat.size.add(size);
+        stat.entries.add(countEntries(states));
+        stat.encodeTime.add(nanos/1000);
+        if (encoded.incrementAndGet() % sampleRate == 0 && topKeys>0)
+            sampleKeys(states);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void stateDecoded(final StateHolder states, final int size, final long nanos) {
+        decoded.incrementAndGet();
+        final ViewStatistics stat = views.get(makeKey(states.getCurrentDescriptor()));
+        if (stat!=null)
+            stat.decodeTime.add(nanos/1000);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getEncodedCount() {
+        return encoded.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getDecodedCount() {
+        return decoded.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getViews() {
+        final List<Map.Entry<String,ViewStatistics>> entries = new ArrayList<Map.Entry<String,ViewStatistics>>(views.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String,ViewStatistics>>() {
+            public int compare(final Map.Entry<String,ViewStatistics> e1, final Map.Entry<String,ViewStatistics> e2) {
+                final long m1 = e1.getValue().size.getMax();
+                final long m2 = e2.getValue().size.getMax();
+                return m1<m2 ? 1 : (m1==m2 ? e1.getKey().compareTo(e2.getKey()) : -1);
+            }
+        });
+        final String[] result = new String[entries.size()];
+        for (int i=0; i<result.length; i++) {
+            final Map.Entry<String,ViewStatistics> entry = entries.get(i);
+            result[i] = entry.getKey() + ' ' + entry.getValue();
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getLargestKeys() {
+        final List<Map.Entry<String,Long>> entries;
+        synchronized (largestKeys) {
+            entries = new ArrayList<Map.Entry<String,Long>>(largestKeys.entrySet());
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String,Long>>() {
+            public int compare(final Map.Entry<String,Long> e1, final Map.Entry<String,Long> e2) {
+                return e2.getValue().compareTo(e1.getValue());
+            }
+        });
+        final String[] result = new String[entries.size()];
+        for (int i=0; i<result.length; i++) {
+            result[i] = entries.get(i).getKey() + " ~" + entries.get(i).getValue() + " chars";
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getReport() {
+        final StringBuilder out = new StringBuilder(1024);
+        out.append("encoded: ").append(getEncodedCount()).append(", decoded: ").append(getDecodedCount()).append('\n');
+        out.append("\nviews (size in chars, time in microseconds):\n");
+        for (String line : getViews()) {
+            out.append("  ").append(line).append('\n');
+        }
+        out.append("\nlargest keys (sampled):\n");
+        for (String line : getLargestKeys()) {
+            out.append("  ").append(line).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset() {
+        views.clear();
+        synchronized (largestKeys) {
+            largestKeys.clear();
+        }
+        encoded.set(0);
+        decoded.set(0);
+    }
+
+    /**
+     * Регистрирует данный экземпляр в JMX сервере платформы.
+     * @param name  имя объекта JMX или <code>null</code> для использования имени по умолчанию ({@link #DEFAULT_OBJECT_NAME}).
+     * @throws Exception  в случае невозможности регистрации объекта.
+     */
+    public synchronized void register(final String name) throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName on = new ObjectName(name!=null ? name : DEFAULT_OBJECT_NAME);
+        if (server.isRegistered(on))
+            server.unregisterMBean(on);
+        server.registerMBean(this, on);
+        objectName = on;
+    }
+
+    /**
+     * Удаляет регистрацию данного экземпляра в JMX сервере платформы.
+     * @throws Exception  в случае каких-либо проблем.
+     */
+    public synchronized void unregister() throws Exception {
+        if (objectName!=null) {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+            objectName = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "[StateStatistics{views:"+views.size()+", encoded:"+getEncodedCount()+", decoded:"+getDecodedCount()+"}]";
+    }
+
+
+    private static String makeKey(final ViewStateDescriptor desc) {
+        return desc!=null ? desc.getPackage()+'#'+desc.getView() : "#";
+    }
+
+    private ViewStatistics getViewStatistics(final ViewStateDescriptor desc) {
+        String key = makeKey(desc);
+        ViewStatistics stat = views.get(key);
+        if (stat==null && views.size()>=MAX_VIEWS) {
+            key = OTHER_VIEWS;
+            stat = views.get(key);
+        }
+        if (stat==null) {
+            final ViewStatistics newStat = new ViewStatistics();
+            stat = views.putIfAbsent(key, newStat);
+            if (stat==null)
+                stat = newStat;
+        }
+        return stat;
+    }
+
+    private static int countEntries(final StateHolder states) {
+        int result = 0;
+        for (ViewStateDescriptor desc : states.getViewStates()) {
+            result += states.getViewState(desc).size();
+        }
+        return result;
+    }
+
+    private void sampleKeys(final StateHolder states) {
+        final HashMap<String,Long> sizes = new HashMap<String,Long>();
+        for (ViewStateDescriptor desc : states.getViewStates()) {
+            for (Map.Entry<String,Object> entry : states.getViewState(desc).entrySet()) {
+                sizes.put(desc.getPackage()+'#'+desc.getView()+" : "+entry.getKey(), (long)estimateSize(entry.getValue()));
+            }
+        }
+        synchronized (largestKeys) {
+            for (Map.Entry<String,Long> entry : sizes.entrySet()) {
+                final Long prev = largestKeys.get(entry.getKey());
+                if (prev!=null) {
+                    if (prev<entry.getValue())
+                        largestKeys.put(entry.getKey(), entry.getValue());
+                    continue;
+                }
+                if (largestKeys.size()<topKeys) {
+                    largestKeys.put(entry.getKey(), entry.getValue());
+                    continue;
+                }
+                Map.Entry<String,Long> min = null;
+                for (Map.Entry<String,Long> e : largestKeys.entrySet()) {
+                    if (min==null || e.getValue()<min.getValue())
+                        min = e;
+                }
+                if (min!=null && min.getValue()<entry.getValue()) {
+                    largestKeys.remove(min.getKey());
+                    largestKeys.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Грубая оценка размера значения (в символах) в закодированном виде без учета сжатия.
+     */
+    private static int estimateSize(final Object value) {
+        if (value==null) {
+            return 1;
+        } else
+        if (value instanceof CharSequence) {
+            return ((CharSequence)value).length() + 2;
+        } else
+        if (value instanceof Object[]) {
+            int result = 2;
+            for (Object item : (Object[])value) {
+                result += estimateSize(item) + 1;
+            }
+            return result;
+        } else
+        if (value instanceof Iterable) {
+            int result = 2;
+            for (Object item : (Iterable<?>)value) {
+                result += estimateSize(item) + 1;
+            }
+            return result;
+        } else
+        if (value instanceof Map) {
+            int result = 2;
+            for (Map.Entry<?,?> entry : ((Map<?,?>)value).entrySet()) {
+                result += estimateSize(entry.getKey()) + estimateSize(entry.getValue()) + 2;
+            }
+            return result;
+        } else
+            return String.valueOf(value).length();
+    }
+
+
+    /**
+     * Статистика по отдельной странице.
+     */
+    private static final class ViewStatistics {
+        private final Histogram size = new Histogram();
+        private final Histogram entries = new Histogram();
+        private final Histogram encodeTime = new Histogram();
+        private final Histogram decodeTime = new Histogram();
+
+        @Override
+        public String toString() {
+            return "size{"+size+"} entries{"+entries+"} encode{"+encodeTime+"} decode{"+decodeTime+"}";
+        }
+    }
+
+    /**
+     * Гистограмма неотрицательных значений с логарифмической шкалой.
+     */
+    static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void add(final long value) {
+            final long v = Math.max(value, 0);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(v) - (v==0 ? 0 : 1));
+            count.incrementAndGet();
+            sum.addAndGet(v);
+            for (long m=max.get(); v>m && !max.compareAndSet(m, v); m=max.get());
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        long getMax() {
+            return max.get();
+        }
+
+        long getMean() {
+            final long c = count.get();
+            return c>0 ? sum.get()/c : 0;
+        }
+
+        /**
+         * @return  оценка сверху для указанного процентиля (верхняя граница интервала гистограммы, в который попадает процентиль).
+         */
+        long getPercentile(final double percentile) {
+            final long c = count.get();
+            if (c==0)
+                return 0;
+            final long threshold = (long)Math.ceil(c * percentile / 100);
+            long n = 0;
+            for (int i=0; i<64; i++) {
+                n += buckets.get(i);
+                if (n>=threshold)
+                    return Math.min(i<62 ? (2L << i) - 1 : Long.MAX_VALUE, getMax());
+            }
+            return getMax();
+        }
+
+        @Override
+        public String toString() {
+            return "count:"+getCount()+", mean:"+getMean()+", p50:"+getPercentile(50)+", p95:"+getPercentile(95)+", max:"+getMax();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.echosoft.framework.ui.core.spi;
+
+/**
+ * Интерфейс управления {@link StateStatistics} через JMX.
+ *
+ * @author Anton Sharapov
+ */
+public interface StateStatisticsMBean {
+
+    /**
+     * @return  общее количество операций кодирования состояний страниц.
+     */
+    public long getEncodedCount();
+
+    /**
+     * @return  общее количество операций восстановления состояний страниц.
+     */
+    public long getDecodedCount();
+
+    /**
+     * @return  сводная статистика по каждой странице (одна строка на страницу), упорядоченная по убыванию максимального размера состояний.
+     */
+    public String[] getViews();
+
+    /**
+     * @return  ключи с наибольшими значениями, обнаруженные в выборочно проанализированных состояниях страниц, по убыванию размера значений.
+     */
+    public String[] getLargestKeys();
+
+    /**
+     * @return  полный текстовый отчет.
+     */
+    public String getReport();
+
+    /**
+     * Сбрасывает всю накопленную статистику.
+     */
+    public void reset();
+}
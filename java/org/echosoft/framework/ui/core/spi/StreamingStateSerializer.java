@@ -0,0 +1,86 @@
+package org.echosoft.framework.ui.core.spi;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.echosoft.common.io.FastStringWriter;
+import org.echosoft.framework.ui.core.UIContext;
+
+/**
+ * Базовый класс для сериализаторов состояний, способных записывать ключ непосредственно в выходной поток страницы, минуя построение
+ * промежуточной строки. Реализации интерфейса {@link StateSerializer}, не унаследованные от данного класса, продолжают работать как прежде:
+ * для них ключ строится методом {@link StateSerializer#encodeState(UIContext)} и экранируется перед записью в поток
+ * (см. {@link #writeState(StateSerializer, UIContext, Writer)}).
+ *
+ * @author Anton Sharapov
+ */
+public abstract class StreamingStateSerializer implements StateSerializer {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Записывает в поток ключ, построенный указанным сериализатором, в виде, пригодном для вставки в строковую константу javascript или json.
+     * Если сериализатор унаследован от данного класса, то ключ записывается в поток непосредственно, в противном случае в поток записывается
+     * экранированный результат метода {@link StateSerializer#encodeState(UIContext)}.
+     * @param serializer  сериализатор состояний.
+     * @param uctx  контекст текущего пользовательского запроса.
+     * @param out  поток, в который должен быть записан ключ.
+     * @throws Exception  в случае каких-либо проблем.
+     */
+    public static void writeState(final StateSerializer serializer, final UIContext uctx, final Writer out) throws Exception {
+        if (serializer instanceof StreamingStateSerializer) {
+            ((StreamingStateSerializer)serializer).encodeState(uctx, out);
+        } else
+            writeEscaped(serializer.encodeState(uctx), out);
+    }
+
+    /**
+     * Записывает в поток ключ, экранируя символы, недопустимые в строковых константах javascript и json, а также символы <code>'</code>, <code>&lt;</code>,
+     * <code>&gt;</code> и <code>&amp;</code>, чтобы ключ не мог закрыть тег <code>&lt;script&gt;</code> страницы.
+     * @param key  ключ, построенный сериализатором состояний.
+     * @param out  поток, в который должен быть записан ключ.
+     * @throws IOException  в случае ошибок ввода-вывода.
+     */
+    static void writeEscaped(final String key, final Writer out) throws IOException {
+        final int length = key.length();
+        int start = 0;
+        for (int i=0; i<length; i++) {
+            final char c = key.charAt(i);
+            if (c>=0x20 && c!='"' && c!='\'' && c!='\\' && c!='<' && c!='>' && c!='&' && c!='\u2028' && c!='\u2029')
+                continue;
+            out.write(key, start, i-start);
+            if (c=='"' || c=='\\') {
+                out.write('\\');
+                out.write(c);
+            } else {
+                out.write("\\u");
+                out.write(HEX[(c >> 12) & 0xF]);
+                out.write(HEX[(c >> 8) & 0xF]);
+                out.write(HEX[(c >> 4) & 0xF]);
+                out.write(HEX[c & 0xF]);
+            }
+            start = i+1;
+        }
+        out.write(key, start, length-start);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Реализация по умолчанию строит ключ в памяти с помощью метода {@link #encodeState(UIContext, Writer)}.
+     */
+    public String encodeState(final UIContext uctx) throws Exception {
+        final FastStringWriter out = new FastStringWriter(1024);
+        encodeState(uctx, out);
+        return out.toString();
+    }
+
+    /**
+     * Сериализует состояния посещенных страниц и записывает ключ, по которому возможно будет восстановить эти состояния, непосредственно в указанный поток.
+     * Результат должен совпадать с результатом метода {@link #encodeState(UIContext)}. Ключ может состоять только из символов,
+     * которые не требуют экранирования в строковых константах javascript и json.
+     * @param uctx контекст текущего пользовательского запроса.
+     * @param out  поток, в который должен быть записан ключ.
+     * @throws Exception  в случае каких-либо проблем.
+     */
+    public abstract void encodeState(UIContext uctx, Writer out) throws Exception;
+}
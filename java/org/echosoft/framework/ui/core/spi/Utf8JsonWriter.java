@@ -0,0 +1,279 @@
+package org.echosoft.framework.ui.core.spi;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.echosoft.common.io.FastStringWriter;
+import org.echosoft.common.json.JsonContext;
+import org.echosoft.common.json.JsonFieldNameSerializer;
+import org.echosoft.common.json.JsonWriter;
+import org.echosoft.common.json.JsonWriterFactory;
+
+/**
+ * Реализация {@link JsonWriter}, формирующая компактное (без форматирования) JSON представление объектов непосредственно
+ * в потоке {@link Utf8Writer}. По формату результата полностью совпадает со стандартной компактной реализацией из <code>echosoft-common</code>,
+ * но имена свойств объектов (вместе с последующим разделителем) сериализуются и кодируются в UTF-8 лишь однажды и затем
+ * копируются в поток в уже закодированном виде.
+ * <p>Подключается к {@link JsonContext} с помощью фабрики {@link Factory}, которая для всех прочих потоков делегирует создание
+ * {@link JsonWriter} исходной фабрике контекста:</p>
+ * <pre>
+ *  jctx.setWriterFactory( new Utf8JsonWriter.Factory(jctx.getWriterFactory()) );
+ * </pre>
+ *
+ * @author Anton Sharapov
+ */
+public class Utf8JsonWriter implements JsonWriter {
+
+    /**
+     * Фабрика, создающая экземпляры {@link Utf8JsonWriter} для потоков {@link Utf8Writer}. Хранит закодированные имена свойств,
+     * общие для всех созданных ею экземпляров.
+     */
+    public static final class Factory implements JsonWriterFactory {
+        private static final int MAX_NAMES = 4096;
+        private final JsonWriterFactory fallback;
+        private volatile Names names;     // закодированные имена вместе с алгоритмом сериализации имен, которым они были получены.
+
+        /**
+         * @param fallback  фабрика, используемая для всех прочих потоков.
+         */
+        public Factory(final JsonWriterFactory fallback) {
+            if (fallback==null)
+                throw new IllegalArgumentException("Fallback factory must be specified");
+            this.fallback = fallback;
+            this.names = new Names(null);
+        }
+
+        public JsonWriter makeJsonWriter(final JsonContext ctx, final Writer out) {
+            return out instanceof Utf8Writer
+                    ? new Utf8JsonWriter(ctx, (Utf8Writer)out, this)
+                    : fallback.makeJsonWriter(ctx, out);
+        }
+
+        /**
+         * @return  фабрика, используемая для всех потоков, отличных от {@link Utf8Writer}.
+         */
+        public JsonWriterFactory getFallback() {
+            return fallback;
+        }
+
+        /**
+         * Возвращает закодированное имя свойства вместе с последующим разделителем или <code>null</code> если имя не может быть закэшировано.
+         */
+        private Utf8Writer.Constant getName(final JsonFieldNameSerializer serializer, final String name) throws IOException {
+            Names holder = names;
+            if (holder.serializer!=serializer) {
+                // закодированные имена зависят от алгоритма сериализации имен, при его смене начинаем новый набор имен ...
+                synchronized (this) {
+                    holder = names;
+                    if (holder.serializer!=serializer) {
+                        holder = new Names(serializer);
+                        names = holder;
+                    }
+                }
+            }
+            Utf8Writer.Constant result = holder.map.get(name);
+            if (result!=null)
+                return result;
+            if (holder.map.size()>=MAX_NAMES)
+                return null;
+            final FastStringWriter buf = new FastStringWriter(name.length()+4);
+            serializer.serialize(name, buf);
+            buf.write(':');
+            result = new Utf8Writer.Constant(buf.toString());
+            holder.map.putIfAbsent(name, result);
+            return result;
+        }
+    }
+
+    /**
+     * Набор закодированных имен свойств, полученных определенным алгоритмом сериализации имен.
+     */
+    private static final class Names {
+        private final JsonFieldNameSerializer serializer;
+        private final ConcurrentHashMap<String,Utf8Writer.Constant> map;
+        private Names(final JsonFieldNameSerializer serializer) {
+            this.serializer = serializer;
+            this.map = new ConcurrentHashMap<String,Utf8Writer.Constant>();
+        }
+    }
+
+
+    private static enum State{UNKNOWN, ARRAY, OBJECT, OBJATTR}
+
+    private static final class Context {
+        private final Context prev;
+        private State state;
+        private int items;
+        private boolean inWriteObj;
+        private Context() {
+            this.prev = this;
+            this.state = State.UNKNOWN;
+        }
+        private Context(final Context prev, final State state) {
+            this.prev = prev;
+            this.state = state;
+        }
+    }
+
+    private final JsonContext ctx;
+    private final Utf8Writer out;
+    private final Factory factory;
+    private final JsonFieldNameSerializer fieldNameSerializer;
+    private Context current;
+
+    public Utf8JsonWriter(final JsonContext ctx, final Utf8Writer out, final Factory factory) {
+        if (ctx==null || out==null || factory==null)
+            throw new IllegalArgumentException("All arguments should be specified");
+        this.ctx = ctx;
+        this.out = out;
+        this.factory = factory;
+        this.fieldNameSerializer = ctx.getFieldNameSerializer();
+        this.current = new Context();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beginArray() throws IOException {
+        begin(State.ARRAY, '[');
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void endArray() throws IOException {
+        if (current.state!=State.ARRAY)
+            throw new IllegalStateException();
+        current = current.prev;
+        out.write(']');
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beginObject() throws IOException {
+        begin(State.OBJECT, '{');
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void endObject() throws IOException {
+        if (current.state!=State.OBJECT)
+            throw new IllegalStateException();
+        current = current.prev;
+        out.write('}');
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeObject(final Object obj) throws IOException, InvocationTargetException, IllegalAccessException {
+        switch (current.state) {
+            case UNKNOWN : {
+                if (current.items > 0)
+                    throw new IllegalStateException();
+                current.items = 1;
+                break;
+            }
+            case ARRAY : {
+                if (current.items++ > 0)
+                    out.write(',');
+                break;
+            }
+            case OBJECT : {
+                throw new IllegalStateException();
+            }
+            case OBJATTR : {
+                current.state = State.OBJECT;
+                break;
+            }
+        }
+        if (obj==null) {
+            out.write("null");
+        } else {
+            final Context context = current;
+            context.inWriteObj = true;
+            ctx.getSerializer(obj.getClass()).serialize(obj, this);
+            context.inWriteObj = false;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeProperty(final String name, final Object value) throws IOException, InvocationTargetException, IllegalAccessException {
+        writeName(name);
+        if (value == null) {
+            out.write("null");
+        } else {
+            current.state = State.OBJATTR;
+            ctx.getSerializer(value.getClass()).serialize(value, this);
+            current.state = State.OBJECT;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeComplexProperty(final String name) throws IOException {
+        writeName(name);
+        current.state = State.OBJATTR;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public JsonContext getContext() {
+        return ctx;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Writer getOutputWriter() {
+        return out;
+    }
+
+
+    private void begin(final State state, final char c) throws IOException {
+        switch (current.state) {
+            case UNKNOWN : {
+                if (!current.inWriteObj && current.items > 0)
+                    throw new IllegalStateException();
+                current.items = 1;
+                break;
+            }
+            case ARRAY : {
+                if (!current.inWriteObj && current.items++>0)
+                    out.write(',');
+                break;
+            }
+            case OBJECT : {
+                throw new IllegalStateException();
+            }
+            case OBJATTR : {
+                current.state = State.OBJECT;
+                break;
+            }
+        }
+        current = new Context(current, state);
+        out.write(c);
+    }
+
+    private void writeName(final String name) throws IOException {
+        if (current.state!=State.OBJECT)
+            throw new IllegalStateException();
+        if (current.items++ > 0)
+            out.write(',');
+        final Utf8Writer.Constant encoded = factory.getName(fieldNameSerializer, name);
+        if (encoded!=null) {
+            out.write(encoded);
+        } else {
+            fieldNameSerializer.serialize(name, out);
+            out.write(':');
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package org.echosoft.framework.ui.core.spi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Символьный поток, кодирующий все записываемые в него символы в UTF-8 непосредственно в байтовый буфер.
+ * <p>Используется для отправки клиенту сформированных страниц: в отличие от стандартного <code>response.getWriter()</code>
+ * символы кодируются однократно, без промежуточных символьных буферов, а неизменяемые фрагменты страницы (см. {@link Constant})
+ * кодируются заранее и копируются в буфер как есть.</p>
+ * Поток может работать в двух режимах:
+ * <ul>
+ *  <li> с указанием байтового потока (см. {@link #Utf8Writer(OutputStream)}). Данные накапливаются в буфере, который берется из пула
+ *       буферов текущего потока и возвращается в пул при каждом вызове метода {@link #flush()}.
+ *  <li> без указания байтового потока (см. {@link #Utf8Writer(int)}). Данные накапливаются в памяти и впоследствии могут быть
+ *       переписаны в другой экземпляр данного класса без повторного кодирования (см. {@link #writeOut(Writer)}).
+ * </ul>
+ * Экземпляры данного класса не являются потокобезопасными.
+ *
+ * @author Anton Sharapov
+ */
+public final class Utf8Writer extends Writer {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 8192;
+    private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>();
+
+    /**
+     * Неизменяемый фрагмент текста, заранее закодированный в UTF-8.
+     */
+    public static final class Constant {
+        private final String text;
+        private final byte[] bytes;
+
+        public Constant(final String text) {
+            this.text = text;
+            this.bytes = text.getBytes(UTF8);
+        }
+        public String getText() {
+            return text;
+        }
+        public int getSize() {
+            return bytes.length;
+        }
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /**
+     * Выводит в поток заранее закодированный фрагмент текста. Если поток является экземпляром {@link Utf8Writer}, то в него
+     * копируются байты фрагмента, в противном случае в поток записывается исходный текст фрагмента.
+     * @param out  выходной поток.
+     * @param constant  фрагмент текста.
+     * @throws IOException  в случае ошибок вывода данных в поток.
+     */
+    public static void write(final Writer out, final Constant constant) throws IOException {
+        if (out instanceof Utf8Writer) {
+            ((Utf8Writer)out).write(constant);
+        } else
+            out.write(constant.text);
+    }
+
+
+    private final OutputStream out;
+    private byte[] buf;
+    private int pos;
+    private int highSurrogate;
+
+    /**
+     * Создает поток, накапливающий данные в буфере и передающий их в указанный байтовый поток.
+     * @param out  байтовый поток, в который передаются закодированные данные.
+     */
+    public Utf8Writer(final OutputStream out) {
+        if (out==null)
+            throw new IllegalArgumentException("Output stream must be specified");
+        this.out = out;
+    }
+
+    /**
+     * Создает поток, накапливающий все данные в памяти.
+     * @param capacity  начальный размер буфера (в байтах).
+     */
+    public Utf8Writer(final int capacity) {
+        this.out = null;
+        this.buf = new byte[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Копирует в поток заранее закодированный фрагмент текста.
+     * @param constant  фрагмент текста.
+     * @throws IOException  в случае ошибок вывода данных в поток.
+     */
+    public void write(final Constant constant) throws IOException {
+        writeBytes(constant.bytes, 0, constant.bytes.length);
+    }
+
+    /**
+     * Копирует в поток данные в кодировке UTF-8.
+     * @param data  массив байт в кодировке UTF-8.
+     * @param off  смещение первого копируемого байта в массиве.
+     * @param len  количество копируемых байт.
+     * @throws IOException  в случае ошибок вывода данных в поток.
+     */
+    public void writeBytes(final byte[] data, final int off, final int len) throws IOException {
+        flushSurrogate();
+        if (out!=null && len>BUFFER_SIZE/2) {
+            drain();
+            out.write(data, off, len);
+            return;
+        }
+        ensure(len);
+        System.arraycopy(data, off, buf, pos, len);
+        pos += len;
+    }
+
+    @Override
+    public void write(final int c) throws IOException {
+        if (c<0x80 && highSurrogate==0 && buf!=null && pos<buf.length) {
+            buf[pos++] = (byte)c;       // сериализаторы JSON пишут строки посимвольно, поэтому наиболее частый случай проверяется в первую очередь
+            return;
+        }
+        ensure(4);
+        encode((char)c);
+    }
+
+    @Override
+    public void write(final char[] cbuf, final int off, final int len) throws IOException {
+        for (int i=off, end=off+len; i<end; ) {
+            final int chunk = Math.min(end-i, 1024);
+            ensure(chunk*3 + 1);
+            for (int last=i+chunk; i<last; i++) {
+                final char c = cbuf[i];
+                if (c<0x80 && highSurrogate==0) {
+                    buf[pos++] = (byte)c;
+                } else
+                    encode(c);
+            }
+        }
+    }
+
+    @Override
+    public void write(final String str, final int off, final int len) throws IOException {
+        for (int i=off, end=off+len; i<end; ) {
+            final int chunk = Math.min(end-i, 1024);
+            ensure(chunk*3 + 1);
+            for (int last=i+chunk; i<last; i++) {
+                final char c = str.charAt(i);
+                if (c<0x80 && highSurrogate==0) {
+                    buf[pos++] = (byte)c;
+                } else
+                    encode(c);
+            }
+        }
+    }
+
+    @Override
+    public void write(final String str) throws IOException {
+        write(str, 0, str.length());
+    }
+
+    /**
+     * @return  количество байт, накопленных в буфере потока.
+     */
+    public int size() {
+        return pos;
+    }
+
+    /**
+     * Переписывает все накопленные в памяти данные в указанный поток. Если поток является экземпляром {@link Utf8Writer}, то данные
+     * копируются без повторного кодирования.
+     * @param target  выходной поток.
+     * @throws IOException  в случае ошибок вывода данных в поток.
+     */
+    public void writeOut(final Writer target) throws IOException {
+        flushSurrogate();
+        if (pos==0)
+            return;
+        if (target instanceof Utf8Writer) {
+            ((Utf8Writer)target).writeBytes(buf, 0, pos);
+        } else
+            target.write(toString());
+    }
+
+    /**
+     * Передает накопленные данные в байтовый поток и возвращает буфер в пул буферов текущего потока.
+     * Для потоков, накапливающих данные в памяти, метод ничего не делает.
+     * @throws IOException  в случае ошибок вывода данных в поток.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (out==null)
+            return;
+        flushSurrogate();
+        drain();
+        if (buf!=null) {
+            buffers.set(buf);
+            buf = null;
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (out!=null)
+            out.close();
+    }
+
+    @Override
+    public String toString() {
+        if (buf==null)
+            return "";
+        try {
+            return new String(buf, 0, pos, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+
+    private void ensure(final int len) throws IOException {
+        if (buf==null) {
+            buf = buffers.get();
+            if (buf!=null) {
+                buffers.set(null);
+            } else
+                buf = new byte[BUFFER_SIZE];
+        }
+        if (pos+len <= buf.length)
+            return;
+        if (out!=null && len<=buf.length) {
+            drain();
+        } else
+            buf = Arrays.copyOf(buf, Math.max(buf.length*2, pos+len));
+    }
+
+    private void drain() throws IOException {
+        if (pos>0) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+
+    /**
+     * Кодирует символ в буфер. В буфере должно быть как минимум 4 свободных байта.
+     */
+    private void encode(final char c) {
+        if (highSurrogate!=0) {
+            final int hs = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                final int cp = Character.toCodePoint((char)hs, c);
+                buf[pos++] = (byte)(0xF0 | (cp >> 18));
+                buf[pos++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte)(0x80 | (cp & 0x3F));
+                return;
+            }
+            buf[pos++] = '?';       // непарный суррогатный символ
+        }
+        if (c<0x80) {
+            buf[pos++] = (byte)c;
+        } else
+        if (c<0x800) {
+            buf[pos++] = (byte)(0xC0 | (c >> 6));
+            buf[pos++] = (byte)(0x80 | (c & 0x3F));
+        } else
+        if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else
+        if (Character.isLowSurrogate(c)) {
+            buf[pos++] = '?';       // непарный суррогатный символ
+        } else {
+            buf[pos++] = (byte)(0xE0 | (c >> 12));
+            buf[pos++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+            buf[pos++] = (byte)(0x80 | (c & 0x3F));
+        }
+    }
+
+    private void flushSurrogate() throws IOException {
+        if (highSurrogate!=0) {
+            highSurrogate = 0;
+            ensure(1);
+            buf[pos++] = '?';
+        }
+    }
+}
@@ -27,6 +27,7 @@ import org.echosoft.framework.ui.core.UIContext;
 import org.echosoft.framework.ui.core.Utils;
 import org.echosoft.framework.ui.core.ViewStateDescriptor;
 import org.echosoft.framework.ui.core.spi.Constants;
+import org.echosoft.framework.ui.core.spi.Utf8Writer;
 import org.echosoft.framework.ui.core.theme.Theme;
 
 /**
@@ -41,13 +42,15 @@ public class ServletUIContext implements UIContext {
 //    private final ServletConfig config;
     private final Resources resources;
     private final Messages messages;
-    private final StateHolder states;
+    private final String encodedState;
+    private StateHolder states;
     private final Theme theme;
     private final Agent agent;
     private final Locale locale;
     private final EnumMap<Scope,Map<String,Object>> scopes;
     private final String pkg;
     private Map<String,String[]> headers;
+    private Writer responseWriter;
 
     public ServletUIContext(final HttpServletRequest request, final HttpServletResponse response, final ServletConfig config) throws Exception {
         this.request = request;
@@ -57,10 +60,11 @@ public class ServletUIContext implements UIContext {
 
         this.resources = new Resources();
         this.messages = new Messages();
-        this.states = new StateHolder();
+        this.encodedState = request.getParameter(Constants.VIEWSTATE_PARAMNAME);
         this.agent = Utils.detectUserAgent(request);
         this.locale = Utils.detectEffectiveLocale(request);
-        final String themeName = (String)request.getSession().getAttribute(Constants.CURRENT_THEME);
+        final HttpSession session = request.getSession(false);
+        final String themeName = session!=null ? (String)session.getAttribute(Constants.CURRENT_THEME) : null;
         this.theme = Application.THEMES_MANAGER.getTheme(locale, themeName);
         this.scopes = new EnumMap<Scope,Map<String,Object>>(Scope.class);
         this.scopes.put(Scope.PARAMS, new RequestParameterMap(request));
@@ -68,15 +72,9 @@ public class ServletUIContext implements UIContext {
         this.scopes.put(Scope.REQUEST, new RequestAttributeMap(request));
         this.scopes.put(Scope.SHARED, new SharedAttributeMap(request));
         this.scopes.put(Scope.SESSION, new SessionAttributeMap(request));
-        this.scopes.put(Scope.STATE, new StateAttributeMap(states));
+        this.scopes.put(Scope.STATE, new StateAttributeMap(this));
         this.scopes.put(Scope.APPLICATION, new ApplicationAttributeMap(config));
         this.scopes.put(Scope.INIT, new InitParameterMap(config));
-
-        final String encodedState = request.getParameter(Constants.VIEWSTATE_PARAMNAME);
-        Application.getStateSerializer().decodeState(this, encodedState);
-        if (states.getCurrentDescriptor()==null) {
-            states.setCurrentDescriptor( new ViewStateDescriptor(pkg, "", 0) );
-        }
     }
 
     @Override
@@ -189,7 +187,7 @@ public class ServletUIContext implements UIContext {
 
     @Override
     public void invalidateSession() {
-        final HttpSession session = request.getSession();
+        final HttpSession session = request.getSession(false);
         if (session!=null)
             session.invalidate();
     }
@@ -293,13 +291,21 @@ public class ServletUIContext implements UIContext {
         if (persistent) {
             return theme.getResourceURL(path);
         } else {
+            String prefix = request.getContextPath() + Application.RESOURCES_SERVLET_CONTEXT + (Application.MINIFY_THEME_RESOURCES ? "/min/theme" : "/theme");
             if (path==null || path.length()==0) {
-                return request.getContextPath() + Application.RESOURCES_SERVLET_CONTEXT + "/theme";
-            } else
+                return prefix;
+            }
+            if (Application.FINGERPRINT_THEME_RESOURCES) {
+                final String digest = theme.getResourceDigest(path);
+                if (digest!=null)
+                    prefix = prefix + Constants.FINGERPRINT_PREFIX + digest;
+            }
+            // тема и локаль указываются в самой ссылке чтобы сервлету ресурсов не требовалось обращаться к сессии пользователя ...
+            prefix = prefix + Constants.THEME_PREFIX + theme.getName() + Constants.THEME_LOCALE_SEPARATOR + locale;
             if (path.charAt(0)=='/') {
-                return request.getContextPath() + Application.RESOURCES_SERVLET_CONTEXT + "/theme" + path;
+                return prefix + path;
             } else {
-                return request.getContextPath() + Application.RESOURCES_SERVLET_CONTEXT + "/theme/" + path;
+                return prefix + '/' + path;
             }
         }
     }
@@ -311,11 +317,28 @@ public class ServletUIContext implements UIContext {
 
     @Override
     public void switchState(final String viewId, final int rank) {
-        this.states.setCurrentDescriptor( new ViewStateDescriptor(this.pkg, viewId, rank) );
+        getStates().setCurrentDescriptor( new ViewStateDescriptor(this.pkg, viewId, rank) );
     }
 
+    /**
+     * {@inheritDoc}
+     * Состояния страниц восстанавливаются из параметра запроса {@link Constants#VIEWSTATE_PARAMNAME} при первом обращении к ним.
+     * @throws IllegalStateException  в случае если переданные в запросе состояния не могут быть восстановлены.
+     */
     @Override
     public StateHolder getStates() {
+        if (states==null) {
+            states = new StateHolder();     // сериализатор наполняет менеджер состояний, полученный им через этот же метод.
+            try {
+                Application.getStateSerializer().decodeState(this, encodedState);
+            } catch (Exception e) {
+                states = null;
+                throw new IllegalStateException("Unable to restore view states: "+e.getMessage(), e);
+            }
+            if (states.getCurrentDescriptor()==null) {
+                states.setCurrentDescriptor( new ViewStateDescriptor(pkg, "", 0) );
+            }
+        }
         return states;
     }
 
@@ -326,7 +349,16 @@ public class ServletUIContext implements UIContext {
 
     @Override
     public Writer getResponseWriter() throws IOException {
-        response.setCharacterEncoding("uTF-8");
-        return response.getWriter();
+        if (responseWriter==null) {
+            response.setCharacterEncoding("UTF-8");
+            try {
+                // символы кодируются в UTF-8 сразу в буфер, минуя кодировщик контейнера ...
+                responseWriter = new Utf8Writer(response.getOutputStream());
+            } catch (IllegalStateException e) {
+                // ответ уже формируется через символьный поток ...
+                responseWriter = response.getWriter();
+            }
+        }
+        return responseWriter;
     }
 }
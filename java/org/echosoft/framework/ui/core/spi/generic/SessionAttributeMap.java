@@ -12,23 +12,26 @@ import org.echosoft.framework.ui.core.spi.AbstractContextMap;
 
 /**
  * Предоставляет доступ к объектам в пространстве имен {@link org.echosoft.framework.ui.core.Scope#SESSION}.
+ * Сессия пользователя создается только при попытке поместить в нее какой-либо объект, операции чтения уже существующей сессии не создают.
  * @author Anton Sharapov
  */
 public final class SessionAttributeMap extends AbstractContextMap<String,Object> {
 
-    private final HttpSession session;
+    private final HttpServletRequest request;
 
     public SessionAttributeMap(final HttpServletRequest request) {
-        this.session = request.getSession(true);
+        this.request = request;
     }
 
     @Override
     public Object get(final Object key) {
-        return session.getAttribute((String)key);
+        final HttpSession session = request.getSession(false);
+        return session!=null ? session.getAttribute((String)key) : null;
     }
 
     @Override
     public Object put(final String key, final Object value) {
+        final HttpSession session = request.getSession(true);
         final Object result = session.getAttribute(key);
         session.setAttribute(key, value);
         return result;
@@ -36,6 +39,9 @@ public final class SessionAttributeMap extends AbstractContextMap<String,Object>
 
     @Override
     public Object remove(final Object key) {
+        final HttpSession session = request.getSession(false);
+        if (session==null)
+            return null;
         final Object result = session.getAttribute((String)key);
         session.removeAttribute((String)key);
         return result;
@@ -44,6 +50,9 @@ public final class SessionAttributeMap extends AbstractContextMap<String,Object>
     @Override
     public Set<Map.Entry<String,Object>> entrySet() {
         final HashSet<Map.Entry<String,Object>> entries = new HashSet<Map.Entry<String,Object>>();
+        final HttpSession session = request.getSession(false);
+        if (session==null)
+            return entries;
         for (Enumeration e = session.getAttributeNames(); e.hasMoreElements(); ) {
             final String key = (String)e.nextElement();
             final Entry<String,Object> entry = new Entry<String,Object>(key, session.getAttribute(key));
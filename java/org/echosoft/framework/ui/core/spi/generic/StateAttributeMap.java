@@ -4,6 +4,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.echosoft.framework.ui.core.StateHolder;
+import org.echosoft.framework.ui.core.UIContext;
 import org.echosoft.framework.ui.core.spi.AbstractContextMap;
 
 
@@ -14,29 +15,45 @@ import org.echosoft.framework.ui.core.spi.AbstractContextMap;
 public final class StateAttributeMap extends AbstractContextMap<String,Object> {
 
     private final StateHolder states;
+    private final UIContext uctx;
 
     public StateAttributeMap(final StateHolder states) {
         this.states = states;
+        this.uctx = null;
+    }
+
+    /**
+     * Конструирует отображение, обращающееся к менеджеру состояний указанного контекста лишь при первом обращении к своему содержимому.
+     * Позволяет контексту не восстанавливать состояния страниц в тех запросах, где они не используются.
+     * @param uctx  контекст пользовательского запроса.
+     */
+    public StateAttributeMap(final UIContext uctx) {
+        this.states = null;
+        this.uctx = uctx;
     }
 
     @Override
     public Object get(final Object key) {
-        return  states.getCurrentState().get(key);
+        return  getCurrentState().get(key);
     }
 
     @Override
     public Object put(final String key, final Object value) {
-        return states.getCurrentState().put(key,value);
+        return getCurrentState().put(key,value);
     }
 
     @Override
     public Object remove(final Object key) {
-        return states.getCurrentState().remove(key);
+        return getCurrentState().remove(key);
     }
 
     @Override
     public Set<Map.Entry<String,Object>> entrySet() {
-        return states.getCurrentState().entrySet();
+        return getCurrentState().entrySet();
+    }
+
+    private Map<String,Object> getCurrentState() {
+        return (states!=null ? states : uctx.getStates()).getCurrentState();
     }
 
 }
\ No newline at end of file
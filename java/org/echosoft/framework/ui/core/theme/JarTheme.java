@@ -12,6 +12,7 @@ import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.echosoft.common.io.FastStringWriter;
 import org.echosoft.common.model.Version;
@@ -19,6 +20,7 @@ import org.echosoft.common.utils.Any;
 import org.echosoft.common.utils.StringUtil;
 import org.echosoft.framework.ui.core.Application;
 import org.echosoft.framework.ui.core.UIException;
+import org.echosoft.framework.ui.core.spi.Constants;
 
 /**
  * Реализация интерфейса {@link Theme} по умолчанию.
@@ -30,6 +32,7 @@ public class JarTheme implements Theme {
     private static final String GLOBAL_CSS_FILES = "global.css.files";
     private static final String GLOBAL_JS1_FILES = "global.js1.files";  // скрипты подгружаемые в первую очередь.
     private static final String GLOBAL_JS2_FILES = "global.js2.files";  // скрипты подгружаемые в последнюю очередь.
+    private static final String GLOBAL_BUNDLES = "global.bundles";      // объединять ли глобальные ресурсы темы в сборки (по умолчанию - да).
 
     private final String name;
     private final Version version;
@@ -44,9 +47,15 @@ public class JarTheme implements Theme {
     private final String[] globalCSSFiles;
     private final String[] globalJS1Files;
     private final String[] globalJS2Files;
+    private final ThemeBundle globalCSSBundle;
+    private final ThemeBundle globalJS1Bundle;
+    private final ThemeBundle globalJS2Bundle;
+    private final ThemeIndex index;
+    private final ConcurrentHashMap<String,String> digests;    // хэши от содержимого ресурсов темы (пустая строка - ресурс отсутствует).
+    private final ConcurrentHashMap<String,MessageFormat> formats;   // разобранные шаблоны сообщений темы (используются только их копии).
 
     /**
-     * Создаем экземпляр новой темы.
+     * Создаем экземпляр новой темы. Наборы свойств темы загружаются из ее снимка (см. {@link ThemeSnapshot}), если он актуален.
      * @param name  Кодовое название темы. Не может быть <code>null</code>.
      * @param version  версия темы.
      * @param locale  Выбранная локаль. Не может быть <code>null</code>.
@@ -73,10 +82,21 @@ public class JarTheme implements Theme {
             p.deleteCharAt(p.length()-1);
         this.pathPrefix = p.toString();  // convert theme name 'XXX.YYY' to '/XXX/YYY'
         this.urlPrefix =  "/lib" + pathPrefix;
-
-        this.messages = loadBundle(pathPrefix+"/messages", locale, urls);
-        this.params = loadBundle(pathPrefix+"/params", locale, urls);
-        this.resources = loadBundle(pathPrefix+"/resources", locale, urls);
+        this.index = ThemeIndex.build(urls, pathPrefix);
+        this.digests = new ConcurrentHashMap<String,String>();
+        this.formats = new ConcurrentHashMap<String,MessageFormat>();
+
+        ThemeSnapshot snapshot = ThemeSnapshot.load(name, version, locale, urls);
+        if (snapshot==null) {
+            snapshot = new ThemeSnapshot(
+                    loadBundle(pathPrefix+"/messages", locale, urls),
+                    loadBundle(pathPrefix+"/params", locale, urls),
+                    loadBundle(pathPrefix+"/resources", locale, urls));
+            snapshot.store(name, version, locale, urls);
+        }
+        this.messages = snapshot.messages;
+        this.params = snapshot.params;
+        this.resources = snapshot.resources;
 
         final ArrayList<String> list = new ArrayList<String>();
         for (String key : Any.asStringArray(params.get(GLOBAL_JS1_FILES), StringUtil.EMPTY_STRING_ARRAY)) {
@@ -104,6 +124,21 @@ public class JarTheme implements Theme {
             }
         }
         globalCSSFiles = list.toArray(new String[list.size()]);
+
+        ThemeBundle cssBundle = null, js1Bundle = null, js2Bundle = null;
+        if (Any.asBoolean(params.get(GLOBAL_BUNDLES), true)) {
+            try {
+                cssBundle = ThemeBundle.makeStylesheetsBundle(this, locale, "global", globalCSSFiles);
+                js1Bundle = ThemeBundle.makeScriptsBundle(this, locale, "global1", globalJS1Files);
+                js2Bundle = ThemeBundle.makeScriptsBundle(this, locale, "global2", globalJS2Files);
+            } catch (Exception e) {
+                Application.log.warn("Unable to make global resource bundles for theme '"+name+"' ("+locale+"): "+e.getMessage(), e);
+                cssBundle = js1Bundle = js2Bundle = null;
+            }
+        }
+        globalCSSBundle = cssBundle;
+        globalJS1Bundle = js1Bundle;
+        globalJS2Bundle = js2Bundle;
     }
 
     /**
@@ -130,12 +165,55 @@ public class JarTheme implements Theme {
 
     /**
      * {@inheritDoc}
+     * <p>Шаблон каждого сообщения разбирается однократно, разобранный шаблон кэшируется в теме. Поскольку экземпляры {@link MessageFormat}
+     * не являются потокобезопасными, то для форматирования всегда используется копия закэшированного шаблона.</p>
      */
     public String getMessage(final String key, final Object... params) {
-        final String message = messages.get(key);
-        return params==null || params.length==0
-                ? message
-                : new MessageFormat(message, locale).format(params);
+        if (params==null || params.length==0)
+            return messages.get(key);
+        final MessageFormat format = getMessageFormat(key);
+        return format!=null
+                ? ((MessageFormat)format.clone()).format(params)
+                : null;
+    }
+
+    /**
+     * Заранее разбирает шаблоны всех сообщений темы. Позволяет избежать задержек при первом форматировании каждого из сообщений.
+     * Сообщения с некорректными шаблонами игнорируются (информация о них выводится в журнал).
+     * @return  количество разобранных шаблонов сообщений.
+     */
+    public int precompileMessages() {
+        int count = 0;
+        for (String key : messages.keySet()) {
+            try {
+                getMessageFormat(key);
+                count++;
+            } catch (IllegalArgumentException e) {
+                Application.log.warn("Illegal pattern of message '"+key+"' in theme '"+name+"' ("+locale+"): "+e.getMessage());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Возвращает разобранный шаблон указанного сообщения. Возвращаемый экземпляр разделяется всеми потоками и не должен использоваться
+     * для форматирования непосредственно.
+     * @param key  идентификатор сообщения.
+     * @return  разобранный шаблон сообщения или <code>null</code> если сообщение с указанным идентификатором отсутствует в теме.
+     * @throws IllegalArgumentException  в случае некорректного шаблона сообщения.
+     */
+    private MessageFormat getMessageFormat(final String key) {
+        MessageFormat format = formats.get(key);
+        if (format==null) {
+            final String message = messages.get(key);
+            if (message==null)
+                return null;
+            format = new MessageFormat(message, locale);
+            final MessageFormat prev = formats.putIfAbsent(key, format);
+            if (prev!=null)
+                format = prev;
+        }
+        return format;
     }
 
     /**
@@ -174,6 +252,40 @@ public class JarTheme implements Theme {
         return globalJS2Files;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ThemeBundle getGlobalStylesheetsBundle() {
+        return globalCSSBundle;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ThemeBundle getGlobalJS1Bundle() {
+        return globalJS1Bundle;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ThemeBundle getGlobalJS2Bundle() {
+        return globalJS2Bundle;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ThemeBundle getBundle(final String fileName) {
+        if (globalCSSBundle!=null && globalCSSBundle.getFileName().equals(fileName))
+            return globalCSSBundle;
+        if (globalJS1Bundle!=null && globalJS1Bundle.getFileName().equals(fileName))
+            return globalJS1Bundle;
+        if (globalJS2Bundle!=null && globalJS2Bundle.getFileName().equals(fileName))
+            return globalJS2Bundle;
+        return null;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -186,11 +298,43 @@ public class JarTheme implements Theme {
         final int q = key.indexOf('?',0);
         if ( s<0 || (q>0 && s>q) ) {
             // это относительная ссылка ...
-            uri = Application.RESOURCES_SERVLET_CONTEXT + urlPrefix + (uri.charAt(0)=='/' ? uri : '/'+uri);
+            final String digest = Application.FINGERPRINT_THEME_RESOURCES ? getResourceDigest(key) : null;
+            final String prefix = digest!=null ? "/lib" + Constants.FINGERPRINT_PREFIX + digest + pathPrefix : urlPrefix;
+            uri = Application.RESOURCES_SERVLET_CONTEXT + prefix + (uri.charAt(0)=='/' ? uri : '/'+uri);
         }
         return uri;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public String getResourceDigest(final String key) {
+        String result = digests.get(key);
+        if (result==null) {
+            result = "";
+            final int s = key.indexOf(':',0);
+            final int q = key.indexOf('?',0);
+            if ( key.length()>0 && key.charAt(key.length()-1)!='/' && (s<0 || (q>0 && s>q)) ) {
+                final InputStream in = getResourceAsStream(key);
+                if (in!=null) {
+                    try {
+                        result = ThemeBundle.digest(in);
+                    } catch (IOException e) {
+                        Application.log.warn("Unable to calculate digest for resource: "+key, e);
+                    } finally {
+                        try {
+                            in.close();
+                        } catch (IOException e) {
+                            // do nothing...
+                        }
+                    }
+                }
+            }
+            digests.put(key, result);
+        }
+        return result.length()>0 ? result : null;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -204,6 +348,13 @@ public class JarTheme implements Theme {
             if ( s<0 || (q>0 && s>q) ) {
                 // it's relative url (url to something resource from theme's resources) ...
                 uri = pathPrefix + (uri.charAt(0)=='/' ? uri : '/'+uri);
+                final ThemeIndex.Entry entry = index.get(uri);
+                if (entry!=null) {
+                    return entry.openStream();
+                } else
+                if (index.isComplete()) {
+                    return null;
+                }
                 for (URL url : urls) {
                     final URL resUrl = UrlUtil.makeResourceURL(url, uri);
                     try {
@@ -226,6 +377,46 @@ public class JarTheme implements Theme {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public URL getResource(final String key) {
+        try {
+            String uri = resources.get(key);
+            if (uri==null)
+                uri = key;
+            final int s = key.indexOf(':',0);
+            final int q = key.indexOf('?',0);
+            if ( s<0 || (q>0 && s>q) ) {
+                // it's relative url (url to something resource from theme's resources) ...
+                uri = pathPrefix + (uri.charAt(0)=='/' ? uri : '/'+uri);
+                final ThemeIndex.Entry entry = index.get(uri);
+                if (entry!=null) {
+                    return entry.getURL();
+                } else
+                if (index.isComplete()) {
+                    return null;
+                }
+                for (URL url : urls) {
+                    final URL resUrl = UrlUtil.makeResourceURL(url, uri);
+                    try {
+                        resUrl.openStream().close();
+                        return resUrl;
+                    } catch (IOException ee) {
+                        // go to next url from list
+                    }
+                }
+                return null;
+            } else {
+                // it's an absolute url ...
+                return new URL(uri);
+            }
+        } catch (Exception e) {
+            Application.log.warn("Unable to obtain url for resource: "+key, e);
+            return null;
+        }
+    }
+
     public String toString() {
         return "[JarTheme{name:"+name+", ver:"+version+", locale:"+locale+", urls:"+Arrays.toString(urls)+"}]";
     }
@@ -1,6 +1,7 @@
 package org.echosoft.framework.ui.core.theme;
 
 import java.io.InputStream;
+import java.net.URL;
 
 import org.echosoft.common.model.Version;
 
@@ -86,6 +87,31 @@ public interface Theme {
      */
     public String[] getGlobalJS2Files();
 
+    /**
+     * Возвращает сборку, объединяющую в себе все таблицы стилей, возвращаемые методом {@link #getGlobalStylesheets()}.
+     * @return  сборка таблиц стилей или <code>null</code> если тема не использует сборки или список глобальных таблиц стилей пуст.
+     */
+    public ThemeBundle getGlobalStylesheetsBundle();
+
+    /**
+     * Возвращает сборку, объединяющую в себе все javascript файлы, возвращаемые методом {@link #getGlobalJS1Files()}.
+     * @return  сборка javascript файлов или <code>null</code> если тема не использует сборки или соответствующий список файлов пуст.
+     */
+    public ThemeBundle getGlobalJS1Bundle();
+
+    /**
+     * Возвращает сборку, объединяющую в себе все javascript файлы, возвращаемые методом {@link #getGlobalJS2Files()}.
+     * @return  сборка javascript файлов или <code>null</code> если тема не использует сборки или соответствующий список файлов пуст.
+     */
+    public ThemeBundle getGlobalJS2Bundle();
+
+    /**
+     * Возвращает сборку глобальных ресурсов темы по имени ее файла.
+     * @param fileName  имя файла сборки.
+     * @return  сборка или <code>null</code> если сборка с таким именем в теме отсутствует.
+     */
+    public ThemeBundle getBundle(String fileName);
+
     /**
      * Возвращает валидный URL на запрошенный ресурс относящийся к данной теме.
      * @param key некоторый логический путь до требуемого ресурса относительно корневого каталога данной темы..
@@ -100,4 +126,21 @@ public interface Theme {
      */
     public InputStream getResourceAsStream(final String key);
 
+    /**
+     * Возвращает ссылку на затребованный ресурс темы. В отличие от {@link #getResourceURL(String)} возвращаемая ссылка указывает непосредственно
+     * на место хранения ресурса и может быть использована для получения дополнительной информации о ресурсе (его размер, время модификации и т.д.).
+     * @param key  некоторый логический путь до требуемого ресурса относительно корневого каталога данной темы..
+     * @return  ссылка на ресурс или <code>null</code> если затребованный ресурс отсутствует в данной теме.
+     */
+    public URL getResource(final String key);
+
+    /**
+     * Возвращает сокращенный хэш от содержимого затребованного ресурса темы. Хэш используется для формирования ссылок на ресурс,
+     * изменяющихся при каждом изменении его содержимого (см. {@link org.echosoft.framework.ui.core.spi.Constants#FINGERPRINT_PREFIX}).
+     * Значение вычисляется при первом обращении и в дальнейшем хранится в теме.
+     * @param key  некоторый логический путь до требуемого ресурса относительно корневого каталога данной темы..
+     * @return  строка с хэшем в шестнадцатеричном представлении или <code>null</code> если затребованный ресурс отсутствует в данной теме.
+     */
+    public String getResourceDigest(final String key);
+
 }
@@ -0,0 +1,239 @@
+package org.echosoft.framework.ui.core.theme;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+import org.echosoft.common.utils.ObjectUtil;
+import org.echosoft.framework.ui.core.spi.Constants;
+
+/**
+ * Сборка (bundle) глобальных ресурсов темы, т.е. объединенное в один файл содержимое всех javascript файлов или всех таблиц стилей,
+ * которые должны подключаться к каждой странице приложения. Использование сборок вместо отдельных файлов позволяет значительно сократить
+ * количество запросов браузера к серверу при загрузке страниц.
+ * <p>Имя файла сборки содержит хэш от ее содержимого, благодаря чему содержимое сборки с данным именем никогда не изменяется
+ * и может кэшироваться клиентами неограниченно долго.</p>
+ * Сборки доступны клиентам по ссылкам вида <code>/resource/bundle/{тема}/{локаль}/{имя файла сборки}</code>.
+ * Поскольку сборки таблиц стилей располагаются по другому пути чем исходные таблицы стилей, то все относительные ссылки на ресурсы
+ * темы в их содержимом (конструкции вида <code>url(../images/a.gif)</code>) переписываются с учетом нового расположения.
+ * Переписанные ссылки содержат сегмент <code>/t-{тема}~{локаль}</code> (см. {@link org.echosoft.framework.ui.core.spi.Constants#THEME_PREFIX}),
+ * поэтому ресурсы темы, на которые ссылается сборка, берутся из той же темы что и сама сборка независимо от сессии пользователя.
+ *
+ * @author Anton Sharapov
+ */
+public final class ThemeBundle {
+
+    /**
+     * Префикс относительных ссылок на ресурсы темы из сборки.
+     * Сборка располагается по пути <code>/bundle/{тема}/{локаль}/</code>, ресурсы темы - по пути <code>/theme/t-{тема}~{локаль}/</code>.
+     */
+    private static final String THEME_PATH_FROM_BUNDLE = "../../../theme" + Constants.THEME_PREFIX;
+    private static final String ENCODING = "UTF-8";
+
+    private final String path;
+    private final String fileName;
+    private final String contentType;
+    private final byte[] content;
+
+    private ThemeBundle(final String themeName, final Locale locale, final String name, final String extension, final String contentType, final byte[] content) {
+        this.fileName = name + '.' + digest(content) + '.' + extension;
+        this.path = '/' + themeName + '/' + locale + '/' + fileName;
+        this.contentType = contentType;
+        this.content = content;
+    }
+
+    /**
+     * @return  имя файла сборки (включает в себя хэш от содержимого сборки).
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return  путь к файлу сборки вида <code>/{тема}/{локаль}/{имя файла сборки}</code>.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return  тип содержимого сборки.
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return  содержимое сборки. Возвращаемый массив не должен модифицироваться.
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    public String toString() {
+        return "[ThemeBundle{path:"+path+", size:"+content.length+"}]";
+    }
+
+
+    /**
+     * Формирует сборку из указанных javascript файлов темы.
+     * @param theme  тема, которой принадлежат файлы.
+     * @param locale  локаль темы.
+     * @param name  логическое имя сборки.
+     * @param files  упорядоченный список путей к javascript файлам темы.
+     * @return  сборка или <code>null</code> если список файлов пуст.
+     * @throws IOException  в случае если какой-либо из файлов не может быть прочитан.
+     */
+    static ThemeBundle makeScriptsBundle(final Theme theme, final Locale locale, final String name, final String[] files) throws IOException {
+        if (files.length==0)
+            return null;
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream(64*1024);
+        final byte[] separator = "\n;\n".getBytes(ENCODING);
+        for (String file : files) {
+            buf.write(readResource(theme, file));
+            buf.write(separator);
+        }
+        return new ThemeBundle(theme.getName(), locale, name, "js", "text/javascript", buf.toByteArray());
+    }
+
+    /**
+     * Формирует сборку из указанных таблиц стилей темы. Относительные ссылки на ресурсы темы в таблицах стилей переписываются с учетом
+     * расположения сборки.
+     * @param theme  тема, которой принадлежат файлы.
+     * @param locale  локаль темы.
+     * @param name  логическое имя сборки.
+     * @param files  упорядоченный список путей к таблицам стилей темы.
+     * @return  сборка или <code>null</code> если список файлов пуст.
+     * @throws IOException  в случае если какой-либо из файлов не может быть прочитан.
+     */
+    static ThemeBundle makeStylesheetsBundle(final Theme theme, final Locale locale, final String name, final String[] files) throws IOException {
+        if (files.length==0)
+            return null;
+        final StringBuilder buf = new StringBuilder(64*1024);
+        final String themePath = THEME_PATH_FROM_BUNDLE + theme.getName() + Constants.THEME_LOCALE_SEPARATOR + locale;
+        for (String file : files) {
+            final String css = new String(readResource(theme, file), ENCODING);
+            final int d = file.lastIndexOf('/');
+            final String dir = d>=0 ? file.substring(0, d+1) : "/";
+            rewriteURLs(buf, css, themePath, dir.charAt(0)=='/' ? dir : '/'+dir);
+            buf.append('\n');
+        }
+        return new ThemeBundle(theme.getName(), locale, name, "css", "text/css", buf.toString().getBytes(ENCODING));
+    }
+
+
+    private static byte[] readResource(final Theme theme, final String file) throws IOException {
+        final InputStream in = theme.getResourceAsStream(file);
+        if (in==null)
+            throw new IOException("Theme resource not found: "+file);
+        try {
+            return ObjectUtil.streamToBytes(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Переписывает относительные ссылки вида <code>url(...)</code> в таблице стилей.
+     * @param out  буфер, в который помещается результат.
+     * @param css  исходная таблица стилей.
+     * @param themePath  относительный путь от сборки к корню ресурсов ее темы.
+     * @param dir  путь к каталогу темы в котором расположена исходная таблица стилей (начинается и заканчивается символом '/').
+     */
+    private static void rewriteURLs(final StringBuilder out, final String css, final String themePath, final String dir) {
+        int pos = 0;
+        for (int s=css.indexOf("url(", 0); s>=0; s=css.indexOf("url(", pos)) {
+            final int e = css.indexOf(')', s);
+            if (e<0)
+                break;
+            out.append(css, pos, s+4);
+            String url = css.substring(s+4, e).trim();
+            char quote = 0;
+            if (url.length()>1 && (url.charAt(0)=='"' || url.charAt(0)=='\'')) {
+                quote = url.charAt(0);
+                url = url.substring(1, url.length()-1);
+            }
+            if (url.length()>0 && url.charAt(0)!='/' && url.indexOf(':')<0) {
+                url = themePath + normalize(dir + url);
+            }
+            if (quote!=0) {
+                out.append(quote).append(url).append(quote);
+            } else
+                out.append(url);
+            out.append(')');
+            pos = e+1;
+        }
+        out.append(css, pos, css.length());
+    }
+
+    /**
+     * Удаляет из пути сегменты вида <code>./</code> и <code>{каталог}/../</code>.
+     */
+    private static String normalize(final String path) {
+        final String[] segments = path.split("/");
+        final String[] result = new String[segments.length];
+        int count = 0;
+        for (String segment : segments) {
+            if (segment.length()==0 || ".".equals(segment))
+                continue;
+            if ("..".equals(segment)) {
+                if (count>0)
+                    count--;
+                continue;
+            }
+            result[count++] = segment;
+        }
+        final StringBuilder buf = new StringBuilder(path.length());
+        for (int i=0; i<count; i++) {
+            buf.append('/').append(result[i]);
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Вычисляет сокращенный хэш MD5 (первые 6 байт) от указанных данных.
+     * @param data  исходные данные.
+     * @return  строка с хэшем в шестнадцатеричном представлении.
+     */
+    static String digest(final byte[] data) {
+        final MessageDigest md = getMessageDigest();
+        return toHex(md.digest(data));
+    }
+
+    /**
+     * Вычисляет сокращенный хэш MD5 (первые 6 байт) от содержимого указанного потока. Поток по окончании вычислений не закрывается.
+     * @param in  поток с исходными данными.
+     * @return  строка с хэшем в шестнадцатеричном представлении.
+     * @throws IOException  в случае ошибок ввода-вывода.
+     */
+    static String digest(final InputStream in) throws IOException {
+        final MessageDigest md = getMessageDigest();
+        final byte[] buf = new byte[8192];
+        for (int len=in.read(buf); len>=0; len=in.read(buf)) {
+            md.update(buf, 0, len);
+        }
+        return toHex(md.digest());
+    }
+
+    private static MessageDigest getMessageDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private static String toHex(final byte[] hash) {
+        final StringBuilder buf = new StringBuilder(12);
+        for (int i=0; i<6; i++) {
+            final int b = hash[i] & 0xFF;
+            if (b<16)
+                buf.append('0');
+            buf.append(Integer.toHexString(b));
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,233 @@
+package org.echosoft.framework.ui.core.theme;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.echosoft.framework.ui.core.Application;
+
+/**
+ * Неизменяемый индекс ресурсов темы, строящийся однократно при создании темы. Сопоставляет путь к ресурсу с записью в том .jar файле темы,
+ * которая должна использоваться для данного ресурса (с учетом порядка .jar файлов темы). Благодаря индексу поиск ресурса темы не требует
+ * последовательного открытия соединений к каждому из .jar файлов темы, а отсутствие ресурса выявляется без обработки исключений.
+ * <p>Индексируются .jar файлы и каталоги, расположенные в локальной файловой системе. Открытые .jar файлы разделяются всеми темами и
+ * остаются открытыми до вызова метода {@link #closeAll()} (при остановке приложения), после чего при очередном обращении к ресурсу
+ * соответствующий .jar файл открывается заново. Если хотя бы одна из ссылок темы указывает на ресурс иного вида
+ * (например, используемые рядом серверов приложений протоколы <code>vfszip</code> или <code>code-source</code>), то индекс
+ * считается неполным: в нем присутствуют только ресурсы из предшествующих такой ссылке .jar файлов, а ресурсы, отсутствующие в индексе,
+ * тема должна искать прежним способом.</p>
+ *
+ * @author Anton Sharapov
+ */
+final class ThemeIndex {
+
+    private static final String JAR_PROTOCOL = "jar";
+    private static final String FILE_PROTOCOL = "file";
+    private static final String JAR_SEPARATOR = "!/";
+
+    private static final Map<String,JarFile> JARS = new HashMap<String,JarFile>();  // открытые .jar файлы, ключ - путь к файлу.
+
+    private final Map<String,Entry> entries;
+    private final boolean complete;
+
+    private ThemeIndex(final Map<String,Entry> entries, final boolean complete) {
+        this.entries = Collections.unmodifiableMap(entries);
+        this.complete = complete;
+    }
+
+    /**
+     * Строит индекс ресурсов темы.
+     * @param urls  упорядоченный массив ссылок на корневые каталоги .jar файлов темы.
+     * @param pathPrefix  путь к каталогу темы в .jar файлах (начинается с символа '/').
+     * @return  индекс ресурсов темы.
+     */
+    public static ThemeIndex build(final URL[] urls, final String pathPrefix) {
+        final Map<String,Entry> entries = new HashMap<String,Entry>();
+        boolean complete = true;
+        for (URL url : urls) {
+            try {
+                if (JAR_PROTOCOL.equals(url.getProtocol())) {
+                    final String spec = url.getFile();
+                    final int s = spec.indexOf(JAR_SEPARATOR);
+                    final URL jarUrl = s>0 ? new URL(spec.substring(0,s)) : null;
+                    if (jarUrl!=null && FILE_PROTOCOL.equals(jarUrl.getProtocol()) && s+JAR_SEPARATOR.length()==spec.length()) {
+                        indexJar(entries, url, getJarFile(toFile(jarUrl)), pathPrefix);
+                        continue;
+                    }
+                } else
+                if (FILE_PROTOCOL.equals(url.getProtocol())) {
+                    final File root = toFile(url);
+                    if (root.isDirectory()) {
+                        indexDirectory(entries, url, new File(root, pathPrefix.substring(1)), pathPrefix);
+                        continue;
+                    }
+                }
+            } catch (IOException e) {
+                Application.log.warn("Unable to index theme resources from "+url+": "+e.getMessage(), e);
+            }
+            // ресурсы из последующих .jar файлов не индексируются т.к. при поиске они должны уступать ресурсам данного .jar файла ...
+            complete = false;
+            break;
+        }
+        return new ThemeIndex(entries, complete);
+    }
+
+    /**
+     * @return <code>true</code> если проиндексированы все .jar файлы темы и отсутствие ресурса в индексе означает его отсутствие в теме.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Возвращает запись индекса для указанного ресурса.
+     * @param path  путь к ресурсу относительно корневого каталога .jar файла (включая путь к каталогу темы).
+     * @return  запись индекса или <code>null</code> если ресурс в индексе отсутствует.
+     */
+    public Entry get(final String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * @return  количество ресурсов в индексе.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public String toString() {
+        return "[ThemeIndex{size:"+entries.size()+", complete:"+complete+"}]";
+    }
+
+
+    private static void indexJar(final Map<String,Entry> entries, final URL root, final JarFile jar, final String pathPrefix) {
+        final String prefix = pathPrefix.substring(1) + '/';
+        for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); ) {
+            final JarEntry entry = e.nextElement();
+            final String name = entry.getName();
+            if (entry.isDirectory() || !name.startsWith(prefix))
+                continue;
+            final String path = '/' + name;
+            if (!entries.containsKey(path))
+                entries.put(path, new JarResource(root, path, jar.getName(), name));
+        }
+    }
+
+    private static void indexDirectory(final Map<String,Entry> entries, final URL root, final File dir, final String path) {
+        final File[] files = dir.listFiles();
+        if (files==null)
+            return;
+        for (File file : files) {
+            final String p = path + '/' + file.getName();
+            if (file.isDirectory()) {
+                indexDirectory(entries, root, file, p);
+            } else
+            if (!entries.containsKey(p)) {
+                entries.put(p, new FileResource(root, p, file));
+            }
+        }
+    }
+
+    private static File toFile(final URL url) throws IOException {
+        return new File(URLDecoder.decode(url.getPath(), "UTF-8"));
+    }
+
+    /**
+     * Закрывает все открытые индексами .jar файлы тем. Вызывается при остановке приложения для того чтобы .jar файлы тем не оставались
+     * заблокированными после его выгрузки.
+     */
+    static void closeAll() {
+        synchronized (JARS) {
+            for (JarFile jar : JARS.values()) {
+                try {
+                    jar.close();
+                } catch (IOException e) {
+                    Application.log.warn("Unable to close theme jar "+jar.getName()+": "+e.getMessage(), e);
+                }
+            }
+            JARS.clear();
+        }
+    }
+
+    private static JarFile getJarFile(final File file) throws IOException {
+        return getJarFile(file.getCanonicalPath());
+    }
+
+    private static JarFile getJarFile(final String key) throws IOException {
+        synchronized (JARS) {
+            JarFile jar = JARS.get(key);
+            if (jar==null) {
+                jar = new JarFile(key);
+                JARS.put(key, jar);
+            }
+            return jar;
+        }
+    }
+
+
+    /**
+     * Запись индекса, описывающая местоположение ресурса темы.
+     */
+    public static abstract class Entry {
+        private final URL root;
+        private final String path;
+        private Entry(final URL root, final String path) {
+            this.root = root;
+            this.path = path;
+        }
+        /**
+         * @return  ссылка на ресурс.
+         * @throws MalformedURLException  в случае некорректной ссылки на .jar файл.
+         */
+        public URL getURL() throws MalformedURLException {
+            return UrlUtil.makeResourceURL(root, path);
+        }
+        /**
+         * @return  поток к содержимому ресурса.
+         * @throws IOException  в случае ошибок ввода-вывода.
+         */
+        public abstract InputStream openStream() throws IOException;
+        public String toString() {
+            return "[ThemeIndex.Entry{root:"+root+", path:"+path+"}]";
+        }
+    }
+
+    private static final class JarResource extends Entry {
+        private final String jarPath;
+        private final String name;
+        private JarResource(final URL root, final String path, final String jarPath, final String name) {
+            super(root, path);
+            this.jarPath = jarPath;
+            this.name = name;
+        }
+        public InputStream openStream() throws IOException {
+            final JarFile jar = getJarFile(jarPath);
+            final JarEntry entry = jar.getJarEntry(name);
+            if (entry==null)
+                throw new FileNotFoundException("Resource "+name+" not found in "+jarPath);
+            return jar.getInputStream(entry);
+        }
+    }
+
+    private static final class FileResource extends Entry {
+        private final File file;
+        private FileResource(final URL root, final String path, final File file) {
+            super(root, path);
+            this.file = file;
+        }
+        public InputStream openStream() throws IOException {
+            return new FileInputStream(file);
+        }
+    }
+}
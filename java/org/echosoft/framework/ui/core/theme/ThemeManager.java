@@ -1,14 +1,22 @@
 package org.echosoft.framework.ui.core.theme;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
@@ -16,25 +24,29 @@ import org.echosoft.common.model.Version;
 import org.echosoft.common.utils.StringUtil;
 import org.echosoft.framework.ui.core.Application;
 import org.echosoft.framework.ui.core.UIException;
+import org.echosoft.framework.ui.core.compiler.utils.ClasspathIndex;
 
 /**
  * <p>Используется для управления темами. Приложению может быть доступно несколько тем в том числе и несколько версий одной и той же темы</p>
  * <p>Тема по умолчанию может быть задана с помощью вызова {@link #setDefaultTheme}. Эта тема должна быть уже ранее зарегистрирована в менеджере тем.</p>
+ * <p>Перечень зарегистрированных тем хранится в виде неизменяемого снимка, который заменяется целиком лишь при регистрации тем из
+ * очередного загрузчика классов (см. {@link #init(ClassLoader)}), поэтому обращения к нему выполняются без блокировок.
+ * Экземпляр темы для каждой локали конструируется однократно (при первом обращении к нему либо заранее, при вызове метода {@link #prewarm(Locale[])}),
+ * при этом конструирование тем для разных локалей выполняется независимо друг от друга.</p>
  * @author Anton Sharapov
  */
 public class ThemeManager {
 
-    private static final String MANIFEST = "META-INF/MANIFEST.MF";
     private static final String THEME_SECTION = "ru/topsbi/framework/ui/theme";
     private static final String THEME_NAME = "X-TWUI-Theme-Name";
     private static final String THEME_VERSION = "X-TWUI-Theme-Version";
     private static final String THEME_ADDON = "X-TWUI-Theme-Addon";
 
-    private final Map<String,ThemeInfo> themes;
-    private String defaultTheme;
+    private volatile Map<String,ThemeInfo> themes;
+    private volatile String defaultTheme;
 
     public ThemeManager() throws IOException {
-        themes = new HashMap<String,ThemeInfo>();
+        themes = Collections.emptyMap();
         init(null);
     }
 
@@ -99,91 +111,216 @@ public class ThemeManager {
 
 
     /**
-     * Ищет все присутствующие темы для указанного загрузчика классов.
+     * Заранее конструирует экземпляры всех зарегистрированных тем для всех указанных локалей и разбирает шаблоны сообщений в них.
+     * Темы конструируются параллельно.
+     * Позволяет избежать задержек при обработке первых запросов к приложению после его запуска.
+     * @param locales  перечень локалей, для которых должны быть сконструированы темы.
+     * @throws UIException  в случае если какая-либо из тем не может быть сконструирована.
+     */
+    public void prewarm(final Locale[] locales) {
+        final Collection<ThemeInfo> infos = themes.values();
+        final int count = infos.size() * locales.length;
+        if (count==0)
+            return;
+        final long started = System.currentTimeMillis();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(count, Runtime.getRuntime().availableProcessors()));
+        try {
+            final List<Future<Theme>> tasks = new ArrayList<Future<Theme>>(count);
+            for (final ThemeInfo ti : infos) {
+                for (final Locale locale : locales) {
+                    tasks.add( executor.submit(new Callable<Theme>() {
+                        public Theme call() {
+                            final Theme theme = ti.getTheme(locale);
+                            if (theme instanceof JarTheme)
+                                ((JarTheme)theme).precompileMessages();
+                            return theme;
+                        }
+                    }) );
+                }
+            }
+            for (Future<Theme> task : tasks) {
+                ThemeInfo.await(task);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Application.log.info("Webui themes prewarmed for locales "+Arrays.toString(locales)+" in "+(System.currentTimeMillis()-started)+" ms");
+    }
+
+    /**
+     * Освобождает удерживаемые темами системные ресурсы (открытые .jar файлы тем). Вызывается при остановке приложения.
+     * Зарегистрированные темы при этом остаются работоспособными: при последующих обращениях к ресурсам тем необходимые .jar файлы
+     * будут открыты повторно.
+     */
+    public void destroy() {
+        ThemeIndex.closeAll();
+    }
+
+    /**
+     * Ищет все присутствующие темы для указанного загрузчика классов и добавляет их к уже зарегистрированным в менеджере темам.
+     * Найденные ресурсы уже зарегистрированной темы той же версии дополняют ее, а более новая версия темы замещает прежнюю.
+     * Темы, не затронутые данным загрузчиком классов, сохраняются вместе с уже сконструированными экземплярами тем.
+     * Описания тем берутся из манифестов, собранных в индексе {@link ClasspathIndex}, который используется также и при поиске
+     * библиотек тегов, поэтому .jar файлы при запуске приложения просматриваются лишь однократно.
      * @param loader  загрузчик классов, если не указан, то используется загрузчик классов по умолчанию.
      * @throws IOException  в случае каких-либо проблем.
      */
-    protected void init(ClassLoader loader) throws IOException {
+    protected synchronized void init(ClassLoader loader) throws IOException {
         if (loader==null) {
             loader = this.getClass().getClassLoader();
         }
-        for (Enumeration e = loader.getResources(MANIFEST); e.hasMoreElements(); ) {
-            final URL url = (URL)e.nextElement();
-            final InputStream in = url.openStream();
-            try {
-                final Manifest manifest = new Manifest(in);
-                final Attributes attrs = manifest.getAttributes(THEME_SECTION);
-                if (attrs!=null) {
-                    final String name = StringUtil.trim(attrs.getValue(THEME_NAME));
-                    final String v = StringUtil.trim(attrs.getValue(THEME_VERSION));
-                    if (name==null) {
-                        Application.log.warn("Illegal webui theme configuration: name of the theme not specified");
-                        continue;
-                    }
-                    final Version version;
-                    try {
-                        version = Version.parseVersion(v);
-                        if (version==null)
-                            throw new NullPointerException("version not specified");
-                    } catch (Exception err) {
-                        Application.log.warn("Illegal webui theme configuration theme '"+name+"' hasn't valid version: "+v);
-                        continue;
-                    }
-                    final String _order = StringUtil.trim(attrs.getValue(THEME_ADDON));
-                    final int order = _order!=null ? Integer.parseInt(_order,10) : 0;
-                    ThemeInfo ti = themes.get(name);
-                    if (ti==null || ti.version.compareTo(version)<0) {
-                        ti = new ThemeInfo(name, version);
-                        themes.put(name, ti);
-                        if (defaultTheme==null) {
-                            defaultTheme = name;
-                        }
+        final Map<String,ThemeInfo> registered = this.themes;
+        final Map<String,ThemeBuilder> builders = new HashMap<String,ThemeBuilder>();
+        for (ThemeInfo ti : registered.values()) {
+            builders.put(ti.name, new ThemeBuilder(ti));
+        }
+        String defaultTheme = this.defaultTheme;
+        for (Map.Entry<URL,Manifest> entry : ClasspathIndex.getInstance(loader).getManifests().entrySet()) {
+            final URL url = entry.getKey();
+            final Attributes attrs = entry.getValue().getAttributes(THEME_SECTION);
+            if (attrs!=null) {
+                final String name = StringUtil.trim(attrs.getValue(THEME_NAME));
+                final String v = StringUtil.trim(attrs.getValue(THEME_VERSION));
+                if (name==null) {
+                    Application.log.warn("Illegal webui theme configuration: name of the theme not specified");
+                    continue;
+                }
+                final Version version;
+                try {
+                    version = Version.parseVersion(v);
+                    if (version==null)
+                        throw new NullPointerException("version not specified");
+                } catch (Exception err) {
+                    Application.log.warn("Illegal webui theme configuration theme '"+name+"' hasn't valid version: "+v);
+                    continue;
+                }
+                final String _order = StringUtil.trim(attrs.getValue(THEME_ADDON));
+                final int order = _order!=null ? Integer.parseInt(_order,10) : 0;
+                ThemeBuilder tb = builders.get(name);
+                if (tb==null || tb.version.compareTo(version)<0) {
+                    tb = new ThemeBuilder(name, version);
+                    builders.put(name, tb);
+                    if (defaultTheme==null) {
+                        defaultTheme = name;
                     }
-                    ti.attachUrl(UrlUtil.normalize(url), order);
                 }
-            } finally {
-                in.close();
+                tb.attachUrl(UrlUtil.normalize(url), order);
             }
         }
 
-        for (ThemeInfo ti : themes.values()) {
-            Application.log.info("Registered webui theme: " + ti);
+        // публикуем неизменяемый снимок перечня зарегистрированных тем ...
+        final Map<String,ThemeInfo> result = new HashMap<String,ThemeInfo>(builders.size());
+        for (ThemeBuilder tb : builders.values()) {
+            final ThemeInfo ti = tb.build();
+            result.put(ti.name, ti);
+            if (ti!=registered.get(ti.name))
+                Application.log.info("Registered webui theme: " + ti);
+        }
+        this.themes = Collections.unmodifiableMap(result);
+        this.defaultTheme = defaultTheme;
+    }
+
+
+    /**
+     * Используется для накопления информации о теме в процессе инициализации менеджера тем.
+     */
+    private static final class ThemeBuilder {
+        private final String name;
+        private final Version version;
+        private final ArrayList<OrderedURL> urls;
+        private final ThemeInfo origin;
+        private boolean modified;
+        private ThemeBuilder(final String name, final Version version) {
+            this.name = name;
+            this.version = version;
+            this.urls = new ArrayList<OrderedURL>();
+            this.origin = null;
+            this.modified = true;
+        }
+        private ThemeBuilder(final ThemeInfo origin) {
+            this.name = origin.name;
+            this.version = origin.version;
+            this.urls = new ArrayList<OrderedURL>(Arrays.asList(origin.sources));
+            this.origin = origin;
+            this.modified = false;
+        }
+        private void attachUrl(final URL url, final int order) {
+            final String spec = url.toString();
+            for (OrderedURL ou : urls) {
+                if (ou.url.toString().equals(spec))
+                    return;     // ресурсы, доступные нескольким загрузчикам классов, не должны регистрироваться повторно
+            }
+            urls.add( new OrderedURL(url, order) );
+            modified = true;
+        }
+        private ThemeInfo build() {
+            if (!modified)
+                return origin;  // сохраняем уже сконструированные экземпляры темы
+            Collections.sort(urls);
+            return new ThemeInfo(name, version, urls.toArray(new OrderedURL[urls.size()]));
         }
     }
 
     private static final class ThemeInfo {
         public final String name;
         public final Version version;
-        public final ArrayList<OrderedURL> urls;
-        public final HashMap<Locale,Theme> localizedThemes;
-        public ThemeInfo(final String name, final Version version) {
+        public final OrderedURL[] sources;
+        public final URL[] urls;
+        public final ConcurrentHashMap<Locale,Future<Theme>> localizedThemes;
+        public ThemeInfo(final String name, final Version version, final OrderedURL[] sources) {
             this.name = name;
             this.version = version;
-            this.urls = new ArrayList<OrderedURL>();
-            this.localizedThemes = new HashMap<Locale,Theme>();
+            this.sources = sources;
+            this.urls = new URL[sources.length];
+            for (int i=0; i<sources.length; i++)
+                this.urls[i] = sources[i].url;
+            this.localizedThemes = new ConcurrentHashMap<Locale,Future<Theme>>();
         }
-        public void attachUrl(final URL url, final int order) {
-            urls.add( new OrderedURL(url, order) );
-            if (urls.size()>1) {
-                Collections.sort(urls);
+        public Theme getTheme(final Locale locale) {
+            Future<Theme> future = localizedThemes.get(locale);
+            if (future==null) {
+                if (urls.length<1)
+                    return null;
+                // тему конструирует только тот поток, которому удалось зарегистрировать задачу, остальные потоки ожидают ее результата ...
+                final FutureTask<Theme> task = new FutureTask<Theme>(new Callable<Theme>() {
+                    public Theme call() {
+                        return new JarTheme(name, version, locale, urls);
+                    }
+                });
+                future = localizedThemes.putIfAbsent(locale, task);
+                if (future==null) {
+                    future = task;
+                    task.run();
+                }
+            }
+            try {
+                return await(future);
+            } catch (RuntimeException e) {
+                localizedThemes.remove(locale, future);     // даем возможность повторить попытку при следующем обращении
+                throw e;
             }
         }
-        public Theme getTheme(final Locale locale) {
-            Theme theme = localizedThemes.get(locale);
-            if (theme==null) {
-                synchronized (this) {
-                    if (theme==null) {
-                        if (urls.size()<1)
-                            return null;
-                        final URL[] urlsArray = new URL[urls.size()];
-                        for (int i=0; i<urls.size(); i++)
-                            urlsArray[i] = (urls.get(i)).url;
-                        theme = new JarTheme(name, version, locale, urlsArray);
-                        localizedThemes.put(locale, theme);
+        private static Theme await(final Future<Theme> future) {
+            boolean interrupted = false;
+            try {
+                for (;;) {
+                    try {
+                        return future.get();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
                     }
                 }
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException)cause;
+                if (cause instanceof Error)
+                    throw (Error)cause;
+                throw new UIException(cause.getMessage(), cause);
+            } finally {
+                if (interrupted)
+                    Thread.currentThread().interrupt();
             }
-            return theme;
         }
         public int hashCode() {
             return name.hashCode();
@@ -192,10 +329,10 @@ public class ThemeManager {
             if (obj==null || !getClass().equals(obj.getClass()))
                 return false;
             final ThemeInfo other = (ThemeInfo)obj;
-            return name.equals(other.name) && version.equals(other.version) && urls.equals(other.urls);
+            return name.equals(other.name) && version.equals(other.version) && Arrays.equals(urls, other.urls);
         }
         public String toString() {
-            return "[Theme{name:"+name+", version:"+version+", url:"+urls+"}]";
+            return "[Theme{name:"+name+", version:"+version+", url:"+Arrays.toString(urls)+"}]";
         }
     }
 
@@ -0,0 +1,249 @@
+package org.echosoft.framework.ui.core.theme;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.echosoft.common.model.Version;
+import org.echosoft.framework.ui.core.Application;
+
+/**
+ * Двоичный снимок объединенных наборов свойств темы (<code>messages</code>, <code>params</code>, <code>resources</code>) для одной локали.
+ * Позволяет сконструировать тему чтением одного файла вместо поиска и разбора до четырех файлов <code>.properties</code> каждого набора
+ * во всех .jar файлах темы.
+ * <p>Снимки используются только если системным свойством <code>webui.themes.snapshots</code> задан каталог для их хранения (по умолчанию
+ * снимки не используются). Содержимому снимков доверяют при конструировании тем, поэтому этот каталог должен быть доступен на запись только
+ * данному приложению (например подкаталог <code>javax.servlet.context.tempdir</code>), но не быть общим временным каталогом.
+ * Снимки создаются при первом конструировании темы для очередной локали; поврежденные снимки игнорируются.
+ * Снимки могут быть построены и заранее, запуском данного класса (см. цель <code>theme-snapshots</code> в build.xml):
+ * <pre>java org.echosoft.framework.ui.core.theme.ThemeSnapshot каталог</pre>
+ * В снимке запоминаются пути, размеры и время последней модификации всех .jar файлов темы. Если хотя бы один из них изменился (или
+ * тема стала состоять из других .jar файлов), то снимок считается устаревшим: тема загружает наборы свойств обычным образом и
+ * перезаписывает снимок. Для тем, ресурсы которых расположены не в .jar файлах локальной файловой системы, снимки не используются.</p>
+ *
+ * @author Anton Sharapov
+ */
+final class ThemeSnapshot {
+
+    private static final String DIR_PROPERTY = "webui.themes.snapshots";
+    private static final String DISABLED = "none";
+    private static final String JAR_PROTOCOL = "jar";
+    private static final String FILE_PROTOCOL = "file";
+    private static final String JAR_SEPARATOR = "!/";
+    private static final int MAGIC = 0x57545353;    // "WTSS"
+    private static final int FORMAT_VERSION = 1;
+    private static final String ENCODING = "UTF-8";
+
+    public final Map<String,String> messages;
+    public final Map<String,String> params;
+    public final Map<String,String> resources;
+
+    ThemeSnapshot(final Map<String,String> messages, final Map<String,String> params, final Map<String,String> resources) {
+        this.messages = messages;
+        this.params = params;
+        this.resources = resources;
+    }
+
+    /**
+     * Загружает снимок наборов свойств темы.
+     * @param name  имя темы.
+     * @param version  версия темы.
+     * @param locale  локаль.
+     * @param urls  упорядоченный массив ссылок на .jar файлы темы.
+     * @return  снимок наборов свойств темы или <code>null</code> если снимок отсутствует, устарел или не может быть использован.
+     */
+    public static ThemeSnapshot load(final String name, final Version version, final Locale locale, final URL[] urls) {
+        final File file = getFile(name, locale);
+        final File[] jars = getJarFiles(urls);
+        if (file==null || jars==null || !file.isFile())
+            return null;
+        try {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(readFile(file)));
+            if (in.readInt()!=MAGIC || in.readInt()!=FORMAT_VERSION)
+                return null;
+            if (!name.equals(readString(in)) || !String.valueOf(version).equals(readString(in)) || !locale.toString().equals(readString(in)))
+                return null;
+            if (readLength(in, 20)!=jars.length)
+                return null;
+            for (File jar : jars) {
+                if (!jar.getPath().equals(readString(in)) || in.readLong()!=jar.length() || in.readLong()!=jar.lastModified())
+                    return null;
+            }
+            return new ThemeSnapshot(readMap(in), readMap(in), readMap(in));
+        } catch (IOException e) {
+            Application.log.warn("Unable to load snapshot of theme '"+name+"' ("+locale+") from "+file+": "+e.getMessage());
+            return null;
+        } catch (RuntimeException e) {
+            Application.log.warn("Unable to load snapshot of theme '"+name+"' ("+locale+") from "+file+": "+e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Сохраняет снимок наборов свойств темы. Ошибки при сохранении снимка записываются в журнал и на работу темы не влияют.
+     * @param name  имя темы.
+     * @param version  версия темы.
+     * @param locale  локаль.
+     * @param urls  упорядоченный массив ссылок на .jar файлы темы.
+     */
+    public void store(final String name, final Version version, final Locale locale, final URL[] urls) {
+        final File file = getFile(name, locale);
+        final File[] jars = getJarFiles(urls);
+        if (file==null || jars==null)
+            return;
+        File tmp = null;
+        try {
+            final File dir = file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs())
+                throw new IOException("Can't create directory "+dir);
+            tmp = File.createTempFile(file.getName(), ".tmp", dir);
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                writeString(out, name);
+                writeString(out, String.valueOf(version));
+                writeString(out, locale.toString());
+                out.writeInt(jars.length);
+                for (File jar : jars) {
+                    writeString(out, jar.getPath());
+                    out.writeLong(jar.length());
+                    out.writeLong(jar.lastModified());
+                }
+                writeMap(out, messages);
+                writeMap(out, params);
+                writeMap(out, resources);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+                throw new IOException("Can't rename "+tmp+" to "+file);
+        } catch (IOException e) {
+            if (tmp!=null)
+                tmp.delete();
+            Application.log.warn("Unable to store snapshot of theme '"+name+"' ("+locale+") to "+file+": "+e.getMessage());
+        }
+    }
+
+
+    /**
+     * Строит снимки наборов свойств всех доступных приложению тем для всех поддерживаемых приложением локалей.
+     * @param args  единственный аргумент - каталог, в котором должны быть сохранены снимки.
+     */
+    public static void main(final String[] args) {
+        if (args.length!=1) {
+            System.err.println("Usage: java "+ThemeSnapshot.class.getName()+" dir");
+            System.exit(1);
+        }
+        System.setProperty(DIR_PROPERTY, args[0]);
+        final ThemeManager manager = Application.THEMES_MANAGER;
+        for (String theme : manager.getRegisteredThemes()) {
+            for (Locale locale : Application.SUPPORTED_LOCALES) {
+                manager.getTheme(locale, theme);
+                System.out.println("Snapshot of theme '"+theme+"' ("+locale+") was stored to "+getFile(theme, locale));
+            }
+        }
+    }
+
+    private static File getFile(final String name, final Locale locale) {
+        final String dir = System.getProperty(DIR_PROPERTY);
+        if (dir==null || dir.length()==0 || DISABLED.equals(dir))
+            return null;
+        return new File(dir, name.replace('/','_') + '_' + locale + ".snapshot").getAbsoluteFile();
+    }
+
+    /**
+     * Возвращает .jar файлы темы.
+     * @return  массив .jar файлов или <code>null</code> если хотя бы одна из ссылок не указывает на .jar файл в локальной файловой системе.
+     */
+    private static File[] getJarFiles(final URL[] urls) {
+        final File[] result = new File[urls.length];
+        try {
+            for (int i=0; i<urls.length; i++) {
+                final URL url = urls[i];
+                if (!JAR_PROTOCOL.equals(url.getProtocol()))
+                    return null;
+                final String spec = url.getFile();
+                final int s = spec.indexOf(JAR_SEPARATOR);
+                if (s<=0 || s+JAR_SEPARATOR.length()!=spec.length())
+                    return null;
+                final URL jarUrl = new URL(spec.substring(0,s));
+                if (!FILE_PROTOCOL.equals(jarUrl.getProtocol()))
+                    return null;
+                result[i] = new File(URLDecoder.decode(jarUrl.getPath(), ENCODING)).getAbsoluteFile();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return result;
+    }
+
+    private static byte[] readFile(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final long length = raf.length();
+            if (length>Integer.MAX_VALUE)
+                throw new IOException("File too large: "+file);
+            final byte[] result = new byte[(int)length];
+            raf.readFully(result);
+            return result;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static Map<String,String> readMap(final DataInputStream in) throws IOException {
+        final int size = readLength(in, 8);
+        final Map<String,String> result = new HashMap<String,String>(size*4/3 + 1);
+        for (int i=0; i<size; i++) {
+            final String key = readString(in);
+            result.put(key, readString(in));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static void writeMap(final DataOutputStream out, final Map<String,String> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String,String> entry : map.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final byte[] buf = new byte[readLength(in, 1)];
+        in.readFully(buf);
+        return new String(buf, ENCODING);
+    }
+
+    /**
+     * Читает из снимка длину очередной последовательности и проверяет что она не превышает количество еще не прочитанных байт.
+     * @param in  поток с содержимым снимка (целиком находящимся в памяти).
+     * @param itemSize  минимальное количество байт, занимаемое в снимке одним элементом последовательности.
+     * @return  количество элементов в последовательности.
+     * @throws IOException  если прочитанная длина некорректна.
+     */
+    private static int readLength(final DataInputStream in, final int itemSize) throws IOException {
+        final int length = in.readInt();
+        if (length<0 || length>in.available()/itemSize)
+            throw new IOException("Corrupted snapshot: illegal length "+length);
+        return length;
+    }
+
+    private static void writeString(final DataOutputStream out, final String str) throws IOException {
+        final byte[] buf = str.getBytes(ENCODING);
+        out.writeInt(buf.length);
+        out.write(buf);
+    }
+}
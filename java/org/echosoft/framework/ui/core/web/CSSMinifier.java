@@ -0,0 +1,121 @@
+package org.echosoft.framework.ui.core.web;
+
+import java.io.IOException;
+
+/**
+ * Удаляет из таблиц стилей комментарии и незначащие пробелы и переводы строк.
+ * Содержимое строковых литералов и конструкций <code>url(...)</code> сохраняется без изменений. Пробелы перед двоеточием не удаляются
+ * поскольку в селекторах они значимы (например <code>div :first-child</code>).
+ * <p>Исходный текст должен быть в кодировке UTF-8.</p>
+ *
+ * @author Anton Sharapov
+ */
+public final class CSSMinifier implements ResourceTransformer {
+
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isApplicable(final String resource) {
+        return resource.endsWith(".css");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public byte[] transform(final String resource, final byte[] content) throws IOException {
+        return minify(new String(content, ENCODING)).getBytes(ENCODING);
+    }
+
+    /**
+     * Удаляет из таблицы стилей комментарии и незначащие пробелы.
+     * @param text  исходная таблица стилей.
+     * @return  таблица стилей без комментариев и незначащих пробелов.
+     * @throws IOException  в случае синтаксических ошибок в исходном тексте (незакрытые строки или комментарии).
+     */
+    public static String minify(final String text) throws IOException {
+        final int length = text.length();
+        final StringBuilder out = new StringBuilder(length/2 + 16);
+        boolean space = false;
+        int pos = length>0 && text.charAt(0)==0xFEFF ? 1 : 0;
+        while (pos<length) {
+            final char c = text.charAt(pos);
+            if (c=='/' && pos+1<length && text.charAt(pos+1)=='*') {
+                final int end = text.indexOf("*/", pos+2);
+                if (end<0)
+                    throw new IOException("Unterminated comment at position "+pos);
+                pos = end + 2;
+                space = true;
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                space = true;
+                pos++;
+                continue;
+            }
+            if (space) {
+                // пробел сохраняется только если он значим для обоих соседних символов ...
+                if (out.length()>0 && !isSeparator(out.charAt(out.length()-1), false) && !isSeparator(c, true))
+                    out.append(' ');
+                space = false;
+            }
+            if (c=='"' || c=='\'') {
+                pos = copyString(text, pos, out);
+            } else
+            if (c=='(' && endsWith(out, "url")) {
+                final int end = text.indexOf(')', pos);
+                if (end<0)
+                    throw new IOException("Unterminated url at position "+pos);
+                out.append(text, pos, end+1);
+                pos = end + 1;
+            } else
+            if (c=='}' && out.length()>0 && out.charAt(out.length()-1)==';') {
+                out.setCharAt(out.length()-1, c);
+                pos++;
+            } else {
+                out.append(c);
+                pos++;
+            }
+        }
+        return out.toString();
+    }
+
+
+    /**
+     * Определяет символы, рядом с которыми пробелы в таблице стилей не значимы.
+     * @param c  проверяемый символ.
+     * @param next  <code>true</code> если символ следует за пробелом, <code>false</code> если предшествует ему.
+     */
+    private static boolean isSeparator(final char c, final boolean next) {
+        switch (c) {
+            case '{' : case '}' : case ';' : case ',' : case '>' :
+                return true;
+            case ':' :
+                return !next;
+            default :
+                return false;
+        }
+    }
+
+    private static boolean endsWith(final StringBuilder buf, final String suffix) {
+        final int start = buf.length() - suffix.length();
+        return start>=0 && buf.indexOf(suffix, start)==start;
+    }
+
+    private static int copyString(final String text, int pos, final StringBuilder out) throws IOException {
+        final char quote = text.charAt(pos);
+        final int start = pos++;
+        while (pos<text.length()) {
+            final char c = text.charAt(pos++);
+            if (c=='\\') {
+                pos++;
+            } else
+            if (c==quote) {
+                out.append(text, start, pos);
+                return pos;
+            }
+        }
+        throw new IOException("Unterminated string literal at position "+start);
+    }
+}
@@ -0,0 +1,306 @@
+package org.echosoft.framework.ui.core.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Описывает содержимое ресурса, загруженного одним из загрузчиков {@link ResourceServlet} и пригодного для помещения в {@link ResourceCache}.
+ * Экземпляры данного класса после своего создания не изменяются и могут безопасно использоваться одновременно несколькими потоками.
+ * <p>Для ресурсов с текстовым содержимым (html, css, javascript, xml и т.д.) при создании экземпляра однократно вычисляется сжатое
+ * по алгоритму DEFLATE представление ресурса. Из него без повторного сжатия формируются представления ресурса в кодировках
+ * <code>gzip</code> и <code>deflate</code> (добавлением соответствующих заголовков и контрольных сумм).
+ * Если рядом с ресурсом уже имеется его предварительно сжатая версия (файл с расширением <code>.gz</code>) то используется она.</p>
+ *
+ * @author Anton Sharapov
+ */
+public final class CachedResource {
+
+    /**
+     * Кодировка содержимого <code>gzip</code> (RFC 1952).
+     */
+    public static final String GZIP = "gzip";
+
+    /**
+     * Кодировка содержимого <code>deflate</code> (RFC 1950).
+     */
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * Ресурсы меньшего размера не сжимаются.
+     */
+    public static final int MIN_COMPRESSIBLE_SIZE = 256;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final byte[] GZIP_HEADER = {0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff};
+    private static final byte[] ZLIB_HEADER = {0x78, (byte)0xda};
+    private static final int GZIP_TRAILER_SIZE = 8;
+    private static final int ZLIB_TRAILER_SIZE = 4;
+
+    private final byte[] content;
+    private final String contentType;
+    private final long loadTime;
+    private final byte[] deflated;
+    private final int crc32;
+    private final int adler32;
+    private volatile String etag;
+
+    /**
+     * Создает новый экземпляр ресурса без сжатого представления.
+     * @param content  содержимое ресурса.
+     * @param contentType  тип содержимого ресурса.
+     */
+    public CachedResource(final byte[] content, final String contentType) {
+        this(content, contentType, false, null);
+    }
+
+    /**
+     * Создает новый экземпляр ресурса.
+     * @param content  содержимое ресурса.
+     * @param contentType  тип содержимого ресурса.
+     * @param compress  <code>true</code> если для ресурсов с текстовым содержимым требуется подготовить сжатое представление.
+     * @param gzipped  предварительно сжатое в формате <code>gzip</code> содержимое ресурса или <code>null</code>.
+     *      Используется вместо самостоятельного сжатия если оно соответствует исходному содержимому ресурса.
+     */
+    public CachedResource(final byte[] content, final String contentType, final boolean compress, final byte[] gzipped) {
+        if (content==null)
+            throw new IllegalArgumentException("Resource content must be specified");
+        this.content = content;
+        this.contentType = contentType;
+        this.loadTime = System.currentTimeMillis();
+        if (compress && isCompressible(contentType) && content.length>=MIN_COMPRESSIBLE_SIZE) {
+            final CRC32 crc = new CRC32();
+            crc.update(content);
+            final Adler32 adler = new Adler32();
+            adler.update(content);
+            this.crc32 = (int)crc.getValue();
+            this.adler32 = (int)adler.getValue();
+            byte[] data = gzipped!=null ? extractDeflated(gzipped, crc32, content.length) : null;
+            if (data==null)
+                data = deflate(content);
+            this.deflated = data.length+GZIP_HEADER.length+GZIP_TRAILER_SIZE < content.length ? data : null;
+        } else {
+            this.crc32 = 0;
+            this.adler32 = 0;
+            this.deflated = null;
+        }
+    }
+
+    /**
+     * @return  содержимое ресурса. Возвращаемый массив не должен модифицироваться.
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * @return  тип содержимого ресурса.
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return  время (в миллисекундах) когда содержимое ресурса было загружено.
+     */
+    public long getLoadTime() {
+        return loadTime;
+    }
+
+    /**
+     * @return <code>true</code> если для ресурса доступно сжатое представление (в кодировках {@link #GZIP} и {@link #DEFLATE}).
+     */
+    public boolean isCompressed() {
+        return deflated!=null;
+    }
+
+    /**
+     * Возвращает строгий тэг сущности (ETag) ресурса, вычисляемый как хэш MD5 от его содержимого.
+     * Значение вычисляется при первом обращении и в дальнейшем хранится вместе с содержимым ресурса.
+     * @return  строка с тэгом сущности (вместе с обрамляющими ее кавычками) пригодная для передачи в заголовке <code>ETag</code>.
+     */
+    public String getETag() {
+        String result = etag;
+        if (result==null) {
+            etag = result = '"' + digest(content) + '"';
+        }
+        return result;
+    }
+
+    /**
+     * Возвращает строгий тэг сущности (ETag) для представления ресурса в указанной кодировке.
+     * Представления ресурса в разных кодировках имеют разные тэги сущности.
+     * @param encoding  кодировка содержимого ({@link #GZIP}, {@link #DEFLATE}) или <code>null</code> для несжатого содержимого.
+     * @return  строка с тэгом сущности (вместе с обрамляющими ее кавычками) пригодная для передачи в заголовке <code>ETag</code>.
+     */
+    public String getETag(final String encoding) {
+        final String result = getETag();
+        if (encoding==null)
+            return result;
+        return result.substring(0, result.length()-1) + '-' + encoding + '"';
+    }
+
+    /**
+     * Возвращает длину представления ресурса в указанной кодировке.
+     * @param encoding  кодировка содержимого ({@link #GZIP}, {@link #DEFLATE}) или <code>null</code> для несжатого содержимого.
+     * @return  длина (в байтах) соответствующего представления ресурса.
+     */
+    public int getContentLength(final String encoding) {
+        if (encoding==null || deflated==null) {
+            return content.length;
+        } else
+        if (GZIP.equals(encoding)) {
+            return GZIP_HEADER.length + deflated.length + GZIP_TRAILER_SIZE;
+        } else
+            return ZLIB_HEADER.length + deflated.length + ZLIB_TRAILER_SIZE;
+    }
+
+    /**
+     * Записывает в поток представление ресурса в указанной кодировке.
+     * @param out  выходной поток.
+     * @param encoding  кодировка содержимого ({@link #GZIP}, {@link #DEFLATE}) или <code>null</code> для несжатого содержимого.
+     * @throws IOException  в случае ошибок ввода-вывода.
+     */
+    public void writeContent(final OutputStream out, final String encoding) throws IOException {
+        if (encoding==null || deflated==null) {
+            out.write(content);
+        } else
+        if (GZIP.equals(encoding)) {
+            out.write(GZIP_HEADER);
+            out.write(deflated);
+            writeIntLE(out, crc32);
+            writeIntLE(out, content.length);
+        } else {
+            out.write(ZLIB_HEADER);
+            out.write(deflated);
+            out.write(adler32>>>24);
+            out.write(adler32>>>16);
+            out.write(adler32>>>8);
+            out.write(adler32);
+        }
+    }
+
+    /**
+     * Записывает в поток указанный фрагмент несжатого содержимого ресурса.
+     * @param out  выходной поток.
+     * @param offset  смещение первого передаваемого байта относительно начала ресурса.
+     * @param length  количество передаваемых байт.
+     * @throws IOException  в случае ошибок ввода-вывода.
+     */
+    public void writeContent(final OutputStream out, final long offset, final long length) throws IOException {
+        out.write(content, (int)offset, (int)length);
+    }
+
+    /**
+     * @return  объем памяти (в байтах) учитываемый при размещении ресурса в кэше.
+     */
+    public int getWeight() {
+        return deflated!=null ? content.length + deflated.length : content.length;
+    }
+
+    public String toString() {
+        return "[CachedResource{type:"+contentType+", size:"+content.length+", compressed:"+(deflated!=null ? deflated.length : -1)+", etag:"+etag+"}]";
+    }
+
+
+    /**
+     * Определяет имеет ли смысл сжимать содержимое указанного типа.
+     * @param contentType  тип содержимого.
+     * @return <code>true</code> для текстовых типов содержимого.
+     */
+    static boolean isCompressible(final String contentType) {
+        if (contentType==null)
+            return false;
+        return contentType.startsWith("text/") ||
+               contentType.indexOf("javascript")>=0 ||
+               contentType.indexOf("json")>=0 ||
+               contentType.indexOf("xml")>=0;
+    }
+
+    /**
+     * Вычисляет хэш MD5 от указанного в аргументе массива байт.
+     * @param data  исходные данные.
+     * @return  строка с хэшем в шестнадцатеричном представлении.
+     */
+    static String digest(final byte[] data) {
+        final byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("MD5").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        final char[] result = new char[hash.length*2];
+        for (int i=0; i<hash.length; i++) {
+            result[i*2] = HEX_DIGITS[(hash[i]>>4) & 0x0F];
+            result[i*2+1] = HEX_DIGITS[hash[i] & 0x0F];
+        }
+        return new String(result);
+    }
+
+    private static byte[] deflate(final byte[] data) {
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length/3 + 64);
+            final byte[] buf = new byte[4096];
+            while (!deflater.finished()) {
+                final int len = deflater.deflate(buf);
+                out.write(buf, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Извлекает сжатые по алгоритму DEFLATE данные из содержимого в формате <code>gzip</code>.
+     * @return  сжатые данные или <code>null</code> если формат содержимого некорректен или оно не соответствует исходным данным.
+     */
+    private static byte[] extractDeflated(final byte[] gzipped, final int crc32, final int size) {
+        final int length = gzipped.length;
+        if (length<GZIP_HEADER.length+GZIP_TRAILER_SIZE || (gzipped[0]&0xFF)!=0x1f || (gzipped[1]&0xFF)!=0x8b || gzipped[2]!=Deflater.DEFLATED)
+            return null;
+        final int flags = gzipped[3] & 0xFF;
+        int pos = GZIP_HEADER.length;
+        if ((flags & 0x04)!=0) {        // FEXTRA
+            if (pos+2>length)
+                return null;
+            pos += 2 + ((gzipped[pos]&0xFF) | (gzipped[pos+1]&0xFF)<<8);
+        }
+        if ((flags & 0x08)!=0) {        // FNAME
+            while (pos<length && gzipped[pos]!=0) pos++;
+            pos++;
+        }
+        if ((flags & 0x10)!=0) {        // FCOMMENT
+            while (pos<length && gzipped[pos]!=0) pos++;
+            pos++;
+        }
+        if ((flags & 0x02)!=0) {        // FHCRC
+            pos += 2;
+        }
+        final int end = length - GZIP_TRAILER_SIZE;
+        if (pos>end || readIntLE(gzipped, end)!=crc32 || readIntLE(gzipped, end+4)!=size)
+            return null;
+        final byte[] result = new byte[end-pos];
+        System.arraycopy(gzipped, pos, result, 0, result.length);
+        return result;
+    }
+
+    private static int readIntLE(final byte[] buf, final int pos) {
+        return (buf[pos]&0xFF) | (buf[pos+1]&0xFF)<<8 | (buf[pos+2]&0xFF)<<16 | (buf[pos+3]&0xFF)<<24;
+    }
+
+    private static void writeIntLE(final OutputStream out, final int value) throws IOException {
+        out.write(value);
+        out.write(value>>>8);
+        out.write(value>>>16);
+        out.write(value>>>24);
+    }
+}
@@ -0,0 +1,249 @@
+package org.echosoft.framework.ui.core.web;
+
+import java.io.IOException;
+
+/**
+ * Удаляет из javascript файлов комментарии и незначащие пробелы и переводы строк.
+ * Реализация повторяет алгоритм утилиты JSMin (Douglas Crockford): программа рассматривается как поток символов,
+ * в котором распознаются только строковые литералы, литералы регулярных выражений и комментарии. Никаких других преобразований кода
+ * (переименования переменных и т.д.) не производится, поэтому результат остается пригодным для чтения и отладки.
+ * <p>Исходный текст должен быть в кодировке UTF-8.</p>
+ *
+ * @author Anton Sharapov
+ */
+public final class JSMinifier implements ResourceTransformer {
+
+    private static final int EOF = -1;
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isApplicable(final String resource) {
+        return resource.endsWith(".js");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public byte[] transform(final String resource, final byte[] content) throws IOException {
+        return minify(new String(content, ENCODING)).getBytes(ENCODING);
+    }
+
+    /**
+     * Удаляет из javascript кода комментарии и незначащие пробелы.
+     * @param text  исходный javascript код.
+     * @return  javascript код без комментариев и незначащих пробелов.
+     * @throws IOException  в случае синтаксических ошибок в исходном коде (незакрытые строки, комментарии или регулярные выражения).
+     */
+    public static String minify(final String text) throws IOException {
+        return new State(text).run();
+    }
+
+
+    private static boolean isAlphanum(final int c) {
+        return (c>='a' && c<='z') || (c>='0' && c<='9') || (c>='A' && c<='Z') || c=='_' || c=='$' || c=='\\' || c>126;
+    }
+
+    /**
+     * Состояние процесса минимизации одного файла.
+     */
+    private static final class State {
+        private final String in;
+        private final StringBuilder out;
+        private int pos;
+        private int theA;
+        private int theB;
+        private int theX;
+        private int theY;
+        private int lookahead;
+
+        private State(final String in) {
+            this.in = in;
+            this.out = new StringBuilder(in.length()/2 + 16);
+            this.pos = in.length()>0 && in.charAt(0)==0xFEFF ? 1 : 0;     // пропускаем BOM
+            this.theX = EOF;
+            this.theY = EOF;
+            this.lookahead = EOF;
+        }
+
+        private String run() throws IOException {
+            theA = '\n';
+            action(3);
+            while (theA!=EOF) {
+                switch (theA) {
+                    case ' ' :
+                        action(isAlphanum(theB) ? 1 : 2);
+                        break;
+                    case '\n' :
+                        switch (theB) {
+                            case '{' : case '[' : case '(' : case '+' : case '-' : case '!' : case '~' :
+                                action(1);
+                                break;
+                            case ' ' :
+                                action(3);
+                                break;
+                            default :
+                                action(isAlphanum(theB) ? 1 : 2);
+                        }
+                        break;
+                    default :
+                        switch (theB) {
+                            case ' ' :
+                                action(isAlphanum(theA) ? 1 : 3);
+                                break;
+                            case '\n' :
+                                switch (theA) {
+                                    case '}' : case ']' : case ')' : case '+' : case '-' : case '"' : case '\'' : case '`' :
+                                        action(1);
+                                        break;
+                                    default :
+                                        action(isAlphanum(theA) ? 1 : 3);
+                                }
+                                break;
+                            default :
+                                action(1);
+                        }
+                }
+            }
+            // удаляем начальный перевод строки ...
+            if (out.length()>0 && out.charAt(0)=='\n')
+                out.deleteCharAt(0);
+            return out.toString();
+        }
+
+        /**
+         * Возвращает очередной символ входного потока. Управляющие символы (кроме перевода строки) заменяются пробелом.
+         */
+        private int get() {
+            int c = lookahead;
+            lookahead = EOF;
+            if (c==EOF)
+                c = pos<in.length() ? in.charAt(pos++) : EOF;
+            if (c>=' ' || c=='\n' || c==EOF)
+                return c;
+            if (c=='\r')
+                return '\n';
+            return ' ';
+        }
+
+        private int peek() {
+            lookahead = get();
+            return lookahead;
+        }
+
+        /**
+         * Возвращает очередной символ входного потока пропуская комментарии.
+         */
+        private int next() throws IOException {
+            int c = get();
+            if (c=='/') {
+                switch (peek()) {
+                    case '/' :
+                        do {
+                            c = get();
+                        } while (c>'\n');
+                        break;
+                    case '*' :
+                        get();
+                        while (c!=' ') {
+                            switch (get()) {
+                                case '*' :
+                                    if (peek()=='/') {
+                                        get();
+                                        c = ' ';
+                                    }
+                                    break;
+                                case EOF :
+                                    throw new IOException("Unterminated comment at position "+pos);
+                            }
+                        }
+                        break;
+                }
+            }
+            theY = theX;
+            theX = c;
+            return c;
+        }
+
+        /**
+         * <ol>
+         *  <li> выводит A, копирует B в A, получает следующий B;
+         *  <li> копирует B в A, получает следующий B (A удаляется);
+         *  <li> получает следующий B (B удаляется).
+         * </ol>
+         * Строковые литералы и литералы регулярных выражений выводятся без изменений.
+         */
+        private void action(final int d) throws IOException {
+            if (d<=1) {
+                put(theA);
+                if ((theY=='\n' || theY==' ') &&
+                    (theA=='+' || theA=='-' || theA=='*' || theA=='/') &&
+                    (theB=='+' || theB=='-' || theB=='*' || theB=='/')) {
+                    put(theY);
+                }
+            }
+            if (d<=2) {
+                theA = theB;
+                if (theA=='\'' || theA=='"' || theA=='`') {
+                    for (;;) {
+                        put(theA);
+                        theA = get();
+                        if (theA==theB)
+                            break;
+                        if (theA=='\\') {
+                            put(theA);
+                            theA = get();
+                        }
+                        if (theA==EOF)
+                            throw new IOException("Unterminated string literal at position "+pos);
+                    }
+                }
+            }
+            theB = next();
+            if (theB=='/' && (theA=='(' || theA==',' || theA=='=' || theA==':' || theA=='[' || theA=='!' || theA=='&' || theA=='|' ||
+                              theA=='?' || theA=='+' || theA=='-' || theA=='~' || theA=='*' || theA=='/' || theA=='{' || theA=='}' || theA==';')) {
+                put(theA);
+                if (theA=='/' || theA=='*')
+                    put(' ');
+                put(theB);
+                for (;;) {
+                    theA = get();
+                    if (theA=='[') {
+                        for (;;) {
+                            put(theA);
+                            theA = get();
+                            if (theA==']')
+                                break;
+                            if (theA=='\\') {
+                                put(theA);
+                                theA = get();
+                            }
+                            if (theA==EOF)
+                                throw new IOException("Unterminated set in regular expression literal at position "+pos);
+                        }
+                    } else
+                    if (theA=='/') {
+                        final int c = peek();
+                        if (c=='/' || c=='*')
+                            throw new IOException("Unterminated set in regular expression literal at position "+pos);
+                        break;
+                    } else
+                    if (theA=='\\') {
+                        put(theA);
+                        theA = get();
+                    }
+                    if (theA==EOF)
+                        throw new IOException("Unterminated regular expression literal at position "+pos);
+                    put(theA);
+                }
+                theB = next();
+            }
+        }
+
+        private void put(final int c) {
+            if (c!=EOF)
+                out.append((char)c);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package org.echosoft.framework.ui.core.web;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш содержимого ресурсов, отдаваемых клиентам сервлетом {@link ResourceServlet}.<br/>
+ * Особенности реализации:
+ * <ol>
+ *  <li> Общий объем хранимого в кэше содержимого ограничен бюджетом, задаваемым в байтах. При его превышении из кэша вытесняются
+ *       наиболее давно запрошенные ресурсы (LRU).
+ *  <li> Для снижения конкуренции между потоками кэш разбит на несколько сегментов, каждый со своей блокировкой. Сегмент определяется
+ *       по хэш коду ключа ресурса. Бюджет при этом общий для всех сегментов: вытесняемый ресурс выбирается среди наиболее давно
+ *       запрошенных ресурсов каждого из сегментов, так что крупные ресурсы одного сегмента не вытесняют друг друга пока в кэше есть место.
+ *  <li> Ведется статистика попаданий, промахов и вытеснений, а также общего объема хранимых в кэше данных.
+ * </ol>
+ * Ключ ресурса в кэше формируется соответствующим загрузчиком ресурсов и должен однозначно определять содержимое ресурса
+ * (для ресурсов темы он, помимо пути к ресурсу, включает идентификатор загрузчика, имя темы и локаль).
+ *
+ * @author Anton Sharapov
+ */
+public final class ResourceCache {
+
+    private static final int SEGMENTS_COUNT = 16;
+
+    private final Segment[] segments;
+    private final long capacity;
+    private final int maxEntrySize;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+    private final AtomicLong size;
+    private final AtomicLong clock;
+    private final Object evictionLock;
+
+    /**
+     * Создает новый экземпляр кэша.
+     * @param capacity  максимальный суммарный объем (в байтах) хранимого в кэше содержимого. Значение <code>0</code> отключает кэширование.
+     * @param maxEntrySize  максимальный размер (в байтах) содержимого одного ресурса, который может быть помещен в кэш.
+     */
+    public ResourceCache(final long capacity, final int maxEntrySize) {
+        if (capacity<0)
+            throw new IllegalArgumentException("Cache capacity can't be negative");
+        this.capacity = capacity;
+        this.maxEntrySize = maxEntrySize;
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+        this.evictions = new AtomicLong(0);
+        this.size = new AtomicLong(0);
+        this.clock = new AtomicLong(0);
+        this.evictionLock = new Object();
+        this.segments = new Segment[SEGMENTS_COUNT];
+        for (int i=0; i<segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Возвращает закэшированный ресурс по его ключу.
+     * @param key  ключ ресурса.
+     * @return  закэшированный ресурс или <code>null</code> если ресурс в кэше отсутствует.
+     */
+    public CachedResource get(final String key) {
+        if (capacity==0)
+            return null;
+        final Segment segment = segmentFor(key);
+        final CachedResource result;
+        synchronized (segment) {
+            final Entry entry = segment.entries.get(key);
+            if (entry!=null) {
+                entry.stamp = clock.incrementAndGet();
+                result = entry.resource;
+            } else
+                result = null;
+        }
+        if (result!=null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Помещает ресурс в кэш. Ресурсы, размер которых превышает допустимый размер одной записи в кэше, игнорируются.
+     * При необходимости из кэша вытесняются наиболее давно запрошенные ресурсы.
+     * @param key  ключ ресурса.
+     * @param resource  помещаемый в кэш ресурс.
+     * @return <code>true</code> если ресурс был помещен в кэш.
+     */
+    public boolean put(final String key, final CachedResource resource) {
+        final int weight = resource.getWeight();
+        if (capacity==0 || weight>maxEntrySize || weight>capacity)
+            return false;
+        final Segment segment = segmentFor(key);
+        final Entry entry = new Entry(resource, clock.incrementAndGet());
+        synchronized (segment) {
+            final Entry prev = segment.entries.put(key, entry);
+            final long delta = prev!=null ? weight - prev.resource.getWeight() : weight;
+            segment.size += delta;
+            size.addAndGet(delta);
+        }
+        if (size.get()>capacity)
+            evict(entry);
+        return true;
+    }
+
+    /**
+     * Удаляет все ресурсы из кэша. Накопленная статистика при этом сохраняется.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.entries.clear();
+                size.addAndGet(-segment.size);
+                segment.size = 0;
+            }
+        }
+    }
+
+    /**
+     * @return  максимальный суммарный объем (в байтах) хранимого в кэше содержимого.
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return  максимальный размер (в байтах) содержимого одного ресурса, который может быть помещен в кэш.
+     */
+    public int getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * @return  суммарный объем (в байтах) хранимого в настоящий момент в кэше содержимого.
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    /**
+     * @return  количество ресурсов, хранимых в настоящий момент в кэше.
+     */
+    public int getCount() {
+        int result = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                result += segment.entries.size();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return  количество запросов к кэшу, завершившихся успешно.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return  количество запросов к кэшу, не нашедших в нем требуемого ресурса.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return  количество ресурсов, вытесненных из кэша в связи с нехваткой отведенного под кэш объема.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public String toString() {
+        return "[ResourceCache{capacity:"+capacity+", size:"+getSize()+", count:"+getCount()+", hits:"+getHits()+", misses:"+getMisses()+", evictions:"+getEvictions()+"}]";
+    }
+
+
+    /**
+     * Вытесняет из кэша наиболее давно запрошенные ресурсы, пока их суммарный объем превышает бюджет кэша.
+     * Очередной вытесняемый ресурс выбирается среди наиболее давно запрошенных ресурсов каждого из сегментов.
+     * @param keep  только что помещенный в кэш ресурс, который не должен быть вытеснен.
+     */
+    private void evict(final Entry keep) {
+        synchronized (evictionLock) {
+            while (size.get()>capacity) {
+                Segment victim = null;
+                long stamp = Long.MAX_VALUE;
+                for (Segment segment : segments) {
+                    synchronized (segment) {
+                        final Iterator<Entry> it = segment.entries.values().iterator();
+                        final Entry eldest = it.hasNext() ? it.next() : null;
+                        if (eldest!=null && eldest!=keep && eldest.stamp<stamp) {
+                            victim = segment;
+                            stamp = eldest.stamp;
+                        }
+                    }
+                }
+                if (victim==null)
+                    return;
+                synchronized (victim) {
+                    final Iterator<Entry> it = victim.entries.values().iterator();
+                    if (it.hasNext()) {
+                        final Entry eldest = it.next();
+                        if (eldest!=keep) {
+                            it.remove();
+                            victim.size -= eldest.resource.getWeight();
+                            size.addAndGet(-eldest.resource.getWeight());
+                            evictions.incrementAndGet();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private Segment segmentFor(final String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[h & (SEGMENTS_COUNT-1)];
+    }
+
+    private static final class Segment {
+        private final LinkedHashMap<String,Entry> entries;
+        private long size;
+        private Segment() {
+            this.entries = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+            this.size = 0;
+        }
+    }
+
+    private static final class Entry {
+        private final CachedResource resource;
+        private long stamp;         // момент последнего обращения к ресурсу (по внутренним часам кэша).
+        private Entry(final CachedResource resource, final long stamp) {
+            this.resource = resource;
+            this.stamp = stamp;
+        }
+    }
+
+}
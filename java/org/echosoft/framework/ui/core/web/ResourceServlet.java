@@ -1,20 +1,31 @@
 package org.echosoft.framework.ui.core.web;
 
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
-import org.echosoft.common.utils.ObjectUtil;
+import org.echosoft.common.utils.Any;
+import org.echosoft.common.utils.StringUtil;
 import org.echosoft.framework.ui.core.Application;
+import org.echosoft.framework.ui.core.UIException;
 import org.echosoft.framework.ui.core.Utils;
+import org.echosoft.framework.ui.core.compiler.utils.ClasspathIndex;
 import org.echosoft.framework.ui.core.spi.Constants;
 import org.echosoft.framework.ui.core.theme.Theme;
+import org.echosoft.framework.ui.core.theme.ThemeBundle;
 
 /**
  * Данный сервлет предназначен для предоставления клиентам доступа к ресурсам приложения.
@@ -23,33 +34,88 @@ import org.echosoft.framework.ui.core.theme.Theme;
  *  <li> Собственно web приложения.
  *  <li> Путей классов.
  *  <li> Темы приложения.
+ *  <li> Сборок глобальных ресурсов темы (см. {@link org.echosoft.framework.ui.core.theme.ThemeBundle}).
  * </ol>
+ * Ресурсы любого из перечисленных источников доступны также в минимизированном виде по ссылкам вида <code>/resource/min/{источник}/{путь}</code>.
+ * Перед помещением таких ресурсов в кэш к ним однократно применяется цепочка преобразований {@link ResourceTransformChain}
+ * (по умолчанию - удаление комментариев и незначащих пробелов из javascript файлов и таблиц стилей). Цепочка преобразований может быть
+ * переопределена параметром инициализации сервлета <code>transformers</code> (перечень имен классов, реализующих {@link ResourceTransformer}).
  * Для всех ресурсов, доступ к которым предоставляет данный сервлет, автоматически выставляются заголовки, указывающие клиентам что данный контент
- * может быть закэширован в течение не менее 12 часов.
+ * может быть закэширован в течение не менее 12 часов (время кэширования в секундах может быть переопределено параметром инициализации <code>ttl</code>).
+ * Ссылки на ресурсы содержащие в запросе параметр <code>v</code> (версию ресурса), а также ссылки на сборки глобальных ресурсов темы
+ * (имена которых включают хэш от их содержимого) считаются неизменными и кэшируются клиентами в течение года.
+ * <p>Первый сегмент пути к ресурсу может содержать хэш от содержимого ресурса (например <code>/resource/theme/h-3fa9c1d2e4b5/pkgs/pkg-tabs.js</code>,
+ * см. {@link Constants#FINGERPRINT_PREFIX}). Такой сегмент при поиске ресурса игнорируется, а если хэш соответствует текущему содержимому ресурса
+ * то ресурс также считается неизменным. Благодаря этому относительные ссылки из таблиц стилей, полученных по таким ссылкам, остаются корректными.</p>
+ * <p>Для каждого ресурса вычисляется строгий тэг сущности (ETag) на основе хэша его содержимого. Условные запросы клиентов
+ * (заголовки <code>If-None-Match</code> и <code>If-Modified-Since</code>) обрабатываются без передачи содержимого ресурса (ответ <code>304 Not Modified</code>).</p>
+ * <p>Загруженное содержимое ресурсов кэшируется в памяти (см. {@link ResourceCache}). Параметры кэша задаются следующими параметрами инициализации сервлета:
+ * <ul>
+ *  <li> <code>cache-size</code> - максимальный суммарный объем (в байтах) кэшируемого содержимого. Значение <code>0</code> отключает кэширование.
+ *       По умолчанию используется значение {@link #DEFAULT_CACHE_SIZE}.
+ *  <li> <code>cache-entry-size</code> - максимальный размер (в байтах) одного кэшируемого ресурса.
+ *       По умолчанию используется значение {@link #LARGEST_CONTENT_SIZE_IN_CACHE}.
+ * </ul>
+ * Для загрузки отдельного ресурса в обход кэша в запросе следует указать параметр <code>cache=0</code>.
+ * </p>
+ * <p>Ресурсы с текстовым содержимым однократно (при их загрузке в кэш) сжимаются и отдаются клиентам в кодировке <code>gzip</code> или
+ * <code>deflate</code> в соответствии с заголовком запроса <code>Accept-Encoding</code>. Если рядом с ресурсом присутствует его сжатая версия
+ * (файл с тем же именем и расширением <code>.gz</code>) то используется она. Сжатие может быть отключено параметром инициализации
+ * сервлета <code>compress=false</code>.</p>
+ * <p>Ресурсы, размер которых превышает максимальный размер записи в кэше, не загружаются целиком в память, а передаются клиенту
+ * непосредственно из источника (см. {@link ResourceStream}).</p>
+ * <p>Сервлет никогда не создает сессий пользователей. Тема и локаль, к которым относится запрошенный ресурс темы, определяются по пути к ресурсу
+ * (сегмент вида <code>/t-{тема}~{локаль}</code>, см. {@link Constants#THEME_PREFIX}), а при его отсутствии - по уже существующей сессии
+ * пользователя и заголовкам запроса. Благодаря этому запросы статических ресурсов могут обслуживаться узлами, не имеющими доступа к сессиям.</p>
+ * <p>Если параметр инициализации сервлета <code>prewarm-themes</code> равен <code>true</code>, то при инициализации сервлета заранее
+ * (параллельно) конструируются все зарегистрированные темы для всех поддерживаемых приложением локалей (см. {@link org.echosoft.framework.ui.core.theme.ThemeManager#prewarm(Locale[])}).
+ * В сочетании с параметром <code>load-on-startup</code> это позволяет избежать задержек при обработке первых запросов после запуска приложения.</p>
+ * <p>При остановке сервлета закрываются все открытые .jar файлы тем (см. {@link org.echosoft.framework.ui.core.theme.ThemeManager#destroy()})
+ * и освобождается индекс содержимого загрузчиков классов (см. {@link ClasspathIndex#clear()}).</p>
+ * <p>Поддерживаются запросы фрагментов ресурсов (заголовки <code>Range</code> и <code>If-Range</code>), в том числе запросы нескольких фрагментов
+ * одновременно (ответ с типом содержимого <code>multipart/byteranges</code>). Фрагменты ресурсов всегда передаются без сжатия.</p>
  *
  * @author Anton Sharapov
  */
 public final class ResourceServlet extends HttpServlet {
 
     public static final int LARGEST_CONTENT_SIZE_IN_CACHE = 1024*1024;   // 1Mb
+    public static final long DEFAULT_CACHE_SIZE = 32*1024*1024;          // 32Mb
     public static final long CACHING_TIME = 1000*60*60*12;               // 12 hours.
+    public static final long IMMUTABLE_CACHING_TIME = 1000L*60*60*24*365;  // 1 year.
     private static final long SERVER_START_TIME = System.currentTimeMillis();
 
     private final Map<String,ResourceLoader> storages;
-    private final ConcurrentHashMap<String,byte[]> cache;
+    private ResourceCache cache;
+    private long cachingTime;
+    private boolean compress;
     public ResourceServlet() {
         super();
         storages = new HashMap<String,ResourceLoader>();
-        cache = new ConcurrentHashMap<String,byte[]>();
     }
 
     @Override
-    public void init() {
+    public void init() throws ServletException {
         storages.clear();
         storages.put("/web", new ServletResourceLoader(this));
         storages.put("/lib", new ClassPathResourceLoader());
         storages.put("/theme", new ThemeResourceLoader());
+        storages.put("/bundle", new BundleResourceLoader());
+        final ResourceTransformChain transformers;
+        try {
+            transformers = ResourceTransformChain.parse(getInitParameter("transformers"));
+        } catch (Exception e) {
+            throw new ServletException("Unable to initialize resource transformers: "+e.getMessage(), e);
+        }
+        storages.put("/min", new TransformingResourceLoader(new HashMap<String,ResourceLoader>(storages), transformers));
         final String ttl = getInitParameter("ttl");
+        cachingTime = ttl!=null ? Any.asLong(ttl, CACHING_TIME/1000)*1000 : CACHING_TIME;
+        compress = Any.asBoolean(getInitParameter("compress"), true);
+        final long cacheSize = Any.asLong(getInitParameter("cache-size"), DEFAULT_CACHE_SIZE);
+        final int cacheEntrySize = Any.asInt(getInitParameter("cache-entry-size"), LARGEST_CONTENT_SIZE_IN_CACHE);
+        cache = new ResourceCache(cacheSize, cacheEntrySize);
+        if (Any.asBoolean(getInitParameter("prewarm-themes"), false) && Application.THEMES_MANAGER!=null)
+            Application.THEMES_MANAGER.prewarm(Application.SUPPORTED_LOCALES);
     }
 
     @Override
@@ -57,65 +123,467 @@ public final class ResourceServlet extends HttpServlet {
         for (ResourceLoader loader : storages.values()) {
             loader.destroy();
         }
+        if (cache!=null) {
+            Application.log.info("Resource cache statistics: "+cache);
+            cache.clear();
+        }
+        if (Application.THEMES_MANAGER!=null)
+            Application.THEMES_MANAGER.destroy();
+        ClasspathIndex.clear();
+    }
+
+    /**
+     * Возвращает используемый сервлетом кэш содержимого ресурсов. Может использоваться для мониторинга состояния кэша.
+     * @return  кэш содержимого ресурсов.
+     */
+    public ResourceCache getCache() {
+        return cache;
     }
 
     @Override
     public void service(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
         final String path = request.getPathInfo();
-        byte[] content = loadContent(path, request);
-        if (content==null) {
+        final int s = path!=null ? path.indexOf('/', 1) : -1;
+        final ResourceLoader loader = s>0 ? storages.get(path.substring(0,s)) : null;
+        if (loader==null) {
             response.sendError(HttpServletResponse.SC_NOT_FOUND);
             return;
         }
+        final String fingerprint = extractFingerprint(path.substring(s));
+        final String resource = stripFingerprint(path.substring(s));
+        final boolean immutable = request.getParameter("v")!=null || isImmutable(loader, resource, fingerprint, request);
 
-        // определяем тип содержимого ...
-        String contentType = getServletContext().getMimeType(path);
-        if (contentType==null) {
-            contentType = Utils.getMimeType(path);
+        final String key = "0".equals(request.getParameter("cache")) ? null : loader.getCacheKey(resource, request);
+        CachedResource cached = key!=null ? cache.get(key) : null;
+        if (cached!=null) {
+            sendResource(request, response, cached, immutable);
+            return;
+        }
+
+        final ResourceStream stream = loader.open(resource, request);
+        if (stream==null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
+        try {
+            final String contentType = getContentType(resource);
+            final byte[] content = stream.toBytes(cache.getMaxEntrySize());
+            if (content!=null) {
+                cached = makeResource(loader, resource, request, content, contentType);
+                if (key!=null)
+                    cache.put(key, cached);
+                sendResource(request, response, cached, immutable);
+            } else {
+                // ресурс слишком велик для кэша, передаем его содержимое клиенту не загружая целиком в память ...
+                sendStream(request, response, stream, contentType, immutable);
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Извлекает из пути к ресурсу хэш от содержимого ресурса (см. {@link Constants#FINGERPRINT_PREFIX}).
+     * @param resource  путь к ресурсу относительно хранилища.
+     * @return  хэш от содержимого ресурса или <code>null</code> если путь его не содержит.
+     */
+    static String extractFingerprint(final String resource) {
+        if (!resource.startsWith(Constants.FINGERPRINT_PREFIX))
+            return null;
+        final int e = resource.indexOf('/', 1);
+        return e>0 ? resource.substring(Constants.FINGERPRINT_PREFIX.length(), e) : null;
+    }
+
+    /**
+     * Удаляет из пути к ресурсу сегмент с хэшем от содержимого ресурса (см. {@link Constants#FINGERPRINT_PREFIX}).
+     * @param resource  путь к ресурсу относительно хранилища.
+     * @return  путь к ресурсу без сегмента с хэшем.
+     */
+    static String stripFingerprint(final String resource) {
+        if (!resource.startsWith(Constants.FINGERPRINT_PREFIX))
+            return resource;
+        final int e = resource.indexOf('/', 1);
+        return e>0 ? resource.substring(e) : resource;
+    }
+
+    /**
+     * Определяет может ли ресурс кэшироваться клиентами неограниченно долго. Это возможно если содержимое ресурса в хранилище никогда
+     * не изменяется или если запрошенная ссылка содержит хэш, соответствующий текущему содержимому ресурса.
+     */
+    static boolean isImmutable(final ResourceLoader loader, final String resource, final String fingerprint, final HttpServletRequest request) throws IOException {
+        return loader.isImmutable(resource, request) || (fingerprint!=null && fingerprint.equals(loader.getFingerprint(resource, request)));
+    }
+
+    /**
+     * Отправляет клиенту содержимое ресурса, полностью загруженного в память.
+     */
+    private void sendResource(final HttpServletRequest request, final HttpServletResponse response, final CachedResource resource, final boolean immutable) throws IOException {
+        // определяем кодировку в которой содержимое ресурса будет отправлено клиенту (запросы фрагментов ресурса обслуживаются без сжатия) ...
+        final String encoding = resource.isCompressed() && request.getHeader("Range")==null ? selectEncoding(request) : null;
+        if (resource.isCompressed())
+            response.setHeader("Vary", "Accept-Encoding");
+
+        // устанавливаем заголовки, управляющие кэшированием ресурса на стороне клиента ...
+        final String etag = resource.getETag(encoding);
+        if (!prepareHeaders(request, response, etag, SERVER_START_TIME, immutable))
+            return;
 
         // отправляем содержимое ресурса клиенту ...
+        response.setContentType(resource.getContentType());
+        if (encoding==null) {
+            final List<ByteRange> ranges = getRanges(request, etag, SERVER_START_TIME, resource.getContentLength(null));
+            if (ranges!=null) {
+                sendRanges(response, resource.getContentType(), resource.getContentLength(null), ranges, resource, null);
+                return;
+            }
+        }
+        response.setContentLength(resource.getContentLength(encoding));
+        if (encoding!=null)
+            response.setHeader("Content-Encoding", encoding);
+        final ServletOutputStream out = response.getOutputStream();
+        try {
+            resource.writeContent(out, encoding);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Отправляет клиенту содержимое ресурса, читая его непосредственно из источника.
+     * Поскольку содержимое ресурса целиком не загружается, в качестве тэга сущности используется слабый тэг, построенный на основе длины и
+     * времени последней модификации ресурса.
+     */
+    private void sendStream(final HttpServletRequest request, final HttpServletResponse response, final ResourceStream stream, final String contentType, final boolean immutable) throws IOException {
+        final long length = stream.getLength();
+        final long lastModified = stream.getLastModified()>0 ? stream.getLastModified() : SERVER_START_TIME;
+        final String etag = "W/\"" + Long.toHexString(length) + '-' + Long.toHexString(lastModified) + '"';
+        if (!prepareHeaders(request, response, etag, lastModified, immutable))
+            return;
+
         response.setContentType(contentType);
-        response.setContentLength(content.length);
-        response.setDateHeader("Last-Modified", SERVER_START_TIME);
-        response.setDateHeader("Expires", System.currentTimeMillis()+CACHING_TIME);
+        final List<ByteRange> ranges = getRanges(request, etag, lastModified, length);
+        if (ranges!=null && (stream.isSeekable() || ByteRange.isAscending(ranges))) {
+            sendRanges(response, contentType, length, ranges, null, stream);
+            return;
+        }
+        if (length>=0)
+            setContentLength(response, length);
         final ServletOutputStream out = response.getOutputStream();
         try {
-            out.write(content);
+            stream.writeTo(out, 0, length);
             out.flush();
         } finally {
             out.close();
         }
     }
 
-    private byte[] loadContent(final String path, final HttpServletRequest request) throws IOException {
-        if (path==null || path.length()==0)
-            return null;
-        final int s = path.indexOf('/', 1);
-        if (s<0)
+    /**
+     * Отправляет клиенту запрошенные им фрагменты ресурса (ответ <code>206 Partial Content</code>).
+     * Несколько фрагментов передаются в одном ответе с типом содержимого <code>multipart/byteranges</code>.
+     * Если ни один из запрошенных фрагментов не может быть передан клиенту то ему отправляется ответ <code>416 Requested Range Not Satisfiable</code>.
+     * Содержимое фрагментов берется либо из загруженного в память ресурса либо из потока к содержимому ресурса.
+     */
+    private void sendRanges(final HttpServletResponse response, final String contentType, final long length, final List<ByteRange> ranges,
+                            final CachedResource resource, final ResourceStream stream) throws IOException {
+        if (ranges.isEmpty()) {
+            response.setHeader("Content-Range", "bytes */" + length);
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (ranges.size()==1) {
+            final ByteRange range = ranges.get(0);
+            response.setHeader("Content-Range", range.getContentRange(length));
+            setContentLength(response, range.getLength());
+            final ServletOutputStream out = response.getOutputStream();
+            try {
+                writeRange(out, range, resource, stream);
+                out.flush();
+            } finally {
+                out.close();
+            }
+            return;
+        }
+
+        final String boundary = "WUI_BYTERANGES_" + Long.toHexString(System.nanoTime());
+        final byte[][] headers = new byte[ranges.size()][];
+        final byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes("ISO-8859-1");
+        long total = trailer.length;
+        for (int i=0; i<headers.length; i++) {
+            final ByteRange range = ranges.get(i);
+            headers[i] = ("\r\n--" + boundary + "\r\nContent-Type: " + contentType + "\r\nContent-Range: " + range.getContentRange(length) + "\r\n\r\n").getBytes("ISO-8859-1");
+            total += headers[i].length + range.getLength();
+        }
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        setContentLength(response, total);
+        final ServletOutputStream out = response.getOutputStream();
+        try {
+            for (int i=0; i<headers.length; i++) {
+                out.write(headers[i]);
+                writeRange(out, ranges.get(i), resource, stream);
+            }
+            out.write(trailer);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeRange(final OutputStream out, final ByteRange range, final CachedResource resource, final ResourceStream stream) throws IOException {
+        if (resource!=null) {
+            resource.writeContent(out, range.start, range.getLength());
+        } else
+            stream.writeTo(out, range.start, range.getLength());
+    }
+
+    private static void setContentLength(final HttpServletResponse response, final long length) {
+        if (length<=Integer.MAX_VALUE) {
+            response.setContentLength((int)length);
+        } else
+            response.setHeader("Content-Length", Long.toString(length));
+    }
+
+    /**
+     * Анализирует заголовки запроса <code>Range</code> и <code>If-Range</code>.
+     * @return  список запрошенных клиентом фрагментов ресурса, пустой список если ни один из запрошенных фрагментов не может быть
+     *      передан клиенту или <code>null</code> если клиенту должно быть передано все содержимое ресурса.
+     */
+    private static List<ByteRange> getRanges(final HttpServletRequest request, final String etag, final long lastModified, final long length) {
+        final String header = request.getHeader("Range");
+        if (header==null || length<0)
             return null;
-        final String sid = path.substring(0,s);
-        final String resource = path.substring(s);
-        final ResourceLoader loader = storages.get( sid );
-        if (loader==null)
+        final String ifRange = StringUtil.trim(request.getHeader("If-Range"));
+        if (ifRange!=null) {
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                // допускается только строгое сравнение тэгов сущности ...
+                if (etag.startsWith("W/") || !etag.equals(ifRange))
+                    return null;
+            } else {
+                final long date;
+                try {
+                    date = request.getDateHeader("If-Range");
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+                if (date/1000 != lastModified/1000)
+                    return null;
+            }
+        }
+        return ByteRange.parse(header, length);
+    }
+
+    /**
+     * Устанавливает заголовки ответа, управляющие кэшированием ресурса на стороне клиента, и проверяет условия указанные в запросе клиента.
+     * @param immutable  <code>true</code> если содержимое ресурса по данной ссылке никогда не изменяется.
+     * @return <code>false</code> если имеющееся у клиента содержимое ресурса актуально, клиенту уже отправлен ответ <code>304 Not Modified</code>
+     *      и передавать ему содержимое ресурса не требуется.
+     */
+    private boolean prepareHeaders(final HttpServletRequest request, final HttpServletResponse response, final String etag, final long lastModified, final boolean immutable) {
+        final long ttl = immutable ? IMMUTABLE_CACHING_TIME : cachingTime;
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", lastModified);
+        response.setDateHeader("Expires", System.currentTimeMillis()+ttl);
+        response.setHeader("Cache-Control", immutable ? "public, max-age="+(ttl/1000)+", immutable" : "public, max-age="+(ttl/1000));
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Проверяет условия указанные в заголовках <code>If-None-Match</code> и <code>If-Modified-Since</code> запроса.
+     * Если в запросе присутствует заголовок <code>If-None-Match</code> то заголовок <code>If-Modified-Since</code> игнорируется.
+     * @return <code>true</code> если содержимое ресурса имеющееся у клиента актуально и его повторная передача не требуется.
+     */
+    private static boolean isNotModified(final HttpServletRequest request, final String etag, final long lastModified) {
+        final String inm = request.getHeader("If-None-Match");
+        if (inm!=null) {
+            for (String tag : StringUtil.split(inm, ',')) {
+                tag = StringUtil.trim(tag);
+                if (tag==null)
+                    continue;
+                if (tag.startsWith("W/"))
+                    tag = tag.substring(2);
+                if ("*".equals(tag) || etag.equals(tag) || etag.startsWith("W/") && etag.substring(2).equals(tag))
+                    return true;
+            }
+            return false;
+        }
+        final long ims;
+        try {
+            ims = request.getDateHeader("If-Modified-Since");
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return ims>=0 && lastModified/1000 <= ims/1000;
+    }
+
+    /**
+     * Выбирает наиболее предпочтительную для клиента кодировку содержимого ресурса на основе заголовка запроса <code>Accept-Encoding</code>.
+     * @return  {@link CachedResource#GZIP}, {@link CachedResource#DEFLATE} или <code>null</code> если клиент не поддерживает сжатое содержимое.
+     */
+    private static String selectEncoding(final HttpServletRequest request) {
+        final String ae = request.getHeader("Accept-Encoding");
+        if (ae==null)
             return null;
-        if ("1".equals(request.getParameter("cache"))) {
-            byte[] result = cache.get(path);
-            if (result==null) {
-                result = loader.load(resource, request);
-                if (result!=null && result.length < ResourceServlet.LARGEST_CONTENT_SIZE_IN_CACHE)
-                    cache.put(resource, result);
+        String result = null;
+        float quality = 0;
+        for (String token : StringUtil.split(ae, ',')) {
+            token = StringUtil.trim(token);
+            if (token==null)
+                continue;
+            float q = 1;
+            final int p = token.indexOf(';');
+            if (p>=0) {
+                final String param = token.substring(p+1).trim();
+                token = token.substring(0,p).trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Float.parseFloat(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            final String enc;
+            if (CachedResource.GZIP.equalsIgnoreCase(token) || "x-gzip".equalsIgnoreCase(token) || "*".equals(token)) {
+                enc = CachedResource.GZIP;
+            } else
+            if (CachedResource.DEFLATE.equalsIgnoreCase(token)) {
+                enc = CachedResource.DEFLATE;
+            } else
+                continue;
+            if (q>quality || (q==quality && q>0 && CachedResource.GZIP.equals(enc) && !"*".equals(token))) {
+                result = enc;
+                quality = q;
+            }
+        }
+        return quality>0 ? result : null;
+    }
+
+    /**
+     * Описывает фрагмент ресурса, запрошенный клиентом в заголовке <code>Range</code>.
+     */
+    private static final class ByteRange {
+        private static final int MAX_RANGES = 16;
+        private final long start;
+        private final long end;
+        private ByteRange(final long start, final long end) {
+            this.start = start;
+            this.end = end;
+        }
+        private long getLength() {
+            return end - start + 1;
+        }
+        private String getContentRange(final long length) {
+            return "bytes " + start + '-' + end + '/' + length;
+        }
+
+        /**
+         * Разбирает значение заголовка <code>Range</code>.
+         * @return  список фрагментов, пустой список если ни один из фрагментов не может быть передан клиенту или
+         *      <code>null</code> если заголовок некорректен (или содержит слишком большое количество фрагментов) и должен быть проигнорирован.
+         */
+        private static List<ByteRange> parse(final String header, final long length) {
+            final String value = header.trim();
+            if (!value.startsWith("bytes="))
+                return null;
+            final String[] specs = StringUtil.split(value.substring(6), ',');
+            if (specs.length==0 || specs.length>MAX_RANGES)
+                return null;
+            final List<ByteRange> result = new ArrayList<ByteRange>(specs.length);
+            for (String spec : specs) {
+                spec = StringUtil.trim(spec);
+                if (spec==null)
+                    continue;
+                final int d = spec.indexOf('-');
+                if (d<0)
+                    return null;
+                final long start, end;
+                try {
+                    if (d==0) {
+                        // последние N байт ресурса ...
+                        final long suffix = Long.parseLong(spec.substring(1).trim());
+                        if (suffix<=0)
+                            continue;
+                        start = Math.max(0, length - suffix);
+                        end = length - 1;
+                    } else {
+                        start = Long.parseLong(spec.substring(0,d).trim());
+                        final String e = spec.substring(d+1).trim();
+                        final long last = e.length()==0 ? -1 : Long.parseLong(e);
+                        if (last>=0 && last<start)
+                            return null;
+                        end = last<0 || last>=length ? length-1 : last;
+                    }
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                if (start>=length || start>end)
+                    continue;
+                result.add( new ByteRange(start, end) );
             }
             return result;
-        } else {
-            return loader.load(resource, request);
         }
+
+        /**
+         * @return <code>true</code> если фрагменты следуют в порядке возрастания смещений и не перекрываются.
+         */
+        private static boolean isAscending(final List<ByteRange> ranges) {
+            for (int i=1; i<ranges.size(); i++) {
+                if (ranges.get(i).start <= ranges.get(i-1).end)
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private String getContentType(final String resource) {
+        final String contentType = getServletContext().getMimeType(resource);
+        return contentType!=null ? contentType : Utils.getMimeType(resource);
+    }
+
+    private CachedResource makeResource(final ResourceLoader loader, final String resource, final HttpServletRequest request, final byte[] content, final String contentType) throws IOException {
+        if (compress && CachedResource.isCompressible(contentType) && content.length>=CachedResource.MIN_COMPRESSIBLE_SIZE) {
+            final ResourceStream gz = loader.open(resource+".gz", request);
+            byte[] gzipped = null;
+            if (gz!=null) {
+                try {
+                    gzipped = gz.toBytes();
+                } finally {
+                    gz.close();
+                }
+            }
+            return new CachedResource(content, contentType, true, gzipped);
+        } else
+            return new CachedResource(content, contentType);
     }
 
 }
 
 interface ResourceLoader {
-    public byte[] load(String resource, HttpServletRequest request) throws IOException;
+    /**
+     * Возвращает ключ, однозначно идентифицирующий содержимое ресурса в {@link ResourceCache}.
+     * Ключ должен включать в себя идентификатор загрузчика, а также все прочие параметры запроса влияющие на содержимое ресурса.
+     */
+    public String getCacheKey(String resource, HttpServletRequest request);
+    /**
+     * Открывает поток к содержимому ресурса.
+     * @return  поток к содержимому ресурса или <code>null</code> если ресурс отсутствует.
+     */
+    public ResourceStream open(String resource, HttpServletRequest request) throws IOException;
+    /**
+     * @return <code>true</code> если содержимое ресурса по указанному пути никогда не изменяется и может кэшироваться клиентами неограниченно долго.
+     */
+    public boolean isImmutable(String resource, HttpServletRequest request) throws IOException;
+    /**
+     * Возвращает сокращенный хэш от исходного содержимого ресурса, используемый в ссылках на ресурс (см. {@link Constants#FINGERPRINT_PREFIX}).
+     * @return  хэш от содержимого ресурса или <code>null</code> если ресурс отсутствует или загрузчик не поддерживает ссылки с хэшами.
+     */
+    public String getFingerprint(String resource, HttpServletRequest request) throws IOException;
     public void destroy();
 }
 
@@ -124,50 +592,271 @@ final class ServletResourceLoader implements ResourceLoader {
     public ServletResourceLoader(final HttpServlet servlet) {
         this.servlet = servlet;
     }
-    public byte[] load(final String resource, final HttpServletRequest request) throws IOException {
-        if (resource.startsWith("/WEB-INF/"))
-            return null;
-        final InputStream in = servlet.getServletContext().getResourceAsStream(resource);
-        if (in==null)
+    public String getCacheKey(final String resource, final HttpServletRequest request) {
+        final String path = normalize(resource);
+        return path!=null && !isProtected(path) ? "/web" + path : null;
+    }
+    public ResourceStream open(final String resource, final HttpServletRequest request) throws IOException {
+        final String path = normalize(resource);
+        if (path==null || isProtected(path))
             return null;
-        try {
-            return ObjectUtil.streamToBytes(in);
-        } finally {
-            in.close();
+        final ServletContext ctx = servlet.getServletContext();
+        final String realPath = ctx.getRealPath(path);
+        final String rootPath = ctx.getRealPath("/");
+        if (realPath!=null && rootPath!=null) {
+            // файловая система может не различать регистр символов или иметь альтернативные имена файлов, поэтому
+            // окончательная проверка выполняется по каноническому пути к файлу ...
+            final String canonicalRoot = new File(rootPath).getCanonicalPath();
+            final String root = canonicalRoot.endsWith(File.separator) ? canonicalRoot : canonicalRoot + File.separator;
+            final File file = new File(realPath).getCanonicalFile();
+            if (!file.getPath().startsWith(root))
+                return null;
+            final String relPath = normalize(file.getPath().substring(root.length()-1));
+            if (relPath==null || isProtected(relPath))
+                return null;
+            final ResourceStream result = ResourceStream.open(file);
+            if (result!=null)
+                return result;
         }
+        return ResourceStream.open(ctx.getResource(path));
+    }
+    public boolean isImmutable(final String resource, final HttpServletRequest request) {
+        return false;
+    }
+    public String getFingerprint(final String resource, final HttpServletRequest request) {
+        return null;
     }
     public void destroy() {
     }
+
+    /**
+     * Приводит путь к ресурсу к каноническому виду: заменяет обратные косые черты на прямые, удаляет пустые сегменты и сегменты
+     * <code>.</code>, разрешает сегменты <code>..</code>.
+     * @param resource  путь к ресурсу.
+     * @return  канонический путь к ресурсу, начинающийся с <code>/</code>, или <code>null</code> если путь выходит за пределы корня приложения.
+     */
+    static String normalize(final String resource) {
+        final String[] segments = StringUtil.split(resource.replace('\\', '/'), '/');
+        final ArrayList<String> result = new ArrayList<String>(segments.length);
+        for (String segment : segments) {
+            if (segment==null || segment.length()==0 || ".".equals(segment))
+                continue;
+            if ("..".equals(segment)) {
+                if (result.isEmpty())
+                    return null;
+                result.remove(result.size()-1);
+            } else
+                result.add(segment);
+        }
+        final StringBuilder buf = new StringBuilder(resource.length()+1);
+        for (String segment : result) {
+            buf.append('/').append(segment);
+        }
+        return buf.length()>0 ? buf.toString() : "/";
+    }
+
+    /**
+     * Проверяет не относится ли путь к закрытым от клиентов каталогам приложения <code>WEB-INF</code> и <code>META-INF</code>.
+     * Проверка выполняется без учета регистра символов и завершающих точек и пробелов, которые игнорируются некоторыми файловыми системами.
+     * @param path  канонический путь к ресурсу (см. {@link #normalize(String)}).
+     * @return  <code>true</code> если доступ клиентов к ресурсу должен быть запрещен.
+     */
+    static boolean isProtected(final String path) {
+        final int e = path.indexOf('/', 1);
+        String segment = path.substring(1, e>0 ? e : path.length());
+        int len = segment.length();
+        while (len>0 && (segment.charAt(len-1)=='.' || segment.charAt(len-1)==' '))
+            len--;
+        segment = segment.substring(0, len);
+        return "WEB-INF".equalsIgnoreCase(segment) || "META-INF".equalsIgnoreCase(segment);
+    }
 }
 
 final class ClassPathResourceLoader implements ResourceLoader {
-    public byte[] load(final String resource, final HttpServletRequest request) throws IOException {
-            final InputStream in = ResourceServlet.class.getResourceAsStream(resource);
-            if (in==null)
+    private final ConcurrentHashMap<String,String> fingerprints = new ConcurrentHashMap<String,String>();
+    public String getCacheKey(final String resource, final HttpServletRequest request) {
+        return "/lib" + resource;
+    }
+    public ResourceStream open(final String resource, final HttpServletRequest request) throws IOException {
+        return ResourceStream.open(ResourceServlet.class.getResource(resource));
+    }
+    public boolean isImmutable(final String resource, final HttpServletRequest request) {
+        return false;
+    }
+    public String getFingerprint(final String resource, final HttpServletRequest request) throws IOException {
+        // содержимое ресурсов из путей классов не изменяется в процессе работы приложения, поэтому вычисленные хэши запоминаются ...
+        String result = fingerprints.get(resource);
+        if (result==null) {
+            final ResourceStream stream = open(resource, request);
+            if (stream==null)
                 return null;
             try {
-                return ObjectUtil.streamToBytes(in);
+                result = CachedResource.digest(stream.toBytes()).substring(0, 12);
             } finally {
-                in.close();
+                stream.close();
             }
+            fingerprints.put(resource, result);
+        }
+        return result;
     }
     public void destroy() {
     }
 }
 
 final class ThemeResourceLoader implements ResourceLoader {
-    public byte[] load(final String resource, final HttpServletRequest request) throws IOException {
-        final String themeName = (String)request.getSession().getAttribute(Constants.CURRENT_THEME);
-        final Theme theme = Application.THEMES_MANAGER.getTheme(Utils.detectEffectiveLocale(request), themeName);
-        final InputStream in = theme.getResourceAsStream(resource);
-        if (in==null)
+    public String getCacheKey(final String resource, final HttpServletRequest request) {
+        final ThemeResource tr = ThemeResource.resolve(resource, request);
+        return tr!=null ? "/theme/" + tr.theme.getName() + '/' + tr.locale + tr.path : null;
+    }
+    public ResourceStream open(final String resource, final HttpServletRequest request) throws IOException {
+        final ThemeResource tr = ThemeResource.resolve(resource, request);
+        return tr!=null ? ResourceStream.open(tr.theme.getResource(tr.path)) : null;
+    }
+    public boolean isImmutable(final String resource, final HttpServletRequest request) {
+        return false;
+    }
+    public String getFingerprint(final String resource, final HttpServletRequest request) {
+        final ThemeResource tr = ThemeResource.resolve(resource, request);
+        return tr!=null ? tr.theme.getResourceDigest(tr.path) : null;
+    }
+    public void destroy() {
+    }
+
+    /**
+     * Ресурс конкретной темы для конкретной локали.
+     */
+    private static final class ThemeResource {
+        private final Theme theme;
+        private final Locale locale;
+        private final String path;
+        private ThemeResource(final Theme theme, final Locale locale, final String path) {
+            this.theme = theme;
+            this.locale = locale;
+            this.path = path;
+        }
+
+        /**
+         * Определяет тему и локаль, к которым относится запрошенный ресурс. Если путь к ресурсу начинается с сегмента вида
+         * <code>/t-{тема}~{локаль}</code> (см. {@link Constants#THEME_PREFIX}) то тема и локаль берутся из него, в противном случае
+         * тема берется из сессии пользователя (если она существует), а локаль - из заголовков запроса.
+         * Ни в одном из случаев новая сессия не создается.
+         * @return  ресурс темы или <code>null</code> если указанные в пути тема или локаль не поддерживаются приложением.
+         */
+        private static ThemeResource resolve(final String resource, final HttpServletRequest request) {
+            if (resource.startsWith(Constants.THEME_PREFIX)) {
+                final int e = resource.indexOf('/', 1);
+                final String segment = resource.substring(Constants.THEME_PREFIX.length(), e>0 ? e : resource.length());
+                final int d = segment.lastIndexOf(Constants.THEME_LOCALE_SEPARATOR);
+                if (e<0 || d<=0)
+                    return null;
+                final Locale locale = BundleResourceLoader.findLocale(segment.substring(d+1));
+                final Theme theme = locale!=null ? BundleResourceLoader.findTheme(locale, segment.substring(0,d)) : null;
+                return theme!=null ? new ThemeResource(theme, locale, resource.substring(e)) : null;
+            }
+            final Locale locale = Utils.detectEffectiveLocale(request);
+            final HttpSession session = request.getSession(false);
+            final String themeName = session!=null ? (String)session.getAttribute(Constants.CURRENT_THEME) : null;
+            final Theme theme = Application.THEMES_MANAGER.getTheme(locale, themeName);
+            return theme!=null ? new ThemeResource(theme, locale, resource) : null;
+        }
+    }
+}
+
+final class BundleResourceLoader implements ResourceLoader {
+    public String getCacheKey(final String resource, final HttpServletRequest request) {
+        return "/bundle" + resource;
+    }
+    public ResourceStream open(final String resource, final HttpServletRequest request) throws IOException {
+        // ожидается путь вида: /{тема}/{локаль}/{имя файла сборки}
+        final String[] parts = StringUtil.split(resource.substring(1), '/');
+        if (parts.length!=3)
+            return null;
+        final Locale locale = findLocale(parts[1]);
+        final Theme theme = locale!=null ? findTheme(locale, parts[0]) : null;
+        final ThemeBundle bundle = theme!=null ? theme.getBundle(parts[2]) : null;
+        return bundle!=null ? ResourceStream.open(bundle.getContent(), 0) : null;
+    }
+    public boolean isImmutable(final String resource, final HttpServletRequest request) {
+        return true;
+    }
+    public String getFingerprint(final String resource, final HttpServletRequest request) {
+        return null;
+    }
+    public void destroy() {
+    }
+
+
+    /**
+     * @return  одна из поддерживаемых приложением локалей, строковое представление которой совпадает с аргументом, или <code>null</code>.
+     */
+    static Locale findLocale(final String name) {
+        for (Locale locale : Application.SUPPORTED_LOCALES) {
+            if (locale.toString().equals(name))
+                return locale;
+        }
+        return null;
+    }
+
+    /**
+     * @return  тема с указанным именем для указанной локали или <code>null</code> если такая тема не зарегистрирована в приложении.
+     */
+    static Theme findTheme(final Locale locale, final String themeName) {
+        try {
+            return Application.THEMES_MANAGER.getTheme(locale, themeName);
+        } catch (UIException e) {
             return null;
+        }
+    }
+}
+
+final class TransformingResourceLoader implements ResourceLoader {
+    private final Map<String,ResourceLoader> storages;
+    private final ResourceTransformChain transformers;
+    public TransformingResourceLoader(final Map<String,ResourceLoader> storages, final ResourceTransformChain transformers) {
+        this.storages = storages;
+        this.transformers = transformers;
+    }
+    public String getCacheKey(final String resource, final HttpServletRequest request) {
+        final int s = resource.indexOf('/', 1);
+        final ResourceLoader loader = s>0 ? storages.get(resource.substring(0,s)) : null;
+        final String key = loader!=null ? loader.getCacheKey(ResourceServlet.stripFingerprint(resource.substring(s)), request) : null;
+        return key!=null ? "/min" + key : null;
+    }
+    public ResourceStream open(final String resource, final HttpServletRequest request) throws IOException {
+        final int s = resource.indexOf('/', 1);
+        final ResourceLoader loader = s>0 ? storages.get(resource.substring(0,s)) : null;
+        if (loader==null)
+            return null;
+        final String path = ResourceServlet.stripFingerprint(resource.substring(s));
+        if (path.endsWith(".gz") && transformers.isApplicable(path.substring(0, path.length()-3)))
+            return null;    // предварительно сжатые версии исходных ресурсов не соответствуют преобразованному содержимому
+        final ResourceStream stream = loader.open(path, request);
+        if (stream==null || !transformers.isApplicable(path))
+            return stream;
+        final byte[] content;
+        final long lastModified;
         try {
-            return ObjectUtil.streamToBytes(in);
+            content = stream.toBytes();
+            lastModified = stream.getLastModified();
         } finally {
-            in.close();
+            stream.close();
         }
+        return ResourceStream.open(transformers.transform(path, content), lastModified);
+    }
+    public boolean isImmutable(final String resource, final HttpServletRequest request) throws IOException {
+        final int s = resource.indexOf('/', 1);
+        final ResourceLoader loader = s>0 ? storages.get(resource.substring(0,s)) : null;
+        if (loader==null)
+            return false;
+        final String path = resource.substring(s);
+        return ResourceServlet.isImmutable(loader, ResourceServlet.stripFingerprint(path), ResourceServlet.extractFingerprint(path), request);
+    }
+    public String getFingerprint(final String resource, final HttpServletRequest request) throws IOException {
+        // хэш вычисляется от исходного (не преобразованного) содержимого ресурса ...
+        final int s = resource.indexOf('/', 1);
+        final ResourceLoader loader = s>0 ? storages.get(resource.substring(0,s)) : null;
+        return loader!=null ? loader.getFingerprint(ResourceServlet.stripFingerprint(resource.substring(s)), request) : null;
     }
     public void destroy() {
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,311 @@
+package org.echosoft.framework.ui.core.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Предоставляет потоковый доступ к содержимому ресурса без предварительной загрузки всего его содержимого в память.
+ * Используется {@link ResourceServlet} для отдачи клиентам ресурсов, не помещающихся в {@link ResourceCache}.
+ * Содержимое ресурсов копируется в выходной поток через буферы ограниченного размера, повторно используемые различными запросами.
+ * Поскольку выходной поток сервлета не является каналом, передача содержимого файлов средствами <code>FileChannel.transferTo</code>
+ * не дала бы здесь выигрыша: JDK все равно копировал бы данные через промежуточный буфер.
+ * Экземпляры данного класса не являются потокобезопасными и по окончании работы с ними должны быть закрыты вызовом {@link #close()}.
+ *
+ * @author Anton Sharapov
+ */
+abstract class ResourceStream {
+
+    private static final int BUFFER_SIZE = 16*1024;
+    private static final ArrayBlockingQueue<byte[]> BUFFERS = new ArrayBlockingQueue<byte[]>(32);
+
+    /**
+     * Возвращает поток к содержимому ресурса, заданного указанной ссылкой.
+     * @param url  ссылка на ресурс или <code>null</code>.
+     * @return  поток к содержимому ресурса или <code>null</code> если ресурс отсутствует.
+     * @throws IOException  в случае проблем с доступом к ресурсу.
+     */
+    public static ResourceStream open(final URL url) throws IOException {
+        if (url==null)
+            return null;
+        if ("file".equals(url.getProtocol())) {
+            File file;
+            try {
+                file = new File(url.toURI());
+            } catch (URISyntaxException e) {
+                file = new File(url.getPath());     // ссылки, построенные из путей к файлам, могут содержать неэкранированные символы
+            } catch (IllegalArgumentException e) {
+                file = new File(url.getPath());
+            }
+            return open(file);
+        }
+        final URLConnection conn = url.openConnection();
+        final InputStream in;
+        try {
+            in = conn.getInputStream();
+        } catch (IOException e) {
+            return null;
+        }
+        return in!=null ? new StreamResourceStream(in, conn.getContentLength(), conn.getLastModified()) : null;
+    }
+
+    /**
+     * Возвращает поток к содержимому указанного файла.
+     * @param file  файл или <code>null</code>.
+     * @return  поток к содержимому файла или <code>null</code> если файл отсутствует.
+     * @throws IOException  в случае проблем с доступом к файлу.
+     */
+    public static ResourceStream open(final File file) throws IOException {
+        if (file==null || !file.isFile())
+            return null;
+        return new FileResourceStream(file);
+    }
+
+    /**
+     * Возвращает поток к содержимому ресурса, уже загруженному в память.
+     * @param content  содержимое ресурса или <code>null</code>.
+     * @param lastModified  время последней модификации ресурса.
+     * @return  поток к содержимому ресурса или <code>null</code> если ресурс отсутствует.
+     */
+    public static ResourceStream open(final byte[] content, final long lastModified) {
+        if (content==null)
+            return null;
+        return new ByteArrayResourceStream(content, lastModified);
+    }
+
+
+    /**
+     * @return  длина содержимого ресурса в байтах или <code>-1</code> если длина заранее неизвестна.
+     */
+    public abstract long getLength();
+
+    /**
+     * @return  время последней модификации ресурса или <code>0</code> если оно неизвестно.
+     */
+    public abstract long getLastModified();
+
+    /**
+     * @return <code>true</code> если фрагменты содержимого ресурса могут быть прочитаны в произвольном порядке.
+     *      В противном случае каждый последующий вызов {@link #writeTo(OutputStream, long, long)} должен запрашивать фрагмент,
+     *      расположенный после ранее запрошенных фрагментов.
+     */
+    public abstract boolean isSeekable();
+
+    /**
+     * Записывает в выходной поток указанный фрагмент содержимого ресурса. Метод может вызываться несколько раз для различных фрагментов ресурса
+     * (с учетом ограничений, описанных в {@link #isSeekable()}).
+     * @param out  выходной поток.
+     * @param offset  смещение первого передаваемого байта относительно начала ресурса.
+     * @param length  количество передаваемых байт или <code>-1</code> для передачи всего содержимого до конца ресурса.
+     * @throws IOException  в случае ошибок ввода-вывода.
+     */
+    public abstract void writeTo(OutputStream out, long offset, long length) throws IOException;
+
+    /**
+     * Освобождает все задействованные ресурсом системные ресурсы.
+     * @throws IOException  в случае ошибок ввода-вывода.
+     */
+    public abstract void close() throws IOException;
+
+    /**
+     * Загружает все содержимое ресурса в память.
+     * @return  содержимое ресурса.
+     * @throws IOException  в случае ошибок ввода-вывода.
+     */
+    public byte[] toBytes() throws IOException {
+        final long length = getLength();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(length>=0 ? (int)length : BUFFER_SIZE);
+        writeTo(out, 0, -1);
+        return out.toByteArray();
+    }
+
+    /**
+     * Загружает все содержимое ресурса в память если его объем не превышает указанного ограничения.
+     * Если длина ресурса заранее неизвестна, то в память загружается не более <code>maxSize+1</code> байт. Когда ресурс оказывается больше,
+     * уже прочитанная часть его содержимого сохраняется и будет передана последующими вызовами {@link #writeTo(OutputStream, long, long)}.
+     * @param maxSize  максимальный объем (в байтах) загружаемого в память содержимого.
+     * @return  содержимое ресурса или <code>null</code> если его объем превышает указанное ограничение.
+     * @throws IOException  в случае ошибок ввода-вывода.
+     */
+    public byte[] toBytes(final int maxSize) throws IOException {
+        final long length = getLength();
+        return length>=0 && length<=maxSize ? toBytes() : null;
+    }
+
+
+    private static byte[] acquireBuffer() {
+        final byte[] buf = BUFFERS.poll();
+        return buf!=null ? buf : new byte[BUFFER_SIZE];
+    }
+
+    private static void releaseBuffer(final byte[] buf) {
+        BUFFERS.offer(buf);
+    }
+
+
+    private static final class FileResourceStream extends ResourceStream {
+        private final File file;
+        private final FileInputStream in;
+        private FileResourceStream(final File file) throws IOException {
+            this.file = file;
+            this.in = new FileInputStream(file);
+        }
+        public long getLength() {
+            return file.length();
+        }
+        public long getLastModified() {
+            return file.lastModified();
+        }
+        public boolean isSeekable() {
+            return true;
+        }
+        public void writeTo(final OutputStream out, final long offset, long length) throws IOException {
+            final FileChannel channel = in.getChannel();
+            final long size = channel.size();
+            if (length<0 || offset+length>size)
+                length = size - offset;
+            final byte[] buf = acquireBuffer();
+            try {
+                long pos = offset;
+                final long end = offset + length;
+                while (pos<end) {
+                    final int count = channel.read(ByteBuffer.wrap(buf, 0, (int)Math.min(buf.length, end-pos)), pos);
+                    if (count<=0)
+                        throw new EOFException("Unexpected end of file: "+file);
+                    out.write(buf, 0, count);
+                    pos += count;
+                }
+            } finally {
+                releaseBuffer(buf);
+            }
+        }
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static final class ByteArrayResourceStream extends ResourceStream {
+        private final byte[] content;
+        private final long lastModified;
+        private ByteArrayResourceStream(final byte[] content, final long lastModified) {
+            this.content = content;
+            this.lastModified = lastModified;
+        }
+        public long getLength() {
+            return content.length;
+        }
+        public long getLastModified() {
+            return lastModified;
+        }
+        public boolean isSeekable() {
+            return true;
+        }
+        public void writeTo(final OutputStream out, final long offset, long length) throws IOException {
+            if (length<0 || offset+length>content.length)
+                length = content.length - offset;
+            out.write(content, (int)offset, (int)length);
+        }
+        public byte[] toBytes() {
+            return content;
+        }
+        public void close() {
+        }
+    }
+
+    private static final class StreamResourceStream extends ResourceStream {
+        private final InputStream in;
+        private final long length;
+        private final long lastModified;
+        private long position;
+        private byte[] head;        // начальная часть содержимого, прочитанная методом toBytes(int).
+        private StreamResourceStream(final InputStream in, final long length, final long lastModified) {
+            this.in = in;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.position = 0;
+        }
+        public long getLength() {
+            return length;
+        }
+        public long getLastModified() {
+            return lastModified;
+        }
+        public boolean isSeekable() {
+            return false;
+        }
+        public byte[] toBytes(final int maxSize) throws IOException {
+            if (length>=0)
+                return super.toBytes(maxSize);
+            if (position>0)
+                throw new IOException("Resource stream can't be rewound to position 0");
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+            final byte[] buf = acquireBuffer();
+            try {
+                while (out.size()<=maxSize) {
+                    final int len = in.read(buf, 0, (int)Math.min(buf.length, (long)maxSize+1-out.size()));
+                    if (len<0) {
+                        position = out.size();
+                        return out.toByteArray();
+                    }
+                    out.write(buf, 0, len);
+                }
+            } finally {
+                releaseBuffer(buf);
+            }
+            head = out.toByteArray();
+            position = head.length;
+            return null;
+        }
+        public void writeTo(final OutputStream out, long offset, long length) throws IOException {
+            if (head!=null && offset<head.length) {
+                final int len = length<0 || offset+length>head.length ? head.length-(int)offset : (int)length;
+                out.write(head, (int)offset, len);
+                offset += len;
+                if (length>0) {
+                    length -= len;
+                    if (length==0)
+                        return;
+                }
+            }
+            if (offset<position)
+                throw new IOException("Resource stream can't be rewound to position "+offset);
+            for (long skip=offset-position; skip>0; ) {
+                final long skipped = in.skip(skip);
+                if (skipped<=0)
+                    throw new EOFException("Unexpected end of resource stream");
+                skip -= skipped;
+            }
+            position = offset;
+            final byte[] buf = acquireBuffer();
+            try {
+                while (length!=0) {
+                    final int len = in.read(buf, 0, length<0 || length>buf.length ? buf.length : (int)length);
+                    if (len<0) {
+                        if (length>0)
+                            throw new EOFException("Unexpected end of resource stream");
+                        break;
+                    }
+                    out.write(buf, 0, len);
+                    position += len;
+                    if (length>0)
+                        length -= len;
+                }
+            } finally {
+                releaseBuffer(buf);
+            }
+        }
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
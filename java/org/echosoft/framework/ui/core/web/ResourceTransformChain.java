@@ -0,0 +1,176 @@
+package org.echosoft.framework.ui.core.web;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.echosoft.common.utils.ObjectUtil;
+import org.echosoft.common.utils.StringUtil;
+import org.echosoft.framework.ui.core.Application;
+
+/**
+ * Упорядоченная цепочка преобразований ({@link ResourceTransformer}), применяемых к содержимому статических ресурсов.
+ * Используется в двух режимах:
+ * <ol>
+ *  <li> Сервлетом {@link ResourceServlet} при первой загрузке ресурса, запрошенного по ссылке вида <code>/resource/min/{хранилище}/{путь}</code>.
+ *       Результат преобразования кэшируется вместе с прочими ресурсами, исходные ресурсы по-прежнему доступны по обычным ссылкам.
+ *  <li> На этапе сборки .jar файла темы (см. цель <code>jar-min</code> в build.xml). В этом случае все подходящие файлы в указанных
+ *       каталогах преобразуются на месте:
+ *       <pre>java org.echosoft.framework.ui.core.web.ResourceTransformChain [-t класс1,класс2,...] каталог1 [каталог2 ...]</pre>
+ * </ol>
+ * Если преобразование завершается ошибкой, то в журнал пишется предупреждение и дальше используется содержимое ресурса, полученное на предыдущем шаге.
+ *
+ * @author Anton Sharapov
+ */
+public final class ResourceTransformChain {
+
+    /**
+     * Цепочка преобразований, используемая по умолчанию: удаление комментариев и незначащих пробелов из javascript файлов и таблиц стилей.
+     */
+    public static final ResourceTransformChain MINIFIERS = new ResourceTransformChain(new JSMinifier(), new CSSMinifier());
+
+    private final List<ResourceTransformer> transformers;
+
+    public ResourceTransformChain(final ResourceTransformer... transformers) {
+        final List<ResourceTransformer> list = new ArrayList<ResourceTransformer>(transformers.length);
+        for (ResourceTransformer transformer : transformers) {
+            if (transformer==null)
+                throw new IllegalArgumentException("Transformer must be specified");
+            list.add(transformer);
+        }
+        this.transformers = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Создает цепочку преобразований по перечню имен классов.
+     * @param classNames  разделенный запятыми перечень полных имен классов, реализующих интерфейс {@link ResourceTransformer}.
+     *      Если <code>null</code> то возвращается цепочка по умолчанию ({@link #MINIFIERS}).
+     * @return  цепочка преобразований.
+     * @throws Exception  в случае если какой-либо из классов не может быть загружен или инстанцирован.
+     */
+    public static ResourceTransformChain parse(final String classNames) throws Exception {
+        if (StringUtil.trim(classNames)==null)
+            return MINIFIERS;
+        final List<ResourceTransformer> list = new ArrayList<ResourceTransformer>();
+        for (String className : StringUtil.split(classNames, ',')) {
+            className = StringUtil.trim(className);
+            if (className==null)
+                continue;
+            final Class<?> cl = Class.forName(className, true, Thread.currentThread().getContextClassLoader());
+            list.add( (ResourceTransformer)cl.newInstance() );
+        }
+        return new ResourceTransformChain(list.toArray(new ResourceTransformer[list.size()]));
+    }
+
+    /**
+     * @return  упорядоченный список преобразований в цепочке.
+     */
+    public List<ResourceTransformer> getTransformers() {
+        return transformers;
+    }
+
+    /**
+     * @param resource  путь к ресурсу.
+     * @return <code>true</code> если к ресурсу с указанным путем применимо хотя бы одно преобразование из цепочки.
+     */
+    public boolean isApplicable(final String resource) {
+        for (ResourceTransformer transformer : transformers) {
+            if (transformer.isApplicable(resource))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Последовательно применяет к содержимому ресурса все подходящие преобразования из цепочки.
+     * @param resource  путь к ресурсу.
+     * @param content  исходное содержимое ресурса.
+     * @return  преобразованное содержимое ресурса.
+     */
+    public byte[] transform(final String resource, byte[] content) {
+        for (ResourceTransformer transformer : transformers) {
+            if (!transformer.isApplicable(resource))
+                continue;
+            try {
+                content = transformer.transform(resource, content);
+            } catch (Exception e) {
+                Application.log.warn("Unable to apply "+transformer.getClass().getName()+" to resource "+resource+": "+e.getMessage());
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Применяет цепочку преобразований ко всем подходящим файлам в указанном каталоге и его подкаталогах. Файлы перезаписываются на месте.
+     * @param dir  каталог с ресурсами.
+     * @return  количество байт, на которое уменьшился суммарный объем преобразованных файлов.
+     * @throws IOException  в случае ошибок ввода-вывода.
+     */
+    public long transformDirectory(final File dir) throws IOException {
+        long saved = 0;
+        final File[] files = dir.listFiles();
+        if (files==null)
+            throw new IOException("Can't list directory: "+dir);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                saved += transformDirectory(file);
+            } else
+            if (isApplicable(file.getName())) {
+                final byte[] content = readFile(file);
+                final byte[] result = transform(file.getPath(), content);
+                if (result!=content) {
+                    writeFile(file, result);
+                    saved += content.length - result.length;
+                }
+            }
+        }
+        return saved;
+    }
+
+    public String toString() {
+        return "[ResourceTransformChain{transformers:"+transformers+"}]";
+    }
+
+
+    public static void main(final String[] args) throws Exception {
+        ResourceTransformChain chain = MINIFIERS;
+        int start = 0;
+        if (args.length>1 && "-t".equals(args[0])) {
+            chain = parse(args[1]);
+            start = 2;
+        }
+        if (start>=args.length) {
+            System.err.println("Usage: java "+ResourceTransformChain.class.getName()+" [-t class1,class2,...] dir1 [dir2 ...]");
+            System.exit(1);
+        }
+        for (int i=start; i<args.length; i++) {
+            final File dir = new File(args[i]);
+            final long saved = chain.transformDirectory(dir);
+            System.out.println("Resources in "+dir+" were transformed, "+saved+" bytes saved");
+        }
+    }
+
+    private static byte[] readFile(final File file) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        try {
+            return ObjectUtil.streamToBytes(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeFile(final File file, final byte[] content) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.echosoft.framework.ui.core.web;
+
+/**
+ * Описывает преобразование, применяемое к содержимому статических ресурсов (например удаление из javascript файлов комментариев и лишних пробелов).
+ * Преобразования объединяются в цепочки (см. {@link ResourceTransformChain}) и применяются к содержимому ресурса однократно:
+ * либо при первой загрузке ресурса в {@link ResourceCache}, либо на этапе сборки .jar файла с темой.
+ * <p>Реализации данного интерфейса должны иметь открытый конструктор без аргументов и быть потокобезопасными.</p>
+ *
+ * @author Anton Sharapov
+ */
+public interface ResourceTransformer {
+
+    /**
+     * Определяет применимо ли данное преобразование к ресурсу с указанным путем.
+     * @param resource  путь к ресурсу.
+     * @return <code>true</code> если содержимое ресурса должно быть обработано данным преобразованием.
+     */
+    public boolean isApplicable(String resource);
+
+    /**
+     * Преобразует содержимое ресурса.
+     * @param resource  путь к ресурсу.
+     * @param content  исходное содержимое ресурса.
+     * @return  преобразованное содержимое ресурса.
+     * @throws Exception  в случае если содержимое ресурса не может быть преобразовано.
+     */
+    public byte[] transform(String resource, byte[] content) throws Exception;
+}
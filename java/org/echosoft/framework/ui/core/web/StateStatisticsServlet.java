@@ -0,0 +1,101 @@
+package org.echosoft.framework.ui.core.web;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.echosoft.common.utils.Any;
+import org.echosoft.framework.ui.core.Application;
+import org.echosoft.framework.ui.core.CleanStrategy;
+import org.echosoft.framework.ui.core.spi.MeteredStateSerializer;
+import org.echosoft.framework.ui.core.spi.StateSerializer;
+import org.echosoft.framework.ui.core.spi.StateStatistics;
+
+/**
+ * Диагностический сервлет, отображающий статистику о размерах состояний страниц и затратах на их кодирование и восстановление
+ * (см. {@link StateStatistics}) в виде текстового отчета. POST запрос с параметром <code>reset=true</code> сбрасывает накопленную статистику
+ * (GET запросы статистику не изменяют).
+ * <p>При инициализации сервлет подменяет используемый приложением сериализатор состояний (см. {@link Application#getStateSerializer()})
+ * на {@link MeteredStateSerializer}, собирающий статистику, и регистрирует статистику в JMX. Поддерживаются следующие параметры инициализации сервлета:
+ * <ul>
+ *  <li> <code>jmx-name</code> - имя, под которым статистика регистрируется в JMX (по умолчанию {@link StateStatistics#DEFAULT_OBJECT_NAME}).
+ *       Значение <code>none</code> отключает регистрацию в JMX.
+ *  <li> <code>top-keys</code> - количество запоминаемых ключей с наибольшими значениями (по умолчанию 20).
+ *  <li> <code>sample-rate</code> - размеры значений оцениваются для каждого n-го закодированного набора состояний (по умолчанию 16).
+ *  <li> <code>max-size</code> - максимальный размер ключа состояний (в символах). По умолчанию размер ключа не ограничивается.
+ *  <li> <code>clean-strategy</code> - идентификатор стратегии удаления состояний при превышении максимального размера ключа (по умолчанию <code>CURRENT</code>).
+ * </ul>
+ * Поскольку отчет раскрывает структуру состояний страниц приложения, сервлет не должен быть доступен без ограничения доступа к нему
+ * средствами контейнера (<code>security-constraint</code> в web.xml).</p>
+ *
+ * @author Anton Sharapov
+ */
+public final class StateStatisticsServlet extends HttpServlet {
+
+    private static final String DISABLED = "none";
+
+    private StateStatistics statistics;
+    private StateSerializer original;
+
+    @Override
+    public void init() throws ServletException {
+        final int topKeys = Any.asInt(getInitParameter("top-keys"), 20);
+        final int sampleRate = Any.asInt(getInitParameter("sample-rate"), 16);
+        final int maxSize = Any.asInt(getInitParameter("max-size"), 0);
+        final String strategyId = getInitParameter("clean-strategy");
+        final CleanStrategy strategy = Application.getCleanStrategy(strategyId!=null ? strategyId : "CURRENT");
+        if (strategy==null)
+            throw new ServletException("Unknown clean strategy: "+strategyId);
+        statistics = new StateStatistics(topKeys, sampleRate);
+        original = Application.getStateSerializer();
+        Application.setStateSerializer( new MeteredStateSerializer(original, statistics, maxSize, strategy) );
+        final String jmxName = getInitParameter("jmx-name");
+        if (!DISABLED.equals(jmxName)) {
+            try {
+                statistics.register(jmxName);
+            } catch (Exception e) {
+                Application.log.warn("Unable to register view state statistics in JMX: "+e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        try {
+            statistics.unregister();
+        } catch (Exception e) {
+            Application.log.warn("Unable to unregister view state statistics: "+e.getMessage(), e);
+        }
+        final StateSerializer current = Application.getStateSerializer();
+        if (current instanceof MeteredStateSerializer && ((MeteredStateSerializer)current).getMetrics()==statistics)
+            Application.setStateSerializer(original);
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
+        writeReport(response);
+    }
+
+    @Override
+    protected void doPost(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
+        if (Any.asBoolean(request.getParameter("reset"), false))
+            statistics.reset();
+        writeReport(response);
+    }
+
+
+    private void writeReport(final HttpServletResponse response) throws IOException {
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache, no-store");
+        final Writer out = response.getWriter();
+        out.write("serializer: ");
+        out.write(String.valueOf(Application.getStateSerializer()));
+        out.write("\n\n");
+        out.write(statistics.getReport());
+        out.flush();
+    }
+}
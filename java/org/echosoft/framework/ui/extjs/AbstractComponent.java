@@ -8,9 +8,13 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import org.echosoft.common.io.FastStringWriter;
+import org.echosoft.common.json.JSExpression;
 import org.echosoft.common.json.JSFunction;
 import org.echosoft.common.json.JsonWriter;
 import org.echosoft.common.utils.StringUtil;
+import org.echosoft.framework.ui.core.Application;
+import org.echosoft.framework.ui.core.ComponentCache;
 import org.echosoft.framework.ui.core.ComponentContext;
 import org.echosoft.framework.ui.core.UIComponent;
 
@@ -54,6 +58,7 @@ public abstract class AbstractComponent implements UIComponent, Serializable {
     private String ctCls;           // CSS класс который будет дополнительно добавлен к контейнеру в котором данный компонент расположен.
     private String itemId;          // идентификатор компонента в контейнере. Должен быть уникальным в рамках всех компонентов лежащих в данном контейнере.
     private boolean hideParent;     // признак, определяющий поведение контейнера в момент когда входящий в него компонент становится невидимым.
+    private String frozenVersion;   // версия замороженной модели компонента или null если компонент рендерится при каждом запросе.
 
     public AbstractComponent(final ComponentContext ctx) {
         this.ctx = ctx;
@@ -217,6 +222,27 @@ public abstract class AbstractComponent implements UIComponent, Serializable {
         this.hideParent = hideParent;
     }
 
+    /**
+     * Возвращает версию "замороженной" модели компонента. Модель замороженного компонента (вместе с моделями всех вложенных в него компонент)
+     * сериализуется в JSON лишь однажды, помещается в кэш (см. {@link Application#getComponentCache()}) и при последующих запросах
+     * выводится на страницу без повторной сериализации. Заново вычисляются лишь динамические свойства компонента
+     * (см. {@link #renderDynamicContent(JsonWriter)}). Если модель какого-либо из вложенных компонент зависит от текущего
+     * запроса (см. {@link #isVolatile()}) то результат рендеринга компонента в кэш не помещается.<br/>
+     * Ключ модели в кэше включает класс и идентификатор компонента, страницу (пакет и идентификатор ее состояния), тему, локаль и версию модели,
+     * поэтому при изменении конфигурации компонента следует изменить и его версию.
+     * @return  версия замороженной модели компонента или <code>null</code> (по умолчанию) если модель компонента сериализуется при каждом запросе.
+     */
+    public String getFrozenVersion() {
+        return frozenVersion;
+    }
+    /**
+     * Определяет версию "замороженной" модели компонента.
+     * @param frozenVersion  версия замороженной модели компонента или <code>null</code> если модель компонента должна сериализоваться при каждом запросе.
+     */
+    public void setFrozenVersion(final String frozenVersion) {
+        this.frozenVersion = frozenVersion;
+    }
+
 
 
     /**
@@ -315,6 +341,25 @@ public abstract class AbstractComponent implements UIComponent, Serializable {
             out.writeProperty("plugins", plugins);
     }
 
+    /**
+     * Сериализует свойства замороженного компонента, значения которых зависят от текущего запроса. Эти свойства выводятся на страницу
+     * при каждом запросе поверх закэшированной модели компонента. По умолчанию метод ничего не делает.
+     * На моменты начала и окончания обработки данного вызова выходной поток должен находиться в состоянии <i>редактирования свойств</i> объекта.
+     * @param out  выходной поток.
+     * @throws Exception  в случае каких-либо ошибок в процессе сериализации или отправки данных.
+     */
+    protected void renderDynamicContent(final JsonWriter out) throws Exception {
+    }
+
+    /**
+     * Возвращает <code>true</code> если модель компонента целиком зависит от текущего запроса (например, от сохраненного состояния компонента)
+     * и не может быть закэширована ни сама по себе, ни в составе замороженного родительского компонента.
+     * @return  <code>true</code> если модель компонента зависит от текущего запроса. По умолчанию возвращает <code>false</code>.
+     */
+    protected boolean isVolatile() {
+        return false;
+    }
+
     /**
      * Возвращает перечень всех поддерживаемых компонентом событий.<br/>
      * Если компонент, являющийся наследником данного класса поддерживает иной перечень событий то он должен переопределить данный метод.
@@ -324,6 +369,40 @@ public abstract class AbstractComponent implements UIComponent, Serializable {
         return AbstractComponent.EVENTS;
     }
 
+    /**
+     * Сериализует вложенный компонент с учетом того, является ли он "замороженным" (см. {@link #getFrozenVersion()}).
+     * Используется контейнерами и менеджерами компоновки вместо прямого вызова {@link UIComponent#invoke(JsonWriter)} вложенных компонент.
+     * @param item  вложенный компонент.
+     * @param out  выходной поток.
+     * @throws Exception  в случае каких-либо ошибок в процессе сериализации или отправки данных.
+     */
+    public static void invokeItem(final UIComponent item, final JsonWriter out) throws Exception {
+        if (!(item instanceof AbstractComponent)) {
+            item.invoke(out);
+            return;
+        }
+        final AbstractComponent component = (AbstractComponent)item;
+        final ComponentCache cache = Application.getComponentCache();
+        if (component.isVolatile() || component.frozenVersion==null || cache==null) {
+            if (component.isVolatile())
+                ComponentCache.markVolatile();
+            component.invoke(out);
+            return;
+        }
+        final String json = cache.render(component, component.frozenVersion, out.getContext());
+        final FastStringWriter buf = new FastStringWriter(64);
+        final JsonWriter jw = out.getContext().makeJsonWriter(buf);
+        jw.beginObject();
+        component.renderDynamicContent(jw);
+        jw.endObject();
+        if (buf.length()>2) {
+            ComponentCache.markVolatile();
+            out.writeObject( new JSExpression("Ext.apply(" + json + "," + buf.toString() + ")") );
+        } else {
+            out.writeObject( new JSExpression(json) );
+        }
+    }
+
     @Override
     public String toString() {
         return "[" + StringUtil.extractClass(getClass().getName()) + "{id:" + (ctx!=null?ctx.getClientId():"null") + "}]";
@@ -147,12 +147,9 @@ public class ExtJSPage extends Page implements Serializable {
         jw.writeProperty("version", Application.VERSION);
         jw.endObject();
         out.write(";\n");
-        out.write("WUI.params = ");
-        jw = getJsonContext().makeJsonWriter(out);
-        jw.beginObject();
-        jw.writeProperty("__VIEWSTATE", Application.getStateSerializer().encodeState(uctx));
-        jw.endObject();
-        out.write(";\n");
+        out.write("WUI.params = {__VIEWSTATE:\"");
+        writeViewState(uctx, out);
+        out.write("\"};\n");
     }
 
     /**
@@ -6,6 +6,7 @@ import java.lang.reflect.InvocationTargetException;
 
 import org.echosoft.common.json.JsonWriter;
 import org.echosoft.framework.ui.core.UIComponent;
+import org.echosoft.framework.ui.extjs.AbstractComponent;
 
 /**
  * <p>Данный класс описывает модель менеджера компоновки компонент <code>Ext.layout.ContainerLayout</code>.</p>
@@ -122,13 +123,13 @@ public abstract class Layout implements Serializable {
         if (cnt==1) {
             final UIComponent item = getItems().iterator().next();
             out.writeComplexProperty("items");
-            item.invoke( out );
+            AbstractComponent.invokeItem(item, out);
         } else
         if (cnt>1) {
             out.writeComplexProperty("items");
             out.beginArray();
             for (UIComponent item : getItems()) {
-                item.invoke( out );
+                AbstractComponent.invokeItem(item, out);
             }
             out.endArray();
         }
@@ -486,15 +486,15 @@ public class Panel extends AbstractContainerComponent {
             out.writeProperty("preventBorderReset", true);
         if (tbar != null) {
             out.writeComplexProperty("tbar");
-            tbar.invoke(out);
+            invokeItem(tbar, out);
         }
         if (bbar != null) {
             out.writeComplexProperty("bbar");
-            bbar.invoke(out);
+            invokeItem(bbar, out);
         }
         if (fbar != null) {
             out.writeComplexProperty("fbar");
-            fbar.invoke(out);
+            invokeItem(fbar, out);
         }
         if (tools != null) {
             out.writeComplexProperty("tools");
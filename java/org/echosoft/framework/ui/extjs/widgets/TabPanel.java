@@ -21,6 +21,9 @@ public class TabPanel extends AbstractContainerComponent {
             StringUtil.asUnmodifiableSet(AbstractContainerComponent.EVENTS,
                     "activate", "deactivate", "beforeclose", "close",
                     "beforetabchange", "tabchange", "contextmenu");
+
+    public static final String[] SCRIPTS = {"/pkgs/pkg-tabs.js"};
+
     /**
      * Определяет расположение ярлыков к панелям.
      */
@@ -267,20 +270,22 @@ public class TabPanel extends AbstractContainerComponent {
             out.writeProperty("tabPosition", tabPosition);
         if (tbar != null) {
             out.writeComplexProperty("tbar");
-            tbar.invoke(out);
+            invokeItem(tbar, out);
         }
         if (bbar != null) {
             out.writeComplexProperty("bbar");
-            bbar.invoke(out);
+            invokeItem(bbar, out);
         }
         if (fbar != null) {
             out.writeComplexProperty("fbar");
-            fbar.invoke(out);
+            invokeItem(fbar, out);
         }
 
         final ComponentContext ctx = getContext();
         if (ctx!=null) {
-            ctx.getResources().attachScript(ctx.encodeThemeURL("/pkgs/pkg-tabs.js", false));
+            for (String url : SCRIPTS) {
+                ctx.getResources().attachScript(ctx.encodeThemeURL(url, false));
+            }
         }
     }
 
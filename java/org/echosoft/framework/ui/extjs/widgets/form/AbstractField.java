@@ -20,6 +20,8 @@ public abstract class AbstractField extends AbstractBoxComponent {
             StringUtil.asUnmodifiableSet(AbstractBoxComponent.EVENTS,
                     "blur", "change", "focus", "invalid", "specialKey", "valid");
 
+    public static final String[] SCRIPTS = {"/pkgs/pkg-forms.js", "/ux/form-plugins.js"};
+
     @JsonUseSeriazer(EnumLCJSONSerializer.class)
     public static enum MsgTarget {
         QTIP, TITLE, UNDER, SIDE
@@ -145,6 +147,15 @@ public abstract class AbstractField extends AbstractBoxComponent {
         this.stateful = stateful;
     }
 
+    /**
+     * {@inheritDoc}
+     * Модель поля, сохраняющего свое состояние на сервере, зависит от текущего запроса.
+     */
+    @Override
+    protected boolean isVolatile() {
+        return stateful;
+    }
+
 
     @Override
     protected void renderContent(final JsonWriter out) throws Exception {
@@ -170,8 +181,9 @@ public abstract class AbstractField extends AbstractBoxComponent {
         if (msg != null)
             out.writeProperty("activeError", msg.getSubject());
 
-        ctx.getResources().attachScript(ctx.encodeThemeURL("/pkgs/pkg-forms.js", false));
-        ctx.getResources().attachScript(ctx.encodeThemeURL("/ux/form-plugins.js", false));
+        for (String url : SCRIPTS) {
+            ctx.getResources().attachScript(ctx.encodeThemeURL(url, false));
+        }
     }
 
     @Override
@@ -16,6 +16,8 @@ public class CheckBox extends AbstractField {
     public static final Set<String> EVENTS =
             StringUtil.asUnmodifiableSet(AbstractField.EVENTS, "check");
 
+    public static final String[] SCRIPTS = {"/pkgs/pkg-forms.js", "/ux/form-plugins.js", "/ux/form.js"};
+
     private String name;                    // имя параметра в котором будет на сервер отправлено значение поля.
     private String boxLabel;                // текст расположенный справа от переключателя.
     private boolean tristate;               // поддерживается ли компонентом третье, "неопределенное" состояние.
@@ -129,7 +131,9 @@ public class CheckBox extends AbstractField {
                 out.writeProperty("checked", true);
         }
         final ComponentContext ctx = getContext();
-        ctx.getResources().attachScript(ctx.encodeThemeURL("/ux/form.js", false));
+        for (String url : SCRIPTS) {
+            ctx.getResources().attachScript(ctx.encodeThemeURL(url, false));
+        }
     }
 
     @Override
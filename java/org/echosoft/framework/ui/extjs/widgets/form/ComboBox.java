@@ -24,6 +24,8 @@ public class ComboBox extends AbstractField {
                     "autosize", "keydown", "keypress", "keyup",
                     "beforequery", "beforeselect", "collapse", "expand", "select");
 
+    public static final String[] SCRIPTS = {"/pkgs/pkg-forms.js", "/ux/form-plugins.js", "/pkgs/data-foundation.js", "/pkgs/data-json.js", "/pkgs/data-list-views.js"};
+
     @JsonUseSeriazer(EnumLCJSONSerializer.class)
     public static enum Mode {
         LOCAL, REMOTE
@@ -539,9 +541,9 @@ public class ComboBox extends AbstractField {
             out.writeProperty("listEmptyText", listEmptyText);
 
         final ComponentContext ctx = getContext();
-        ctx.getResources().attachScript(ctx.encodeThemeURL("/pkgs/data-foundation.js", false));
-        ctx.getResources().attachScript(ctx.encodeThemeURL("/pkgs/data-json.js", false));
-        ctx.getResources().attachScript(ctx.encodeThemeURL("/pkgs/data-list-views.js", false));
+        for (String url : SCRIPTS) {
+            ctx.getResources().attachScript(ctx.encodeThemeURL(url, false));
+        }
         if (resizable)
             ctx.getResources().attachScript(ctx.encodeThemeURL("/pkgs/resizable.js", false));
     }
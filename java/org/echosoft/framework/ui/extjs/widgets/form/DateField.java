@@ -16,6 +16,8 @@ public class DateField extends AbstractTextField {
     public static final Set<String> EVENTS =
             StringUtil.asUnmodifiableSet(AbstractTextField.EVENTS, "select");
 
+    public static final String[] SCRIPTS = {"/pkgs/pkg-forms.js", "/ux/form-plugins.js", "/pkgs/pkg-menu.js"};
+
     private Date value;                     // значение в данном поле ввода.
     private Date minValue;                  // минимально допустимая дата.
     private Date maxValue;                  // максимально допустимая дата.
@@ -145,7 +147,9 @@ public class DateField extends AbstractTextField {
             out.writeProperty("disabledDays", disabledDays);
 
         final ComponentContext ctx = getContext();
-        ctx.getResources().attachScript(ctx.encodeThemeURL("/pkgs/pkg-menu.js", false));
+        for (String url : SCRIPTS) {
+            ctx.getResources().attachScript(ctx.encodeThemeURL(url, false));
+        }
     }
 
     @Override
@@ -12,6 +12,8 @@ import org.echosoft.framework.ui.extjs.widgets.Panel;
  */
 public class FieldSet extends Panel {
 
+    public static final String[] SCRIPTS = {"/pkgs/pkg-forms.js", "/ux/form-plugins.js"};
+
     private boolean checkboxToggle;         // возможность сворачивать панель по клику на чекбоксе, расположенному рядом с заголовком.
 
     public FieldSet() {
@@ -50,8 +52,9 @@ public class FieldSet extends Panel {
 
         final ComponentContext ctx = getContext();
         if (ctx!=null) {
-            ctx.getResources().attachScript(ctx.encodeThemeURL("/pkgs/pkg-forms.js", false));
-            ctx.getResources().attachScript(ctx.encodeThemeURL("/ux/form-plugins.js", false));
+            for (String url : SCRIPTS) {
+                ctx.getResources().attachScript(ctx.encodeThemeURL(url, false));
+            }
         }
     }
 
@@ -20,6 +20,8 @@ public class FormPanel extends Panel {
             StringUtil.asUnmodifiableSet(Panel.EVENTS,
                     "clientvalidation", "actioncomplete", "actionfailed", "beforeaction");
 
+    public static final String[] SCRIPTS = {"/pkgs/pkg-forms.js", "/ux/form-plugins.js"};
+
     public static enum Method {
         GET, POST
     }
@@ -347,8 +349,9 @@ public class FormPanel extends Panel {
             out.writeProperty("labelPad", labelPad);
 
         final ComponentContext ctx = getContext();
-        ctx.getResources().attachScript(ctx.encodeThemeURL("/pkgs/pkg-forms.js", false));
-        ctx.getResources().attachScript(ctx.encodeThemeURL("/ux/form-plugins.js", false));
+        for (String url : SCRIPTS) {
+            ctx.getResources().attachScript(ctx.encodeThemeURL(url, false));
+        }
     }
 
     @Override
@@ -0,0 +1,79 @@
+package org.echosoft.framework.ui.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.echosoft.common.json.JsonContext;
+import org.echosoft.common.json.JsonWriter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Anton Sharapov
+ */
+public class ComponentCacheTest {
+
+    private static final JsonContext jctx = new JsonContext();
+
+    @Test
+    public void testCache() throws Exception {
+        final ComponentCache cache = new ComponentCache(1024*1024);
+        final AtomicInteger renders = new AtomicInteger();
+
+        final BaseMockUIContext uctx1 = new BaseMockUIContext();
+        final TestComponent c1 = new TestComponent(new ComponentContext(uctx1).getChild("toolbar"), renders, false);
+        Assert.assertEquals("{id:\"toolbar\",items:[1,2,3]}", cache.render(c1, "1", jctx));
+        Assert.assertEquals(1, uctx1.getResources().getExternalScripts().size());
+
+        final BaseMockUIContext uctx2 = new BaseMockUIContext();
+        final TestComponent c2 = new TestComponent(new ComponentContext(uctx2).getChild("toolbar"), renders, false);
+        Assert.assertEquals("{id:\"toolbar\",items:[1,2,3]}", cache.render(c2, "1", jctx));
+        Assert.assertEquals(1, renders.get());
+        Assert.assertEquals(1, cache.getHits());
+        // ресурсы, подключенные компонентом при рендеринге, подключаются и при использовании закэшированной модели ...
+        Assert.assertEquals(1, uctx2.getResources().getExternalScripts().size());
+
+        cache.render(c2, "2", jctx);
+        Assert.assertEquals(2, renders.get());
+        Assert.assertEquals(2, cache.getCount());
+        cache.invalidate(TestComponent.class);
+        Assert.assertEquals(0, cache.getCount());
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testVolatile() throws Exception {
+        final ComponentCache cache = new ComponentCache(1024*1024);
+        final AtomicInteger renders = new AtomicInteger();
+        for (int i=0; i<3; i++) {
+            final TestComponent c = new TestComponent(new ComponentContext(new BaseMockUIContext()).getChild("form"), renders, true);
+            cache.render(c, "1", jctx);
+        }
+        Assert.assertEquals(3, renders.get());
+        Assert.assertEquals(0, cache.getCount());
+    }
+
+
+    private static final class TestComponent implements UIComponent {
+        private final ComponentContext ctx;
+        private final AtomicInteger renders;
+        private final boolean volatileContent;
+        private TestComponent(final ComponentContext ctx, final AtomicInteger renders, final boolean volatileContent) {
+            this.ctx = ctx;
+            this.renders = renders;
+            this.volatileContent = volatileContent;
+        }
+        public ComponentContext getContext() {
+            return ctx;
+        }
+        public void invoke(final JsonWriter out) throws Exception {
+            renders.incrementAndGet();
+            ctx.getResources().attachScript("/js/toolbar.js");
+            out.beginObject();
+            out.writeProperty("id", ctx.getClientId());
+            out.writeProperty("items", new int[]{1,2,3});
+            if (volatileContent)
+                ComponentCache.markVolatile();
+            out.endObject();
+        }
+    }
+}
@@ -92,5 +92,22 @@ public class MessagesTest {
         Messages.SavePoint sp1 = messages.makeSavePoint();
         sp1.rollback();
         Assert.assertTrue(sp1.isAnnuled());
+        Assert.assertEquals(7, messages.size());
+
+        // сообщения добавляемые после точки сохранения попадают в начало отсортированного набора ...
+        final Messages.SavePoint sp2 = messages.makeSavePoint();
+        messages.addMessage( new Message("", Message.Severity.FATAL, "fatal1") );
+        messages.addMessage( new Message("", Message.Severity.ERROR, "error1") );  // дубликат уже существующего сообщения
+        final Messages.SavePoint sp3 = messages.makeSavePoint();
+        messages.addMessage( new Message("data", Message.Severity.FATAL, "fatal2") );
+        Assert.assertEquals(9, messages.size());
+        sp3.rollback();
+        Assert.assertEquals(8, messages.size());
+        Assert.assertNull(messages.getFirstMessage("data", Message.Severity.FATAL));
+        sp2.rollback();
+        Assert.assertEquals(7, messages.size());
+        Assert.assertNull(messages.getFirstMessage("", Message.Severity.FATAL));
+        Assert.assertNotNull(messages.getFirstMessage("", Message.Severity.ERROR));
+        Assert.assertNotNull(messages.getFirstMessage("data.info", Message.Severity.FATAL));
     }
 }
@@ -0,0 +1,132 @@
+package org.echosoft.framework.ui.core;
+
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.echosoft.common.io.FastStringWriter;
+import org.echosoft.common.json.JsonWriter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Anton Sharapov
+ */
+public class PageCacheTest {
+
+    @Test
+    public void testCache() throws Exception {
+        final PageCache cache = new PageCache(1024*1024, 0);
+        final AtomicInteger renders = new AtomicInteger();
+
+        final BaseMockUIContext uctx1 = new BaseMockUIContext();
+        uctx1.setAttribute("a", "1", Scope.STATE);
+        final String page1 = render(cache, new TestPage(uctx1, renders, null));
+        final BaseMockUIContext uctx2 = new BaseMockUIContext();
+        final String page2 = render(cache, new TestPage(uctx2, renders, null));
+        Assert.assertEquals(1, renders.get());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(1, cache.getCount());
+        Assert.assertEquals("<head/>[" + Application.getStateSerializer().encodeState(uctx1) + "]<body/>", page1);
+        Assert.assertEquals("<head/>[" + Application.getStateSerializer().encodeState(uctx2) + "]<body/>", page2);
+        Assert.assertFalse(page1.equals(page2));
+
+        final BaseMockUIContext uctx3 = new BaseMockUIContext();
+        uctx3.setAttribute("tab", "2", Scope.PARAMS);
+        final TestPage page3 = new TestPage(uctx3, renders, null);
+        page3.setCacheVaryParams("tab");
+        render(cache, page3);
+        Assert.assertEquals(2, renders.get());
+        Assert.assertEquals(2, cache.getCount());
+
+        cache.invalidate(TestPage.class);
+        Assert.assertEquals(0, cache.getCount());
+        Assert.assertEquals(0, cache.getSize());
+        render(cache, new TestPage(new BaseMockUIContext(), renders, null));
+        Assert.assertEquals(3, renders.get());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        final PageCache cache = new PageCache(512, 0);
+        final AtomicInteger renders = new AtomicInteger();
+        for (int i=0; i<10; i++) {
+            final BaseMockUIContext uctx = new BaseMockUIContext();
+            uctx.setAttribute("id", String.valueOf(i), Scope.PARAMS);
+            final TestPage page = new TestPage(uctx, renders, null);
+            page.setCacheVaryParams("id");
+            render(cache, page);
+        }
+        Assert.assertEquals(10, renders.get());
+        Assert.assertTrue(cache.getSize()<=cache.getCapacity());
+        Assert.assertTrue(cache.getEvictions()>0);
+        Assert.assertEquals(10, cache.getCount() + cache.getEvictions());
+    }
+
+    @Test
+    public void testStampede() throws Exception {
+        final PageCache cache = new PageCache(1024*1024, 0);
+        final AtomicInteger renders = new AtomicInteger();
+        final CountDownLatch rendering = new CountDownLatch(1);
+        final Thread[] threads = new Thread[8];
+        final String[] results = new String[threads.length];
+        for (int i=0; i<threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        results[n] = render(cache, new TestPage(new BaseMockUIContext(), renders, rendering));
+                    } catch (Exception e) {
+                        results[n] = e.toString();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        Thread.sleep(200);
+        rendering.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(1, renders.get());
+        for (String result : results) {
+            Assert.assertTrue(result, result.startsWith("<head/>[") && result.endsWith("]<body/>"));
+        }
+    }
+
+
+    private static String render(final PageCache cache, final Page page) throws Exception {
+        final FastStringWriter out = new FastStringWriter(256);
+        cache.invokePage(page, out);
+        return out.toString();
+    }
+
+    private static final class TestPage extends Page {
+        private final AtomicInteger renders;
+        private final CountDownLatch latch;
+        private TestPage(final UIContext uctx, final AtomicInteger renders, final CountDownLatch latch) {
+            super(uctx);
+            this.renders = renders;
+            this.latch = latch;
+            setStatic(true);
+        }
+        @Override
+        public void invokePage(final Writer out) throws Exception {
+            renders.incrementAndGet();
+            if (latch!=null)
+                latch.await();
+            out.write("<head/>[");
+            init(getUIContext(), out);
+            out.write("]<body/>");
+        }
+        public void invoke(final JsonWriter out) throws Exception {
+        }
+        protected void init(final UIContext uctx, final Writer out) throws Exception {
+            writeViewState(uctx, out);
+        }
+        protected String getInitCallbackFunction() {
+            return null;
+        }
+    }
+}
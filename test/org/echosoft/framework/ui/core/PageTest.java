@@ -0,0 +1,131 @@
+package org.echosoft.framework.ui.core;
+
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.echosoft.common.io.FastStringWriter;
+import org.echosoft.common.json.JsonWriter;
+import org.echosoft.framework.ui.core.theme.Theme;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Anton Sharapov
+ */
+public class PageTest {
+
+    @Test
+    public void testDefaultMode() throws Exception {
+        final FastStringWriter out = new FastStringWriter(1024);
+        final TestPage page = new TestPage(new TestUIContext(), out);
+        page.setEarlyFlush(false);
+        page.invokePage(out);
+        final String html = out.toString();
+        // до окончания рендеринга компонент клиенту ничего не отправляется ...
+        Assert.assertEquals("", page.renderedAfter);
+        final String head = html.substring(0, html.indexOf("</head>"));
+        assertContains(head, "/theme/global.css", "/theme/js1.js", "/theme/pkgs/pkg-forms.js", "/early.css", "/late.css", "/late.js", "/theme/js2.js");
+        Assert.assertEquals(1, count(html, "/theme/pkgs/pkg-forms.js"));
+        Assert.assertEquals(1, count(html, "/late.js"));
+    }
+
+    @Test
+    public void testEarlyFlush() throws Exception {
+        final FastStringWriter out = new FastStringWriter(1024);
+        final TestPage page = new TestPage(new TestUIContext(), out);
+        page.setEarlyFlush(true);
+        page.invokePage(out);
+        final String html = out.toString();
+
+        // заголовок со ссылками на заранее известные ресурсы отправлен клиенту до рендеринга компонент ...
+        Assert.assertTrue(page.renderedAfter, page.renderedAfter.endsWith("</head>\n"));
+        assertContains(page.renderedAfter, "/theme/global.css", "/theme/js1.js", "/theme/pkgs/pkg-forms.js", "/early.css");
+        Assert.assertEquals(-1, page.renderedAfter.indexOf("/late"));
+        Assert.assertEquals(-1, page.renderedAfter.indexOf("/theme/js2.js"));
+
+        // ресурсы, подключенные компонентами, выводятся в теле страницы перед кодом ее инициализации ...
+        final String body = html.substring(page.renderedAfter.length());
+        Assert.assertTrue(body, body.startsWith("<body>\n"));
+        final int init = body.indexOf("init();");
+        final int styles = body.indexOf("<style");
+        Assert.assertTrue(body.indexOf("/late.css")>0 && body.indexOf("/late.css")<styles);
+        Assert.assertTrue(body.indexOf("/late.js")>styles && body.indexOf("/late.js")<init);
+        Assert.assertTrue(body.indexOf("/theme/js2.js")>styles && body.indexOf("/theme/js2.js")<init);
+        Assert.assertTrue(body.indexOf("/late.js")<body.indexOf("/theme/js2.js"));
+        // ... не дублируя ресурсы, уже подключенные в заголовке страницы.
+        Assert.assertEquals(1, count(html, "/theme/pkgs/pkg-forms.js"));
+        Assert.assertEquals(1, count(html, "/early.css"));
+        Assert.assertEquals(1, count(html, "/late.js"));
+        Assert.assertEquals(1, count(html, "/late.css"));
+    }
+
+
+    private static void assertContains(final String text, final String... fragments) {
+        for (String fragment : fragments) {
+            Assert.assertTrue(fragment, text.contains(fragment));
+        }
+    }
+
+    private static int count(final String text, final String fragment) {
+        int result = 0;
+        for (int pos=text.indexOf(fragment); pos>=0; pos=text.indexOf(fragment, pos+1)) {
+            result++;
+        }
+        return result;
+    }
+
+    private static final class TestPage extends Page {
+        private final FastStringWriter out;
+        private String renderedAfter;
+        private TestPage(final UIContext uctx, final FastStringWriter out) {
+            super(uctx);
+            this.out = out;
+        }
+        @Override
+        protected void attachResources(final Resources resources) throws Exception {
+            attachThemeScripts(resources, new String[]{"/pkgs/pkg-forms.js"});
+            resources.attachStyleSheet("/early.css");
+        }
+        public void invoke(final JsonWriter jw) throws Exception {
+            renderedAfter = out.toString();
+            final Resources resources = getUIContext().getResources();
+            resources.attachScript("/theme/pkgs/pkg-forms.js");
+            resources.attachStyleSheet("/late.css");
+            resources.attachScript("/late.js");
+        }
+        protected void init(final UIContext uctx, final Writer out) throws Exception {
+            out.write("init();\n");
+        }
+        protected String getInitCallbackFunction() {
+            return "Ext.onReady";
+        }
+    }
+
+    private static final class TestUIContext extends BaseMockUIContext {
+        private final Theme theme = (Theme)Proxy.newProxyInstance(Theme.class.getClassLoader(), new Class[]{Theme.class}, new InvocationHandler() {
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if ("getGlobalStylesheets".equals(method.getName()))
+                    return new String[]{"/global.css"};
+                if ("getGlobalJS1Files".equals(method.getName()))
+                    return new String[]{"/js1.js"};
+                if ("getGlobalJS2Files".equals(method.getName()))
+                    return new String[]{"/js2.js"};
+                return null;
+            }
+        });
+        @Override
+        public Theme getTheme() {
+            return theme;
+        }
+        @Override
+        public String encodeURL(final String url) {
+            return url;
+        }
+        @Override
+        public String encodeThemeURL(final String path, final boolean persistent) {
+            return "/theme" + path;
+        }
+    }
+}
@@ -74,6 +74,37 @@ public class ResourcesTest {
         Assert.assertEquals("invokeA();\n", getScripts(resources).toString());
     }
 
+    @Test
+    public void testNestedRollback() throws IOException {
+        final Resources resources = new Resources();
+        final Collection<Resources.Script> scripts = resources.getExternalScripts();
+        resources.attachScript("/res/a.js");
+        final Resources.SavePoint outer = resources.makeSavePoint();
+        resources.attachStyleSheet("/res/core.css");
+        resources.embedScript("invokeA();");
+        final Resources.SavePoint inner = resources.makeSavePoint();
+        resources.attachScript("/res/b.js");
+        resources.embedScript("invokeB();");
+        Assert.assertEquals(Arrays.asList("/res/a.js", "/res/b.js"), asStrings(scripts));
+        inner.rollback();
+        Assert.assertEquals(Arrays.asList("/res/a.js"), asStrings(scripts));
+        Assert.assertEquals("invokeA();\n", getScripts(resources).toString());
+        resources.attachScript("/res/b.js");        // после отката ресурс может быть подключен повторно
+        Assert.assertEquals(Arrays.asList("/res/a.js", "/res/b.js"), asStrings(scripts));
+        outer.rollback();
+        Assert.assertEquals(1, resources.size());
+        Assert.assertEquals(Arrays.asList("/res/a.js"), asStrings(scripts));
+        Assert.assertTrue(resources.getExternalStyleSheets().isEmpty());
+        Assert.assertTrue(getScripts(resources).length()==0);
+        resources.embedScript("invokeA();");
+        Assert.assertEquals("invokeA();\n", getScripts(resources).toString());
+        try {
+            scripts.clear();
+            Assert.fail("external scripts collection should be read only");
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+
     private static List<String> asStrings(final Collection<? extends Resources.Resource> resources) {
         final ArrayList<String> result = new ArrayList<String>(resources.size());
         for (Resources.Resource res : resources) {
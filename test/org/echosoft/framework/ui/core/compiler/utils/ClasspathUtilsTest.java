@@ -1,9 +1,11 @@
 package org.echosoft.framework.ui.core.compiler.utils;
 
+import java.io.InputStream;
 import java.net.URL;
 import java.util.Set;
 
 import org.echosoft.framework.ui.core.compiler.xml.TagLibrarySet;
+import org.junit.Assert;
 import org.junit.Test;
 
 /**
@@ -24,6 +26,31 @@ public class ClasspathUtilsTest {
         }
     }
 
+    @Test
+    public void testIndex() throws Exception {
+        final ClasspathIndex index1 = ClasspathIndex.build();
+        final ClasspathIndex index2 = ClasspathIndex.build();
+        System.out.println(index1);
+        Assert.assertEquals(index1.getManifests().keySet(), index2.getManifests().keySet());
+        final Set<URL> set = index2.search("META-INF/", ".taglib.xml");
+        Assert.assertEquals(index1.search("META-INF/", ".taglib.xml"), set);
+        for (URL url : set) {
+            final InputStream in = url.openStream();
+            Assert.assertTrue(in.read()>=0);
+            in.close();
+        }
+    }
+
+    @Test
+    public void testSharedIndex() throws Exception {
+        final ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        final ClasspathIndex index = ClasspathIndex.getInstance(cl);
+        Assert.assertSame(index, ClasspathIndex.getInstance(cl));
+        ClasspathIndex.clear();
+        final ClasspathIndex rebuilt = ClasspathIndex.getInstance(cl);
+        Assert.assertNotSame(index, rebuilt);
+        Assert.assertEquals(index.getManifests().keySet(), rebuilt.getManifests().keySet());
+    }
 
     @Test
     public void testTLS() throws Exception {
@@ -9,11 +9,14 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.Principal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.TimeZone;
 
 import org.echosoft.common.collections.ArrayIterator;
 import org.echosoft.common.collections.IteratorEnumeration;
@@ -27,6 +30,30 @@ public class MockHttpServletRequest implements HttpServletRequest {
     private final Map<String,String[]> params = new HashMap<String,String[]>();
     private final Map<String,String[]> headers = new HashMap<String,String[]>();
     private final MockHttpSession session = new MockHttpSession();
+    private String method;
+    private String pathInfo;
+
+    public void setHeader(String name, String value) {
+        if (value!=null) {
+            headers.put(name, new String[]{value});
+        } else
+            headers.remove(name);
+    }
+
+    public void setParameter(String name, String value) {
+        if (value!=null) {
+            params.put(name, new String[]{value});
+        } else
+            params.remove(name);
+    }
+
+    public void setMethod(String method) {
+        this.method = method;
+    }
+
+    public void setPathInfo(String pathInfo) {
+        this.pathInfo = pathInfo;
+    }
 
     @Override
     public HttpSession getSession(boolean create) {
@@ -107,7 +134,16 @@ public class MockHttpServletRequest implements HttpServletRequest {
 
     @Override
     public long getDateHeader(String name) {
-        return -1;
+        final String value = getHeader(name);
+        if (value==null)
+            return -1;
+        final SimpleDateFormat fmt = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        fmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return fmt.parse(value).getTime();
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(value);
+        }
     }
 
 
@@ -123,12 +159,12 @@ public class MockHttpServletRequest implements HttpServletRequest {
 
     @Override
     public String getMethod() {
-        return null;
+        return method;
     }
 
     @Override
     public String getPathInfo() {
-        return null;
+        return pathInfo;
     }
 
     @Override
@@ -3,9 +3,15 @@ package org.echosoft.framework.ui.core.mock;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
 
 import org.echosoft.common.io.FastStringWriter;
 
@@ -16,18 +22,34 @@ public class MockHttpServletResponse implements HttpServletResponse {
 
     private final FastStringWriter out = new FastStringWriter();
     private final PrintWriter writer = new PrintWriter( out );
+    private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    private final Map<String,String> headers = new HashMap<String,String>();
+    private int status = SC_OK;
+    private String contentType;
 
     public FastStringWriter getEnclosingWriter() {
         return out;
     }
 
+    public byte[] getContent() {
+        return content.toByteArray();
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
     @Override
     public void addCookie(Cookie cookie) {
     }
 
     @Override
     public boolean containsHeader(String name) {
-        return false;
+        return headers.containsKey(name);
     }
 
     @Override
@@ -54,10 +76,12 @@ public class MockHttpServletResponse implements HttpServletResponse {
 
     @Override
     public void sendError(int sc, String msg) throws IOException {
+        status = sc;
     }
 
     @Override
     public void sendError(int sc) throws IOException {
+        status = sc;
     }
 
     @Override
@@ -66,35 +90,45 @@ public class MockHttpServletResponse implements HttpServletResponse {
 
     @Override
     public void setDateHeader(String name, long date) {
+        final SimpleDateFormat fmt = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        fmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+        headers.put(name, fmt.format(new Date(date)));
     }
 
     @Override
     public void addDateHeader(String name, long date) {
+        setDateHeader(name, date);
     }
 
     @Override
     public void setHeader(String name, String value) {
+        headers.put(name, value);
     }
 
     @Override
     public void addHeader(String name, String value) {
+        headers.put(name, value);
     }
 
     @Override
     public void setIntHeader(String name, int value) {
+        headers.put(name, Integer.toString(value));
     }
 
     @Override
     public void addIntHeader(String name, int value) {
+        headers.put(name, Integer.toString(value));
     }
 
     @Override
     public void setStatus(int sc) {
+        status = sc;
     }
 
     @Override
     @Deprecated
     public void setStatus(int sc, String sm) {
+        status = sc;
     }
 
     @Override
@@ -104,12 +138,16 @@ public class MockHttpServletResponse implements HttpServletResponse {
 
     @Override
     public String getContentType() {
-        return null;
+        return contentType;
     }
 
     @Override
     public ServletOutputStream getOutputStream() throws IOException {
-        return null;
+        return new ServletOutputStream() {
+            public void write(int b) {
+                content.write(b);
+            }
+        };
     }
 
     @Override
@@ -123,10 +161,12 @@ public class MockHttpServletResponse implements HttpServletResponse {
 
     @Override
     public void setContentLength(int len) {
+        headers.put("Content-Length", Integer.toString(len));
     }
 
     @Override
     public void setContentType(String type) {
+        contentType = type;
     }
 
     @Override
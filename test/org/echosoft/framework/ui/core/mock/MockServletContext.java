@@ -78,12 +78,13 @@ public class MockServletContext implements ServletContext {
 
     @Override
     public String getRealPath(String path) {
-        return null;  //To change body of implemented methods use File | Settings | File Templates.
+        return rootDir!=null ? new File(rootDir, path).getPath() : null;
     }
 
     @Override
     public URL getResource(String path) throws MalformedURLException {
-        return null;
+        final File file = rootDir!=null ? new File(rootDir, path) : null;
+        return file!=null && file.isFile() ? file.toURI().toURL() : null;
     }
 
     @Override
@@ -0,0 +1,234 @@
+package org.echosoft.framework.ui.core.spi;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.echosoft.framework.ui.core.BaseMockUIContext;
+import org.echosoft.framework.ui.core.StateHolder;
+import org.echosoft.framework.ui.core.ViewStateDescriptor;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Anton Sharapov
+ */
+public class BinaryStateSerializerTest {
+
+    private static final BinaryStateSerializer serializer = new BinaryStateSerializer();
+
+    @Test
+    public void testEmptyStates() throws Exception {
+        final StateHolder states1 = new StateHolder();
+        final StateHolder states2 = roundTrip(states1);
+        Assert.assertTrue(states2.getViewStates().isEmpty());
+        Assert.assertNull(states2.getCurrentDescriptor());
+    }
+
+    @Test
+    public void testValueTypes() throws Exception {
+        final StateHolder states1 = new StateHolder();
+        final ViewStateDescriptor desc = new ViewStateDescriptor("mypkg", "view1", -5);
+        final Map<String,Object> state = states1.ensureStateExists(desc);
+        state.put("null", null);
+        state.put("string", "строка 😀 string");
+        state.put("empty", "");
+        state.put("true", true);
+        state.put("false", false);
+        state.put("int", Integer.MIN_VALUE);
+        state.put("long", Long.MAX_VALUE);
+        state.put("short", (short)-300);
+        state.put("byte", (byte)-1);
+        state.put("double", -1.5e300);
+        state.put("float", Float.NaN);
+        state.put("char", 'Я');
+        state.put("date", new Date(1234567890123L));
+        state.put("decimal", new BigDecimal("-12345678901234567890.0123456789"));
+        state.put("locale", new Locale("ru", "RU"));
+        final ArrayList<Object> list = new ArrayList<Object>();
+        list.add("a");
+        list.add(1);
+        list.add(null);
+        state.put("list", list);
+        final HashMap<Object,Object> map = new HashMap<Object,Object>();
+        map.put("k1", "v1");
+        map.put(2, list);
+        state.put("map", map);
+        states1.setCurrentDescriptor(desc);
+
+        final StateHolder states2 = roundTrip(states1);
+        Assert.assertEquals(states1, states2);
+        Assert.assertEquals(desc, states2.getCurrentDescriptor());
+    }
+
+    @Test
+    public void testStringArrays() throws Exception {
+        final StateHolder states1 = new StateHolder();
+        final ViewStateDescriptor desc = new ViewStateDescriptor("mypkg", "view1", 0);
+        final String[] values = {"v1", null, "", "v1", "v2"};
+        states1.ensureStateExists(desc).put("form.checks.value", values);
+        states1.ensureStateExists(desc).put("form.empty.value", new String[0]);
+        final StateHolder states2 = roundTrip(states1);
+        Assert.assertTrue(Arrays.equals(values, (String[])states2.getViewState(desc).get("form.checks.value")));
+        Assert.assertEquals(0, ((String[])states2.getViewState(desc).get("form.empty.value")).length);
+    }
+
+    @Test
+    public void testManyStates() throws Exception {
+        final StateHolder states1 = makeLargeStates(5, 40);
+        final ViewStateDescriptor current = new ViewStateDescriptor("/pkg", "other", 7);
+        states1.setCurrentDescriptor(current);
+        states1.clean(CleanStrategies.NONE);     // пустое состояние текущей страницы удаляется из менеджера
+        Assert.assertEquals(5, states1.getViewStates().size());
+        final StateHolder states2 = roundTrip(states1);
+        Assert.assertEquals(current, states2.getCurrentDescriptor());
+        for (ViewStateDescriptor desc : states1.getViewStates()) {
+            Assert.assertEquals(states1.getViewState(desc), states2.getViewState(desc));
+        }
+    }
+
+    @Test
+    public void testCorruptedData() throws Exception {
+        final byte[] data = BinaryStateSerializer.encode(makeLargeStates(2, 50));
+        for (int length : new int[]{0, 1, data.length/2, data.length-1}) {
+            try {
+                BinaryStateSerializer.decode(Arrays.copyOf(data, length), new StateHolder());
+                Assert.fail("Truncated state must not be decoded: "+length);
+            } catch (java.io.IOException e) {
+                // ожидаемое исключение
+            }
+        }
+    }
+
+    @Test
+    public void testNestingDepth() throws Exception {
+        final StateHolder states = new StateHolder();
+        final ViewStateDescriptor desc = new ViewStateDescriptor("/pkg", "view", 0);
+        states.ensureStateExists(desc).put("k", makeNestedList(32));
+        final byte[] data = BinaryStateSerializer.encode(states);
+        final StateHolder decoded = new StateHolder();
+        BinaryStateSerializer.decode(data, decoded);
+        Assert.assertEquals(states.getViewState(desc), decoded.getViewState(desc));
+
+        states.ensureStateExists(desc).put("k", makeNestedList(33));
+        try {
+            BinaryStateSerializer.encode(states);
+            Assert.fail("Too deeply nested values must not be encoded");
+        } catch (java.io.NotSerializableException e) {
+            // ожидаемое исключение
+        }
+
+        // вставляем в закодированные данные дополнительные уровни вложенности списков ...
+        int pos = 0;
+        while (data[pos]!=14 || data[pos+1]!=1) pos++;
+        final byte[] levels = new byte[2000];
+        for (int i=0; i<levels.length; i+=2) {
+            levels[i] = 14;
+            levels[i+1] = 1;
+        }
+        final byte[] corrupted = new byte[data.length+levels.length];
+        System.arraycopy(data, 0, corrupted, 0, pos);
+        System.arraycopy(levels, 0, corrupted, pos, levels.length);
+        System.arraycopy(data, pos, corrupted, pos+levels.length, data.length-pos);
+        try {
+            BinaryStateSerializer.decode(corrupted, new StateHolder());
+            Assert.fail("Too deeply nested values must not be decoded");
+        } catch (java.io.StreamCorruptedException e) {
+            // ожидаемое исключение
+        }
+    }
+
+    @Test
+    public void testOversizedLength() throws Exception {
+        final StateHolder states = new StateHolder();
+        final ViewStateDescriptor desc = new ViewStateDescriptor("/pkg", "view", 0);
+        states.ensureStateExists(desc).put("k", makeNestedList(1));
+        final byte[] data = BinaryStateSerializer.encode(states);
+        int pos = 0;
+        while (data[pos]!=14 || data[pos+1]!=1) pos++;
+
+        // объявленный размер списка не превышает объем всех данных, но превышает объем еще не прочитанных данных ...
+        final byte[] corrupted = data.clone();
+        corrupted[pos+1] = (byte)(data.length-pos-1);
+        assertIllegalLength(corrupted);
+
+        // объявленный размер списка (2^24 элементов) многократно превышает объем данных ...
+        final byte[] oversized = new byte[data.length+3];
+        System.arraycopy(data, 0, oversized, 0, pos+1);
+        oversized[pos+1] = (byte)0x80;
+        oversized[pos+2] = (byte)0x80;
+        oversized[pos+3] = (byte)0x80;
+        oversized[pos+4] = (byte)0x08;
+        System.arraycopy(data, pos+2, oversized, pos+5, data.length-pos-2);
+        assertIllegalLength(oversized);
+    }
+
+    @Test
+    public void testBenchmark() throws Exception {
+        final GZIPStateSerializer gzip = new GZIPStateSerializer();
+        final StateHolder states = makeLargeStates(3, 100);
+        final String s1 = gzip.encodeState(new BaseMockUIContext(states));
+        final String s2 = serializer.encodeState(new BaseMockUIContext(states));
+        System.out.println("encoded size: gzip="+s1.length()+" chars, binary="+s2.length()+" chars");
+        final int iterations = 300;
+        for (int pass=0; pass<3; pass++) {
+            long started = System.nanoTime();
+            for (int i=0; i<iterations; i++) {
+                gzip.decodeState(new BaseMockUIContext(new StateHolder()), gzip.encodeState(new BaseMockUIContext(states)));
+            }
+            final long t1 = System.nanoTime() - started;
+            started = System.nanoTime();
+            for (int i=0; i<iterations; i++) {
+                serializer.decodeState(new BaseMockUIContext(new StateHolder()), serializer.encodeState(new BaseMockUIContext(states)));
+            }
+            final long t2 = System.nanoTime() - started;
+            System.out.println("pass "+pass+": encode+decode gzip="+(t1/iterations/1000)+" us/op, binary="+(t2/iterations/1000)+" us/op");
+        }
+    }
+
+
+    private static StateHolder roundTrip(final StateHolder states) throws Exception {
+        final String encoded = serializer.encodeState(new BaseMockUIContext(states));
+        final StateHolder result = new StateHolder();
+        serializer.decodeState(new BaseMockUIContext(result), encoded);
+        return result;
+    }
+
+    private static ArrayList<Object> makeNestedList(final int depth) {
+        final ArrayList<Object> result = new ArrayList<Object>();
+        result.add(depth>1 ? makeNestedList(depth-1) : null);
+        return result;
+    }
+
+    private static void assertIllegalLength(final byte[] data) throws Exception {
+        try {
+            BinaryStateSerializer.decode(data, new StateHolder());
+            Assert.fail("Declared length exceeds the remaining data");
+        } catch (java.io.StreamCorruptedException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Illegal length"));
+        }
+    }
+
+    private static StateHolder makeLargeStates(final int views, final int fields) {
+        final StateHolder states = new StateHolder();
+        for (int v=0; v<views; v++) {
+            final ViewStateDescriptor desc = new ViewStateDescriptor("/pkg", "view"+v, v);
+            final Map<String,Object> state = states.ensureStateExists(desc);
+            for (int f=0; f<fields; f++) {
+                final String prefix = "form"+v+".panel"+(f%4)+".field"+f;
+                switch (f%4) {
+                    case 0 : state.put(prefix+".value", "value "+f); break;
+                    case 1 : state.put(prefix+".from", Integer.toString(f*1000)); state.put(prefix+".to", Integer.toString(f*2000)); break;
+                    case 2 : state.put(prefix+".value", "true"); break;
+                    default: state.put(prefix+".value", "2010-10-"+(10+f%20));
+                }
+            }
+            states.setCurrentDescriptor(desc);
+        }
+        return states;
+    }
+}
@@ -0,0 +1,162 @@
+package org.echosoft.framework.ui.core.spi;
+
+import java.util.Map;
+
+import org.echosoft.common.utils.Base64Util;
+import org.echosoft.framework.ui.core.BaseMockUIContext;
+import org.echosoft.framework.ui.core.Scope;
+import org.echosoft.framework.ui.core.StateHolder;
+import org.echosoft.framework.ui.core.UIContext;
+import org.echosoft.framework.ui.core.ViewStateDescriptor;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Anton Sharapov
+ */
+public class DeltaStateSerializerTest {
+
+    @Test
+    public void testPostbacks() throws Exception {
+        final DeltaStateSerializer serializer = new DeltaStateSerializer();
+        final StateHolder states = makeStates(5, 40);
+        final UIContext first = new BaseMockUIContext(states);
+        final String key1 = serializer.encodeState(first);
+        Assert.assertEquals('F', key1.charAt(0));
+        Assert.assertEquals(1, serializer.getStatesCount());
+
+        String key = key1;
+        for (int i=0; i<3; i++) {
+            final StateHolder restored = new StateHolder();
+            final UIContext ctx = withSession(new BaseMockUIContext(restored), first);
+            serializer.decodeState(ctx, key);
+            assertEquals(states, restored);
+            // изменяем одно значение, удаляем другое и добавляем новое ...
+            final Map<String,Object> state = restored.getViewState(new ViewStateDescriptor("mypkg", "view0", 1));
+            state.put("form.field1.value", "changed "+i);
+            state.remove("form.field"+(i+2)+".value");
+            state.put("form.array"+i+".value", new String[]{"a", String.valueOf(i), null});
+            key = serializer.encodeState(ctx);
+            Assert.assertEquals('D', key.charAt(0));
+            System.out.println("full: "+key1.length()+", delta: "+key.length());
+            Assert.assertTrue(key.length() < key1.length());
+            copy(restored, states);
+        }
+        Assert.assertEquals(1, serializer.getStatesCount());
+
+        // удаление страниц и смена текущей страницы ...
+        final StateHolder restored = new StateHolder();
+        final UIContext ctx = withSession(new BaseMockUIContext(restored), first);
+        serializer.decodeState(ctx, key);
+        restored.getViewStates().remove(new ViewStateDescriptor("mypkg", "view4", 1));
+        restored.setCurrentDescriptor(new ViewStateDescriptor("mypkg", "view2", 1));
+        key = serializer.encodeState(ctx);
+        Assert.assertEquals('D', key.charAt(0));
+        final StateHolder result = new StateHolder();
+        serializer.decodeState(withSession(new BaseMockUIContext(result), first), key);
+        assertEquals(restored, result);
+        Assert.assertEquals(4, result.getViewStates().size());
+        Assert.assertEquals(restored.getCurrentDescriptor(), result.getCurrentDescriptor());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        final DeltaStateSerializer serializer = new DeltaStateSerializer(2, 1024*1024, 0.5f);
+        final StateHolder states = makeStates(2, 20);
+        final UIContext first = new BaseMockUIContext(states);
+        final String key = serializer.encodeState(first);
+        final StateHolder restored = new StateHolder();
+        final UIContext ctx = withSession(new BaseMockUIContext(restored), first);
+        serializer.decodeState(ctx, key);
+        serializer.encodeState(new BaseMockUIContext(makeStates(3, 20)));
+        serializer.encodeState(new BaseMockUIContext(makeStates(4, 20)));
+        Assert.assertEquals(2, serializer.getStatesCount());
+
+        // базовая версия вытеснена из хранилища: отправляем клиенту полную версию состояний ...
+        restored.getCurrentState().put("form.field1.value", "changed");
+        final String key2 = serializer.encodeState(ctx);
+        Assert.assertEquals('F', key2.charAt(0));
+        final StateHolder result = new StateHolder();
+        final UIContext ctx2 = withSession(new BaseMockUIContext(result), first);
+        serializer.decodeState(ctx2, key2);
+        assertEquals(restored, result);
+
+        // отличия от вытесненной версии восстановить невозможно ...
+        result.getCurrentState().put("form.field2.value", "changed");
+        final String key3 = serializer.encodeState(ctx2);
+        Assert.assertEquals('D', key3.charAt(0));
+        serializer.encodeState(new BaseMockUIContext(makeStates(5, 20)));
+        serializer.encodeState(new BaseMockUIContext(makeStates(6, 20)));
+        final StateHolder lost = new StateHolder();
+        serializer.decodeState(withSession(new BaseMockUIContext(lost), first), key3);
+        Assert.assertTrue(lost.getViewStates().isEmpty());
+    }
+
+    @Test
+    public void testSessions() throws Exception {
+        final DeltaStateSerializer serializer = new DeltaStateSerializer();
+        final UIContext first = new BaseMockUIContext(makeStates(3, 20));
+        final String key1 = serializer.encodeState(first);
+        final StateHolder restored = new StateHolder();
+        final UIContext ctx = withSession(new BaseMockUIContext(restored), first);
+        serializer.decodeState(ctx, key1);
+        restored.getCurrentState().put("form.field1.value", "changed");
+        final String key2 = serializer.encodeState(ctx);
+        Assert.assertEquals('D', key2.charAt(0));
+
+        // отличия не могут быть применены вне сессии, в которой была создана базовая версия ...
+        final StateHolder foreign = new StateHolder();
+        serializer.decodeState(new BaseMockUIContext(foreign), key2);
+        Assert.assertTrue(foreign.getViewStates().isEmpty());
+        final UIContext other = new BaseMockUIContext(makeStates(1, 1));
+        serializer.encodeState(other);
+        serializer.decodeState(withSession(new BaseMockUIContext(foreign), other), key2);
+        Assert.assertTrue(foreign.getViewStates().isEmpty());
+        Assert.assertEquals(2, serializer.getStatesCount());
+
+        // присланная клиентом полная версия состояний не помещается в хранилище и не становится базовой ...
+        final String forged = "F" + Base64Util.encode(BinaryStateSerializer.encode(makeStates(4, 20)));
+        final StateHolder states = new StateHolder();
+        final UIContext ctx2 = withSession(new BaseMockUIContext(states), first);
+        serializer.decodeState(ctx2, forged);
+        Assert.assertEquals(4, states.getViewStates().size());
+        Assert.assertNull(ctx2.getAttribute(DeltaStateSerializer.BASE_ATTR, Scope.REQUEST));
+        Assert.assertEquals(2, serializer.getStatesCount());
+        Assert.assertEquals('F', serializer.encodeState(ctx2).charAt(0));
+        Assert.assertEquals(3, serializer.getStatesCount());
+
+        // при завершении сессии ее базовые версии удаляются из хранилища ...
+        final DeltaStateSerializer.Owner owner = first.getAttribute(DeltaStateSerializer.SESSION_ATTR, Scope.SESSION);
+        owner.valueUnbound(null);
+        Assert.assertEquals(1, serializer.getStatesCount());
+    }
+
+
+    private static StateHolder makeStates(final int views, final int fields) {
+        final StateHolder states = new StateHolder();
+        for (int v=0; v<views; v++) {
+            final ViewStateDescriptor desc = new ViewStateDescriptor("mypkg", "view"+v, 1);
+            final Map<String,Object> state = states.ensureStateExists(desc);
+            for (int i=0; i<fields; i++) {
+                state.put("form.field"+i+".value", "value "+v+"/"+i);
+            }
+            states.setCurrentDescriptor(desc);
+        }
+        return states;
+    }
+
+    private static UIContext withSession(final UIContext ctx, final UIContext source) {
+        ctx.getAttributesMap(Scope.SESSION).putAll( source.getAttributesMap(Scope.SESSION) );
+        return ctx;
+    }
+
+    private static void assertEquals(final StateHolder expected, final StateHolder actual) throws Exception {
+        // значения типа String[] не сравниваются методом equals, поэтому сравниваем закодированные состояния ...
+        Assert.assertArrayEquals(BinaryStateSerializer.encode(expected), BinaryStateSerializer.encode(actual));
+    }
+
+    private static void copy(final StateHolder src, final StateHolder dst) throws Exception {
+        dst.clean(CleanStrategies.ALL);
+        BinaryStateSerializer.decode(BinaryStateSerializer.encode(src), dst);
+    }
+}
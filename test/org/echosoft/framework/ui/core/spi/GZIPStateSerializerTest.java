@@ -1,7 +1,17 @@
 package org.echosoft.framework.ui.core.spi;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StringWriter;
 import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+import org.echosoft.common.utils.Base64Util;
 import org.echosoft.framework.ui.core.BaseMockUIContext;
 import org.echosoft.framework.ui.core.StateHolder;
 import org.echosoft.framework.ui.core.ViewStateDescriptor;
@@ -60,5 +70,75 @@ public class GZIPStateSerializerTest {
         System.out.println(states2);
     }
 
+    @Test
+    public void testCompatibility() throws Exception {
+        final StateHolder states1 = makeStates(50);
+        final String key = serializer.encodeState(new BaseMockUIContext(states1));
+        // ключ должен читаться стандартными средствами ...
+        final ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new ByteArrayInputStream(Base64Util.decode(key))));
+        Assert.assertEquals(states1.getViewStates().size(), in.readInt());
+        in.close();
+        // и наоборот, должны читаться ключи, построенные стандартными средствами ...
+        final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(bout));
+        out.writeInt(1);
+        final ViewStateDescriptor desc = new ViewStateDescriptor("mypkg", "view1", 1);
+        out.writeObject(desc);
+        out.writeObject(states1.getViewState(desc));
+        out.writeObject(desc);
+        out.close();
+        final StateHolder states2 = new StateHolder();
+        serializer.decodeState(new BaseMockUIContext(states2), Base64Util.encode(bout.toByteArray()));
+        Assert.assertEquals(states1.getViewState(desc), states2.getViewState(desc));
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        for (int level : new int[]{Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION}) {
+            final GZIPStateSerializer s = new GZIPStateSerializer(level);
+            for (int size=0; size<40; size++) {
+                final StateHolder states1 = makeStates(size);
+                final String key = s.encodeState(new BaseMockUIContext(states1));
+                final StringWriter out = new StringWriter();
+                s.encodeState(new BaseMockUIContext(states1), out);
+                Assert.assertEquals(key, out.toString());
+                final StateHolder states2 = new StateHolder();
+                s.decodeState(new BaseMockUIContext(states2), key);
+                Assert.assertEquals(states1, states2);
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptedState() throws Exception {
+        final String key = serializer.encodeState(new BaseMockUIContext(makeStates(10)));
+        // изменение контрольной суммы в трейлере ...
+        final char[] chars = key.toCharArray();
+        final int pos = key.lastIndexOf('=')>0 ? key.indexOf('=') - 8 : key.length() - 8;
+        chars[pos] = chars[pos]=='A' ? 'B' : 'A';
+        try {
+            serializer.decodeState(new BaseMockUIContext(new StateHolder()), new String(chars));
+            Assert.fail();
+        } catch (IOException e) {
+            // ожидаемый результат
+        }
+        try {
+            serializer.decodeState(new BaseMockUIContext(new StateHolder()), key.substring(0, key.length()/2));
+            Assert.fail();
+        } catch (IOException e) {
+            // ожидаемый результат
+        }
+    }
+
 
+    private static StateHolder makeStates(final int size) {
+        final StateHolder states = new StateHolder();
+        final ViewStateDescriptor desc = new ViewStateDescriptor("mypkg", "view1", 1);
+        final Map<String,Object> state = states.ensureStateExists(desc);
+        for (int i=0; i<size; i++) {
+            state.put("form.field"+i+".value", "value "+i);
+        }
+        states.setCurrentDescriptor(desc);
+        return states;
+    }
 }
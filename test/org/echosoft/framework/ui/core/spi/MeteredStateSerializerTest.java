@@ -0,0 +1,146 @@
+package org.echosoft.framework.ui.core.spi;
+
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import javax.management.ObjectName;
+
+import org.echosoft.framework.ui.core.BaseMockUIContext;
+import org.echosoft.framework.ui.core.StateHolder;
+import org.echosoft.framework.ui.core.UIContext;
+import org.echosoft.framework.ui.core.ViewStateDescriptor;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Anton Sharapov
+ */
+public class MeteredStateSerializerTest {
+
+    @Test
+    public void testStatistics() throws Exception {
+        final StateStatistics stats = new StateStatistics(3, 1);
+        final MeteredStateSerializer serializer = new MeteredStateSerializer(new GZIPStateSerializer(), stats);
+        final StateHolder states = makeStates();
+        final String key = serializer.encodeState(new BaseMockUIContext(states));
+        final StringWriter out = new StringWriter();
+        serializer.encodeState(new BaseMockUIContext(states), out);
+        Assert.assertEquals(key, out.toString());
+        serializer.decodeState(new BaseMockUIContext(new StateHolder()), key);
+        Assert.assertEquals(2, stats.getEncodedCount());
+        Assert.assertEquals(1, stats.getDecodedCount());
+        Assert.assertEquals(1, stats.getViews().length);
+        Assert.assertTrue(stats.getViews()[0], stats.getViews()[0].startsWith("mypkg#view2 size{count:2, mean:"+key.length()+","));
+        final String[] keys = stats.getLargestKeys();
+        Assert.assertEquals(3, keys.length);
+        Assert.assertTrue(keys[0], keys[0].startsWith("mypkg#view1 : big "));
+        System.out.println(stats.getReport());
+
+        stats.register(null);
+        try {
+            final Object count = ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(StateStatistics.DEFAULT_OBJECT_NAME), "EncodedCount");
+            Assert.assertEquals(2L, count);
+        } finally {
+            stats.unregister();
+        }
+        stats.reset();
+        Assert.assertEquals(0, stats.getViews().length);
+    }
+
+    @Test
+    public void testViewsLimit() throws Exception {
+        final StateStatistics stats = new StateStatistics();
+        final StateHolder states = new StateHolder();
+        // страницы из присланных клиентом состояний не учитываются ...
+        for (int i=0; i<10; i++) {
+            states.setCurrentDescriptor(new ViewStateDescriptor("client", "view"+i, 0));
+            stats.stateDecoded(states, 10, 1000);
+        }
+        Assert.assertEquals(10, stats.getDecodedCount());
+        Assert.assertEquals(0, stats.getViews().length);
+        for (int i=0; i<StateStatistics.MAX_VIEWS+10; i++) {
+            states.setCurrentDescriptor(new ViewStateDescriptor("server", "view"+i, 0));
+            stats.stateEncoded(states, 10, 1000);
+        }
+        Assert.assertEquals(StateStatistics.MAX_VIEWS+1, stats.getViews().length);
+    }
+
+    @Test
+    public void testSizeBudget() throws Exception {
+        final StateStatistics stats = new StateStatistics();
+        final StateHolder states = makeStates();
+        final int fullSize = new GZIPStateSerializer().encodeState(new BaseMockUIContext(states)).length();
+        final MeteredStateSerializer serializer = new MeteredStateSerializer(new GZIPStateSerializer(), stats, fullSize-1, CleanStrategies.CURRENT);
+        final String key = serializer.encodeState(new BaseMockUIContext(states));
+        Assert.assertTrue(key.length() < fullSize);
+        final StateHolder result = new StateHolder();
+        serializer.decodeState(new BaseMockUIContext(result), key);
+        Assert.assertEquals(1, result.getViewStates().size());
+        Assert.assertEquals("value", result.getCurrentState().get("small"));
+    }
+
+    @Test
+    public void testPlainSerializer() throws Exception {
+        // сериализатор, не поддерживающий запись ключа непосредственно в поток ...
+        final StateSerializer plain = new StateSerializer() {
+            public String encodeState(final UIContext uctx) throws Exception {
+                return "key"+uctx.getStates().getViewStates().size();
+            }
+            public void decodeState(final UIContext uctx, final String encodedState) throws Exception {
+            }
+        };
+        final StateStatistics stats = new StateStatistics();
+        final MeteredStateSerializer serializer = new MeteredStateSerializer(plain, stats);
+        final StringWriter out = new StringWriter();
+        serializer.encodeState(new BaseMockUIContext(makeStates()), out);
+        Assert.assertEquals("key2", out.toString());
+        Assert.assertEquals(1, stats.getEncodedCount());
+        final StringWriter out2 = new StringWriter();
+        StreamingStateSerializer.writeState(plain, new BaseMockUIContext(makeStates()), out2);
+        Assert.assertEquals("key2", out2.toString());
+    }
+
+    @Test
+    public void testUnsafeKey() throws Exception {
+        // ключи сериализаторов, не поддерживающих запись в поток, экранируются ...
+        final String key = "a\"b\\c'</script>&\n";
+        final String escaped = "a\\\"b\\\\c\\u0027\\u003C/script\\u003E\\u0026\\u000A";
+        final StateSerializer plain = new StateSerializer() {
+            public String encodeState(final UIContext uctx) throws Exception {
+                return key;
+            }
+            public void decodeState(final UIContext uctx, final String encodedState) throws Exception {
+            }
+        };
+        final StringWriter out = new StringWriter();
+        StreamingStateSerializer.writeState(plain, new BaseMockUIContext(makeStates()), out);
+        Assert.assertEquals(escaped, out.toString());
+
+        final StringWriter out2 = new StringWriter();
+        new MeteredStateSerializer(plain, new StateStatistics()).encodeState(new BaseMockUIContext(makeStates()), out2);
+        Assert.assertEquals(escaped, out2.toString());
+
+        final MeteredStateSerializer limited = new MeteredStateSerializer(plain, new StateStatistics(), 10, CleanStrategies.CURRENT);
+        Assert.assertEquals(key, limited.encodeState(new BaseMockUIContext(makeStates())));
+        final StringWriter out3 = new StringWriter();
+        limited.encodeState(new BaseMockUIContext(makeStates()), out3);
+        Assert.assertEquals(escaped, out3.toString());
+    }
+
+
+    private static StateHolder makeStates() {
+        final StateHolder states = new StateHolder();
+        final Map<String,Object> state1 = states.ensureStateExists(new ViewStateDescriptor("mypkg", "view1", 1));
+        for (int i=0; i<5; i++) {
+            final StringBuilder buf = new StringBuilder();
+            for (int j=0; j<100*(i+1); j++) {
+                buf.append((char)('a' + (j*7+i) % 26));
+            }
+            state1.put("big "+i, buf.toString());
+        }
+        final ViewStateDescriptor desc = new ViewStateDescriptor("mypkg", "view2", 2);
+        states.ensureStateExists(desc).put("small", "value");
+        states.setCurrentDescriptor(desc);
+        return states;
+    }
+}
@@ -0,0 +1,105 @@
+package org.echosoft.framework.ui.core.spi;
+
+import java.io.File;
+import java.util.Map;
+
+import org.echosoft.framework.ui.core.BaseMockUIContext;
+import org.echosoft.framework.ui.core.Scope;
+import org.echosoft.framework.ui.core.StateHolder;
+import org.echosoft.framework.ui.core.UIContext;
+import org.echosoft.framework.ui.core.ViewStateDescriptor;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Anton Sharapov
+ */
+public class ServerStateSerializerTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final ServerStateSerializer serializer = new ServerStateSerializer();
+        final StateHolder states1 = makeStates("view1", "value1");
+        final UIContext ctx1 = new BaseMockUIContext(states1);
+        final String key = serializer.encodeState(ctx1);
+        Assert.assertEquals(24, key.length());
+        Assert.assertEquals(1, serializer.getStatesCount());
+
+        final StateHolder states2 = new StateHolder();
+        serializer.decodeState(withSession(new BaseMockUIContext(states2), ctx1), key);
+        Assert.assertEquals(states1, states2);
+
+        // другая сессия не должна иметь доступа к сохраненным состояниям ...
+        final StateHolder states3 = new StateHolder();
+        serializer.decodeState(new BaseMockUIContext(states3), key);
+        Assert.assertTrue(states3.getViewStates().isEmpty());
+        serializer.decodeState(withSession(new BaseMockUIContext(states3), ctx1), "unknown");
+        Assert.assertTrue(states3.getViewStates().isEmpty());
+    }
+
+    @Test
+    public void testSessionLimit() throws Exception {
+        final ServerStateSerializer serializer = new ServerStateSerializer(new GZIPStateSerializer(), 100, 1024*1024, 60000, 2, null);
+        final UIContext ctx = new BaseMockUIContext(makeStates("view1", "value1"));
+        final String key1 = serializer.encodeState(ctx);
+        final String key2 = serializer.encodeState(ctx);
+        final String key3 = serializer.encodeState(ctx);
+        Assert.assertEquals(2, serializer.getStatesCount());
+        Assert.assertFalse(restore(serializer, ctx, key1));
+        Assert.assertTrue(restore(serializer, ctx, key2));
+        Assert.assertTrue(restore(serializer, ctx, key3));
+
+        final ServerStateSerializer.Owner owner = ctx.getAttribute(ServerStateSerializer.SESSION_ATTR, Scope.SESSION);
+        owner.valueUnbound(null);
+        Assert.assertEquals(0, serializer.getStatesCount());
+        Assert.assertFalse(restore(serializer, ctx, key3));
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        final File dir = File.createTempFile("webui-states", "");
+        dir.delete();
+        try {
+            final ServerStateSerializer serializer = new ServerStateSerializer(new GZIPStateSerializer(), 1, 1024*1024, 60000, 10, dir);
+            final UIContext ctx = new BaseMockUIContext(makeStates("view1", "value1"));
+            final String key1 = serializer.encodeState(ctx);
+            final String key2 = serializer.encodeState(new BaseMockUIContext(makeStates("view2", "value2")));
+            final String key3 = serializer.encodeState(withSession(new BaseMockUIContext(makeStates("view3", "value3")), ctx));
+            Assert.assertEquals(1, serializer.getStatesCount());
+            Assert.assertEquals(2, dir.listFiles().length);
+            final StateHolder states = new StateHolder();
+            serializer.decodeState(withSession(new BaseMockUIContext(states), ctx), key1);
+            Assert.assertEquals(makeStates("view1", "value1"), states);
+            Assert.assertTrue(restore(serializer, ctx, key3));
+            Assert.assertFalse(restore(serializer, ctx, key2));
+            serializer.removeStates( ((ServerStateSerializer.Owner)ctx.getAttribute(ServerStateSerializer.SESSION_ATTR, Scope.SESSION)).id );
+            Assert.assertEquals(1, dir.listFiles().length);
+        } finally {
+            for (File file : dir.listFiles())
+                file.delete();
+            dir.delete();
+        }
+    }
+
+
+    private static StateHolder makeStates(final String view, final String value) {
+        final StateHolder states = new StateHolder();
+        final ViewStateDescriptor desc = new ViewStateDescriptor("mypkg", view, 1);
+        final Map<String,Object> state = states.ensureStateExists(desc);
+        state.put("param1", value);
+        state.put("param2", view.length());
+        states.setCurrentDescriptor(desc);
+        return states;
+    }
+
+    private static UIContext withSession(final UIContext ctx, final UIContext source) {
+        ctx.getAttributesMap(Scope.SESSION).putAll( source.getAttributesMap(Scope.SESSION) );
+        return ctx;
+    }
+
+    private static boolean restore(final ServerStateSerializer serializer, final UIContext source, final String key) throws Exception {
+        final StateHolder states = new StateHolder();
+        serializer.decodeState(withSession(new BaseMockUIContext(states), source), key);
+        return !states.getViewStates().isEmpty();
+    }
+}
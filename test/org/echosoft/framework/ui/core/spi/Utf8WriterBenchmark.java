@@ -0,0 +1,98 @@
+package org.echosoft.framework.ui.core.spi;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.echosoft.common.io.FastStringWriter;
+import org.echosoft.common.json.JsonContext;
+import org.echosoft.common.json.JsonWriter;
+
+/**
+ * Сравнивает затраты на сериализацию в JSON и отправку клиенту модели типичной страницы двумя способами:
+ * <ol>
+ *  <li> стандартная компактная реализация {@link JsonWriter} в буфер {@link FastStringWriter}, далее - в символьный поток,
+ *       кодирующий символы в UTF-8 (аналог <code>response.getWriter()</code>);
+ *  <li> {@link Utf8JsonWriter} в буфер {@link Utf8Writer}, далее - в байтовый поток через {@link Utf8Writer}.
+ * </ol>
+ * Запуск: <code>java -cp ... org.echosoft.framework.ui.core.spi.Utf8WriterBenchmark [iterations]</code>
+ *
+ * @author Anton Sharapov
+ */
+public class Utf8WriterBenchmark {
+
+    private static final OutputStream NULL = new OutputStream() {
+        public void write(final int b) {
+        }
+        public void write(final byte[] b, final int off, final int len) {
+        }
+    };
+
+    private static final String[][] FIELDS = new String[20][];
+    private static final Object[][] STORE = new Object[100][];
+    static {
+        for (int i=0; i<FIELDS.length; i++) {
+            FIELDS[i] = new String[]{"form.field" + i, "form.field" + i + ".value", "Поле ввода №" + i, "Значение поля с \"кавычками\" " + i};
+        }
+        for (int i=0; i<STORE.length; i++) {
+            STORE[i] = new Object[]{i, "Элемент списка " + i};
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int iterations = args.length>0 ? Integer.parseInt(args[0]) : 20000;
+        final JsonContext compact = new JsonContext();
+        final JsonContext utf8 = new JsonContext();
+        utf8.setWriterFactory( new Utf8JsonWriter.Factory(utf8.getWriterFactory()) );
+        for (int round=0; round<5; round++) {
+            final long t1 = System.nanoTime();
+            for (int i=0; i<iterations; i++) {
+                final FastStringWriter buf = new FastStringWriter(2048);
+                render(compact.makeJsonWriter(buf));
+                final Writer out = new OutputStreamWriter(NULL, "UTF-8");
+                buf.writeOut(out);
+                out.flush();
+            }
+            final long t2 = System.nanoTime();
+            for (int i=0; i<iterations; i++) {
+                final Utf8Writer buf = new Utf8Writer(2048);
+                render(utf8.makeJsonWriter(buf));
+                final Utf8Writer out = new Utf8Writer(NULL);
+                buf.writeOut(out);
+                out.flush();
+            }
+            final long t3 = System.nanoTime();
+            System.out.println("round " + round + ": compact+FastStringWriter " + (t2-t1)/iterations + " ns/op, utf8 " + (t3-t2)/iterations + " ns/op");
+        }
+    }
+
+    private static void render(final JsonWriter jw) throws Exception {
+        jw.beginObject();
+        jw.writeProperty("id", "");
+        jw.writeComplexProperty("items");
+        jw.beginArray();
+        for (String[] field : FIELDS) {
+            jw.beginObject();
+            jw.writeProperty("xtype", "textfield");
+            jw.writeProperty("id", field[0]);
+            jw.writeProperty("name", field[1]);
+            jw.writeProperty("fieldLabel", field[2]);
+            jw.writeProperty("allowBlank", false);
+            jw.writeProperty("width", 200);
+            jw.writeProperty("value", field[3]);
+            jw.endObject();
+        }
+        jw.beginObject();
+        jw.writeProperty("xtype", "combo");
+        jw.writeProperty("mode", "local");
+        jw.writeComplexProperty("store");
+        jw.beginArray();
+        for (Object[] item : STORE) {
+            jw.writeObject(item);
+        }
+        jw.endArray();
+        jw.endObject();
+        jw.endArray();
+        jw.endObject();
+    }
+}
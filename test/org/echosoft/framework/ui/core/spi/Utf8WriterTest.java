@@ -0,0 +1,135 @@
+package org.echosoft.framework.ui.core.spi;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.echosoft.common.io.FastStringWriter;
+import org.echosoft.common.json.JsonContext;
+import org.echosoft.common.json.JsonFieldNameSerializer;
+import org.echosoft.common.json.JsonWriter;
+import org.echosoft.common.json.Serializers;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Anton Sharapov
+ */
+public class Utf8WriterTest {
+
+    @Test
+    public void testEncoding() throws Exception {
+        final Random rnd = new Random(1);
+        final StringBuilder buf = new StringBuilder();
+        for (int i=0; i<50000; i++) {
+            switch (rnd.nextInt(4)) {
+                case 0 : buf.append((char)('a' + rnd.nextInt(26))); break;
+                case 1 : buf.append((char)('А' + rnd.nextInt(64))); break;
+                case 2 : buf.append((char)('一' + rnd.nextInt(1000))); break;
+                default: buf.appendCodePoint(0x1F600 + rnd.nextInt(64));
+            }
+        }
+        final String text = buf.toString();
+        final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        final Utf8Writer out = new Utf8Writer(bout);
+        out.write(text, 0, 1001);           // разрывает суррогатную пару на границе вызовов
+        out.write(text.substring(1001).toCharArray());
+        out.write(new Utf8Writer.Constant("Конец"));
+        out.flush();
+        Assert.assertTrue(Arrays.equals((text + "Конец").getBytes("UTF-8"), bout.toByteArray()));
+
+        final Utf8Writer mem = new Utf8Writer(16);
+        mem.write(text);
+        Assert.assertEquals(text, mem.toString());
+        final FastStringWriter sout = new FastStringWriter();
+        Utf8Writer.write(sout, new Utf8Writer.Constant("<body>"));
+        mem.writeOut(sout);
+        Assert.assertEquals("<body>" + text, sout.toString());
+    }
+
+    @Test
+    public void testJsonWriter() throws Exception {
+        final JsonContext jctx = new JsonContext();
+        jctx.setWriterFactory( new Utf8JsonWriter.Factory(jctx.getWriterFactory()) );
+        final HashMap<String,Object> map = new HashMap<String,Object>();
+        map.put("name", "Значение \"1\"");
+        map.put("items", new int[]{1,2,3});
+        for (int i=0; i<2; i++) {
+            final FastStringWriter expected = new FastStringWriter();
+            final Utf8Writer actual = new Utf8Writer(64);
+            final JsonWriter jw1 = jctx.makeJsonWriter(expected);
+            final JsonWriter jw2 = jctx.makeJsonWriter(actual);
+            Assert.assertFalse(jw1 instanceof Utf8JsonWriter);
+            Assert.assertTrue(jw2 instanceof Utf8JsonWriter);
+            for (JsonWriter jw : new JsonWriter[]{jw1, jw2}) {
+                jw.beginArray();
+                jw.beginObject();
+                jw.writeProperty("xtype", "panel");
+                jw.writeProperty("title", null);
+                jw.writeProperty("map", map);
+                jw.writeComplexProperty("items");
+                jw.beginArray();
+                jw.writeObject(1);
+                jw.writeObject(null);
+                jw.beginObject();
+                jw.writeProperty("new", true);
+                jw.endObject();
+                jw.endArray();
+                jw.endObject();
+                jw.writeObject("text");
+                jw.endArray();
+            }
+            Assert.assertEquals(expected.toString(), actual.toString());
+        }
+    }
+
+    @Test
+    public void testSharedNames() throws Exception {
+        // одна фабрика используется контекстами с разными алгоритмами сериализации имен свойств ...
+        final Utf8JsonWriter.Factory factory = new Utf8JsonWriter.Factory(new JsonContext().getWriterFactory());
+        final JsonContext compact = new JsonContext();
+        compact.setFieldNameSerializer(Serializers.COMPACT_FIELDNAME_SERIALIZER);
+        compact.setWriterFactory(factory);
+        final JsonContext standard = new JsonContext();
+        standard.setFieldNameSerializer(Serializers.STANDARD_FIELD_NAME_SERIALIZER);
+        standard.setWriterFactory(factory);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread[] threads = new Thread[4];
+        for (int t=0; t<threads.length; t++) {
+            final int shift = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i=0; i<2000; i++) {
+                            final JsonContext jctx = (i+shift)%2==0 ? compact : standard;
+                            Assert.assertEquals(render(new JsonContext(), jctx.getFieldNameSerializer()), render(jctx, null));
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get()!=null)
+            throw new AssertionError(failure.get());
+    }
+
+
+    private static String render(final JsonContext jctx, final JsonFieldNameSerializer serializer) throws Exception {
+        if (serializer!=null)
+            jctx.setFieldNameSerializer(serializer);
+        final java.io.Writer out = serializer!=null ? new FastStringWriter() : new Utf8Writer(64);
+        final JsonWriter jw = jctx.makeJsonWriter(out);
+        jw.beginObject();
+        jw.writeProperty("xtype", "panel");
+        jw.writeProperty("items", new int[]{1});
+        jw.endObject();
+        return out.toString();
+    }
+}
@@ -0,0 +1,102 @@
+package org.echosoft.framework.ui.core.spi.generic;
+
+import java.io.File;
+
+import org.echosoft.framework.ui.core.Application;
+import org.echosoft.framework.ui.core.Scope;
+import org.echosoft.framework.ui.core.UIContext;
+import org.echosoft.framework.ui.core.ViewStateDescriptor;
+import org.echosoft.framework.ui.core.mock.MockHttpServletRequest;
+import org.echosoft.framework.ui.core.mock.MockHttpServletResponse;
+import org.echosoft.framework.ui.core.mock.MockServletConfig;
+import org.echosoft.framework.ui.core.spi.Constants;
+import org.echosoft.framework.ui.core.spi.StateSerializer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Anton Sharapov
+ */
+public class ServletUIContextTest {
+
+    private StateSerializer original;
+    private CountingSerializer serializer;
+
+    @Before
+    public void setup() {
+        original = Application.getStateSerializer();
+        serializer = new CountingSerializer();
+        Application.setStateSerializer(serializer);
+    }
+
+    @After
+    public void tearDown() {
+        Application.setStateSerializer(original);
+    }
+
+    @Test
+    public void testLazyStates() throws Exception {
+        // состояния не восстанавливаются до первого обращения к ним ...
+        UIContext uctx = makeContext("valid");
+        uctx.getAttribute("param", Scope.PARAMS);
+        Assert.assertEquals(0, serializer.decoded);
+        Assert.assertEquals("value", uctx.getStates().getCurrentState().get("key"));
+        uctx.getStates();
+        Assert.assertEquals(1, serializer.decoded);
+
+        // ... в том числе через пространство имен Scope.STATE ...
+        uctx = makeContext("valid");
+        Assert.assertEquals(1, serializer.decoded);
+        Assert.assertEquals("value", uctx.getAttribute("key", Scope.STATE));
+        Assert.assertEquals(2, serializer.decoded);
+    }
+
+    @Test
+    public void testCorruptedStates() throws Exception {
+        // поврежденный ключ не мешает обработке запроса, пока к состояниям никто не обращается ...
+        UIContext uctx = makeContext("corrupted");
+        Assert.assertEquals(0, serializer.decoded);
+        try {
+            uctx.getStates();
+            Assert.fail("Corrupted view state must not be restored");
+        } catch (IllegalStateException e) {
+            // ожидаемое исключение
+        }
+        uctx = makeContext("corrupted");
+        try {
+            uctx.getAttribute("key", Scope.STATE);
+            Assert.fail("Corrupted view state must not be restored");
+        } catch (IllegalStateException e) {
+            // ожидаемое исключение
+        }
+        Assert.assertEquals(2, serializer.decoded);
+    }
+
+
+    private static UIContext makeContext(final String encodedState) throws Exception {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("param", "1");
+        request.setParameter(Constants.VIEWSTATE_PARAMNAME, encodedState);
+        return new ServletUIContext(request, new MockHttpServletResponse(), new MockServletConfig(new File("."), "/app", "/page"));
+    }
+
+    /**
+     * Подсчитывает количество попыток восстановления состояний.
+     */
+    private static final class CountingSerializer implements StateSerializer {
+        private int decoded;
+        public String encodeState(final UIContext uctx) throws Exception {
+            return "valid";
+        }
+        public void decodeState(final UIContext uctx, final String encodedState) throws Exception {
+            decoded++;
+            if (!"valid".equals(encodedState))
+                throw new java.io.StreamCorruptedException("Illegal view state: "+encodedState);
+            final ViewStateDescriptor desc = new ViewStateDescriptor("/page", "view", 0);
+            uctx.getStates().ensureStateExists(desc).put("key", "value");
+            uctx.getStates().setCurrentDescriptor(desc);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.echosoft.framework.ui.core.theme;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.echosoft.common.model.Version;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author Anton Sharapov
+ */
+public class JarThemeTest {
+
+    private static final String PATTERN = "Value of field ''{0}'' must be between {1,number,#.##} and {2,number,#.##}";
+    private static final int ITERATIONS = 50000;
+
+    private static File jar;
+    private static JarTheme theme;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        jar = File.createTempFile("webui-theme", ".jar");
+        final JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            write(out, "test/messages.properties", "msg.range="+PATTERN+"\nmsg.plain=plain text\nmsg.illegal=broken {0\n");
+            write(out, "test/params.properties", "global.bundles=false\n");
+            write(out, "test/resources.properties", "");
+            write(out, "test/css/core.css", ".a {background:url(../images/a.gif)} .b {background:url('/img/b.gif')} .c {background:url(\"img/c.gif\")}");
+        } finally {
+            out.close();
+        }
+        theme = new JarTheme("test", Version.parseVersion("1.0"), Locale.ENGLISH, new URL[]{new URL("jar:"+jar.toURI().toURL()+"!/")});
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        jar.delete();
+    }
+
+    @Test
+    public void testMessages() throws Exception {
+        Assert.assertEquals(2, theme.precompileMessages());
+        Assert.assertEquals("plain text", theme.getMessage("msg.plain"));
+        Assert.assertEquals("plain text", theme.getMessage("msg.plain", 1));
+        Assert.assertEquals(PATTERN, theme.getMessage("msg.range"));
+        Assert.assertEquals("Value of field 'age' must be between 1.5 and 99", theme.getMessage("msg.range", "age", 1.5, 99));
+        Assert.assertEquals("Value of field 'size' must be between 0 and 10", theme.getMessage("msg.range", "size", 0, 10));
+        Assert.assertNull(theme.getMessage("msg.unknown", 1));
+    }
+
+    @Test
+    public void testStylesheetsBundle() throws Exception {
+        final ThemeBundle bundle = ThemeBundle.makeStylesheetsBundle(theme, Locale.ENGLISH, "global", new String[]{"/css/core.css"});
+        Assert.assertEquals("/test/en/global."+ThemeBundle.digest(bundle.getContent())+".css", bundle.getPath());
+        final String css = new String(bundle.getContent(), "UTF-8");
+        Assert.assertEquals(".a {background:url(../../../theme/t-test~en/images/a.gif)} .b {background:url('/img/b.gif')} " +
+                ".c {background:url(\"../../../theme/t-test~en/css/img/c.gif\")}\n", css);
+    }
+
+    @Test
+    public void testCloseJars() throws Exception {
+        ThemeBundle.makeStylesheetsBundle(theme, Locale.ENGLISH, "global", new String[]{"/css/core.css"});
+        ThemeIndex.closeAll();
+        // после закрытия .jar файлов ресурсы темы по прежнему доступны ...
+        final ThemeBundle bundle = ThemeBundle.makeStylesheetsBundle(theme, Locale.ENGLISH, "global", new String[]{"/css/core.css"});
+        Assert.assertTrue(bundle.getContent().length>0);
+        ThemeIndex.closeAll();
+    }
+
+    @Test
+    public void testMessagesBenchmark() throws Exception {
+        final Object[] params = {"age", 1.5, 99};
+        final String expected = new MessageFormat(PATTERN, Locale.ENGLISH).format(params);
+        for (int pass=0; pass<3; pass++) {
+            long started = System.nanoTime();
+            for (int i=0; i<ITERATIONS; i++) {
+                if (!expected.equals(new MessageFormat(PATTERN, Locale.ENGLISH).format(params)))
+                    Assert.fail();
+            }
+            final long parsing = System.nanoTime() - started;
+            started = System.nanoTime();
+            for (int i=0; i<ITERATIONS; i++) {
+                if (!expected.equals(theme.getMessage("msg.range", params)))
+                    Assert.fail();
+            }
+            final long cached = System.nanoTime() - started;
+            System.out.println("pass "+pass+": new MessageFormat: "+(parsing/ITERATIONS)+" ns/op, cached MessageFormat: "+(cached/ITERATIONS)+" ns/op");
+        }
+    }
+
+    @Test
+    public void testCorruptedSnapshots() throws Exception {
+        final Version version = Version.parseVersion("1.0");
+        final URL[] urls = {new URL("jar:"+jar.toURI().toURL()+"!/")};
+        final File dir = new File(jar.getPath()+".snapshots");
+        Assert.assertNull(ThemeSnapshot.load("test", version, Locale.ENGLISH, urls));     // снимки по умолчанию не используются
+        System.setProperty("webui.themes.snapshots", dir.getPath());
+        try {
+            new ThemeSnapshot(Collections.singletonMap("key","value"), Collections.<String,String>emptyMap(), Collections.<String,String>emptyMap())
+                    .store("test", version, Locale.ENGLISH, urls);
+            final File file = new File(dir, "test_en.snapshot");
+            final byte[] content = readFile(file);
+            Assert.assertEquals(1, dir.list().length);
+            Assert.assertEquals("value", ThemeSnapshot.load("test", version, Locale.ENGLISH, urls).messages.get("key"));
+
+            // длина строки "value" ...
+            writeFile(file, content, content.length-8-5-4, -1);
+            Assert.assertNull(ThemeSnapshot.load("test", version, Locale.ENGLISH, urls));
+            writeFile(file, content, content.length-8-5-4, Integer.MAX_VALUE);
+            Assert.assertNull(ThemeSnapshot.load("test", version, Locale.ENGLISH, urls));
+            // размер набора resources ...
+            writeFile(file, content, content.length-4, Integer.MAX_VALUE);
+            Assert.assertNull(ThemeSnapshot.load("test", version, Locale.ENGLISH, urls));
+        } finally {
+            System.clearProperty("webui.themes.snapshots");
+            final File[] files = dir.listFiles();
+            if (files!=null) {
+                for (File file : files)
+                    file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+
+    private static byte[] readFile(final File file) throws IOException {
+        final DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            final byte[] result = new byte[(int)file.length()];
+            in.readFully(result);
+            return result;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeFile(final File file, final byte[] content, final int pos, final int value) throws IOException {
+        final byte[] buf = content.clone();
+        buf[pos] = (byte)(value>>>24);
+        buf[pos+1] = (byte)(value>>>16);
+        buf[pos+2] = (byte)(value>>>8);
+        buf[pos+3] = (byte)value;
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(buf);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void write(final JarOutputStream out, final String name, final String content) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(content.getBytes("ISO-8859-1"));
+        out.closeEntry();
+    }
+}
@@ -0,0 +1,53 @@
+package org.echosoft.framework.ui.core.web;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Anton Sharapov
+ */
+public class ResourceCacheTest {
+
+    @Test
+    public void testGlobalBudget() throws Exception {
+        // каждый ресурс больше 1/16 бюджета, но все они вместе помещаются в кэш ...
+        final ResourceCache cache = new ResourceCache(10*1024, 1024);
+        for (int i=0; i<10; i++) {
+            Assert.assertTrue(cache.put("/res"+i, resource(1000)));
+        }
+        Assert.assertEquals(10, cache.getCount());
+        Assert.assertEquals(10000, cache.getSize());
+        Assert.assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        final ResourceCache cache = new ResourceCache(4000, 1000);
+        for (int i=0; i<4; i++) {
+            cache.put("/res"+i, resource(1000));
+        }
+        Assert.assertNotNull(cache.get("/res0"));
+        Assert.assertNotNull(cache.get("/res2"));
+        // вытесняются ресурсы, к которым дольше всего не было обращений, независимо от их сегментов ...
+        cache.put("/res4", resource(1000));
+        cache.put("/res5", resource(1000));
+        Assert.assertEquals(2, cache.getEvictions());
+        Assert.assertEquals(4000, cache.getSize());
+        Assert.assertNull(cache.get("/res1"));
+        Assert.assertNull(cache.get("/res3"));
+        Assert.assertNotNull(cache.get("/res0"));
+        Assert.assertNotNull(cache.get("/res2"));
+        Assert.assertNotNull(cache.get("/res5"));
+
+        // ресурсы больше допустимого размера записи в кэш не помещаются ...
+        Assert.assertFalse(cache.put("/big", resource(1001)));
+        cache.clear();
+        Assert.assertEquals(0, cache.getSize());
+        Assert.assertEquals(0, cache.getCount());
+    }
+
+
+    private static CachedResource resource(final int size) {
+        return new CachedResource(new byte[size], "text/plain");
+    }
+}
@@ -0,0 +1,321 @@
+package org.echosoft.framework.ui.core.web;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.HashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.echosoft.framework.ui.core.mock.MockHttpServletRequest;
+import org.echosoft.framework.ui.core.mock.MockHttpServletResponse;
+import org.echosoft.framework.ui.core.mock.MockServletConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Anton Sharapov
+ */
+public class ResourceServletTest {
+
+    private static final String CSS;
+    static {
+        final StringBuilder buf = new StringBuilder(2048);
+        for (int i=0; i<64; i++) {
+            buf.append(".rule").append(i).append(" {color:red}\n");
+        }
+        CSS = buf.toString();
+    }
+
+    private File rootDir;
+    private ResourceServlet servlet;
+
+    @Before
+    public void setup() throws Exception {
+        rootDir = File.createTempFile("webui-rs", "");
+        rootDir.delete();
+        rootDir.mkdirs();
+        write("/WEB-INF/web.xml", "<web-app/>");
+        write("/META-INF/MANIFEST.MF", "Manifest-Version: 1.0");
+        write("/css/core.css", "body {color:red}");
+        write("/css/all.css", CSS);
+        servlet = new ResourceServlet();
+        servlet.init( new MockServletConfig(rootDir, "/app", "/resource") );
+    }
+
+    @After
+    public void tearDown() {
+        servlet.destroy();
+        delete(rootDir);
+    }
+
+    @Test
+    public void testNormalize() {
+        Assert.assertEquals("/css/core.css", ServletResourceLoader.normalize("/css/core.css"));
+        Assert.assertEquals("/WEB-INF/web.xml", ServletResourceLoader.normalize("//WEB-INF/web.xml"));
+        Assert.assertEquals("/WEB-INF/web.xml", ServletResourceLoader.normalize("/./css/../WEB-INF//web.xml"));
+        Assert.assertEquals("/web-inf/web.xml", ServletResourceLoader.normalize("\\web-inf\\web.xml"));
+        Assert.assertEquals("/", ServletResourceLoader.normalize("/css/.."));
+        Assert.assertNull(ServletResourceLoader.normalize("/../app/WEB-INF/web.xml"));
+
+        Assert.assertTrue(ServletResourceLoader.isProtected("/WEB-INF/web.xml"));
+        Assert.assertTrue(ServletResourceLoader.isProtected("/web-inf/web.xml"));
+        Assert.assertTrue(ServletResourceLoader.isProtected("/Meta-Inf/MANIFEST.MF"));
+        Assert.assertTrue(ServletResourceLoader.isProtected("/WEB-INF. /web.xml"));
+        Assert.assertTrue(ServletResourceLoader.isProtected("/WEB-INF"));
+        Assert.assertFalse(ServletResourceLoader.isProtected("/WEB-INFO/web.xml"));
+        Assert.assertFalse(ServletResourceLoader.isProtected("/css/WEB-INF/web.xml"));
+        Assert.assertFalse(ServletResourceLoader.isProtected("/"));
+    }
+
+    @Test
+    public void testProtectedResources() throws IOException {
+        final ServletResourceLoader loader = new ServletResourceLoader(servlet);
+        final String[] paths = {"/WEB-INF/web.xml", "//WEB-INF/web.xml", "/./WEB-INF/web.xml", "/css/../WEB-INF/web.xml",
+                                "/web-inf/web.xml", "\\WEB-INF\\web.xml", "/META-INF/MANIFEST.MF", "/../WEB-INF/web.xml"};
+        for (String path : paths) {
+            Assert.assertNull("resource "+path+" should not be accessible", loader.open(path, null));
+            Assert.assertNull("resource "+path+" should not be cached", loader.getCacheKey(path, null));
+        }
+        final ResourceStream stream = loader.open("/css/./core.css", null);
+        Assert.assertNotNull(stream);
+        try {
+            Assert.assertEquals("body {color:red}", new String(stream.toBytes(), "UTF-8"));
+        } finally {
+            stream.close();
+        }
+        Assert.assertEquals("/web/css/core.css", loader.getCacheKey("//css/core.css", null));
+    }
+
+    @Test
+    public void testTransformedCacheKey() throws Exception {
+        final HashMap<String,ResourceLoader> storages = new HashMap<String,ResourceLoader>();
+        storages.put("/web", new ServletResourceLoader(servlet));
+        final TransformingResourceLoader loader = new TransformingResourceLoader(storages, ResourceTransformChain.parse(null));
+        Assert.assertEquals("/min/web/css/core.css", loader.getCacheKey("/web/css/core.css", null));
+        Assert.assertNull(loader.getCacheKey("/web/WEB-INF/web.xml", null));
+        Assert.assertNull(loader.getCacheKey("/unknown/css/core.css", null));
+    }
+
+    @Test
+    public void testFileNames() throws Exception {
+        write("/css/a+b c.css", "a {color:red}");
+        final ResourceStream stream = ResourceStream.open(new File(rootDir, "css/a+b c.css").toURI().toURL());
+        Assert.assertNotNull(stream);
+        try {
+            Assert.assertEquals("a {color:red}", new String(stream.toBytes(), "UTF-8"));
+        } finally {
+            stream.close();
+        }
+        Assert.assertEquals(HttpServletResponse.SC_OK, get("/web/css/a+b c.css").getStatus());
+    }
+
+    @Test
+    public void testUnknownLength() throws Exception {
+        final byte[] content = CSS.getBytes("UTF-8");
+        final URL url = new URL(null, "test:/all.css", new URLStreamHandler() {
+            protected URLConnection openConnection(final URL u) {
+                return new URLConnection(u) {
+                    public void connect() {
+                    }
+                    public InputStream getInputStream() {
+                        return new ByteArrayInputStream(content);
+                    }
+                };
+            }
+        });
+        ResourceStream stream = ResourceStream.open(url);
+        try {
+            Assert.assertEquals(-1, stream.getLength());
+            Assert.assertArrayEquals(content, stream.toBytes(content.length));
+        } finally {
+            stream.close();
+        }
+
+        // в память загружается лишь часть содержимого, остальное передается из потока ...
+        stream = ResourceStream.open(url);
+        try {
+            Assert.assertNull(stream.toBytes(content.length-1));
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            stream.writeTo(out, 10, 20);
+            stream.writeTo(out, 30, -1);
+            Assert.assertEquals(CSS.substring(10), new String(out.toByteArray(), "UTF-8"));
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testSingleRange() throws Exception {
+        final MockHttpServletResponse response = get("/web/css/all.css", "Range", "bytes=10-19", "Accept-Encoding", "gzip");
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+        Assert.assertEquals("bytes 10-19/"+CSS.length(), response.getHeader("Content-Range"));
+        Assert.assertEquals("10", response.getHeader("Content-Length"));
+        Assert.assertNull("ranges should be sent without compression", response.getHeader("Content-Encoding"));
+        Assert.assertEquals(CSS.substring(10, 20), new String(response.getContent(), "UTF-8"));
+
+        final MockHttpServletResponse suffix = get("/web/css/all.css", "Range", "bytes=-5");
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, suffix.getStatus());
+        Assert.assertEquals(CSS.substring(CSS.length()-5), new String(suffix.getContent(), "UTF-8"));
+    }
+
+    @Test
+    public void testMultipleRanges() throws Exception {
+        final MockHttpServletResponse response = get("/web/css/all.css", "Range", "bytes=0-4, 100-109");
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+        final String contentType = response.getContentType();
+        Assert.assertTrue(contentType, contentType.startsWith("multipart/byteranges; boundary="));
+        final String boundary = contentType.substring(contentType.indexOf('=')+1);
+        final String body = new String(response.getContent(), "ISO-8859-1");
+        Assert.assertEquals(Integer.toString(body.length()), response.getHeader("Content-Length"));
+        final String expected =
+                "\r\n--" + boundary + "\r\nContent-Type: text/css\r\nContent-Range: bytes 0-4/" + CSS.length() + "\r\n\r\n" + CSS.substring(0, 5) +
+                "\r\n--" + boundary + "\r\nContent-Type: text/css\r\nContent-Range: bytes 100-109/" + CSS.length() + "\r\n\r\n" + CSS.substring(100, 110) +
+                "\r\n--" + boundary + "--\r\n";
+        Assert.assertEquals(expected, body);
+    }
+
+    @Test
+    public void testUnsatisfiableRange() throws Exception {
+        final MockHttpServletResponse response = get("/web/css/all.css", "Range", "bytes="+CSS.length()+"-");
+        Assert.assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatus());
+        Assert.assertEquals("bytes */"+CSS.length(), response.getHeader("Content-Range"));
+        Assert.assertEquals(0, response.getContent().length);
+
+        // некорректный заголовок игнорируется ...
+        final MockHttpServletResponse ignored = get("/web/css/all.css", "Range", "bytes=20-10");
+        Assert.assertEquals(HttpServletResponse.SC_OK, ignored.getStatus());
+        Assert.assertEquals(CSS, new String(ignored.getContent(), "UTF-8"));
+    }
+
+    @Test
+    public void testIfRange() throws Exception {
+        final String etag = get("/web/css/all.css").getHeader("ETag");
+        final MockHttpServletResponse matched = get("/web/css/all.css", "Range", "bytes=0-4", "If-Range", etag);
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, matched.getStatus());
+        final MockHttpServletResponse stale = get("/web/css/all.css", "Range", "bytes=0-4", "If-Range", "\"0123\"");
+        Assert.assertEquals(HttpServletResponse.SC_OK, stale.getStatus());
+        Assert.assertEquals(CSS, new String(stale.getContent(), "UTF-8"));
+    }
+
+    @Test
+    public void testIfNoneMatch() throws Exception {
+        final MockHttpServletResponse first = get("/web/css/all.css");
+        Assert.assertEquals(HttpServletResponse.SC_OK, first.getStatus());
+        final String etag = first.getHeader("ETag");
+        Assert.assertNotNull(etag);
+
+        final MockHttpServletResponse notModified = get("/web/css/all.css", "If-None-Match", "\"0123\", "+etag);
+        Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, notModified.getStatus());
+        Assert.assertEquals(0, notModified.getContent().length);
+        Assert.assertEquals(etag, notModified.getHeader("ETag"));
+
+        final MockHttpServletResponse weak = get("/web/css/all.css", "If-None-Match", "W/"+etag);
+        Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, weak.getStatus());
+
+        // при наличии If-None-Match заголовок If-Modified-Since игнорируется ...
+        final MockHttpServletResponse modified = get("/web/css/all.css", "If-None-Match", "\"0123\"", "If-Modified-Since", first.getHeader("Last-Modified"));
+        Assert.assertEquals(HttpServletResponse.SC_OK, modified.getStatus());
+        Assert.assertEquals(CSS, new String(modified.getContent(), "UTF-8"));
+    }
+
+    @Test
+    public void testIfModifiedSince() throws Exception {
+        final String lastModified = get("/web/css/all.css").getHeader("Last-Modified");
+        Assert.assertNotNull(lastModified);
+        final MockHttpServletResponse notModified = get("/web/css/all.css", "If-Modified-Since", lastModified);
+        Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, notModified.getStatus());
+        Assert.assertEquals(0, notModified.getContent().length);
+
+        final MockHttpServletResponse modified = get("/web/css/all.css", "If-Modified-Since", "Thu, 01 Jan 2009 00:00:00 GMT");
+        Assert.assertEquals(HttpServletResponse.SC_OK, modified.getStatus());
+        Assert.assertEquals(CSS, new String(modified.getContent(), "UTF-8"));
+
+        final MockHttpServletResponse invalid = get("/web/css/all.css", "If-Modified-Since", "yesterday");
+        Assert.assertEquals(HttpServletResponse.SC_OK, invalid.getStatus());
+    }
+
+    @Test
+    public void testEncoding() throws Exception {
+        assertEncoding(null, null);
+        assertEncoding("identity", null);
+        assertEncoding("gzip", "gzip");
+        assertEncoding("x-gzip", "gzip");
+        assertEncoding("deflate", "deflate");
+        assertEncoding("gzip, deflate", "gzip");
+        assertEncoding("deflate, gzip", "gzip");
+        assertEncoding("gzip;q=0.5, deflate", "deflate");
+        assertEncoding("gzip;q=0.8, deflate;q=0.9", "deflate");
+        assertEncoding("gzip;q=0, deflate;q=0", null);
+        assertEncoding("gzip;q=0", null);
+        assertEncoding("gzip;q=abc, deflate;q=0.1", "deflate");
+        assertEncoding("*;q=0.3", "gzip");
+        assertEncoding("deflate;q=0.5, *;q=0.5", "deflate");
+    }
+
+
+    private void assertEncoding(final String acceptEncoding, final String expected) throws Exception {
+        final MockHttpServletResponse response = get("/web/css/all.css", "Accept-Encoding", acceptEncoding);
+        Assert.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        Assert.assertEquals("Accept-Encoding: "+acceptEncoding, expected, response.getHeader("Content-Encoding"));
+        Assert.assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        final byte[] content = response.getContent();
+        Assert.assertEquals(Integer.toString(content.length), response.getHeader("Content-Length"));
+        final InputStream in;
+        if ("gzip".equals(expected)) {
+            in = new GZIPInputStream(new ByteArrayInputStream(content));
+        } else
+        if ("deflate".equals(expected)) {
+            in = new InflaterInputStream(new ByteArrayInputStream(content));
+        } else
+            in = new ByteArrayInputStream(content);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[1024];
+        for (int n=in.read(buf); n>=0; n=in.read(buf)) {
+            out.write(buf, 0, n);
+        }
+        Assert.assertEquals(CSS, new String(out.toByteArray(), "UTF-8"));
+    }
+
+    private MockHttpServletResponse get(final String path, final String... headers) throws IOException {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod("GET");
+        request.setPathInfo(path);
+        for (int i=0; i<headers.length; i+=2) {
+            request.setHeader(headers[i], headers[i+1]);
+        }
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        servlet.service(request, response);
+        return response;
+    }
+
+    private void write(final String path, final String content) throws IOException {
+        final File file = new File(rootDir, path);
+        file.getParentFile().mkdirs();
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+        if (children!=null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,75 @@
+package org.echosoft.framework.ui.extjs;
+
+import org.echosoft.common.io.FastStringWriter;
+import org.echosoft.common.json.JsonContext;
+import org.echosoft.common.json.JsonWriter;
+import org.echosoft.framework.ui.core.Application;
+import org.echosoft.framework.ui.core.BaseMockUIContext;
+import org.echosoft.framework.ui.core.ComponentCache;
+import org.echosoft.framework.ui.core.ComponentContext;
+import org.echosoft.framework.ui.core.UIContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Anton Sharapov
+ */
+public class AbstractComponentTest {
+
+    private static final JsonContext jctx = new JsonContext();
+
+    @Test
+    public void testFrozenItems() throws Exception {
+        final ComponentCache original = Application.getComponentCache();
+        final ComponentCache cache = new ComponentCache(1024*1024);
+        Application.setComponentCache(cache);
+        try {
+            // модель замороженного компонента кэшируется, динамические свойства накладываются на нее при каждом запросе ...
+            Assert.assertEquals("Ext.apply({id:\"panel\",title:\"first\"},{value:\"a\"})", render("page1", "first", "a"));
+            Assert.assertEquals("Ext.apply({id:\"panel\",title:\"first\"},{value:\"b\"})", render("page1", "changed", "b"));
+            Assert.assertEquals("{id:\"panel\",title:\"first\"}", render("page1", "changed", null));
+            Assert.assertEquals(2, cache.getHits());
+
+            // одноименные компоненты разных страниц кэшируются раздельно ...
+            Assert.assertEquals("Ext.apply({id:\"panel\",title:\"second\"},{value:\"c\"})", render("page2", "second", "c"));
+            Assert.assertEquals("{id:\"panel\",title:\"first\"}", render("page1", "second", null));
+            Assert.assertEquals(2, cache.getCount());
+            Assert.assertEquals(3, cache.getHits());
+        } finally {
+            Application.setComponentCache(original);
+        }
+    }
+
+
+    private static String render(final String viewId, final String title, final String value) throws Exception {
+        final UIContext uctx = new BaseMockUIContext();
+        uctx.switchState(viewId, 0);
+        final TestComponent component = new TestComponent(new ComponentContext(uctx).getChild("panel"), title, value);
+        component.setFrozenVersion("1");
+        final FastStringWriter buf = new FastStringWriter(128);
+        final JsonWriter out = jctx.makeJsonWriter(buf);
+        AbstractComponent.invokeItem(component, out);
+        return buf.toString();
+    }
+
+    private static final class TestComponent extends AbstractComponent {
+        private final String title;
+        private final String value;
+        private TestComponent(final ComponentContext ctx, final String title, final String value) {
+            super(ctx);
+            this.title = title;
+            this.value = value;
+        }
+        public void invoke(final JsonWriter out) throws Exception {
+            out.beginObject();
+            out.writeProperty("id", getContext().getClientId());
+            out.writeProperty("title", title);
+            out.endObject();
+        }
+        @Override
+        protected void renderDynamicContent(final JsonWriter out) throws Exception {
+            if (value!=null)
+                out.writeProperty("value", value);
+        }
+    }
+}